@@ -3,9 +3,11 @@
 ///////////////////////////////////////////////////////////////////////////////
 plugins {
     java
+    `java-test-fixtures`
     id("com.diffplug.spotless") version "6.25.0"
     id("org.sonarqube") version "3.1"
     jacoco
+    id("me.champeau.jmh") version "0.7.2"
 }
 buildscript {
     repositories {
@@ -36,6 +38,12 @@ dependencies {
     implementation("org.eclipse.keyple:keyple-util-java-lib:2.4.0")
     implementation("org.slf4j:slf4j-api:1.7.32")
     implementation("com.google.code.gson:gson:2.10.1")
+    testFixturesImplementation("org.eclipse.keypop:keypop-calypso-card-java-api:2.1.0")
+    testFixturesImplementation("org.eclipse.keypop:keypop-calypso-crypto-symmetric-java-api:0.1.1")
+    testFixturesImplementation("org.eclipse.keypop:keypop-calypso-crypto-asymmetric-java-api:0.2.0")
+    testFixturesImplementation("org.eclipse.keypop:keypop-reader-java-api:2.0.1")
+    testFixturesImplementation("org.eclipse.keypop:keypop-card-java-api:2.0.1")
+    jmhImplementation(testFixtures(project))
     testImplementation("org.slf4j:slf4j-simple:1.7.32")
     testImplementation(platform("org.junit:junit-bom:5.10.2"))
     testImplementation("org.junit.jupiter:junit-jupiter")
@@ -53,6 +61,9 @@ java {
     withJavadocJar()
     withSourcesJar()
 }
+jmh {
+    profilers.add("gc")
+}
 
 ///////////////////////////////////////////////////////////////////////////////
 //  TASKS CONFIGURATION
@@ -0,0 +1,114 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.keyple.core.util.BerTlvUtil;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the tree-based {@link BerTlvUtil} parsing with the in-place {@link BerTlvReader} walk on
+ * Calypso selection responses.
+ *
+ * <p>Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BerTlvParsingBenchmark {
+
+  private static final int TAG_DF_NAME = 0x84;
+  private static final int TAG_APPLICATION_SERIAL_NUMBER = 0xC7;
+  private static final int TAG_DISCRETIONARY_DATA = 0x53;
+  private static final int TAG_PROPRIETARY_INFORMATION = 0x85;
+
+  /** Select Application responses (FCI) of Calypso Prime revision 3 cards, including the SW. */
+  @Param({
+    // "1TIC.ICA1", Prime revision 3.1
+    "6F238409315449432E49434131A516BF0C13C708000000001122334453070A3C20051410019000",
+    // "1TIC.ICA1", Prime revision 3.2 (extended mode)
+    "6F238409315449432E49434131A516BF0C13C708000000001122334453070A3C28051410019000",
+    // Tags in a different order, DF invalidated
+    "6F23A516BF0C1353070A3C2005141001C70800000000123456788409315449432E494341316283"
+  })
+  public String fci;
+
+  /** Select File response (proprietary information of an EF), including the SW. */
+  private static final byte[] SELECT_FILE_RESPONSE =
+      HexUtil.toByteArray("85170001000000101000000103010100777879616770003F009000");
+
+  private byte[] fciApdu;
+
+  @Setup
+  public void setUp() {
+    fciApdu = HexUtil.toByteArray(fci);
+  }
+
+  @Benchmark
+  public void fciWithBerTlvUtil(Blackhole blackhole) {
+    Map<Integer, byte[]> tags =
+        BerTlvUtil.parseSimple(Arrays.copyOf(fciApdu, fciApdu.length - 2), true);
+    blackhole.consume(tags.get(TAG_DF_NAME));
+    blackhole.consume(tags.get(TAG_APPLICATION_SERIAL_NUMBER));
+    blackhole.consume(tags.get(TAG_DISCRETIONARY_DATA));
+  }
+
+  @Benchmark
+  public void fciWithBerTlvReader(Blackhole blackhole) {
+    BerTlvReader tlvReader = new BerTlvReader(fciApdu, 0, fciApdu.length - 2);
+    while (tlvReader.next()) {
+      if (tlvReader.isConstructed()) {
+        continue;
+      }
+      switch (tlvReader.getTag()) {
+        case TAG_DF_NAME:
+        case TAG_APPLICATION_SERIAL_NUMBER:
+        case TAG_DISCRETIONARY_DATA:
+          blackhole.consume(tlvReader.copyValue());
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  @Benchmark
+  public byte[] proprietaryInformationWithBerTlvUtil() {
+    return BerTlvUtil.parseSimple(
+            Arrays.copyOf(SELECT_FILE_RESPONSE, SELECT_FILE_RESPONSE.length - 2), true)
+        .get(TAG_PROPRIETARY_INFORMATION);
+  }
+
+  @Benchmark
+  public int proprietaryInformationWithBerTlvReader() {
+    BerTlvReader tlvReader =
+        new BerTlvReader(SELECT_FILE_RESPONSE, 0, SELECT_FILE_RESPONSE.length - 2);
+    return tlvReader.seekPrimitive(TAG_PROPRIETARY_INFORMATION) ? tlvReader.getValueOffset() : -1;
+  }
+}
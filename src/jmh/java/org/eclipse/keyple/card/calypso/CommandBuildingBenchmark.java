@@ -0,0 +1,144 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.card.ApduResponseApi;
+import org.eclipse.keypop.card.CardResponseApi;
+import org.eclipse.keypop.card.CardSelectionResponseApi;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the building of the card commands of a typical validation within a secure session
+ * (reads of the environment, contract and event log records, decrease of a counter, append of an
+ * event) and of the corresponding card request.
+ *
+ * <p>Run with {@code ./gradlew jmh}: the allocation rate per validation is reported by the GC
+ * profiler as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBuildingBenchmark {
+
+  /** Select Application response (FCI) of a Calypso Prime revision 3 card, including the SW. */
+  private static final String SELECT_APPLICATION_RESPONSE =
+      "6F238409315449432E49434131A516BF0C13C708000000001122334453070A3C20051410019000";
+
+  private static final byte[] EVENT = new byte[29];
+
+  private TransactionContextDto transactionContext;
+  private CommandContextDto commandContext;
+
+  @Setup
+  public void setUp() throws Exception {
+    CalypsoCardAdapter card =
+        new CalypsoCardAdapter(
+            new SelectionResponse(HexUtil.toByteArray(SELECT_APPLICATION_RESPONSE)));
+    transactionContext = new TransactionContextDto(card);
+    commandContext = new CommandContextDto(true, false);
+  }
+
+  @Benchmark
+  public CardRequestSpi validation() {
+    List<Command> commands = new ArrayList<>(5);
+    commands.add(readRecord(0x07));
+    commands.add(readRecord(0x09));
+    commands.add(readRecord(0x08));
+    commands.add(
+        new CommandIncreaseOrDecrease(
+            true, transactionContext, commandContext, (byte) 0x19, 1, 100));
+    commands.add(new CommandAppendRecord(transactionContext, commandContext, (byte) 0x08, EVENT));
+    List<ApduRequestSpi> apduRequests = new ArrayList<>(commands.size());
+    for (Command command : commands) {
+      apduRequests.add(command.getApduRequest());
+    }
+    return new CardRequestAdapter(apduRequests, true);
+  }
+
+  private Command readRecord(int sfi) {
+    return new CommandReadRecords(
+        transactionContext,
+        commandContext,
+        sfi,
+        1,
+        CommandReadRecords.ReadMode.ONE_RECORD,
+        29,
+        29);
+  }
+
+  /** Card selection response holding a Select Application response. */
+  private static final class SelectionResponse implements CardSelectionResponseApi {
+
+    private final ApduResponseApi selectApplicationResponse;
+
+    private SelectionResponse(final byte[] apdu) {
+      selectApplicationResponse =
+          new ApduResponseApi() {
+            @Override
+            public byte[] getApdu() {
+              return apdu;
+            }
+
+            @Override
+            public byte[] getDataOut() {
+              return Arrays.copyOf(apdu, apdu.length - 2);
+            }
+
+            @Override
+            public int getStatusWord() {
+              return ((apdu[apdu.length - 2] & 0xFF) << 8) | (apdu[apdu.length - 1] & 0xFF);
+            }
+          };
+    }
+
+    @Override
+    public String getPowerOnData() {
+      return null;
+    }
+
+    @Override
+    public ApduResponseApi getSelectApplicationResponse() {
+      return selectApplicationResponse;
+    }
+
+    @Override
+    public boolean hasMatched() {
+      return true;
+    }
+
+    @Override
+    public CardResponseApi getCardResponse() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keyple.core.util.json.JsonUtil;
+import org.eclipse.keypop.calypso.card.card.ElementaryFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the JSON serialization of a card image holding 10 elementary files of 3 records, and
+ * the serialization and deserialization of one of its files, with the streaming adapters and
+ * through an intermediate JSON tree as the former tree-based adapters did.
+ *
+ * <p>Run with {@code ./gradlew jmh}: the GC profiler gives the allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonAdaptersBenchmark {
+
+  private static final int NB_FILES = 10;
+  private static final int NB_RECORDS = 3;
+  private static final int RECORD_SIZE = 29;
+
+  private Gson gson;
+  private CalypsoCardAdapter card;
+  private ElementaryFile file;
+  private String fileJson;
+
+  @Setup
+  public void setUp() throws Exception {
+    CalypsoExtensionService.getInstance(); // registers the JSON adapters
+    gson = JsonUtil.getParser();
+    card = new CalypsoCardAdapter(null);
+    for (int sfi = 1; sfi <= NB_FILES; sfi++) {
+      card.setFileHeader(
+          (byte) sfi,
+          FileHeaderAdapter.builder()
+              .lid((short) (0x2000 + sfi))
+              .recordsNumber(NB_RECORDS)
+              .recordSize(RECORD_SIZE)
+              .type(ElementaryFile.Type.LINEAR)
+              .accessConditions(HexUtil.toByteArray("10100000"))
+              .keyIndexes(HexUtil.toByteArray("01030101"))
+              .dfStatus((byte) 0x00)
+              .build());
+      for (int numRecord = 1; numRecord <= NB_RECORDS; numRecord++) {
+        byte[] content = new byte[RECORD_SIZE];
+        content[0] = (byte) sfi;
+        content[1] = (byte) numRecord;
+        card.setContent((byte) sfi, numRecord, content);
+      }
+    }
+    file = card.getFileBySfi((byte) 1);
+    fileJson = gson.toJson(file, ElementaryFile.class);
+  }
+
+  @Benchmark
+  public String cardToJson() {
+    return JsonUtil.toJson(card);
+  }
+
+  @Benchmark
+  public String cardToJsonThroughTree() {
+    return gson.toJson(gson.toJsonTree(card));
+  }
+
+  @Benchmark
+  public String fileToJson() {
+    return gson.toJson(file, ElementaryFile.class);
+  }
+
+  @Benchmark
+  public String fileToJsonThroughTree() {
+    return gson.toJson(gson.toJsonTree(file, ElementaryFile.class));
+  }
+
+  @Benchmark
+  public ElementaryFile fileFromJson() {
+    return gson.fromJson(fileJson, ElementaryFile.class);
+  }
+
+  @Benchmark
+  public ElementaryFile fileFromJsonThroughTree() {
+    return gson.fromJson(gson.fromJson(fileJson, JsonObject.class), ElementaryFile.class);
+  }
+}
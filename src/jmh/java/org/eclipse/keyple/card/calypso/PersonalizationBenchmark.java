@@ -0,0 +1,196 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.keyple.card.calypso.crypto.software.SoftwareSymmetricCard;
+import org.eclipse.keyple.card.calypso.crypto.software.SoftwareSymmetricCryptoFactory;
+import org.eclipse.keyple.card.calypso.crypto.software.SymmetricKeyAlgorithm;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.card.WriteAccessLevel;
+import org.eclipse.keypop.calypso.card.transaction.SymmetricCryptoSecuritySetting;
+import org.eclipse.keypop.card.ApduResponseApi;
+import org.eclipse.keypop.card.CardResponseApi;
+import org.eclipse.keypop.card.CardSelectionResponseApi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the personalization of cards by the {@link PersonalizationBatchEngine}: one secure
+ * session updating a record and setting a counter, followed by the change of two keys, on a new
+ * {@link SoftwareSymmetricCard} per invocation.
+ *
+ * <p>The engine and its plans are shared by the threads, each thread being a station with its own
+ * cards: run with {@code ./gradlew jmh} and the JMH option {@code -t} to simulate several readers;
+ * the scores are in cards per minute and exclude the communication time of real readers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersonalizationBenchmark {
+
+  private static final byte[] AID = HexUtil.toByteArray("315449432E49434131");
+  private static final byte ISSUER_KIF = 0x21;
+  private static final byte DEBIT_KIF = 0x30;
+  private static final byte KVC = 0x79;
+  private static final byte NEW_KVC = 0x7A;
+  private static final byte SFI_ENVIRONMENT = 0x07;
+  private static final byte SFI_COUNTERS = 0x19;
+
+  private final AtomicInteger nbStations = new AtomicInteger();
+  private SoftwareSymmetricCryptoFactory factory;
+  private SymmetricCryptoSecuritySetting securitySetting;
+  private PersonalizationBatchEngine engine;
+
+  @Setup
+  public void setUp() {
+    factory =
+        new SoftwareSymmetricCryptoFactory()
+            .addKey(ISSUER_KIF, KVC, SymmetricKeyAlgorithm.AES, new byte[16])
+            .addKey(ISSUER_KIF, NEW_KVC, SymmetricKeyAlgorithm.AES, new byte[16])
+            .addKey(DEBIT_KIF, KVC, SymmetricKeyAlgorithm.AES, new byte[16])
+            .addKey(DEBIT_KIF, NEW_KVC, SymmetricKeyAlgorithm.AES, new byte[16]);
+    securitySetting =
+        CalypsoExtensionService.getInstance()
+            .getCalypsoCardApiFactory()
+            .createSymmetricCryptoSecuritySetting(factory);
+    engine =
+        new PersonalizationBatchEngine(
+            new PersonalizationProfile(WriteAccessLevel.PERSONALIZATION)
+                .updateRecord(SFI_ENVIRONMENT, 1, new byte[29])
+                .setCounter(SFI_COUNTERS, 1, 1000)
+                .changeKey(3, DEBIT_KIF, NEW_KVC, ISSUER_KIF, KVC)
+                .changeKey(1, ISSUER_KIF, NEW_KVC, ISSUER_KIF, KVC));
+  }
+
+  @Benchmark
+  public PersonalizationBatchEngine.Result personalize(Station station) throws Exception {
+    PersonalizationBatchEngine.Result result = engine.personalize(station, station.nextCard());
+    if (!result.isSuccessful()) {
+      throw result.getError();
+    }
+    return result;
+  }
+
+  private SoftwareSymmetricCard createCard(byte[] serialNumber) {
+    return factory
+        .createCard(AID, serialNumber)
+        .setKey(1, ISSUER_KIF, KVC)
+        .setKey(3, DEBIT_KIF, KVC)
+        .setRecord(SFI_ENVIRONMENT, 1, new byte[29])
+        .setRecord(SFI_COUNTERS, 1, new byte[3]);
+  }
+
+  /** Station of a benchmark thread, presenting a new card at each call. */
+  @State(Scope.Thread)
+  public static class Station implements PersonalizationBatchEngine.CardStation {
+
+    private PersonalizationBenchmark benchmark;
+    private String name;
+    private int nbCards;
+
+    @Setup
+    public void setUp(PersonalizationBenchmark benchmark) {
+      this.benchmark = benchmark;
+      name = "Station" + benchmark.nbStations.incrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public Target nextCard() {
+      byte[] serialNumber = new byte[8];
+      serialNumber[0] = (byte) name.hashCode();
+      serialNumber[4] = (byte) (nbCards >> 24);
+      serialNumber[5] = (byte) (nbCards >> 16);
+      serialNumber[6] = (byte) (nbCards >> 8);
+      serialNumber[7] = (byte) nbCards;
+      nbCards++;
+      SoftwareSymmetricCard card = benchmark.createCard(serialNumber).setName(name);
+      CalypsoCardAdapter calypsoCard;
+      try {
+        calypsoCard =
+            new CalypsoCardAdapter(new SelectionResponse(card.getSelectApplicationResponse()));
+      } catch (CardCommandException e) {
+        throw new IllegalStateException(e);
+      }
+      return new Target(
+          calypsoCard,
+          CalypsoExtensionService.getInstance()
+              .getCalypsoCardApiFactory()
+              .createSecureRegularModeTransactionManager(
+                  card, calypsoCard, benchmark.securitySetting));
+    }
+  }
+
+  /** Card selection response holding a Select Application response. */
+  private static final class SelectionResponse implements CardSelectionResponseApi {
+
+    private final ApduResponseApi selectApplicationResponse;
+
+    private SelectionResponse(final byte[] apdu) {
+      selectApplicationResponse =
+          new ApduResponseApi() {
+            @Override
+            public byte[] getApdu() {
+              return apdu;
+            }
+
+            @Override
+            public byte[] getDataOut() {
+              return Arrays.copyOf(apdu, apdu.length - 2);
+            }
+
+            @Override
+            public int getStatusWord() {
+              return ((apdu[apdu.length - 2] & 0xFF) << 8) | (apdu[apdu.length - 1] & 0xFF);
+            }
+          };
+    }
+
+    @Override
+    public String getPowerOnData() {
+      return null;
+    }
+
+    @Override
+    public ApduResponseApi getSelectApplicationResponse() {
+      return selectApplicationResponse;
+    }
+
+    @Override
+    public boolean hasMatched() {
+      return true;
+    }
+
+    @Override
+    public CardResponseApi getCardResponse() {
+      return null;
+    }
+  }
+}
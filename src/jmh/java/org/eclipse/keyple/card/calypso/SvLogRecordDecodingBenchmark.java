@@ -0,0 +1,100 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+import java.util.stream.StreamSupport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the decoding of SV debit log records (sum of the amounts, balances
+ * and SV transaction numbers) with the record adapters and with {@link SvLogRecordDecoder}, either
+ * sequentially or with a parallel stream.
+ *
+ * <p>Run with {@code ./gradlew jmh}: the scores are in records per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SvLogRecordDecodingBenchmark {
+
+  private static final int NB_RECORDS = 1_000_000;
+  private static final int RECORD_LENGTH = CalypsoCardConstant.SV_LOG_FILE_REC_LENGTH;
+
+  private byte[] records;
+  private SvLogRecordDecoder decoder;
+
+  @Setup
+  public void setUp() {
+    records = new byte[NB_RECORDS * RECORD_LENGTH];
+    new Random(0).nextBytes(records);
+    decoder =
+        SvLogRecordDecoder.ofLogFileRecords(
+            ByteBuffer.wrap(records), SvLogRecordDecoder.LogType.DEBIT);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NB_RECORDS)
+  public long adapters() {
+    long sum = 0;
+    for (int i = 0; i < NB_RECORDS; i++) {
+      byte[] rawData = new byte[RECORD_LENGTH];
+      System.arraycopy(records, i * RECORD_LENGTH, rawData, 0, RECORD_LENGTH);
+      SvDebitLogRecordAdapter record = new SvDebitLogRecordAdapter(rawData, 0);
+      sum += record.getAmount() + record.getBalance() + record.getSvTNum();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NB_RECORDS)
+  public long decoder() {
+    long sum = 0;
+    SvLogRecordDecoder.Cursor cursor = decoder.cursor();
+    while (cursor.next()) {
+      sum += cursor.getAmount() + cursor.getBalance() + cursor.getSvTNum();
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NB_RECORDS)
+  public long decoderParallel() {
+    return StreamSupport.stream(decoder.spliterator(), true)
+        .mapToLong(
+            new ToLongFunction<SvLogRecordDecoder.Cursor>() {
+              @Override
+              public long applyAsLong(SvLogRecordDecoder.Cursor cursor) {
+                return cursor.getAmount() + cursor.getBalance() + cursor.getSvTNum();
+              }
+            })
+        .sum();
+  }
+}
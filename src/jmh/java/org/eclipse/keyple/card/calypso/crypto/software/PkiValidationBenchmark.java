@@ -0,0 +1,162 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CaCertificateContentSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CaCertificateParserSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardCertificateParserSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardPublicKeySpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.PcaCertificateSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.transaction.spi.AsymmetricCryptoCardTransactionManagerSpi;
+import org.eclipse.keypop.card.ChannelControl;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the CPU cost of the terminal side of the PKI transactions with the software PKI: check
+ * of the card certificate and verification of a recorded session (Open Secure Session, one Read
+ * Record, one Update Record) signed by a {@link SoftwarePkiCard}.
+ *
+ * <p>The state is per thread: run with {@code ./gradlew jmh} and the JMH option {@code -t} to size
+ * a multi-core validator; the scores are in transactions per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PkiValidationBenchmark {
+
+  private static final String[] SESSION_COMMANDS = {
+    "008A00030900" + "1122334455667788" + "00", "00B2013C00", "00DC013C03AABBCC"
+  };
+
+  private SoftwareAsymmetricCryptoFactory factory;
+  private CaCertificateContentSpi caContent;
+  private byte[] cardCertificate;
+  private CardPublicKeySpi cardPublicKey;
+  private List<byte[]> sessionApdus;
+  private byte[] cardSessionSignature;
+
+  @Setup
+  public void setUp() throws Exception {
+    byte[] pcaKeyReference = new byte[29];
+    pcaKeyReference[28] = 0x01;
+    byte[] caKeyReference = new byte[29];
+    caKeyReference[28] = 0x02;
+    SoftwareCertificateAuthority pca = SoftwareCertificateAuthority.createPca(pcaKeyReference);
+    SoftwareCertificateAuthority ca = pca.issueCa(caKeyReference, null);
+    factory = new SoftwareAsymmetricCryptoFactory();
+    caContent =
+        ((CaCertificateParserSpi) factory.getCaCertificateParser())
+            .parseCertificate(ca.getCertificateBytes())
+            .checkCertificateAndGetContent(
+                ((PcaCertificateSpi) pca.getPcaCertificate()).checkCertificateAndGetContent());
+    SoftwarePkiCard card =
+        ca.issueCard(new byte[] {0, 0, 0, 0, 0x11, 0x22, 0x33, 0x44})
+            .setRecord(7, 1, new byte[29]);
+    cardCertificate = card.getCardCertificateBytes();
+    cardPublicKey = checkCardCertificate();
+    sessionApdus = new ArrayList<>();
+    for (String command : SESSION_COMMANDS) {
+      byte[] apdu = HexUtil.toByteArray(command);
+      sessionApdus.add(apdu);
+      sessionApdus.add(transmit(card, apdu));
+    }
+    byte[] closeResponse = transmit(card, HexUtil.toByteArray("008E000040"));
+    cardSessionSignature = Arrays.copyOf(closeResponse, closeResponse.length - 2);
+  }
+
+  @Benchmark
+  public CardPublicKeySpi cardCertificate() throws Exception {
+    return checkCardCertificate();
+  }
+
+  @Benchmark
+  public boolean session() throws Exception {
+    return verifySession(cardPublicKey);
+  }
+
+  @Benchmark
+  public boolean transaction() throws Exception {
+    return verifySession(checkCardCertificate());
+  }
+
+  private CardPublicKeySpi checkCardCertificate() throws Exception {
+    return ((CardCertificateParserSpi) factory.getCardCertificateParser())
+        .parseCertificate(cardCertificate)
+        .checkCertificateAndGetPublicKey(caContent);
+  }
+
+  private boolean verifySession(CardPublicKeySpi publicKey) throws Exception {
+    AsymmetricCryptoCardTransactionManagerSpi manager = factory.createCardTransactionManager();
+    manager.initTerminalPkiSession(publicKey);
+    for (byte[] apdu : sessionApdus) {
+      manager.updateTerminalPkiSession(apdu);
+    }
+    return manager.isCardPkiSessionValid(cardSessionSignature);
+  }
+
+  private static byte[] transmit(SoftwarePkiCard card, final byte[] apdu) throws Exception {
+    final ApduRequestSpi apduRequest =
+        new ApduRequestSpi() {
+          @Override
+          public byte[] getApdu() {
+            return apdu;
+          }
+
+          @Override
+          public Set<Integer> getSuccessfulStatusWords() {
+            return Collections.singleton(0x9000);
+          }
+
+          @Override
+          public String getInfo() {
+            return null;
+          }
+        };
+    CardRequestSpi cardRequest =
+        new CardRequestSpi() {
+          @Override
+          public List<ApduRequestSpi> getApduRequests() {
+            return Collections.singletonList(apduRequest);
+          }
+
+          @Override
+          public boolean stopOnUnsuccessfulStatusWord() {
+            return true;
+          }
+        };
+    return card.transmitCardRequest(cardRequest, ChannelControl.KEEP_OPEN)
+        .getApduResponses()
+        .get(0)
+        .getApdu();
+  }
+}
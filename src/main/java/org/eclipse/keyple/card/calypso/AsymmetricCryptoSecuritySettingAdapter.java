@@ -11,8 +11,8 @@
  ************************************************************************************** */
 package org.eclipse.keyple.card.calypso;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.keyple.core.util.Assert;
 import org.eclipse.keyple.core.util.HexUtil;
 import org.eclipse.keypop.calypso.card.transaction.AsymmetricCryptoSecuritySetting;
@@ -57,9 +57,13 @@ final class AsymmetricCryptoSecuritySettingAdapter implements AsymmetricCryptoSe
 
   private final AsymmetricCryptoCardTransactionManagerFactorySpi
       cryptoCardTransactionManagerFactorySpi;
-  private final Map<String, CaCertificateContentSpi> caCertificates = new HashMap<>();
-  private final Map<Byte, CaCertificateParserSpi> caCertificateParsers = new HashMap<>();
-  private final Map<Byte, CardCertificateParserSpi> cardCertificateParsers = new HashMap<>();
+  // The stores are concurrent because a single security setting may be shared by several
+  // transaction managers running in parallel on different readers, and the PKI mode transaction
+  // manager registers the CA certificates retrieved from the cards on the fly.
+  private final Map<String, CaCertificateContentSpi> caCertificates = new ConcurrentHashMap<>();
+  private final Map<Byte, CaCertificateParserSpi> caCertificateParsers = new ConcurrentHashMap<>();
+  private final Map<Byte, CardCertificateParserSpi> cardCertificateParsers =
+      new ConcurrentHashMap<>();
 
   /**
    * Constructor.
@@ -108,12 +112,11 @@ public AsymmetricCryptoSecuritySetting addPcaCertificate(PcaCertificate pcaCerti
 
     // Save the certificate content into the store
     String pcaKeyRef = HexUtil.toHex(certificateContent.getPublicKeyReference());
-    if (caCertificates.containsKey(pcaKeyRef)) {
+    if (caCertificates.putIfAbsent(pcaKeyRef, certificateContent) != null) {
       throw new IllegalStateException(
           MSG_A_CERTIFICATE_IS_ALREADY_REGISTERED_FOR_THE_PROVIDED_PUBLIC_KEY_REFERENCE
               + pcaKeyRef);
     }
-    caCertificates.put(pcaKeyRef, certificateContent);
     return this;
   }
 
@@ -124,6 +127,43 @@ public AsymmetricCryptoSecuritySetting addPcaCertificate(PcaCertificate pcaCerti
    */
   @Override
   public AsymmetricCryptoSecuritySetting addCaCertificate(CaCertificate caCertificate) {
+    CaCertificateContentSpi caCertificateContent = checkCaCertificate(caCertificate);
+    String caKeyRef = HexUtil.toHex(caCertificateContent.getPublicKeyReference());
+    if (caCertificates.putIfAbsent(caKeyRef, caCertificateContent) != null) {
+      throw new IllegalStateException(
+          MSG_A_CERTIFICATE_IS_ALREADY_REGISTERED_FOR_THE_PROVIDED_PUBLIC_KEY_REFERENCE + caKeyRef);
+    }
+    return this;
+  }
+
+  /**
+   * Registers the provided CA certificate unless a certificate is already registered for the same
+   * public key reference, which may happen when several transactions sharing this setting retrieve
+   * the same CA certificate from their cards at the same time.
+   *
+   * @param caCertificate The CA certificate.
+   * @return The content of the certificate registered in the store.
+   * @throws InvalidCertificateException If the certificate is invalid.
+   * @throws CryptoException If an error occurs during the check of the certificate.
+   * @since 3.1.6
+   */
+  CaCertificateContentSpi addCaCertificateIfAbsent(CaCertificate caCertificate) {
+    CaCertificateContentSpi caCertificateContent = checkCaCertificate(caCertificate);
+    CaCertificateContentSpi registeredCaCertificateContent =
+        caCertificates.putIfAbsent(
+            HexUtil.toHex(caCertificateContent.getPublicKeyReference()), caCertificateContent);
+    return registeredCaCertificateContent != null
+        ? registeredCaCertificateContent
+        : caCertificateContent;
+  }
+
+  /**
+   * Checks the provided CA certificate using the content of its issuer certificate.
+   *
+   * @param caCertificate The CA certificate.
+   * @return The content of the certificate.
+   */
+  private CaCertificateContentSpi checkCaCertificate(CaCertificate caCertificate) {
 
     Assert.getInstance().notNull(caCertificate, "caCertificate");
     if (!(caCertificate instanceof CaCertificateSpi)) {
@@ -142,25 +182,14 @@ public AsymmetricCryptoSecuritySetting addCaCertificate(CaCertificate caCertific
     }
 
     // Check the CA certificate using the issuer's certificate content
-    CaCertificateContentSpi caCertificateContent;
     try {
-      caCertificateContent =
-          caCertificateSpi.checkCertificateAndGetContent(issuerCertificateContent);
+      return caCertificateSpi.checkCertificateAndGetContent(issuerCertificateContent);
     } catch (CertificateValidationException e) {
       throw new InvalidCertificateException(MSG_INVALID_CERTIFICATE + e.getMessage(), e);
     } catch (AsymmetricCryptoException e) {
       throw new CryptoException(
           MSG_AN_ERROR_OCCURS_DURING_THE_CHECK_OF_THE_CERTIFICATE + e.getMessage(), e);
     }
-
-    // Save the certificate content into the store
-    String caKeyRef = HexUtil.toHex(caCertificateContent.getPublicKeyReference());
-    if (caCertificates.containsKey(caKeyRef)) {
-      throw new IllegalStateException(
-          MSG_A_CERTIFICATE_IS_ALREADY_REGISTERED_FOR_THE_PROVIDED_PUBLIC_KEY_REFERENCE + caKeyRef);
-    }
-    caCertificates.put(caKeyRef, caCertificateContent);
-    return this;
   }
 
   /**
@@ -181,12 +210,11 @@ public AsymmetricCryptoSecuritySetting addCaCertificateParser(
     // Save the parser into the store
     CaCertificateParserSpi caCertificateParserSpi = (CaCertificateParserSpi) caCertificateParser;
     byte certificateType = caCertificateParserSpi.getCertificateType();
-    if (caCertificateParsers.containsKey(certificateType)) {
+    if (caCertificateParsers.putIfAbsent(certificateType, caCertificateParserSpi) != null) {
       throw new IllegalStateException(
           MSG_A_PARSER_IS_ALREADY_REGISTERED_FOR_THE_CERTIFICATE_TYPE
               + HexUtil.toHex(certificateType));
     }
-    this.caCertificateParsers.put(certificateType, caCertificateParserSpi);
     return this;
   }
 
@@ -209,12 +237,11 @@ public AsymmetricCryptoSecuritySetting addCardCertificateParser(
     CardCertificateParserSpi cardCertificateParserSpi =
         (CardCertificateParserSpi) cardCertificateParser;
     byte certificateType = cardCertificateParserSpi.getCertificateType();
-    if (cardCertificateParsers.containsKey(certificateType)) {
+    if (cardCertificateParsers.putIfAbsent(certificateType, cardCertificateParserSpi) != null) {
       throw new IllegalStateException(
           MSG_A_PARSER_IS_ALREADY_REGISTERED_FOR_THE_CERTIFICATE_TYPE
               + HexUtil.toHex(certificateType));
     }
-    this.cardCertificateParsers.put(certificateType, cardCertificateParserSpi);
     return this;
   }
 
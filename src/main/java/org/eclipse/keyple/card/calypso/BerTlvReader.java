@@ -0,0 +1,175 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+/**
+ * Cursor walking a BER-TLV structure in place, without copying any data.
+ *
+ * <p>The structure is walked depth first: the cursor enters each constructed TLV and stops on each
+ * TLV, constructed or primitive. The current TLV is described by its tag (including all its bytes,
+ * e.g. {@code BF0Ch}) and by the offset and length of its value in the walked array.
+ *
+ * <p>Tags of up to 3 bytes and lengths encoded on up to 3 bytes ({@code 82h} form) are supported.
+ *
+ * @since 3.1.6
+ */
+final class BerTlvReader {
+
+  private static final int TAG_CONSTRUCTED_MASK = 0x20;
+  private static final int TAG_NUMBER_MASK = 0x1F;
+  private static final int TAG_SUBSEQUENT_BYTE_FLAG = 0x80;
+  private static final int LENGTH_LONG_FORM_FLAG = 0x80;
+
+  private final byte[] data;
+  private final int start;
+  private final int end;
+  private int position;
+  private int tag;
+  private boolean isConstructed;
+  private int valueOffset;
+  private int valueLength;
+
+  /**
+   * Creates a cursor positioned before the first TLV of the provided range.
+   *
+   * @param data The array containing the BER-TLV structure.
+   * @param offset The offset of the first TLV.
+   * @param length The length of the structure.
+   * @since 3.1.6
+   */
+  BerTlvReader(byte[] data, int offset, int length) {
+    this.data = data;
+    this.start = offset;
+    this.end = offset + length;
+    this.position = offset;
+  }
+
+  /**
+   * Moves the cursor back before the first TLV.
+   *
+   * @since 3.1.6
+   */
+  void reset() {
+    position = start;
+  }
+
+  /**
+   * Moves the cursor to the next TLV, entering the current TLV if it is constructed.
+   *
+   * @return False if the end of the structure is reached.
+   * @throws IllegalArgumentException If the structure is malformed.
+   * @since 3.1.6
+   */
+  boolean next() {
+    if (position >= end) {
+      return false;
+    }
+    int firstByte = data[position++] & 0xFF;
+    int currentTag = firstByte;
+    if ((firstByte & TAG_NUMBER_MASK) == TAG_NUMBER_MASK) {
+      int b;
+      int nbSubsequentBytes = 0;
+      do {
+        if (position >= end || ++nbSubsequentBytes > 2) {
+          throw new IllegalArgumentException("Invalid BER-TLV tag at offset " + (position - 1));
+        }
+        b = data[position++] & 0xFF;
+        currentTag = (currentTag << 8) | b;
+      } while ((b & TAG_SUBSEQUENT_BYTE_FLAG) != 0);
+    }
+    if (position >= end) {
+      throw new IllegalArgumentException("Missing BER-TLV length at offset " + position);
+    }
+    int currentLength = data[position++] & 0xFF;
+    if ((currentLength & LENGTH_LONG_FORM_FLAG) != 0) {
+      int nbLengthBytes = currentLength & ~LENGTH_LONG_FORM_FLAG;
+      if (nbLengthBytes == 0 || nbLengthBytes > 2 || position + nbLengthBytes > end) {
+        throw new IllegalArgumentException("Invalid BER-TLV length at offset " + (position - 1));
+      }
+      currentLength = 0;
+      for (int i = 0; i < nbLengthBytes; i++) {
+        currentLength = (currentLength << 8) | (data[position++] & 0xFF);
+      }
+    }
+    if (position + currentLength > end) {
+      throw new IllegalArgumentException(
+          "BER-TLV value out of bounds at offset " + position + ", length " + currentLength);
+    }
+    tag = currentTag;
+    isConstructed = (firstByte & TAG_CONSTRUCTED_MASK) != 0;
+    valueOffset = position;
+    valueLength = currentLength;
+    if (!isConstructed) {
+      position += currentLength;
+    }
+    return true;
+  }
+
+  /**
+   * Moves the cursor to the next primitive TLV having the provided tag.
+   *
+   * @param tag The tag to search for.
+   * @return False if no such TLV is found before the end of the structure.
+   * @throws IllegalArgumentException If the structure is malformed.
+   * @since 3.1.6
+   */
+  boolean seekPrimitive(int tag) {
+    while (next()) {
+      if (!isConstructed && this.tag == tag) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The tag of the current TLV.
+   * @since 3.1.6
+   */
+  int getTag() {
+    return tag;
+  }
+
+  /**
+   * @return True if the current TLV is constructed.
+   * @since 3.1.6
+   */
+  boolean isConstructed() {
+    return isConstructed;
+  }
+
+  /**
+   * @return The offset of the value of the current TLV in the walked array.
+   * @since 3.1.6
+   */
+  int getValueOffset() {
+    return valueOffset;
+  }
+
+  /**
+   * @return The length of the value of the current TLV.
+   * @since 3.1.6
+   */
+  int getValueLength() {
+    return valueLength;
+  }
+
+  /**
+   * @return A copy of the value of the current TLV.
+   * @since 3.1.6
+   */
+  byte[] copyValue() {
+    byte[] value = new byte[valueLength];
+    System.arraycopy(data, valueOffset, value, 0, valueLength);
+    return value;
+  }
+}
@@ -0,0 +1,191 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges "Update Binary" and "Write Binary" operations targeting binary EFs into the minimal set of
+ * byte ranges, file by file.
+ *
+ * <p>Each byte of a file is either untouched, updated with a value ("Update Binary", last write
+ * wins) or combined with a value using a binary OR operation ("Write Binary"). A write applied to
+ * an updated byte gives an updated byte whose value is the OR of both values, since the resulting
+ * content is known. A write applied to an untouched byte remains a write since the card content is
+ * not known.
+ *
+ * <p>The merged ranges are the maximal runs of contiguous bytes having the same kind of operation,
+ * split according to the payload capacity of the card.
+ *
+ * <p>The files must be designated by their SFI, the current EF (SFI 0) is not supported since it
+ * depends on the order of the operations.
+ *
+ * @since 3.1.6
+ */
+final class BinaryUpdateCoalescer {
+
+  private static final byte UNTOUCHED = 0;
+  private static final byte UPDATED = 1;
+  private static final byte WRITTEN = 2;
+
+  private final Map<Byte, FileOperations> fileOperations = new LinkedHashMap<>();
+
+  /**
+   * Adds an operation.
+   *
+   * @param sfi The SFI of the binary EF.
+   * @param isUpdate True for an "Update Binary", false for a "Write Binary".
+   * @param offset The offset of the first byte.
+   * @param data The data.
+   * @since 3.1.6
+   */
+  void add(byte sfi, boolean isUpdate, int offset, byte[] data) {
+    FileOperations operations = fileOperations.remove(sfi);
+    if (operations == null) {
+      operations = new FileOperations(offset);
+    }
+    fileOperations.put(sfi, operations); // keeps the last operated file at the end
+    operations.add(isUpdate, offset, data);
+  }
+
+  /**
+   * Returns the merged operations, file by file in the order of their last operation, and by
+   * increasing offset within each file. The last operated file thus remains the current EF.
+   *
+   * @param payloadCapacity The maximum length of the data of an operation.
+   * @return A not empty list.
+   * @since 3.1.6
+   */
+  List<Operation> getOperations(int payloadCapacity) {
+    List<Operation> operations = new ArrayList<>();
+    for (Map.Entry<Byte, FileOperations> entry : fileOperations.entrySet()) {
+      entry.getValue().collect(entry.getKey(), payloadCapacity, operations);
+    }
+    return operations;
+  }
+
+  /**
+   * A merged "Update/Write Binary" operation.
+   *
+   * @since 3.1.6
+   */
+  static final class Operation {
+
+    private final byte sfi;
+    private final boolean isUpdate;
+    private final int offset;
+    private final byte[] data;
+
+    private Operation(byte sfi, boolean isUpdate, int offset, byte[] data) {
+      this.sfi = sfi;
+      this.isUpdate = isUpdate;
+      this.offset = offset;
+      this.data = data;
+    }
+
+    /**
+     * @return The SFI of the binary EF.
+     * @since 3.1.6
+     */
+    byte getSfi() {
+      return sfi;
+    }
+
+    /**
+     * @return True for an "Update Binary", false for a "Write Binary".
+     * @since 3.1.6
+     */
+    boolean isUpdate() {
+      return isUpdate;
+    }
+
+    /**
+     * @return The offset of the first byte.
+     * @since 3.1.6
+     */
+    int getOffset() {
+      return offset;
+    }
+
+    /**
+     * @return The data.
+     * @since 3.1.6
+     */
+    byte[] getData() {
+      return data;
+    }
+  }
+
+  /** The operations on a single file, stored as a window of bytes starting at {@code base}. */
+  private static final class FileOperations {
+
+    private int base;
+    private byte[] values = new byte[0];
+    private byte[] kinds = new byte[0];
+
+    private FileOperations(int base) {
+      this.base = base;
+    }
+
+    private void add(boolean isUpdate, int offset, byte[] data) {
+      ensureWindow(offset, offset + data.length);
+      for (int i = 0; i < data.length; i++) {
+        int index = offset - base + i;
+        if (isUpdate) {
+          values[index] = data[i];
+          kinds[index] = UPDATED;
+        } else {
+          values[index] |= data[i];
+          if (kinds[index] == UNTOUCHED) {
+            kinds[index] = WRITTEN;
+          }
+        }
+      }
+    }
+
+    private void ensureWindow(int from, int to) {
+      int newBase = Math.min(base, from);
+      int newEnd = Math.max(base + values.length, to);
+      if (newBase == base && newEnd == base + values.length) {
+        return;
+      }
+      byte[] newValues = new byte[newEnd - newBase];
+      byte[] newKinds = new byte[newEnd - newBase];
+      System.arraycopy(values, 0, newValues, base - newBase, values.length);
+      System.arraycopy(kinds, 0, newKinds, base - newBase, kinds.length);
+      base = newBase;
+      values = newValues;
+      kinds = newKinds;
+    }
+
+    private void collect(byte sfi, int payloadCapacity, List<Operation> operations) {
+      int i = 0;
+      while (i < kinds.length) {
+        byte kind = kinds[i];
+        int end = i + 1;
+        while (end < kinds.length && kinds[end] == kind && end - i < payloadCapacity) {
+          end++;
+        }
+        if (kind != UNTOUCHED) {
+          operations.add(
+              new Operation(
+                  sfi, kind == UPDATED, base + i, Arrays.copyOfRange(values, i, end)));
+        }
+        i = end;
+      }
+    }
+  }
+}
@@ -13,9 +13,11 @@
 
 import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.keyple.core.util.Assert;
 import org.eclipse.keyple.core.util.ByteArrayUtil;
 import org.eclipse.keyple.core.util.HexUtil;
 import org.eclipse.keyple.core.util.json.JsonUtil;
@@ -111,31 +113,14 @@ final class CalypsoCardAdapter implements CalypsoCard, SmartCardSpi {
   private boolean isLegacyCase1;
   private WriteAccessLevel preOpenWriteAccessLevel;
   private byte[] preOpenDataOut;
-
-  private static final List<PatchRev3> patchesRev3 = new ArrayList<>();
-  private static final List<PatchRev12> patchesRev12 = new ArrayList<>();
-
-  static {
-    // Patches for revision 3:
-    // XX 3C XX XX XX 10 XX
-    patchesRev3.add(new PatchRev3("003C0000001000", "00FF000000FF00").setPayloadCapacity(235));
-
-    // Patches for revision 1 & 2:
-    // 06 XX 01 03 XX XX XX
-    patchesRev12.add(new PatchRev12("06000103000000", "FF00FFFF000000").setCounterValuePostponed());
-    // 06 0A 01 02 XX XX XX
-    patchesRev12.add(new PatchRev12("060A0102000000", "FFFFFFFF000000").setCounterValuePostponed());
-    // XX XX 0X XX 15 XX XX
-    patchesRev12.add(new PatchRev12("00000000150000", "0000F000FF0000").setCounterValuePostponed());
-    // XX XX 1X XX 15 XX XX
-    patchesRev12.add(new PatchRev12("00001000150000", "0000F000FF0000").setCounterValuePostponed());
-    // 0A 0A 01 02 20 03 11: PACA Card
-    patchesRev12.add(new PatchRev12("0A0A0102200311", "FFFFFFFFFFFFFF").setCounterValuePostponed());
-    // 0A 2E 13 02 00 01 01: OURA Card
-    patchesRev12.add(new PatchRev12("0A2E1302000101", "FFFFFFFFFFFFFF").setCounterValuePostponed());
-    // 03 08 03 04 00 02 00: targets ASK Tango having this startup info values
-    patchesRev12.add(new PatchRev12("03080304000200", "FFFFFFFFFFFFFF").setLegacyCase1());
-  }
+  private transient boolean isDenyListed; // NOSONAR
+  private transient boolean isDenyListInvalidationRequested; // NOSONAR
+  private transient List<SelectionPrefetchAdvisor.ReadItem> prefetchedReads; // NOSONAR
+  private transient long nbModifications; // NOSONAR
+  private transient long svModification; // NOSONAR
+  private transient long svModificationBackup; // NOSONAR
+  private transient Map<String, Long> checkpoints; // NOSONAR
+  private transient volatile CardImageSnapshot lastSnapshot; // NOSONAR
 
   /**
    * Constructor.
@@ -202,7 +187,7 @@ private void initializeWithPowerOnData(String powerOnData) {
   private void initializeWithFci(ApduResponseApi selectApplicationResponse)
       throws CardCommandException {
     this.selectApplicationResponse = selectApplicationResponse;
-    if (selectApplicationResponse.getDataOut().length == 0) {
+    if (selectApplicationResponse.getApdu().length <= 2) {
       // No FCI provided. May be filled later with a Get Data response.
       return;
     }
@@ -301,22 +286,26 @@ void initializeWithFci(CommandGetDataFci cmdCardGetDataFci) {
    * them and applies the necessary modifications.
    */
   private void applyPatchIfNeeded() {
-    long startupInfoLong = ByteArrayUtil.extractLong(startupInfo, 0, startupInfo.length, false);
-    if (productType == ProductType.PRIME_REVISION_3) {
-      applyPatchIfNeededForRevision(patchesRev3, startupInfoLong);
-    } else if (productType == ProductType.PRIME_REVISION_2
+    if (productType == ProductType.PRIME_REVISION_2
         || productType == ProductType.PRIME_REVISION_1) {
       payloadCapacity = 128;
-      applyPatchIfNeededForRevision(patchesRev12, startupInfoLong);
     }
-  }
-
-  private void applyPatchIfNeededForRevision(List<? extends Patch> patches, long startupInfoLong) {
-    for (Patch patch : patches) {
-      if (patch.isApplicableTo(startupInfoLong)) {
-        patch.apply(this);
-        return;
-      }
+    CardProfileRegistry.Profile profile =
+        CardProfileRegistry.getInstance()
+            .findProfile(
+                productType,
+                ByteArrayUtil.extractLong(startupInfo, 0, startupInfo.length, false));
+    if (profile == null) {
+      return;
+    }
+    if (profile.getPayloadCapacity() != null) {
+      payloadCapacity = profile.getPayloadCapacity();
+    }
+    if (profile.isCounterValuePostponed() != null) {
+      isCounterValuePostponed = profile.isCounterValuePostponed();
+    }
+    if (profile.isLegacyCase1() != null) {
+      isLegacyCase1 = profile.isLegacyCase1();
     }
   }
 
@@ -664,6 +653,14 @@ void setSvData(byte svKvc, byte[] svGetHeader, byte[] svGetData, int svBalance,
     this.svLastTNum = svLastTNum;
   }
 
+  /**
+   * @return true if the SV balance and the SV transaction number are known.
+   * @since 3.1.6
+   */
+  boolean isSvDataKnown() {
+    return svBalance != null;
+  }
+
   /**
    * Updates the Stored Value data from the SV Get command
    *
@@ -674,6 +671,7 @@ void setSvData(byte svKvc, byte[] svGetHeader, byte[] svGetData, int svBalance,
   void updateSvData(int svBalance, int svLastTNum) {
     this.svBalance = svBalance;
     this.svLastTNum = svLastTNum;
+    svModification = ++nbModifications;
   }
 
   /**
@@ -956,6 +954,21 @@ void setContent(byte sfi, int numRecord, byte[] content) {
     ef.getData().setContent(numRecord, content);
   }
 
+  /**
+   * Sets or replaces the entire content of the specified record #numRecord of the current selected
+   * file by the full record content returned by the card, and marks it as completely known.<br>
+   * If EF does not exist, then it is created.
+   *
+   * @param sfi the SFI.
+   * @param numRecord the record number (should be {@code >=} 1).
+   * @param content the full record content (should be not empty).
+   * @since 3.1.6
+   */
+  void setCompleteContent(byte sfi, int numRecord, byte[] content) {
+    ElementaryFileAdapter ef = getOrCreateFile(sfi, (short) 0);
+    ef.getData().setCompleteContent(numRecord, content);
+  }
+
   /**
    * Sets a counter value in record #1 of the current selected file.<br>
    * If EF does not exist, then it is created.
@@ -1031,6 +1044,7 @@ void backupFiles() {
     copyFiles(files, filesBackup);
     svBalanceBackup = svBalance;
     svLastTNumBackup = svLastTNum;
+    svModificationBackup = svModification;
   }
 
   /**
@@ -1044,6 +1058,10 @@ void restoreFiles() {
     copyFiles(filesBackup, files);
     svBalance = svBalanceBackup;
     svLastTNum = svLastTNumBackup;
+    svModification = svModificationBackup;
+    if (lastSnapshot != null) {
+      snapshot();
+    }
   }
 
   /**
@@ -1257,11 +1275,261 @@ boolean isCounterValuePostponed() {
     return isCounterValuePostponed;
   }
 
+  /**
+   * Indicates if the application serial number of the card was found in the deny list provided to
+   * the card selection extension.
+   *
+   * @return true if the card is deny listed.
+   * @since 3.1.6
+   */
+  boolean isDenyListed() {
+    return isDenyListed;
+  }
+
+  /**
+   * Indicates if an "Invalidate" command must be automatically prepared before the closing of the
+   * next secure session because the card is deny listed and not yet invalidated.
+   *
+   * @return true if the invalidation is pending.
+   * @since 3.1.6
+   */
+  boolean isDenyListInvalidationPending() {
+    return isDenyListInvalidationRequested && !isDfInvalidated;
+  }
+
+  /**
+   * Flags the card as deny listed.
+   *
+   * @param isInvalidationRequested true if the card must be automatically invalidated before the
+   *     closing of the next secure session.
+   * @since 3.1.6
+   */
+  void setDenyListed(boolean isInvalidationRequested) {
+    this.isDenyListed = true;
+    this.isDenyListInvalidationRequested = isInvalidationRequested;
+  }
+
+  /**
+   * Sets the reads added to the card selection request by a {@link SelectionPrefetchAdvisor}.
+   *
+   * @param prefetchedReads The prefetched reads.
+   * @since 3.1.6
+   */
+  void setPrefetchedReads(List<SelectionPrefetchAdvisor.ReadItem> prefetchedReads) {
+    this.prefetchedReads = prefetchedReads;
+  }
+
+  /**
+   * @return The reads added to the card selection request by a {@link SelectionPrefetchAdvisor},
+   *     an empty list if none.
+   * @since 3.1.6
+   */
+  List<SelectionPrefetchAdvisor.ReadItem> getPrefetchedReads() {
+    return prefetchedReads != null
+        ? prefetchedReads
+        : Collections.<SelectionPrefetchAdvisor.ReadItem>emptyList();
+  }
+
+  /**
+   * @return The transaction counter, null if no session has been opened.
+   * @since 3.1.6
+   */
+  Integer getTransactionCounterIfKnown() {
+    return transactionCounter;
+  }
+
+  /**
+   * Marks the specified record of the current selected file as modified in the card.
+   *
+   * @param sfi the SFI.
+   * @param numRecord the record number (should be {@code >=} 1).
+   * @see #getDelta(String)
+   * @since 3.1.6
+   */
+  void markRecordModified(byte sfi, int numRecord) {
+    getOrCreateFile(sfi, (short) 0).getData().markRecordModified(numRecord, ++nbModifications);
+  }
+
+  /**
+   * Marks the specified counter of the current selected file as modified in the card.
+   *
+   * @param sfi the SFI.
+   * @param numCounter the counter number (should be {@code >=} 1).
+   * @see #getDelta(String)
+   * @since 3.1.6
+   */
+  void markCounterModified(byte sfi, int numCounter) {
+    getOrCreateFile(sfi, (short) 0).getData().markCounterModified(numCounter, ++nbModifications);
+  }
+
+  /**
+   * Marks the record #1 of the current selected file as appended in the card.
+   *
+   * @param sfi the SFI.
+   * @see #getDelta(String)
+   * @since 3.1.6
+   */
+  void markRecordAppended(byte sfi) {
+    getOrCreateFile(sfi, (short) 0).getData().markRecordAppended(++nbModifications);
+  }
+
+  /**
+   * Sets a named checkpoint, replacing any checkpoint having the same name.
+   *
+   * @param name the name of the checkpoint.
+   * @see #getDelta(String)
+   * @since 3.1.6
+   */
+  void setCheckpoint(String name) {
+    Assert.getInstance().notEmpty(name, "name");
+    if (checkpoints == null) {
+      checkpoints = new HashMap<>();
+    }
+    checkpoints.put(name, nbModifications);
+  }
+
+  /**
+   * Gets the changes made to the card since its selection or since a named checkpoint.
+   *
+   * <p>The changes are those made by the successful modification commands (record and binary
+   * updates, appends, counter changes and SV operations). Those of a secure session that has been
+   * aborted or whose closing has failed are discarded along with the restored files.
+   *
+   * @param checkpointName the name of the checkpoint, null for the changes since the selection.
+   * @return A not null reference.
+   * @throws IllegalArgumentException If the checkpoint is unknown.
+   * @since 3.1.6
+   */
+  CardImageDelta getDelta(String checkpointName) {
+    long from = 0;
+    if (checkpointName != null) {
+      Long checkpoint = checkpoints != null ? checkpoints.get(checkpointName) : null;
+      if (checkpoint == null) {
+        throw new IllegalArgumentException("Unknown checkpoint: " + checkpointName);
+      }
+      from = checkpoint;
+    }
+    List<CardImageDelta.FileDelta> fileDeltas = new ArrayList<>();
+    for (ElementaryFile file : getFilesSortedBySfi()) {
+      FileDataAdapter data = ((ElementaryFileAdapter) file).getData();
+      int nbAppendedRecords = data.getNbRecordsAppendedAfter(from);
+      SortedMap<Integer, String> records = new TreeMap<>();
+      for (int numRecord : data.getRecordsModifiedAfter(from)) {
+        records.put(numRecord, HexUtil.toHex(data.getContent(numRecord)));
+      }
+      SortedMap<Integer, Integer> counters = new TreeMap<>();
+      for (int numCounter : data.getCountersModifiedAfter(from)) {
+        counters.put(numCounter, data.getContentAsCounterValue(numCounter));
+      }
+      if (nbAppendedRecords != 0 || !records.isEmpty() || !counters.isEmpty()) {
+        fileDeltas.add(
+            new CardImageDelta.FileDelta(
+                file.getSfi() & 0xFF, nbAppendedRecords, records, counters));
+      }
+    }
+    boolean isSvModified = svModification > from;
+    return new CardImageDelta(
+        calypsoSerialNumber != null ? HexUtil.toHex(getApplicationSerialNumber()) : null,
+        checkpointName,
+        fileDeltas,
+        isSvModified ? svBalance : null,
+        isSvModified ? svLastTNum : null);
+  }
+
+  /**
+   * Takes an immutable snapshot of the card image, which becomes the last snapshot.
+   *
+   * <p>This method must be called by the thread modifying the card image (e.g. between two
+   * transactions, or by the transaction manager after each exchange). The snapshot can then be read
+   * by any thread without synchronization.
+   *
+   * <p>The snapshot only references the record arrays of the card image, which are never modified
+   * in place, and keeps a copy of the EF headers. The views of the EFs not modified since the last
+   * snapshot are reused, and the last snapshot itself is returned if nothing has changed.
+   *
+   * @return A not null reference.
+   * @see #getLastSnapshot()
+   * @since 3.1.6
+   */
+  CardImageSnapshot snapshot() {
+    CardImageSnapshot previous = lastSnapshot;
+    Map<SortedMap<Integer, byte[]>, CardImageSnapshot.FileSnapshot> previousFiles =
+        new IdentityHashMap<>();
+    if (previous != null) {
+      for (CardImageSnapshot.FileSnapshot file : previous.getFiles()) {
+        previousFiles.put(file.getRecords(), file);
+      }
+    }
+    List<ElementaryFile> sortedFiles = getFilesSortedBySfi();
+    List<CardImageSnapshot.FileSnapshot> fileSnapshots = new ArrayList<>(sortedFiles.size());
+    boolean isChanged = previous == null || previous.getFiles().size() != sortedFiles.size();
+    for (ElementaryFile file : sortedFiles) {
+      ElementaryFileAdapter ef = (ElementaryFileAdapter) file;
+      SortedMap<Integer, byte[]> records = ef.getData().getRecordsSnapshot();
+      FileHeaderAdapter header = ef.getHeader();
+      CardImageSnapshot.FileSnapshot fileSnapshot = previousFiles.get(records);
+      if (fileSnapshot == null
+          || fileSnapshot.getSfi() != file.getSfi()
+          || !fileSnapshot.isSameHeader(header)) {
+        fileSnapshot =
+            new CardImageSnapshot.FileSnapshot(
+                file.getSfi(), header != null ? new FileHeaderAdapter(header) : null, records);
+        isChanged = true;
+      }
+      fileSnapshots.add(fileSnapshot);
+    }
+    if (!isChanged
+        && Objects.equals(previous.getTransactionCounter(), transactionCounter)
+        && Objects.equals(previous.getSvBalance(), svBalance)
+        && previous.getSvLastTNum() == svLastTNum) {
+      return previous;
+    }
+    CardImageSnapshot snapshot =
+        new CardImageSnapshot(
+            previous != null ? previous.getSequenceNumber() + 1 : 0,
+            calypsoSerialNumber != null ? getApplicationSerialNumber() : null,
+            transactionCounter,
+            svBalance,
+            svLastTNum,
+            Collections.unmodifiableList(fileSnapshots));
+    lastSnapshot = snapshot;
+    return snapshot;
+  }
+
+  /**
+   * Gets the last snapshot taken of the card image.
+   *
+   * <p>This method can be called by any thread.
+   *
+   * @return Null if no snapshot has been taken.
+   * @see #snapshot()
+   * @since 3.1.6
+   */
+  CardImageSnapshot getLastSnapshot() {
+    return lastSnapshot;
+  }
+
+  /**
+   * @return A new list of the EFs of the card image, in ascending SFI order.
+   */
+  private List<ElementaryFile> getFilesSortedBySfi() {
+    List<ElementaryFile> sortedFiles = new ArrayList<>(files);
+    Collections.sort(
+        sortedFiles,
+        new Comparator<ElementaryFile>() {
+          @Override
+          public int compare(ElementaryFile o1, ElementaryFile o2) {
+            return Integer.compare(o1.getSfi() & 0xFF, o2.getSfi() & 0xFF);
+          }
+        });
+    return sortedFiles;
+  }
+
   /**
    * Indicates if the card is of a type corresponding to the specific case 1.
    *
    * @return true if the card corresponds to the specific case 1, false otherwise.
-   * @see #patchesRev12
+   * @see CardProfileRegistry
    * @since 2.3.5
    */
   boolean isLegacyCase1() {
@@ -1296,6 +1564,136 @@ CalypsoCardAdapter setPreOpenDataOut(byte[] preOpenDataOut) {
     return this;
   }
 
+  /**
+   * Writes the card image using the binary format of {@link CalypsoCardBinaryCodec}.
+   *
+   * <p>The card public key provided by the crypto extension is not encoded: it is retrieved again
+   * from the card certificate when needed.
+   *
+   * @param encoder The encoder.
+   * @throws IOException If the underlying stream fails.
+   * @since 3.1.6
+   */
+  void writeTo(CalypsoCardBinaryCodec.Encoder encoder) throws IOException {
+    int flags = 0;
+    flags |= isExtendedModeSupported ? 0x001 : 0;
+    flags |= isRatificationOnDeselectSupported ? 0x002 : 0;
+    flags |= isSvFeatureAvailable ? 0x004 : 0;
+    flags |= isPinFeatureAvailable ? 0x008 : 0;
+    flags |= isPkiModeSupported ? 0x010 : 0;
+    flags |= isDfInvalidated ? 0x020 : 0;
+    flags |= isModificationCounterInBytes ? 0x040 : 0;
+    flags |= isHce ? 0x080 : 0;
+    flags |= isCounterValuePostponed ? 0x100 : 0;
+    flags |= isLegacyCase1 ? 0x200 : 0;
+    encoder.writeUnsignedVarInt(flags);
+    // Selection data
+    encoder.writeApduResponse(selectApplicationResponse);
+    encoder.writeString(powerOnData);
+    encoder.writeEnum(calypsoCardClass);
+    encoder.writeBytes(calypsoSerialNumber);
+    encoder.writeBytes(startupInfo);
+    encoder.writeEnum(productType);
+    encoder.writeBytes(dfName);
+    encoder.writeByte(applicationType);
+    encoder.writeByte(applicationSubType);
+    encoder.writeByte(sessionModification);
+    encoder.writeUnsignedVarInt(modificationsCounterMax);
+    encoder.writeUnsignedVarInt(payloadCapacity);
+    // Files
+    encoder.writeDirectoryHeader(directoryHeader);
+    encoder.writeUnsignedVarInt(encoder.writeFiles(files, currentEf) + 1);
+    encoder.writeFiles(filesBackup, null);
+    // Counters and session data
+    encoder.writeNullableBoolean(isDfRatified);
+    encoder.writeNullableVarInt(transactionCounter);
+    encoder.writeNullableVarInt(pinAttemptCounter);
+    encoder.writeBytes(challenge);
+    encoder.writeBytes(traceabilityInformation);
+    encoder.writeEnum(preOpenWriteAccessLevel);
+    encoder.writeBytes(preOpenDataOut);
+    // SV data
+    encoder.writeNullableVarInt(svBalance);
+    encoder.writeVarInt(svLastTNum);
+    encoder.writeNullableVarInt(svBalanceBackup);
+    encoder.writeVarInt(svLastTNumBackup);
+    encoder.writeByte(svKvc);
+    encoder.writeBytes(svGetHeader);
+    encoder.writeBytes(svGetData);
+    encoder.writeBytes(svOperationSignature);
+    // PKI data
+    encoder.writeBytes(cardPublicKey);
+    encoder.writeByteBuffer(cardCertificate);
+    encoder.writeByteBuffer(caCertificate);
+  }
+
+  /**
+   * Reads the card image written by {@link #writeTo(CalypsoCardBinaryCodec.Encoder)}.
+   *
+   * @param decoder The decoder.
+   * @throws IOException If the underlying stream fails.
+   * @since 3.1.6
+   */
+  void readFrom(CalypsoCardBinaryCodec.Decoder decoder) throws IOException {
+    int flags = decoder.readUnsignedVarInt();
+    isExtendedModeSupported = (flags & 0x001) != 0;
+    isRatificationOnDeselectSupported = (flags & 0x002) != 0;
+    isSvFeatureAvailable = (flags & 0x004) != 0;
+    isPinFeatureAvailable = (flags & 0x008) != 0;
+    isPkiModeSupported = (flags & 0x010) != 0;
+    isDfInvalidated = (flags & 0x020) != 0;
+    isModificationCounterInBytes = (flags & 0x040) != 0;
+    isHce = (flags & 0x080) != 0;
+    isCounterValuePostponed = (flags & 0x100) != 0;
+    isLegacyCase1 = (flags & 0x200) != 0;
+    // Selection data
+    selectApplicationResponse = decoder.readApduResponse();
+    powerOnData = decoder.readString();
+    calypsoCardClass = decoder.readEnum(CalypsoCardClass.values());
+    calypsoSerialNumber = decoder.readBytes();
+    startupInfo = decoder.readBytes();
+    productType = decoder.readEnum(ProductType.values());
+    dfName = decoder.readBytes();
+    applicationType = decoder.readByte();
+    applicationSubType = decoder.readByte();
+    sessionModification = decoder.readByte();
+    modificationsCounterMax = decoder.readUnsignedVarInt();
+    payloadCapacity = decoder.readUnsignedVarInt();
+    // Files
+    directoryHeader = decoder.readDirectoryHeader();
+    List<ElementaryFileAdapter> efs = new ArrayList<>();
+    decoder.readFiles(efs);
+    files.clear();
+    files.addAll(efs);
+    int currentEfIndex = decoder.readUnsignedVarInt() - 1;
+    currentEf = currentEfIndex >= 0 && currentEfIndex < efs.size() ? efs.get(currentEfIndex) : null;
+    efs.clear();
+    decoder.readFiles(efs);
+    filesBackup.clear();
+    filesBackup.addAll(efs);
+    // Counters and session data
+    isDfRatified = decoder.readNullableBoolean();
+    transactionCounter = decoder.readNullableVarInt();
+    pinAttemptCounter = decoder.readNullableVarInt();
+    challenge = decoder.readBytes();
+    traceabilityInformation = decoder.readBytes();
+    preOpenWriteAccessLevel = decoder.readEnum(WriteAccessLevel.values());
+    preOpenDataOut = decoder.readBytes();
+    // SV data
+    svBalance = decoder.readNullableVarInt();
+    svLastTNum = decoder.readVarInt();
+    svBalanceBackup = decoder.readNullableVarInt();
+    svLastTNumBackup = decoder.readVarInt();
+    svKvc = decoder.readByte();
+    svGetHeader = decoder.readBytes();
+    svGetData = decoder.readBytes();
+    svOperationSignature = decoder.readBytes();
+    // PKI data
+    cardPublicKey = decoder.readBytes();
+    cardCertificate = decoder.readByteBuffer();
+    caCertificate = decoder.readByteBuffer();
+  }
+
   /**
    * Gets the object content as a Json string.
    *
@@ -1306,77 +1704,4 @@ CalypsoCardAdapter setPreOpenDataOut(byte[] preOpenDataOut) {
   public String toString() {
     return JsonUtil.toJson(this);
   }
-
-  /** POJO containing card specificities to be applied according to startup info. */
-  private abstract static class Patch {
-
-    private final long startupInfo;
-    private final Long mask;
-
-    private Patch(String startupInfo, String mask) {
-      this.startupInfo = HexUtil.toLong(startupInfo);
-      this.mask = HexUtil.toLong(mask);
-    }
-
-    private boolean isApplicableTo(long startupInfo) {
-      return mask == null
-          ? this.startupInfo == startupInfo
-          : this.startupInfo == (startupInfo & mask);
-    }
-
-    abstract void apply(CalypsoCardAdapter calypsoCard);
-  }
-
-  /** POJO containing card rev 3 specificities to be applied according to startup info. */
-  private static class PatchRev3 extends Patch {
-
-    private Integer payloadCapacity;
-
-    private PatchRev3(String startupInfo, String mask) {
-      super(startupInfo, mask);
-    }
-
-    @Override
-    void apply(CalypsoCardAdapter calypsoCard) {
-      if (payloadCapacity != null) {
-        calypsoCard.payloadCapacity = payloadCapacity;
-      }
-    }
-
-    private PatchRev3 setPayloadCapacity(Integer payloadCapacity) {
-      this.payloadCapacity = payloadCapacity;
-      return this;
-    }
-  }
-
-  /** POJO containing card rev 1 & 2 specificities to be applied according to startup info. */
-  private static class PatchRev12 extends Patch {
-
-    private Boolean isCounterValuePostponed;
-    private Boolean isLegacyCase1;
-
-    private PatchRev12(String startupInfo, String mask) {
-      super(startupInfo, mask);
-    }
-
-    @Override
-    void apply(CalypsoCardAdapter calypsoCard) {
-      if (isCounterValuePostponed != null) {
-        calypsoCard.isCounterValuePostponed = isCounterValuePostponed;
-      }
-      if (isLegacyCase1 != null) {
-        calypsoCard.isLegacyCase1 = isLegacyCase1;
-      }
-    }
-
-    private PatchRev12 setCounterValuePostponed() {
-      isCounterValuePostponed = true;
-      return this;
-    }
-
-    private PatchRev12 setLegacyCase1() {
-      isLegacyCase1 = true;
-      return this;
-    }
-  }
 }
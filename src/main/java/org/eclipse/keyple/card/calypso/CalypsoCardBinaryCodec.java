@@ -0,0 +1,587 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import org.eclipse.keypop.calypso.card.WriteAccessLevel;
+import org.eclipse.keypop.calypso.card.card.DirectoryHeader;
+import org.eclipse.keypop.calypso.card.card.ElementaryFile;
+import org.eclipse.keypop.card.ApduResponseApi;
+
+/**
+ * Compact binary codec of a {@link CalypsoCardAdapter}, alternative to the JSON representation.
+ *
+ * <p>The image is streamed field by field without building any intermediate tree. The encoding
+ * starts with a magic byte and a format version, and then uses:
+ *
+ * <ul>
+ *   <li>unsigned LEB128 variable-length integers for sizes, counts and non-negative values,
+ *   <li>zigzag LEB128 variable-length integers for signed values,
+ *   <li>a length prefix (length + 1, 0 meaning null) for byte arrays and strings,
+ *   <li>the ordinal + 1 (0 meaning null) for enumerations,
+ *   <li>bit masks for booleans and for the presence of optional fields.
+ * </ul>
+ *
+ * <p>Any change in the layout, including in the declaration order of the encoded enumerations,
+ * requires to increment {@link #FORMAT_VERSION}.
+ *
+ * @since 3.1.6
+ */
+final class CalypsoCardBinaryCodec {
+
+  private static final int MAGIC = 0xCA;
+  private static final int FORMAT_VERSION = 1;
+
+  /** Maximum length of an encoded byte array: a response APDU of 65536 data bytes. */
+  private static final int MAX_BYTES_LENGTH = 65538;
+
+  private static final int FH_ACCESS_CONDITIONS = 0x01;
+  private static final int FH_KEY_INDEXES = 0x02;
+  private static final int FH_DF_STATUS = 0x04;
+  private static final int FH_SHARED_REFERENCE = 0x08;
+
+  /** Private constructor */
+  private CalypsoCardBinaryCodec() {}
+
+  /**
+   * Encodes the provided card image.
+   *
+   * @param card The card image.
+   * @return A not empty byte array.
+   * @since 3.1.6
+   */
+  static byte[] encode(CalypsoCardAdapter card) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+    try {
+      encode(card, out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // not possible with a ByteArrayOutputStream
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Encodes the provided card image into the provided buffer, starting at its current position.
+   *
+   * @param card The card image.
+   * @param buffer The target buffer.
+   * @throws java.nio.BufferOverflowException If the buffer is too small.
+   * @since 3.1.6
+   */
+  static void encode(CalypsoCardAdapter card, final ByteBuffer buffer) {
+    try {
+      encode(
+          card,
+          new OutputStream() {
+            @Override
+            public void write(int b) {
+              buffer.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+              buffer.put(b, off, len);
+            }
+          });
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // not possible with a ByteBuffer
+    }
+  }
+
+  /**
+   * Encodes the provided card image into the provided stream.
+   *
+   * @param card The card image.
+   * @param out The target stream (not closed by this method).
+   * @throws IOException If the stream fails.
+   * @since 3.1.6
+   */
+  static void encode(CalypsoCardAdapter card, OutputStream out) throws IOException {
+    Encoder encoder = new Encoder(new DataOutputStream(new BufferedOutputStream(out, 512)));
+    encoder.out.writeByte(MAGIC);
+    encoder.out.writeByte(FORMAT_VERSION);
+    card.writeTo(encoder);
+    encoder.out.flush();
+  }
+
+  /**
+   * Decodes a card image.
+   *
+   * @param data The encoded image.
+   * @return A new card image.
+   * @throws IllegalArgumentException If the data is malformed.
+   * @since 3.1.6
+   */
+  static CalypsoCardAdapter decode(byte[] data) {
+    return decode(ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Decodes a card image from the provided buffer, starting at its current position.
+   *
+   * @param buffer The source buffer, whose position is moved after the image.
+   * @return A new card image.
+   * @throws IllegalArgumentException If the data is malformed.
+   * @since 3.1.6
+   */
+  static CalypsoCardAdapter decode(final ByteBuffer buffer) {
+    try {
+      return decode(
+          new InputStream() {
+            @Override
+            public int available() {
+              return buffer.remaining();
+            }
+
+            @Override
+            public int read() {
+              return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+              if (!buffer.hasRemaining()) {
+                return -1;
+              }
+              int n = Math.min(len, buffer.remaining());
+              buffer.get(b, off, n);
+              return n;
+            }
+          },
+          true);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Malformed card image: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Decodes a card image from the provided stream.
+   *
+   * <p>The stream is read without read-ahead, so that it remains positioned right after the image.
+   *
+   * @param in The source stream (not closed by this method).
+   * @return A new card image.
+   * @throws IOException If the stream fails, the data is truncated or a length is invalid.
+   * @throws IllegalArgumentException If the data is malformed.
+   * @since 3.1.6
+   */
+  static CalypsoCardAdapter decode(InputStream in) throws IOException {
+    return decode(in, false);
+  }
+
+  /**
+   * Decodes a card image from the provided stream.
+   *
+   * @param in The source stream.
+   * @param isSized true if the stream reports exactly the number of bytes left with {@link
+   *     InputStream#available()}.
+   * @return A new card image.
+   * @throws IOException If the stream fails or the data is truncated.
+   * @throws IllegalArgumentException If the data is malformed.
+   */
+  private static CalypsoCardAdapter decode(InputStream in, boolean isSized) throws IOException {
+    Decoder decoder = new Decoder(new DataInputStream(in), isSized);
+    if (decoder.in.readUnsignedByte() != MAGIC) {
+      throw new IllegalArgumentException("Not a card image");
+    }
+    int version = decoder.in.readUnsignedByte();
+    if (version != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Unsupported card image format version: " + version);
+    }
+    CalypsoCardAdapter card;
+    try {
+      card = new CalypsoCardAdapter(null);
+    } catch (CardCommandException e) {
+      throw new IllegalStateException(e); // not possible without selection response
+    }
+    card.readFrom(decoder);
+    return card;
+  }
+
+  /**
+   * Typed writer of the binary format.
+   *
+   * @since 3.1.6
+   */
+  static final class Encoder {
+
+    private final DataOutputStream out;
+
+    private Encoder(DataOutputStream out) {
+      this.out = out;
+    }
+
+    void writeByte(byte value) throws IOException {
+      out.writeByte(value);
+    }
+
+    void writeShort(short value) throws IOException {
+      out.writeShort(value);
+    }
+
+    void writeUnsignedVarInt(int value) throws IOException {
+      int v = value;
+      while ((v & ~0x7F) != 0) {
+        out.writeByte((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      out.writeByte(v);
+    }
+
+    void writeVarInt(int value) throws IOException {
+      writeUnsignedVarInt((value << 1) ^ (value >> 31));
+    }
+
+    void writeNullableVarInt(Integer value) throws IOException {
+      if (value == null) {
+        out.writeByte(0);
+      } else {
+        out.writeByte(1);
+        writeVarInt(value);
+      }
+    }
+
+    void writeNullableBoolean(Boolean value) throws IOException {
+      out.writeByte(value == null ? 0 : (value ? 2 : 1));
+    }
+
+    void writeBytes(byte[] value) throws IOException {
+      if (value == null) {
+        writeUnsignedVarInt(0);
+      } else {
+        writeUnsignedVarInt(value.length + 1);
+        out.write(value);
+      }
+    }
+
+    void writeString(String value) throws IOException {
+      writeBytes(value == null ? null : value.getBytes("UTF-8"));
+    }
+
+    void writeEnum(Enum<?> value) throws IOException {
+      writeUnsignedVarInt(value == null ? 0 : value.ordinal() + 1);
+    }
+
+    void writeApduResponse(ApduResponseApi value) throws IOException {
+      writeBytes(value == null ? null : value.getApdu());
+    }
+
+    /**
+     * Writes a byte buffer as its backing array followed by its position.
+     *
+     * @since 3.1.6
+     */
+    void writeByteBuffer(ByteBuffer value) throws IOException {
+      if (value == null) {
+        writeBytes(null);
+      } else {
+        byte[] content = new byte[value.capacity()];
+        ByteBuffer duplicate = value.duplicate();
+        duplicate.clear();
+        duplicate.get(content);
+        writeBytes(content);
+        writeUnsignedVarInt(value.position());
+      }
+    }
+
+    void writeDirectoryHeader(DirectoryHeader value) throws IOException {
+      if (value == null) {
+        out.writeByte(0);
+        return;
+      }
+      DirectoryHeaderAdapter header = (DirectoryHeaderAdapter) value;
+      out.writeByte(1);
+      out.writeShort(header.getLid());
+      writeBytes(header.getAccessConditions());
+      writeBytes(header.getKeyIndexes());
+      out.writeByte(header.getDfStatus());
+      writeKeyMap(header.getKifMap());
+      writeKeyMap(header.getKvcMap());
+    }
+
+    private void writeKeyMap(Map<WriteAccessLevel, Byte> map) throws IOException {
+      int mask = 0;
+      for (WriteAccessLevel level : map.keySet()) {
+        mask |= 1 << level.ordinal();
+      }
+      out.writeByte(mask);
+      for (Byte value : map.values()) {
+        out.writeByte(value);
+      }
+    }
+
+    /**
+     * Writes a collection of EFs and returns the index of the provided current EF in this
+     * collection (-1 if not found).
+     *
+     * @since 3.1.6
+     */
+    int writeFiles(Collection<ElementaryFile> files, ElementaryFile currentEf) throws IOException {
+      // Take a snapshot to be consistent with the count written first
+      ElementaryFile[] snapshot = files.toArray(new ElementaryFile[0]);
+      int currentEfIndex = -1;
+      writeUnsignedVarInt(snapshot.length);
+      for (int i = 0; i < snapshot.length; i++) {
+        writeFile(snapshot[i]);
+        if (snapshot[i] == currentEf) {
+          currentEfIndex = i;
+        }
+      }
+      return currentEfIndex;
+    }
+
+    private void writeFile(ElementaryFile ef) throws IOException {
+      out.writeByte(ef.getSfi());
+      FileHeaderAdapter header = (FileHeaderAdapter) ef.getHeader();
+      if (header == null) {
+        out.writeByte(0);
+      } else {
+        int mask = 0x80;
+        mask |= header.getAccessConditions() != null ? FH_ACCESS_CONDITIONS : 0;
+        mask |= header.getKeyIndexes() != null ? FH_KEY_INDEXES : 0;
+        mask |= header.getDfStatus() != null ? FH_DF_STATUS : 0;
+        mask |= header.getSharedReference() != null ? FH_SHARED_REFERENCE : 0;
+        out.writeByte(mask);
+        out.writeShort(header.getLid());
+        writeUnsignedVarInt(header.getRecordsNumber());
+        writeUnsignedVarInt(header.getRecordSize());
+        writeEnum(header.getEfType());
+        if (header.getAccessConditions() != null) {
+          writeBytes(header.getAccessConditions());
+        }
+        if (header.getKeyIndexes() != null) {
+          writeBytes(header.getKeyIndexes());
+        }
+        if (header.getDfStatus() != null) {
+          out.writeByte(header.getDfStatus());
+        }
+        if (header.getSharedReference() != null) {
+          out.writeShort(header.getSharedReference());
+        }
+      }
+      SortedMap<Integer, byte[]> records = ef.getData().getAllRecordsContent();
+      writeUnsignedVarInt(records.size());
+      for (Map.Entry<Integer, byte[]> entry : records.entrySet()) {
+        writeUnsignedVarInt(entry.getKey());
+        writeBytes(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Typed reader of the binary format.
+   *
+   * @since 3.1.6
+   */
+  static final class Decoder {
+
+    private static final ElementaryFile.Type[] EF_TYPES = ElementaryFile.Type.values();
+    private static final WriteAccessLevel[] WRITE_ACCESS_LEVELS = WriteAccessLevel.values();
+
+    private final DataInputStream in;
+    private final boolean isSized;
+
+    private Decoder(DataInputStream in, boolean isSized) {
+      this.in = in;
+      this.isSized = isSized;
+    }
+
+    byte readByte() throws IOException {
+      return in.readByte();
+    }
+
+    short readShort() throws IOException {
+      return in.readShort();
+    }
+
+    int readUnsignedVarInt() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = in.readUnsignedByte();
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Malformed variable-length integer");
+    }
+
+    int readVarInt() throws IOException {
+      int v = readUnsignedVarInt();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    Integer readNullableVarInt() throws IOException {
+      return in.readByte() == 0 ? null : readVarInt();
+    }
+
+    Boolean readNullableBoolean() throws IOException {
+      byte value = in.readByte();
+      return value == 0 ? null : value == 2;
+    }
+
+    byte[] readBytes() throws IOException {
+      int length = readUnsignedVarInt();
+      if (length == 0) {
+        return null; // NOSONAR null is an encoded value
+      }
+      // checked before the allocation, so that a corrupted length cannot exhaust the memory
+      int size = length - 1;
+      if (size < 0 || size > MAX_BYTES_LENGTH || (isSized && size > in.available())) {
+        throw new IOException("Invalid byte array length: " + size);
+      }
+      byte[] value = new byte[size];
+      in.readFully(value);
+      return value;
+    }
+
+    String readString() throws IOException {
+      byte[] value = readBytes();
+      return value == null ? null : new String(value, "UTF-8");
+    }
+
+    <E extends Enum<E>> E readEnum(E[] values) throws IOException {
+      int value = readUnsignedVarInt();
+      if (value > values.length) {
+        throw new IllegalArgumentException("Unknown enumeration value: " + value);
+      }
+      return value == 0 ? null : values[value - 1];
+    }
+
+    ApduResponseApi readApduResponse() throws IOException {
+      byte[] apdu = readBytes();
+      return apdu == null ? null : new ApduResponse(apdu);
+    }
+
+    ByteBuffer readByteBuffer() throws IOException {
+      byte[] content = readBytes();
+      if (content == null) {
+        return null; // NOSONAR null is an encoded value
+      }
+      ByteBuffer value = ByteBuffer.wrap(content);
+      value.position(readUnsignedVarInt());
+      return value;
+    }
+
+    DirectoryHeader readDirectoryHeader() throws IOException {
+      if (in.readByte() == 0) {
+        return null;
+      }
+      DirectoryHeaderAdapter.DirectoryHeaderBuilder builder =
+          DirectoryHeaderAdapter.builder()
+              .lid(in.readShort())
+              .accessConditions(readBytes())
+              .keyIndexes(readBytes())
+              .dfStatus(in.readByte());
+      int kifMask = in.readUnsignedByte();
+      for (WriteAccessLevel level : WRITE_ACCESS_LEVELS) {
+        if ((kifMask & (1 << level.ordinal())) != 0) {
+          builder.kif(level, in.readByte());
+        }
+      }
+      int kvcMask = in.readUnsignedByte();
+      for (WriteAccessLevel level : WRITE_ACCESS_LEVELS) {
+        if ((kvcMask & (1 << level.ordinal())) != 0) {
+          builder.kvc(level, in.readByte());
+        }
+      }
+      return builder.build();
+    }
+
+    /**
+     * Reads a collection of EFs into the provided list.
+     *
+     * @since 3.1.6
+     */
+    void readFiles(List<ElementaryFileAdapter> files) throws IOException {
+      int nbFiles = readUnsignedVarInt();
+      for (int i = 0; i < nbFiles; i++) {
+        files.add(readFile());
+      }
+    }
+
+    private ElementaryFileAdapter readFile() throws IOException {
+      ElementaryFileAdapter ef = new ElementaryFileAdapter(in.readByte());
+      int mask = in.readUnsignedByte();
+      if (mask != 0) {
+        FileHeaderAdapter.FileHeaderBuilder builder =
+            FileHeaderAdapter.builder()
+                .lid(in.readShort())
+                .recordsNumber(readUnsignedVarInt())
+                .recordSize(readUnsignedVarInt())
+                .type(readEnum(EF_TYPES));
+        if ((mask & FH_ACCESS_CONDITIONS) != 0) {
+          builder.accessConditions(readBytes());
+        }
+        if ((mask & FH_KEY_INDEXES) != 0) {
+          builder.keyIndexes(readBytes());
+        }
+        if ((mask & FH_DF_STATUS) != 0) {
+          builder.dfStatus(in.readByte());
+        }
+        if ((mask & FH_SHARED_REFERENCE) != 0) {
+          builder.sharedReference(in.readShort());
+        }
+        ef.setHeader(builder.build());
+      }
+      int nbRecords = readUnsignedVarInt();
+      for (int i = 0; i < nbRecords; i++) {
+        int numRecord = readUnsignedVarInt();
+        ef.getData().setContent(numRecord, readBytes());
+      }
+      return ef;
+    }
+  }
+
+  /**
+   * Immutable APDU response restored from its raw bytes.
+   *
+   * @since 3.1.6
+   */
+  static final class ApduResponse implements ApduResponseApi {
+
+    private final byte[] apdu;
+    private final int statusWord;
+
+    /**
+     * Constructor.
+     *
+     * @param apdu The raw APDU response, including the status word.
+     * @throws IllegalArgumentException If the APDU response is shorter than 2 bytes.
+     * @since 3.1.6
+     */
+    ApduResponse(byte[] apdu) {
+      if (apdu.length < 2) {
+        throw new IllegalArgumentException("Malformed APDU response");
+      }
+      this.apdu = apdu;
+      this.statusWord = ((apdu[apdu.length - 2] & 0xFF) << 8) | (apdu[apdu.length - 1] & 0xFF);
+    }
+
+    @Override
+    public byte[] getApdu() {
+      return apdu;
+    }
+
+    @Override
+    public byte[] getDataOut() {
+      return Arrays.copyOf(apdu, apdu.length - 2);
+    }
+
+    @Override
+    public int getStatusWord() {
+      return statusWord;
+    }
+  }
+}
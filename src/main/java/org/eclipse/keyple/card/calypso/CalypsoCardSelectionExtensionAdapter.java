@@ -14,8 +14,12 @@
 import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import org.eclipse.keyple.core.util.Assert;
 import org.eclipse.keypop.calypso.card.GetDataTag;
 import org.eclipse.keypop.calypso.card.SelectFileControl;
@@ -41,12 +45,24 @@
 
   private static final int SW_CARD_INVALIDATED = 0x6283;
   private static final String MSG_CARD_COMMAND_ERROR = "A card command error occurred ";
+  private static final String MSG_FROZEN = "The card selection extension is frozen";
+  private static final Set<Integer> SUCCESSFUL_SELECTION_STATUS_WORDS =
+      Collections.unmodifiableSet(new LinkedHashSet<>(Collections.singletonList(0x9000)));
+  private static final Set<Integer> SUCCESSFUL_SELECTION_STATUS_WORDS_WITH_INVALIDATED =
+      Collections.unmodifiableSet(
+          new LinkedHashSet<>(Arrays.asList(0x9000, SW_CARD_INVALIDATED)));
 
-  private final List<Command> commands;
-  private final TransactionContextDto transactionContext;
+  private final List<PreparedCommand> commands;
   private final CommandContextDto commandContext;
   private boolean isPreOpenPrepared;
   private boolean isInvalidatedCardAccepted;
+  private CardDenyList denyList;
+  private FileStructureCache fileStructureCache;
+  private SelectionPrefetchAdvisor prefetchAdvisor;
+  private final Set<SelectionPrefetchAdvisor.ReadItem> explicitReads = new HashSet<>();
+  private volatile List<SelectionPrefetchAdvisor.ReadItem> prefetchedReads; // NOSONAR immutable
+  private boolean isDenyListedCardInvalidationRequested;
+  private volatile CardSelectionRequestSpi frozenCardSelectionRequest;
 
   /**
    * Creates an instance of {@link CalypsoCardSelectionExtension}.
@@ -56,10 +72,51 @@
    */
   CalypsoCardSelectionExtensionAdapter() {
     commands = new ArrayList<>();
-    transactionContext = new TransactionContextDto();
     commandContext = new CommandContextDto(false, false);
   }
 
+  /**
+   * Freezes the selection scenario.
+   *
+   * <p>The card selection request is built once and for all (APDUs encoded, immutable lists and
+   * status word sets) and returned as is by each subsequent call to {@link
+   * #getCardSelectionRequest()}, e.g. on each card insertion in scheduled detection mode. No
+   * further command can be prepared and the configuration can no longer be changed.
+   *
+   * <p>A frozen instance can be shared by several readers: each parsing of a selection response
+   * uses its own instances of the prepared commands.
+   *
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  CalypsoCardSelectionExtensionAdapter freeze() {
+    if (frozenCardSelectionRequest == null) {
+      frozenCardSelectionRequest = buildCardSelectionRequest();
+    }
+    return this;
+  }
+
+  /**
+   * Indicates if the selection scenario is frozen.
+   *
+   * @return True if {@link #freeze()} has been invoked.
+   * @since 3.1.6
+   */
+  boolean isFrozen() {
+    return frozenCardSelectionRequest != null;
+  }
+
+  /**
+   * Throws an exception if the selection scenario is frozen.
+   *
+   * @throws IllegalStateException If the selection scenario is frozen.
+   */
+  private void checkNotFrozen() {
+    if (frozenCardSelectionRequest != null) {
+      throw new IllegalStateException(MSG_FROZEN);
+    }
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -67,17 +124,76 @@
    */
   @Override
   public CalypsoCardSelectionExtension acceptInvalidatedCard() {
+    checkNotFrozen();
     isInvalidatedCardAccepted = true;
     return this;
   }
 
+  /**
+   * Sets the deny list against which the application serial number of the selected cards is
+   * checked.
+   *
+   * <p>A matching card is flagged as deny listed and, if requested, an "Invalidate" command is
+   * automatically prepared just before the closing of its next secure session.
+   *
+   * @param denyList The deny list, null to disable the check.
+   * @param isInvalidationRequested true if the deny listed cards must be automatically invalidated.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  CalypsoCardSelectionExtensionAdapter setDenyList(
+      CardDenyList denyList, boolean isInvalidationRequested) {
+    checkNotFrozen();
+    this.denyList = denyList;
+    this.isDenyListedCardInvalidationRequested = isInvalidationRequested;
+    return this;
+  }
+
+  /**
+   * Sets the cache from which the file structure of the selected DF is injected into the image of
+   * the selected cards.
+   *
+   * @param fileStructureCache The cache, null to disable the injection.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  CalypsoCardSelectionExtensionAdapter setFileStructureCache(
+      FileStructureCache fileStructureCache) {
+    checkNotFrozen();
+    this.fileStructureCache = fileStructureCache;
+    return this;
+  }
+
+  /**
+   * Sets the advisor choosing the reads to be automatically added to the card selection request.
+   *
+   * <p>The reads proposed by the advisor are added after the commands prepared explicitly. They
+   * are determined once, when the card selection request is built for the first time (or when the
+   * scenario is frozen), and then used by all the requests built and all the responses parsed by
+   * this instance, so that a response is always parsed with the commands of its request. What the
+   * advisor learns from the selected cards is thus applied to the card selection extensions set up
+   * afterwards.
+   *
+   * @param prefetchAdvisor The advisor, null to disable the prefetch.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  CalypsoCardSelectionExtensionAdapter setSelectionPrefetchAdvisor(
+      SelectionPrefetchAdvisor prefetchAdvisor) {
+    checkNotFrozen();
+    this.prefetchAdvisor = prefetchAdvisor;
+    prefetchedReads = null;
+    return this;
+  }
+
   /**
    * {@inheritDoc}
    *
    * @since 2.1.0
    */
   @Override
-  public CalypsoCardSelectionExtension prepareReadRecord(byte sfi, int recordNumber) {
+  public CalypsoCardSelectionExtension prepareReadRecord(final byte sfi, final int recordNumber) {
+    checkNotFrozen();
     Assert.getInstance()
         .isInRange((int) sfi, CalypsoCardConstant.SFI_MIN, CalypsoCardConstant.SFI_MAX, "sfi")
         .isInRange(
@@ -85,15 +201,21 @@ public CalypsoCardSelectionExtension prepareReadRecord(byte sfi, int recordNumbe
             CalypsoCardConstant.NB_REC_MIN,
             CalypsoCardConstant.NB_REC_MAX,
             "recordNumber");
+    addExplicitRead(SelectionPrefetchAdvisor.ReadItem.record(sfi, recordNumber));
     commands.add(
-        new CommandReadRecords(
-            transactionContext,
-            commandContext,
-            sfi,
-            recordNumber,
-            CommandReadRecords.ReadMode.ONE_RECORD,
-            0,
-            0));
+        new PreparedCommand() {
+          @Override
+          Command create(TransactionContextDto transactionContext) {
+            return new CommandReadRecords(
+                transactionContext,
+                commandContext,
+                sfi,
+                recordNumber,
+                CommandReadRecords.ReadMode.ONE_RECORD,
+                0,
+                0);
+          }
+        });
     return this;
   }
 
@@ -104,14 +226,16 @@ public CalypsoCardSelectionExtension prepareReadRecord(byte sfi, int recordNumbe
    */
   @Override
   public CalypsoCardSelectionExtension prepareReadBinary(byte sfi, int offset, int nbBytesToRead) {
+    checkNotFrozen();
     Assert.getInstance()
         .isInRange((int) sfi, CalypsoCardConstant.SFI_MIN, CalypsoCardConstant.SFI_MAX, "sfi")
         .isInRange(
             offset, CalypsoCardConstant.OFFSET_MIN, CalypsoCardConstant.OFFSET_BINARY_MAX, "offset")
         .greaterOrEqual(nbBytesToRead, 1, "nbBytesToRead");
+    addExplicitRead(SelectionPrefetchAdvisor.ReadItem.binary(sfi, offset, nbBytesToRead));
     if (sfi > 0 && offset > 255) { // FFh
       // Tips to select the file: add a "Read Binary" command (read one byte at offset 0).
-      commands.add(new CommandReadBinary(transactionContext, commandContext, sfi, 0, 1));
+      addReadBinary(sfi, 0, 1);
     }
     int currentLength;
     int currentOffset = offset;
@@ -119,22 +243,40 @@ public CalypsoCardSelectionExtension prepareReadBinary(byte sfi, int offset, int
     do {
       currentLength =
           Math.min(nbBytesRemainingToRead, CalypsoCardConstant.DEFAULT_PAYLOAD_CAPACITY);
-      commands.add(
-          new CommandReadBinary(
-              transactionContext, commandContext, sfi, currentOffset, currentLength));
+      addReadBinary(sfi, currentOffset, currentLength);
       currentOffset += currentLength;
       nbBytesRemainingToRead -= currentLength;
     } while (nbBytesRemainingToRead > 0);
     return this;
   }
 
+  /**
+   * Adds a "Read Binary" command to the prepared commands.
+   *
+   * @param sfi The SFI.
+   * @param offset The offset.
+   * @param nbBytesToRead The number of bytes to read.
+   */
+  private void addReadBinary(final byte sfi, final int offset, final int nbBytesToRead) {
+    commands.add(
+        new PreparedCommand() {
+          @Override
+          Command create(TransactionContextDto transactionContext) {
+            return new CommandReadBinary(
+                transactionContext, commandContext, sfi, offset, nbBytesToRead);
+          }
+        });
+  }
+
   /**
    * {@inheritDoc}
    *
    * @since 2.3.3
    */
   @Override
-  public CalypsoCardSelectionExtension prepareReadCounter(byte sfi, int nbCountersToRead) {
+  public CalypsoCardSelectionExtension prepareReadCounter(
+      final byte sfi, final int nbCountersToRead) {
+    checkNotFrozen();
     Assert.getInstance()
         .isInRange((int) sfi, CalypsoCardConstant.SFI_MIN, CalypsoCardConstant.SFI_MAX, "sfi")
         .isInRange(
@@ -142,15 +284,21 @@ public CalypsoCardSelectionExtension prepareReadCounter(byte sfi, int nbCounters
             0,
             CalypsoCardConstant.DEFAULT_PAYLOAD_CAPACITY / 3,
             "nbCountersToRead");
+    addExplicitRead(SelectionPrefetchAdvisor.ReadItem.record(sfi, 1));
     commands.add(
-        new CommandReadRecords(
-            transactionContext,
-            commandContext,
-            sfi,
-            1,
-            CommandReadRecords.ReadMode.ONE_RECORD,
-            nbCountersToRead * 3,
-            0));
+        new PreparedCommand() {
+          @Override
+          Command create(TransactionContextDto transactionContext) {
+            return new CommandReadRecords(
+                transactionContext,
+                commandContext,
+                sfi,
+                1,
+                CommandReadRecords.ReadMode.ONE_RECORD,
+                nbCountersToRead * 3,
+                0);
+          }
+        });
     return this;
   }
 
@@ -161,13 +309,20 @@ public CalypsoCardSelectionExtension prepareReadCounter(byte sfi, int nbCounters
    */
   @Override
   public CalypsoCardSelectionExtension preparePreOpenSecureSession(
-      WriteAccessLevel writeAccessLevel) {
+      final WriteAccessLevel writeAccessLevel) {
+    checkNotFrozen();
     if (isPreOpenPrepared) {
       throw new IllegalStateException("'Pre-Open Secure Session' command already prepared");
     }
     Assert.getInstance().notNull(writeAccessLevel, "writeAccessLevel");
     commands.add(
-        new CommandOpenSecureSession(transactionContext, commandContext, writeAccessLevel));
+        new PreparedCommand() {
+          @Override
+          Command create(TransactionContextDto transactionContext) {
+            return new CommandOpenSecureSession(
+                transactionContext, commandContext, writeAccessLevel);
+          }
+        });
     isPreOpenPrepared = true;
     return this;
   }
@@ -178,24 +333,35 @@ public CalypsoCardSelectionExtension preparePreOpenSecureSession(
    * @since 2.0.0
    */
   @Override
-  public CalypsoCardSelectionExtension prepareGetData(GetDataTag tag) {
+  public CalypsoCardSelectionExtension prepareGetData(final GetDataTag tag) {
+    checkNotFrozen();
     Assert.getInstance().notNull(tag, "tag");
     switch (tag) {
       case FCI_FOR_CURRENT_DF:
-        commands.add(new CommandGetDataFci(transactionContext, commandContext));
-        break;
       case FCP_FOR_CURRENT_FILE:
-        commands.add(new CommandGetDataFcp(transactionContext, commandContext));
-        break;
       case EF_LIST:
-        commands.add(new CommandGetDataEfList(transactionContext, commandContext));
-        break;
       case TRACEABILITY_INFORMATION:
-        commands.add(new CommandGetDataTraceabilityInformation(transactionContext, commandContext));
         break;
       default:
         throw new UnsupportedOperationException("Unsupported Get Data tag: " + tag.name());
     }
+    commands.add(
+        new PreparedCommand() {
+          @Override
+          Command create(TransactionContextDto transactionContext) {
+            switch (tag) {
+              case FCI_FOR_CURRENT_DF:
+                return new CommandGetDataFci(transactionContext, commandContext);
+              case FCP_FOR_CURRENT_FILE:
+                return new CommandGetDataFcp(transactionContext, commandContext);
+              case EF_LIST:
+                return new CommandGetDataEfList(transactionContext, commandContext);
+              default:
+                return new CommandGetDataTraceabilityInformation(
+                    transactionContext, commandContext);
+            }
+          }
+        });
     return this;
   }
 
@@ -205,8 +371,15 @@ public CalypsoCardSelectionExtension prepareGetData(GetDataTag tag) {
    * @since 2.0.0
    */
   @Override
-  public CalypsoCardSelectionExtension prepareSelectFile(short lid) {
-    commands.add(new CommandSelectFile(transactionContext, commandContext, lid));
+  public CalypsoCardSelectionExtension prepareSelectFile(final short lid) {
+    checkNotFrozen();
+    commands.add(
+        new PreparedCommand() {
+          @Override
+          Command create(TransactionContextDto transactionContext) {
+            return new CommandSelectFile(transactionContext, commandContext, lid);
+          }
+        });
     return this;
   }
 
@@ -216,9 +389,16 @@ public CalypsoCardSelectionExtension prepareSelectFile(short lid) {
    * @since 2.0.0
    */
   @Override
-  public CalypsoCardSelectionExtension prepareSelectFile(SelectFileControl selectControl) {
+  public CalypsoCardSelectionExtension prepareSelectFile(final SelectFileControl selectControl) {
+    checkNotFrozen();
     Assert.getInstance().notNull(selectControl, "selectControl");
-    commands.add(new CommandSelectFile(transactionContext, commandContext, selectControl));
+    commands.add(
+        new PreparedCommand() {
+          @Override
+          Command create(TransactionContextDto transactionContext) {
+            return new CommandSelectFile(transactionContext, commandContext, selectControl);
+          }
+        });
     return this;
   }
 
@@ -229,12 +409,16 @@ public CalypsoCardSelectionExtension prepareSelectFile(SelectFileControl selectC
    */
   @Override
   public CardSelectionRequestSpi getCardSelectionRequest() {
+    if (frozenCardSelectionRequest != null) {
+      return frozenCardSelectionRequest;
+    }
+    List<Command> allCommands = createCommands(getPrefetchedReads());
     List<ApduRequestSpi> cardSelectionApduRequests = new ArrayList<>();
     CardSelectionRequestAdapter cardSelectionRequest;
-    if (commands.isEmpty()) {
+    if (allCommands.isEmpty()) {
       cardSelectionRequest = new CardSelectionRequestAdapter(null);
     } else {
-      for (Command command : commands) {
+      for (Command command : allCommands) {
         cardSelectionApduRequests.add(command.getApduRequest());
       }
       cardSelectionRequest =
@@ -246,6 +430,100 @@ public CardSelectionRequestSpi getCardSelectionRequest() {
     return cardSelectionRequest;
   }
 
+  /**
+   * Builds the immutable card selection request of a frozen selection scenario.
+   *
+   * @return A not null reference.
+   */
+  private CardSelectionRequestSpi buildCardSelectionRequest() {
+    List<Command> allCommands = createCommands(getPrefetchedReads());
+    CardRequestSpi cardRequest = null;
+    if (!allCommands.isEmpty()) {
+      List<ApduRequestSpi> cardSelectionApduRequests = new ArrayList<>(allCommands.size());
+      for (Command command : allCommands) {
+        cardSelectionApduRequests.add(command.getApduRequest());
+      }
+      cardRequest =
+          new CardRequestAdapter(Collections.unmodifiableList(cardSelectionApduRequests), false);
+    }
+    return new CardSelectionRequestAdapter(
+        cardRequest,
+        isInvalidatedCardAccepted
+            ? SUCCESSFUL_SELECTION_STATUS_WORDS_WITH_INVALIDATED
+            : SUCCESSFUL_SELECTION_STATUS_WORDS);
+  }
+
+  /**
+   * Adds a read prepared explicitly, which the prefetch advisor must not propose again.
+   *
+   * @param read The read.
+   */
+  private void addExplicitRead(SelectionPrefetchAdvisor.ReadItem read) {
+    explicitReads.add(read);
+    prefetchedReads = null;
+  }
+
+  /**
+   * Returns the reads proposed by the prefetch advisor, if any, determining them on first use.
+   *
+   * @return A not null immutable list.
+   */
+  private List<SelectionPrefetchAdvisor.ReadItem> getPrefetchedReads() {
+    List<SelectionPrefetchAdvisor.ReadItem> reads = prefetchedReads;
+    if (reads == null) {
+      synchronized (explicitReads) {
+        reads = prefetchedReads;
+        if (reads == null) {
+          reads =
+              prefetchAdvisor != null
+                  ? Collections.unmodifiableList(prefetchAdvisor.getReadsToPrefetch(explicitReads))
+                  : Collections.<SelectionPrefetchAdvisor.ReadItem>emptyList();
+          prefetchedReads = reads;
+        }
+      }
+    }
+    return reads;
+  }
+
+  /**
+   * Creates the prepared commands followed by the commands of the provided prefetched reads, in a
+   * new transaction context.
+   *
+   * <p>The records are read entirely, like with {@link #prepareReadRecord(byte, int)}.
+   *
+   * @param reads The prefetched reads.
+   * @return A new list.
+   */
+  private List<Command> createCommands(List<SelectionPrefetchAdvisor.ReadItem> reads) {
+    TransactionContextDto transactionContext = new TransactionContextDto();
+    List<Command> allCommands = new ArrayList<>(commands.size() + reads.size());
+    for (PreparedCommand command : commands) {
+      allCommands.add(command.create(transactionContext));
+    }
+    for (SelectionPrefetchAdvisor.ReadItem read : reads) {
+      if (read.isBinary()) {
+        allCommands.add(
+            new CommandReadBinary(
+                transactionContext,
+                commandContext,
+                read.getSfi(),
+                read.getRecordNumberOrOffset(),
+                read.getNbBytes()));
+      } else {
+        allCommands.add(
+            new CommandReadRecords(
+                transactionContext,
+                commandContext,
+                read.getSfi(),
+                read.getRecordNumberOrOffset(),
+                CommandReadRecords.ReadMode.ONE_RECORD,
+                0,
+                0));
+      }
+    }
+    return allCommands;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -258,14 +536,18 @@ public SmartCardSpi parse(CardSelectionResponseApi cardSelectionResponse) throws
         cardResponse != null
             ? cardResponse.getApduResponses()
             : Collections.<ApduResponseApi>emptyList();
-    if (commands.size() != apduResponses.size()) {
+    // The commands keep the parsed response and the card of their context: they are instantiated
+    // for each parsing so that a frozen instance can be used concurrently
+    List<SelectionPrefetchAdvisor.ReadItem> reads = getPrefetchedReads();
+    List<Command> allCommands = createCommands(reads);
+    if (allCommands.size() != apduResponses.size()) {
       throw new ParseException("Mismatch in the number of requests/responses");
     }
     CalypsoCardAdapter calypsoCard;
     try {
       calypsoCard = new CalypsoCardAdapter(cardSelectionResponse);
-      if (!commands.isEmpty()) {
-        parseApduResponses(calypsoCard, commands, apduResponses);
+      if (!allCommands.isEmpty()) {
+        parseApduResponses(calypsoCard, allCommands, apduResponses);
       }
     } catch (Exception e) {
       throw new ParseException("Invalid card response: " + e.getMessage(), e);
@@ -276,6 +558,17 @@ public SmartCardSpi parse(CardSelectionResponseApi cardSelectionResponse) throws
       throw new ParseException(
           "Unable to create a CalypsoCard: no power-on data and no FCI provided");
     }
+    if (denyList != null
+        && calypsoCard.getCalypsoSerialNumberFull() != null
+        && denyList.contains(calypsoCard.getApplicationSerialNumber())) {
+      calypsoCard.setDenyListed(isDenyListedCardInvalidationRequested);
+    }
+    if (fileStructureCache != null) {
+      fileStructureCache.applyTo(calypsoCard);
+    }
+    if (prefetchAdvisor != null) {
+      prefetchAdvisor.onCardSelected(calypsoCard, reads);
+    }
     return calypsoCard;
   }
 
@@ -332,4 +625,19 @@ private static void parseApduResponses(
               + apduResponses.size());
     }
   }
+
+  /**
+   * Command prepared in the selection scenario, instantiated for each card selection request
+   * built and for each card selection response parsed.
+   */
+  private abstract static class PreparedCommand {
+
+    /**
+     * Creates the command.
+     *
+     * @param transactionContext The transaction context of the command.
+     * @return A new instance.
+     */
+    abstract Command create(TransactionContextDto transactionContext);
+  }
 }
@@ -11,13 +11,22 @@
  ************************************************************************************** */
 package org.eclipse.keyple.card.calypso;
 
+import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
 import static org.eclipse.keyple.card.calypso.JsonAdapters.*;
 
+import com.google.gson.TypeAdapter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
 import org.eclipse.keyple.core.common.CommonApiProperties;
 import org.eclipse.keyple.core.common.KeypleCardExtension;
+import org.eclipse.keyple.core.util.Assert;
 import org.eclipse.keyple.core.util.json.JsonUtil;
 import org.eclipse.keypop.calypso.card.CalypsoCardApiFactory;
 import org.eclipse.keypop.calypso.card.card.*;
+import org.eclipse.keypop.calypso.card.transaction.ChannelControl;
+import org.eclipse.keypop.calypso.card.transaction.SecureSymmetricCryptoTransactionManager;
+import org.eclipse.keypop.calypso.card.transaction.TransactionManager;
 import org.eclipse.keypop.card.CardApiProperties;
 import org.eclipse.keypop.reader.ReaderApiProperties;
 
@@ -33,12 +42,30 @@ public final class CalypsoExtensionService implements KeypleCardExtension { // N
 
   static {
     // Register additional JSON adapters.
-    JsonUtil.registerTypeAdapter(DirectoryHeader.class, new DirectoryHeaderJsonAdapter(), false);
-    JsonUtil.registerTypeAdapter(ElementaryFile.class, new ElementaryFileJsonAdapter(), false);
-    JsonUtil.registerTypeAdapter(FileHeader.class, new FileHeaderJsonAdapter(), false);
-    JsonUtil.registerTypeAdapter(SvLoadLogRecord.class, new SvLoadLogRecordJsonAdapter(), false);
-    JsonUtil.registerTypeAdapter(SvDebitLogRecord.class, new SvDebitLogRecordJsonAdapter(), false);
-    JsonUtil.registerTypeAdapter(Command.class, new AbstractCardCommandJsonAdapter(), false);
+    TypeAdapter<DirectoryHeader> directoryHeaderJsonAdapter =
+        new DirectoryHeaderJsonAdapter().nullSafe();
+    TypeAdapter<ElementaryFile> elementaryFileJsonAdapter =
+        new ElementaryFileJsonAdapter().nullSafe();
+    TypeAdapter<FileHeader> fileHeaderJsonAdapter = new FileHeaderJsonAdapter().nullSafe();
+    TypeAdapter<FileData> fileDataJsonAdapter = new FileDataJsonAdapter().nullSafe();
+    TypeAdapter<SvLoadLogRecord> svLoadLogRecordJsonAdapter =
+        new SvLoadLogRecordJsonAdapter().nullSafe();
+    TypeAdapter<SvDebitLogRecord> svDebitLogRecordJsonAdapter =
+        new SvDebitLogRecordJsonAdapter().nullSafe();
+    JsonUtil.registerTypeAdapter(DirectoryHeader.class, directoryHeaderJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(DirectoryHeaderAdapter.class, directoryHeaderJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(ElementaryFile.class, elementaryFileJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(ElementaryFileAdapter.class, elementaryFileJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(FileHeader.class, fileHeaderJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(FileHeaderAdapter.class, fileHeaderJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(FileData.class, fileDataJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(FileDataAdapter.class, fileDataJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(SvLoadLogRecord.class, svLoadLogRecordJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(SvLoadLogRecordAdapter.class, svLoadLogRecordJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(SvDebitLogRecord.class, svDebitLogRecordJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(SvDebitLogRecordAdapter.class, svDebitLogRecordJsonAdapter, false);
+    JsonUtil.registerTypeAdapter(
+        Command.class, new AbstractCardCommandJsonAdapter().nullSafe(), false);
   }
 
   /**
@@ -61,6 +88,550 @@ public CalypsoCardApiFactory getCalypsoCardApiFactory() {
     return new CalypsoCardApiFactoryAdapter();
   }
 
+  /**
+   * Sets the deny list against which the application serial number of the cards selected with the
+   * provided card selection extension is checked.
+   *
+   * <p>A matching card is flagged as deny listed (see {@link #isDenyListed(CalypsoCard)}) and, if
+   * requested, an "Invalidate" command is automatically prepared just before the closing of its
+   * next secure session (symmetric or PKI), unless the card is already invalidated or an
+   * "Invalidate" command is already prepared.
+   *
+   * <p>The deny list may be shared by several card selection extensions and updated concurrently
+   * with the card selections.
+   *
+   * @param cardSelectionExtension The card selection extension, created by this service and not yet
+   *     frozen.
+   * @param denyList The deny list, null to disable the check.
+   * @param isInvalidationRequested true if the deny listed cards must be automatically invalidated.
+   * @throws IllegalArgumentException If the card selection extension is null or was not created by
+   *     this service.
+   * @throws IllegalStateException If the card selection extension is frozen.
+   * @since 3.1.6
+   */
+  public void setCardDenyList(
+      CalypsoCardSelectionExtension cardSelectionExtension,
+      CardDenyList denyList,
+      boolean isInvalidationRequested) {
+    toAdapter(cardSelectionExtension).setDenyList(denyList, isInvalidationRequested);
+  }
+
+  /**
+   * Freezes the selection scenario of a card selection extension.
+   *
+   * <p>The card selection request is built once and for all and returned as is on each card
+   * detection, e.g. in scheduled detection mode. No further command can be prepared and the
+   * configuration of the extension can no longer be changed.
+   *
+   * <p>A frozen card selection extension can be shared by several readers.
+   *
+   * @param cardSelectionExtension The card selection extension, created by this service.
+   * @throws IllegalArgumentException If the card selection extension is null or was not created by
+   *     this service.
+   * @since 3.1.6
+   */
+  public void freeze(CalypsoCardSelectionExtension cardSelectionExtension) {
+    toAdapter(cardSelectionExtension).freeze();
+  }
+
+  /**
+   * Indicates if the application serial number of the card was found in the deny list of the card
+   * selection extension which selected it.
+   *
+   * @param card The card.
+   * @return true if the card is deny listed.
+   * @throws IllegalArgumentException If the card is null or was not created by this service.
+   * @since 3.1.6
+   */
+  public boolean isDenyListed(CalypsoCard card) {
+    return toAdapter(card).isDenyListed();
+  }
+
+  /**
+   * Encodes the image of a card with the compact binary codec, alternative to the JSON
+   * representation.
+   *
+   * <p>The encoding starts with a format version and is intended to be decoded by {@link
+   * #decodeCard(byte[])} of the same or a later version of this extension.
+   *
+   * @param card The card.
+   * @return A not empty byte array.
+   * @throws IllegalArgumentException If the card is null or was not created by this service.
+   * @since 3.1.6
+   */
+  public byte[] encodeCard(CalypsoCard card) {
+    return CalypsoCardBinaryCodec.encode(toAdapter(card));
+  }
+
+  /**
+   * Decodes a card image encoded by {@link #encodeCard(CalypsoCard)}.
+   *
+   * @param data The encoded image.
+   * @return A new card image.
+   * @throws IllegalArgumentException If the data is null or malformed.
+   * @since 3.1.6
+   */
+  public CalypsoCard decodeCard(byte[] data) {
+    Assert.getInstance().notNull(data, "data");
+    return CalypsoCardBinaryCodec.decode(data);
+  }
+
+  /**
+   * Sets a named checkpoint in the image of a card, replacing any checkpoint having the same name.
+   *
+   * @param card The card image, created by this service.
+   * @param name The name of the checkpoint.
+   * @throws IllegalArgumentException If the card is null or was not created by this service, or if
+   *     the name is null or empty.
+   * @see #getDelta(CalypsoCard, String)
+   * @since 3.1.6
+   */
+  public void setCheckpoint(CalypsoCard card, String name) {
+    toAdapter(card).setCheckpoint(name);
+  }
+
+  /**
+   * Gets the changes made to a card since its selection or since a named checkpoint.
+   *
+   * <p>The changes are those made by the successful modification commands (record and binary
+   * updates, appends, counter changes and SV operations). Those of a secure session that has been
+   * aborted or whose closing has failed are discarded along with the restored files.
+   *
+   * @param card The card image, created by this service.
+   * @param checkpointName The name of the checkpoint, null for the changes since the selection.
+   * @return A not null reference.
+   * @throws IllegalArgumentException If the card is null or was not created by this service, or if
+   *     the checkpoint is unknown.
+   * @since 3.1.6
+   */
+  public CardImageDelta getDelta(CalypsoCard card, String checkpointName) {
+    return toAdapter(card).getDelta(checkpointName);
+  }
+
+  /**
+   * Takes an immutable snapshot of the image of a card, which becomes its last snapshot.
+   *
+   * <p>This method must be called by the thread modifying the card image (e.g. between two
+   * transactions). The snapshot can then be read by any thread without synchronization. The last
+   * snapshot itself is returned if the card image has not changed.
+   *
+   * @param card The card image, created by this service.
+   * @return A not null reference.
+   * @throws IllegalArgumentException If the card is null or was not created by this service.
+   * @see #setSnapshotPublicationEnabled(TransactionManager, boolean)
+   * @since 3.1.6
+   */
+  public CardImageSnapshot snapshot(CalypsoCard card) {
+    return toAdapter(card).snapshot();
+  }
+
+  /**
+   * Gets the last snapshot taken of the image of a card.
+   *
+   * <p>This method can be called by any thread.
+   *
+   * @param card The card image, created by this service.
+   * @return Null if no snapshot has been taken.
+   * @throws IllegalArgumentException If the card is null or was not created by this service.
+   * @see #snapshot(CalypsoCard)
+   * @since 3.1.6
+   */
+  public CardImageSnapshot getLastSnapshot(CalypsoCard card) {
+    return toAdapter(card).getLastSnapshot();
+  }
+
+  /**
+   * Sets the cache from which the file structure of the selected DF is injected into the image of
+   * the cards selected with a card selection extension.
+   *
+   * @param cardSelectionExtension The card selection extension, created by this service and not yet
+   *     frozen.
+   * @param fileStructureCache The cache, null to disable the injection.
+   * @throws IllegalArgumentException If the card selection extension is null or was not created by
+   *     this service.
+   * @throws IllegalStateException If the card selection extension is frozen.
+   * @since 3.1.6
+   */
+  public void setFileStructureCache(
+      CalypsoCardSelectionExtension cardSelectionExtension, FileStructureCache fileStructureCache) {
+    toAdapter(cardSelectionExtension).setFileStructureCache(fileStructureCache);
+  }
+
+  /**
+   * Sets the file structure cache used by the "Get Data (EF LIST)" commands of a transaction
+   * manager.
+   *
+   * <p>When the structure of the current DF is cached, the "Get Data" command for the EF LIST tag
+   * updates the card image from the cache instead of being sent to the card (except when the cache
+   * requests a verification). Otherwise, the structure returned by the card is stored in the cache.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param fileStructureCache The cache, null to disable it (default).
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public void setFileStructureCache(
+      TransactionManager<?> transactionManager, FileStructureCache fileStructureCache) {
+    toAdapter(transactionManager).setFileStructureCache(fileStructureCache);
+  }
+
+  /**
+   * Sets the advisor proposing the reads added to the card selection request of a card selection
+   * extension.
+   *
+   * <p>The proposed reads are determined once, when the card selection request is built for the
+   * first time (or when the card selection extension is frozen), and then used by all the requests
+   * and parsings of this card selection extension.
+   *
+   * @param cardSelectionExtension The card selection extension, created by this service and not yet
+   *     frozen.
+   * @param prefetchAdvisor The advisor, null to disable the prefetch (default).
+   * @throws IllegalArgumentException If the card selection extension is null or was not created by
+   *     this service.
+   * @throws IllegalStateException If the card selection extension is frozen.
+   * @since 3.1.6
+   */
+  public void setSelectionPrefetchAdvisor(
+      CalypsoCardSelectionExtension cardSelectionExtension,
+      SelectionPrefetchAdvisor prefetchAdvisor) {
+    toAdapter(cardSelectionExtension).setSelectionPrefetchAdvisor(prefetchAdvisor);
+  }
+
+  /**
+   * Sets the advisor informed of the reads performed by a transaction manager, from which it learns
+   * the reads to prefetch at the selection of the following cards.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param prefetchAdvisor The advisor, null to disable the learning (default).
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public void setSelectionPrefetchAdvisor(
+      TransactionManager<?> transactionManager, SelectionPrefetchAdvisor prefetchAdvisor) {
+    toAdapter(transactionManager).setSelectionPrefetchAdvisor(prefetchAdvisor);
+  }
+
+  /**
+   * Loads a set of card product profiles from a JSON file, replacing the previously loaded ones.
+   *
+   * <p>The loaded profiles take precedence over the default ones and apply to the cards selected
+   * afterwards. The lookups in progress are not blocked by the reload.
+   *
+   * @param file The JSON file.
+   * @throws IOException If the file cannot be read.
+   * @throws IllegalArgumentException If the file is null, if its content is invalid or if its
+   *     version is lower than the version of the current profiles.
+   * @since 3.1.6
+   */
+  public void loadCardProfiles(Path file) throws IOException {
+    Assert.getInstance().notNull(file, "file");
+    CardProfileRegistry.getInstance().load(file);
+  }
+
+  /**
+   * Loads a set of card product profiles in JSON format, replacing the previously loaded ones.
+   *
+   * @param reader The JSON content (not closed by this method).
+   * @throws IOException If the content cannot be read.
+   * @throws IllegalArgumentException If the reader is null, if the content is invalid or if its
+   *     version is lower than the version of the current profiles.
+   * @see #loadCardProfiles(Path)
+   * @since 3.1.6
+   */
+  public void loadCardProfiles(Reader reader) throws IOException {
+    Assert.getInstance().notNull(reader, "reader");
+    CardProfileRegistry.getInstance().load(reader);
+  }
+
+  /**
+   * Removes the loaded card product profiles, only the default profiles remain.
+   *
+   * @since 3.1.6
+   */
+  public void resetCardProfiles() {
+    CardProfileRegistry.getInstance().reset();
+  }
+
+  /**
+   * Enables or disables the write elision mode of a transaction manager.
+   *
+   * <p>When enabled, the commands modifying the content of an EF are compared with the card image
+   * when they are prepared, and are reduced or not prepared at all when they would not modify the
+   * known content. This saves APDU exchanges and secure session buffer, and thus possibly a session
+   * closing and reopening.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param isWriteElisionEnabled true to enable the mode, false to disable it (default).
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public void setWriteElisionEnabled(
+      TransactionManager<?> transactionManager, boolean isWriteElisionEnabled) {
+    toAdapter(transactionManager).setWriteElisionEnabled(isWriteElisionEnabled);
+  }
+
+  /**
+   * Returns the number of commands not prepared by a transaction manager because of the write
+   * elision mode.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @return The number of commands elided since the creation of the transaction manager.
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public int getElidedCommandsCount(TransactionManager<?> transactionManager) {
+    return toAdapter(transactionManager).getElidedCommandsCount();
+  }
+
+  /**
+   * Returns the number of data bytes removed from the commands prepared by a transaction manager
+   * (including the elided ones) because of the write elision mode.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @return The number of bytes elided since the creation of the transaction manager.
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public int getElidedBytesCount(TransactionManager<?> transactionManager) {
+    return toAdapter(transactionManager).getElidedBytesCount();
+  }
+
+  /**
+   * Enables or disables the binary update coalescing mode of a transaction manager.
+   *
+   * <p>When enabled, the "Update/Write Binary" commands designating their EF by SFI and prepared
+   * consecutively are merged file by file and split again according to the payload capacity. This
+   * saves APDU exchanges and secure session buffer, and thus possibly a session closing and
+   * reopening.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param isBinaryUpdateCoalescingEnabled true to enable the mode, false to disable it (default).
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public void setBinaryUpdateCoalescingEnabled(
+      TransactionManager<?> transactionManager, boolean isBinaryUpdateCoalescingEnabled) {
+    toAdapter(transactionManager).setBinaryUpdateCoalescingEnabled(isBinaryUpdateCoalescingEnabled);
+  }
+
+  /**
+   * Returns the number of APDUs saved by a transaction manager because of the binary update
+   * coalescing mode.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @return The number of APDUs saved since the creation of the transaction manager.
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public int getCoalescedCommandsCount(TransactionManager<?> transactionManager) {
+    return toAdapter(transactionManager).getCoalescedCommandsCount();
+  }
+
+  /**
+   * Returns the number of secure session buffer bytes saved by a transaction manager because of
+   * the binary update coalescing mode.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @return The number of bytes saved since the creation of the transaction manager.
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public int getCoalescedBytesCount(TransactionManager<?> transactionManager) {
+    return toAdapter(transactionManager).getCoalescedBytesCount();
+  }
+
+  /**
+   * Sets the latency model learning the processing time of the commands from the exchanges of a
+   * transaction manager with the card, and used by {@link #processCommands(TransactionManager,
+   * ChannelControl, int)}.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param latencyModel The model, null to disable the learning (default).
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public void setCommandLatencyModel(
+      TransactionManager<?> transactionManager, CommandLatencyModel latencyModel) {
+    toAdapter(transactionManager).setCommandLatencyModel(latencyModel);
+  }
+
+  /**
+   * Marks the last command prepared by a transaction manager as optional: {@link
+   * #processCommands(TransactionManager, ChannelControl, int)} may drop it to fit in its time
+   * budget.
+   *
+   * <p>Only reads can be optional. The optional commands are dropped from the last prepared one.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @throws IllegalStateException If no command is prepared or if the last prepared command is not
+   *     a read.
+   * @since 3.1.6
+   */
+  public void markLastCommandOptional(TransactionManager<?> transactionManager) {
+    toAdapter(transactionManager).markLastCommandOptional();
+  }
+
+  /**
+   * Processes the commands prepared by a transaction manager within a time budget.
+   *
+   * <p>Before any transmission, the time needed by the card to process the prepared commands is
+   * predicted with the latency model of the transaction manager. If it exceeds the time budget, the
+   * optional commands are dropped, starting with the last prepared one, until the prediction fits.
+   * If it still does not fit, the transaction is reset and nothing is transmitted.
+   *
+   * <p>The prediction only covers the prepared card commands, not the commands added by the
+   * transaction manager itself (e.g. the closing of a secure session) nor the processing of the
+   * crypto service.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param channelControl Policy for managing the physical channel after executing commands to the
+   *     card.
+   * @param timeBudgetMillis The time budget in milliseconds.
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @throws IllegalStateException If no latency model is set or if the prepared commands do not fit
+   *     in the time budget.
+   * @see #setCommandLatencyModel(TransactionManager, CommandLatencyModel)
+   * @see #markLastCommandOptional(TransactionManager)
+   * @since 3.1.6
+   */
+  public void processCommands(
+      TransactionManager<?> transactionManager,
+      ChannelControl channelControl,
+      int timeBudgetMillis) {
+    toAdapter(transactionManager).processCommands(channelControl, timeBudgetMillis);
+  }
+
+  /**
+   * Enables or disables the publication of the card image snapshots by a transaction manager.
+   *
+   * <p>When enabled, a snapshot of the card image is taken after the processing of the responses of
+   * each exchange with the card, so that other threads can follow the content of the card through
+   * {@link #getLastSnapshot(CalypsoCard)} without synchronization.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param isSnapshotPublicationEnabled true to enable the publication, false to disable it
+   *     (default).
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @since 3.1.6
+   */
+  public void setSnapshotPublicationEnabled(
+      TransactionManager<?> transactionManager, boolean isSnapshotPublicationEnabled) {
+    toAdapter(transactionManager).setSnapshotPublicationEnabled(isSnapshotPublicationEnabled);
+  }
+
+  /**
+   * Enables or disables the resumable execution mode of a transaction manager.
+   *
+   * <p>When enabled, a loss of communication with the card keeps in the recovery the reads
+   * processed before the tear outside any secure session, and the first commands processed on the
+   * next presentation of the same card are answered from the kept responses when they match.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param tearRecovery The recovery, null to disable the resumable execution mode (default).
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @see CardTearRecovery
+   * @since 3.1.6
+   */
+  public void setCardTearRecovery(
+      TransactionManager<?> transactionManager, CardTearRecovery tearRecovery) {
+    toAdapter(transactionManager).setCardTearRecovery(tearRecovery);
+  }
+
+  /**
+   * Sets the engine changing the outdated card keys during the transactions of a secure symmetric
+   * crypto transaction manager.
+   *
+   * <p>When set, the first outdated key is changed right after the first closing of a secure
+   * session if the latency model of the engine predicts that it fits in the time budget of the card
+   * presentation. A failure of the key change is recorded by the engine, it does not fail the
+   * processing of the commands. At most one key is changed per card presentation.
+   *
+   * @param transactionManager The transaction manager, created by this service.
+   * @param keyRotationEngine The engine, null to disable the key rotation (default).
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   * @see KeyRotationEngine
+   * @since 3.1.6
+   */
+  public void setKeyRotationEngine(
+      SecureSymmetricCryptoTransactionManager<?> transactionManager,
+      KeyRotationEngine keyRotationEngine) {
+    Assert.getInstance().notNull(transactionManager, "transactionManager");
+    if (!(transactionManager instanceof SecureSymmetricCryptoTransactionManagerAdapter)) {
+      throw new IllegalArgumentException(
+          "The provided 'transactionManager' must be an instance of"
+              + " 'SecureSymmetricCryptoTransactionManagerAdapter'");
+    }
+    ((SecureSymmetricCryptoTransactionManagerAdapter<?>) transactionManager)
+        .setKeyRotationEngine(keyRotationEngine);
+  }
+
+  /**
+   * Checks that the provided card was created by this service.
+   *
+   * @param card The card.
+   * @return The card adapter.
+   * @throws IllegalArgumentException If the card is null or was not created by this service.
+   */
+  private static CalypsoCardAdapter toAdapter(CalypsoCard card) {
+    Assert.getInstance().notNull(card, "card");
+    if (!(card instanceof CalypsoCardAdapter)) {
+      throw new IllegalArgumentException(
+          "The provided 'card' must be an instance of 'CalypsoCardAdapter'");
+    }
+    return (CalypsoCardAdapter) card;
+  }
+
+  /**
+   * Checks that the provided card selection extension was created by this service.
+   *
+   * @param cardSelectionExtension The card selection extension.
+   * @return The card selection extension adapter.
+   * @throws IllegalArgumentException If the card selection extension is null or was not created by
+   *     this service.
+   */
+  private static CalypsoCardSelectionExtensionAdapter toAdapter(
+      CalypsoCardSelectionExtension cardSelectionExtension) {
+    Assert.getInstance().notNull(cardSelectionExtension, "cardSelectionExtension");
+    if (!(cardSelectionExtension instanceof CalypsoCardSelectionExtensionAdapter)) {
+      throw new IllegalArgumentException(
+          "The provided 'cardSelectionExtension' must be an instance of"
+              + " 'CalypsoCardSelectionExtensionAdapter'");
+    }
+    return (CalypsoCardSelectionExtensionAdapter) cardSelectionExtension;
+  }
+
+  /**
+   * Checks that the provided transaction manager was created by this service.
+   *
+   * @param transactionManager The transaction manager.
+   * @return The transaction manager adapter.
+   * @throws IllegalArgumentException If the transaction manager is null or was not created by this
+   *     service.
+   */
+  private static TransactionManagerAdapter<?> toAdapter(TransactionManager<?> transactionManager) {
+    Assert.getInstance().notNull(transactionManager, "transactionManager");
+    if (!(transactionManager instanceof TransactionManagerAdapter)) {
+      throw new IllegalArgumentException(
+          "The provided 'transactionManager' must be an instance of 'TransactionManagerAdapter'");
+    }
+    return (TransactionManagerAdapter<?>) transactionManager;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -0,0 +1,391 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.eclipse.keyple.core.util.Assert;
+
+/**
+ * Deny list (hot list) of application serial numbers, evaluated when a card is selected.
+ *
+ * <p>The serial numbers are stored as 8-byte values sorted in ascending unsigned order in a {@link
+ * LongBuffer} which is either a read-only memory mapping of a file or a direct buffer, so that a
+ * list of several million entries does not reside in the Java heap. The lookup is a binary search,
+ * optionally preceded by a Bloom filter which rejects most of the unknown serial numbers without
+ * touching the sorted buffer.
+ *
+ * <p>The incremental updates are stored in two small sorted overlays (added and removed serial
+ * numbers) which are merged into a new sorted buffer once they exceed a threshold. All the data
+ * used by a lookup is held by an immutable snapshot published through a volatile field, so updates
+ * never block the lookups, which may be performed concurrently from any thread.
+ *
+ * <p>The deny list is attached to a card selection extension with {@link
+ * CalypsoExtensionService#setCardDenyList}.
+ *
+ * @since 3.1.6
+ */
+public final class CardDenyList {
+
+  private static final int SERIAL_NUMBER_SIZE = 8;
+  private static final int BLOOM_FILTER_BITS_PER_ENTRY = 8;
+  private static final int BLOOM_FILTER_NB_HASHES = 3;
+  private static final int DEFAULT_OVERLAY_MAX_SIZE = 65536;
+  private static final long[] EMPTY = new long[0];
+
+  private final boolean isBloomFilterEnabled;
+  private final int overlayMaxSize;
+  private volatile Snapshot snapshot; // NOSONAR the snapshot is immutable
+
+  /**
+   * Constructor.
+   *
+   * @param sortedSerialNumbers The serial numbers sorted in ascending unsigned order.
+   * @param isBloomFilterEnabled true if a Bloom filter must be used in front of the lookups.
+   * @param overlayMaxSize The number of pending updates above which the sorted buffer is rebuilt.
+   * @since 3.1.6
+   */
+  public CardDenyList(
+      LongBuffer sortedSerialNumbers, boolean isBloomFilterEnabled, int overlayMaxSize) {
+    Assert.getInstance()
+        .notNull(sortedSerialNumbers, "sortedSerialNumbers")
+        .greaterOrEqual(overlayMaxSize, 1, "overlayMaxSize");
+    this.isBloomFilterEnabled = isBloomFilterEnabled;
+    this.overlayMaxSize = overlayMaxSize;
+    LongBuffer base = sortedSerialNumbers.slice().asReadOnlyBuffer();
+    checkSorted(base);
+    snapshot = new Snapshot(base, buildBloomFilter(base), EMPTY, EMPTY);
+  }
+
+  /**
+   * Creates an empty deny list with a Bloom filter and the default overlay size.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public static CardDenyList empty() {
+    return new CardDenyList(LongBuffer.allocate(0), true, DEFAULT_OVERLAY_MAX_SIZE);
+  }
+
+  /**
+   * Creates a deny list from the provided serial numbers, copied into a direct buffer.
+   *
+   * @param serialNumbers The serial numbers, in any order, duplicates allowed.
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public static CardDenyList of(long... serialNumbers) {
+    long[] sorted = distinctSorted(serialNumbers);
+    LongBuffer buffer = allocateDirect(sorted.length);
+    buffer.put(sorted).flip();
+    return new CardDenyList(buffer, true, DEFAULT_OVERLAY_MAX_SIZE);
+  }
+
+  /**
+   * Creates a deny list by memory mapping the provided file, which must contain the 8-byte
+   * big-endian serial numbers sorted in ascending unsigned order, without separator.
+   *
+   * @param file The path of the file.
+   * @return A not null reference.
+   * @throws IOException If the file cannot be mapped.
+   * @throws IllegalArgumentException If the file content is malformed.
+   * @since 3.1.6
+   */
+  public static CardDenyList map(Path file) throws IOException {
+    Assert.getInstance().notNull(file, "file");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size % SERIAL_NUMBER_SIZE != 0 || size > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Malformed deny list file, size: " + size);
+      }
+      LongBuffer buffer =
+          channel
+              .map(FileChannel.MapMode.READ_ONLY, 0, size)
+              .order(ByteOrder.BIG_ENDIAN)
+              .asLongBuffer();
+      return new CardDenyList(buffer, true, DEFAULT_OVERLAY_MAX_SIZE);
+    }
+  }
+
+  /**
+   * Converts an 8-byte application serial number into the value used as key by the deny list.
+   *
+   * @param applicationSerialNumber The application serial number.
+   * @return The big-endian value of the serial number.
+   * @since 3.1.6
+   */
+  public static long toKey(byte[] applicationSerialNumber) {
+    Assert.getInstance()
+        .notNull(applicationSerialNumber, "applicationSerialNumber")
+        .isEqual(applicationSerialNumber.length, SERIAL_NUMBER_SIZE, "applicationSerialNumber");
+    long key = 0;
+    for (byte b : applicationSerialNumber) {
+      key = (key << 8) | (b & 0xFF);
+    }
+    return key;
+  }
+
+  /**
+   * Indicates if the provided application serial number is deny listed.
+   *
+   * @param applicationSerialNumber The 8-byte application serial number.
+   * @return true if the serial number is deny listed.
+   * @since 3.1.6
+   */
+  public boolean contains(byte[] applicationSerialNumber) {
+    return contains(toKey(applicationSerialNumber));
+  }
+
+  /**
+   * Indicates if the provided serial number is deny listed.
+   *
+   * @param serialNumber The serial number as returned by {@link #toKey(byte[])}.
+   * @return true if the serial number is deny listed.
+   * @since 3.1.6
+   */
+  public boolean contains(long serialNumber) {
+    Snapshot s = snapshot;
+    if (binarySearch(s.removed, serialNumber) >= 0) {
+      return false;
+    }
+    if (binarySearch(s.added, serialNumber) >= 0) {
+      return true;
+    }
+    if (s.bloomFilter != null && !mightContain(s.bloomFilter, serialNumber)) {
+      return false;
+    }
+    return binarySearch(s.base, serialNumber) >= 0;
+  }
+
+  /**
+   * Applies an incremental update.
+   *
+   * <p>The lookups running concurrently keep using the previous state until the update is
+   * published. The updates themselves are serialized.
+   *
+   * @param added The serial numbers to add (may be empty).
+   * @param removed The serial numbers to remove (may be empty).
+   * @since 3.1.6
+   */
+  public synchronized void applyDelta(long[] added, long[] removed) {
+    Assert.getInstance().notNull(added, "added").notNull(removed, "removed");
+    Snapshot s = snapshot;
+    long[] newAdded = s.added;
+    long[] newRemoved = s.removed;
+    for (long serialNumber : distinctSorted(added)) {
+      newRemoved = without(newRemoved, serialNumber);
+      if (binarySearch(s.base, serialNumber) < 0) {
+        newAdded = with(newAdded, serialNumber);
+      }
+    }
+    for (long serialNumber : distinctSorted(removed)) {
+      newAdded = without(newAdded, serialNumber);
+      if (binarySearch(s.base, serialNumber) >= 0) {
+        newRemoved = with(newRemoved, serialNumber);
+      }
+    }
+    if (newAdded.length + newRemoved.length > overlayMaxSize) {
+      LongBuffer merged = merge(s.base, newAdded, newRemoved);
+      snapshot = new Snapshot(merged, buildBloomFilter(merged), EMPTY, EMPTY);
+    } else {
+      snapshot = new Snapshot(s.base, s.bloomFilter, newAdded, newRemoved);
+    }
+  }
+
+  /**
+   * @return The number of deny listed serial numbers.
+   * @since 3.1.6
+   */
+  public int size() {
+    Snapshot s = snapshot;
+    return s.base.remaining() + s.added.length - s.removed.length;
+  }
+
+  private static void checkSorted(LongBuffer base) {
+    for (int i = 1; i < base.limit(); i++) {
+      if (Long.compareUnsigned(base.get(i - 1), base.get(i)) >= 0) {
+        throw new IllegalArgumentException(
+            "Deny list not sorted in strictly ascending unsigned order at index " + i);
+      }
+    }
+  }
+
+  private static int binarySearch(LongBuffer base, long key) {
+    int low = 0;
+    int high = base.limit() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = Long.compareUnsigned(base.get(mid), key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private static int binarySearch(long[] sorted, long key) {
+    int low = 0;
+    int high = sorted.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = Long.compareUnsigned(sorted[mid], key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private static long[] distinctSorted(long[] values) {
+    // flipping the sign bit maps the unsigned order onto the signed order used by Arrays.sort
+    long[] sorted = new long[values.length];
+    for (int i = 0; i < values.length; i++) {
+      sorted[i] = values[i] ^ Long.MIN_VALUE;
+    }
+    Arrays.sort(sorted);
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] ^= Long.MIN_VALUE;
+    }
+    int n = 0;
+    for (int i = 0; i < sorted.length; i++) {
+      if (i == 0 || sorted[i] != sorted[n - 1]) {
+        sorted[n++] = sorted[i];
+      }
+    }
+    return n == sorted.length ? sorted : Arrays.copyOf(sorted, n);
+  }
+
+  private static long[] with(long[] sorted, long value) {
+    int index = binarySearch(sorted, value);
+    if (index >= 0) {
+      return sorted;
+    }
+    index = -index - 1;
+    long[] result = new long[sorted.length + 1];
+    System.arraycopy(sorted, 0, result, 0, index);
+    result[index] = value;
+    System.arraycopy(sorted, index, result, index + 1, sorted.length - index);
+    return result;
+  }
+
+  private static long[] without(long[] sorted, long value) {
+    int index = binarySearch(sorted, value);
+    if (index < 0) {
+      return sorted;
+    }
+    long[] result = new long[sorted.length - 1];
+    System.arraycopy(sorted, 0, result, 0, index);
+    System.arraycopy(sorted, index + 1, result, index, sorted.length - index - 1);
+    return result;
+  }
+
+  private static LongBuffer merge(LongBuffer base, long[] added, long[] removed) {
+    LongBuffer merged = allocateDirect(base.limit() + added.length - removed.length);
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < base.limit() || j < added.length) {
+      long value;
+      if (j == added.length
+          || (i < base.limit() && Long.compareUnsigned(base.get(i), added[j]) < 0)) {
+        value = base.get(i++);
+        while (k < removed.length && Long.compareUnsigned(removed[k], value) < 0) {
+          k++;
+        }
+        if (k < removed.length && removed[k] == value) {
+          continue;
+        }
+      } else {
+        value = added[j++];
+      }
+      merged.put(value);
+    }
+    merged.flip();
+    return merged.asReadOnlyBuffer();
+  }
+
+  private static LongBuffer allocateDirect(int nbSerialNumbers) {
+    return ByteBuffer.allocateDirect(nbSerialNumbers * SERIAL_NUMBER_SIZE)
+        .order(ByteOrder.nativeOrder())
+        .asLongBuffer();
+  }
+
+  private long[] buildBloomFilter(LongBuffer base) {
+    if (!isBloomFilterEnabled || base.limit() == 0) {
+      return null; // NOSONAR null means "no filter"
+    }
+    long nbBits = (long) base.limit() * BLOOM_FILTER_BITS_PER_ENTRY;
+    long[] bloomFilter = new long[(int) Math.min(Integer.MAX_VALUE, (nbBits + 63) >>> 6)];
+    for (int i = 0; i < base.limit(); i++) {
+      long value = base.get(i);
+      long h1 = mix(value);
+      long h2 = mix(h1) | 1;
+      for (int h = 0; h < BLOOM_FILTER_NB_HASHES; h++) {
+        long bit = Long.remainderUnsigned(h1 + h * h2, (long) bloomFilter.length << 6);
+        bloomFilter[(int) (bit >>> 6)] |= 1L << bit;
+      }
+    }
+    return bloomFilter;
+  }
+
+  private static boolean mightContain(long[] bloomFilter, long value) {
+    long h1 = mix(value);
+    long h2 = mix(h1) | 1;
+    for (int h = 0; h < BLOOM_FILTER_NB_HASHES; h++) {
+      long bit = Long.remainderUnsigned(h1 + h * h2, (long) bloomFilter.length << 6);
+      if ((bloomFilter[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** 64-bit finalizer of the MurmurHash3 algorithm. */
+  private static long mix(long value) {
+    long h = value;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /** Immutable state of the deny list. */
+  private static final class Snapshot {
+    private final LongBuffer base;
+    private final long[] bloomFilter;
+    private final long[] added;
+    private final long[] removed;
+
+    private Snapshot(LongBuffer base, long[] bloomFilter, long[] added, long[] removed) {
+      this.base = base;
+      this.bloomFilter = bloomFilter;
+      this.added = added;
+      this.removed = removed;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keypop.card.ApduResponseApi;
+import org.eclipse.keypop.card.CardBrokenCommunicationException;
+import org.eclipse.keypop.card.CardResponseApi;
+import org.eclipse.keypop.card.ChannelControl;
+import org.eclipse.keypop.card.ProxyReaderApi;
+import org.eclipse.keypop.card.ReaderBrokenCommunicationException;
+import org.eclipse.keypop.card.UnexpectedStatusWordException;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.eclipse.keypop.reader.CardReader;
+
+/**
+ * Card reader decorator recording all the exchanges with the card into a compact binary trace,
+ * with their outcome and duration, to be replayed later by a {@link CardExchangeReplayer}.
+ *
+ * <p>The decorated reader is used transparently by the transaction managers: the responses and the
+ * exceptions of the decorated reader are returned unchanged. The trace is written to the provided
+ * stream after each exchange and the recorder must be closed at the end of the recording.
+ *
+ * @since 3.1.6
+ */
+public final class CardExchangeRecorder implements CardReader, ProxyReaderApi, Closeable {
+
+  private final CardReader reader;
+  private final ProxyReaderApi proxyReader;
+  private final DataOutputStream out;
+  private int nbRecordedExchanges;
+
+  /**
+   * Constructor.
+   *
+   * <p>The header of the trace is written immediately.
+   *
+   * @param reader The reader to decorate, which must implement {@link ProxyReaderApi}.
+   * @param out The destination of the trace.
+   * @throws IllegalArgumentException If the reader is null or is not a {@link ProxyReaderApi}, or
+   *     if the stream is null.
+   * @throws IllegalStateException If the header of the trace can't be written.
+   * @since 3.1.6
+   */
+  public CardExchangeRecorder(CardReader reader, OutputStream out) {
+    Assert.getInstance().notNull(reader, "reader").notNull(out, "out");
+    if (!(reader instanceof ProxyReaderApi)) {
+      throw new IllegalArgumentException("The reader does not implement ProxyReaderApi");
+    }
+    this.reader = reader;
+    this.proxyReader = (ProxyReaderApi) reader;
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+    try {
+      CardExchangeTrace.writeHeader(this.out, reader.getName(), reader.isContactless());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write the header of the trace", e);
+    }
+  }
+
+  /**
+   * @return The number of card requests recorded so far.
+   * @since 3.1.6
+   */
+  public synchronized int getRecordedExchangesCount() {
+    return nbRecordedExchanges;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public String getName() {
+    return reader.getName();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isContactless() {
+    return reader.isContactless();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isCardPresent() {
+    return reader.isCardPresent();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The exchange is recorded whatever its outcome.
+   *
+   * @throws IllegalStateException If the trace can't be written.
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized CardResponseApi transmitCardRequest(
+      CardRequestSpi cardRequest, ChannelControl channelControl)
+      throws ReaderBrokenCommunicationException, CardBrokenCommunicationException,
+          UnexpectedStatusWordException {
+    long start = System.nanoTime();
+    try {
+      CardResponseApi cardResponse = proxyReader.transmitCardRequest(cardRequest, channelControl);
+      record(
+          cardRequest,
+          channelControl,
+          CardExchangeTrace.Outcome.SUCCESS,
+          cardResponse,
+          true,
+          System.nanoTime() - start);
+      return cardResponse;
+    } catch (UnexpectedStatusWordException e) {
+      record(
+          cardRequest,
+          channelControl,
+          CardExchangeTrace.Outcome.UNEXPECTED_STATUS_WORD,
+          e.getCardResponse(),
+          e.isCardResponseComplete(),
+          System.nanoTime() - start);
+      throw e;
+    } catch (CardBrokenCommunicationException e) {
+      record(
+          cardRequest,
+          channelControl,
+          CardExchangeTrace.Outcome.CARD_BROKEN_COMMUNICATION,
+          e.getCardResponse(),
+          e.isCardResponseComplete(),
+          System.nanoTime() - start);
+      throw e;
+    } catch (ReaderBrokenCommunicationException e) {
+      record(
+          cardRequest,
+          channelControl,
+          CardExchangeTrace.Outcome.READER_BROKEN_COMMUNICATION,
+          e.getCardResponse(),
+          e.isCardResponseComplete(),
+          System.nanoTime() - start);
+      throw e;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @throws IllegalStateException If the trace can't be written.
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized void releaseChannel() throws ReaderBrokenCommunicationException {
+    long start = System.nanoTime();
+    CardExchangeTrace.Outcome outcome = CardExchangeTrace.Outcome.SUCCESS;
+    try {
+      proxyReader.releaseChannel();
+    } catch (ReaderBrokenCommunicationException e) {
+      outcome = CardExchangeTrace.Outcome.READER_BROKEN_COMMUNICATION;
+      throw e;
+    } finally {
+      write(
+          new CardExchangeTrace.Event(
+              false,
+              null,
+              outcome,
+              true,
+              false,
+              System.nanoTime() - start,
+              Collections.<byte[]>emptyList(),
+              Collections.<byte[]>emptyList()));
+    }
+  }
+
+  /**
+   * Flushes and closes the trace.
+   *
+   * @throws IOException If an I/O error occurs.
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+
+  /**
+   * Records a card request.
+   *
+   * @param cardRequest The card request.
+   * @param channelControl The channel control.
+   * @param outcome The outcome.
+   * @param cardResponse The card response, may be null in case of error.
+   * @param isCardResponseComplete true if all the APDU requests have been answered.
+   * @param elapsedNanos The duration of the exchange.
+   */
+  private void record(
+      CardRequestSpi cardRequest,
+      ChannelControl channelControl,
+      CardExchangeTrace.Outcome outcome,
+      CardResponseApi cardResponse,
+      boolean isCardResponseComplete,
+      long elapsedNanos) {
+    List<ApduRequestSpi> apduRequests = cardRequest.getApduRequests();
+    List<byte[]> requests = new ArrayList<>(apduRequests.size());
+    for (ApduRequestSpi apduRequest : apduRequests) {
+      requests.add(apduRequest.getApdu());
+    }
+    List<byte[]> responses;
+    boolean isLogicalChannelOpen = false;
+    if (cardResponse != null) {
+      responses = new ArrayList<>(cardResponse.getApduResponses().size());
+      for (ApduResponseApi apduResponse : cardResponse.getApduResponses()) {
+        responses.add(apduResponse.getApdu());
+      }
+      isLogicalChannelOpen = cardResponse.isLogicalChannelOpen();
+    } else {
+      responses = Collections.emptyList();
+    }
+    write(
+        new CardExchangeTrace.Event(
+            true,
+            channelControl,
+            outcome,
+            isCardResponseComplete,
+            isLogicalChannelOpen,
+            elapsedNanos,
+            requests,
+            responses));
+    nbRecordedExchanges++;
+  }
+
+  /**
+   * Writes an event to the trace.
+   *
+   * @param event The event.
+   */
+  private void write(CardExchangeTrace.Event event) {
+    try {
+      CardExchangeTrace.writeEvent(out, event);
+      out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to write the trace", e);
+    }
+  }
+}
@@ -0,0 +1,422 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.card.CardBrokenCommunicationException;
+import org.eclipse.keypop.card.CardResponseApi;
+import org.eclipse.keypop.card.ChannelControl;
+import org.eclipse.keypop.card.ProxyReaderApi;
+import org.eclipse.keypop.card.ReaderBrokenCommunicationException;
+import org.eclipse.keypop.card.UnexpectedStatusWordException;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.eclipse.keypop.reader.CardReader;
+
+/**
+ * Card reader serving the responses recorded in a trace by a {@link CardExchangeRecorder}, to run
+ * transactions deterministically without any card.
+ *
+ * <p>The recorded events are served in order, whatever the requests actually transmitted: the
+ * recorded responses are returned and the recorded exceptions are thrown again. If requested, the
+ * recorded duration of each exchange is reproduced.
+ *
+ * <p>Each card request is compared to the recorded one: the differences (channel control, number
+ * of APDUs, APDU content, missing or extra exchanges) are collected as {@link Divergence}s, which
+ * reveal a change of the command plan built by the transaction managers since the recording. When
+ * the trace is exhausted, the card requests are answered by a {@link
+ * CardBrokenCommunicationException}.
+ *
+ * <p>The trace is read on demand, its size is therefore not limited by the memory.
+ *
+ * @since 3.1.6
+ */
+public final class CardExchangeReplayer implements CardReader, ProxyReaderApi, Closeable {
+
+  private static final CardResponseApi EMPTY_CARD_RESPONSE =
+      new CardExchangeTrace.Event(
+              true,
+              ChannelControl.KEEP_OPEN,
+              CardExchangeTrace.Outcome.CARD_BROKEN_COMMUNICATION,
+              false,
+              false,
+              0,
+              Collections.<byte[]>emptyList(),
+              Collections.<byte[]>emptyList())
+          .buildCardResponse();
+
+  private final DataInputStream in;
+  private final String readerName;
+  private final boolean isContactless;
+  private final boolean isLatencyReplayed;
+  private final List<Divergence> divergences = new ArrayList<>();
+  private CardExchangeTrace.Event nextEvent;
+  private boolean isTraceExhausted;
+  private int exchangeIndex;
+  private long replayedNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param in The source of the trace.
+   * @param isLatencyReplayed true to reproduce the recorded duration of each exchange.
+   * @throws IllegalArgumentException If the stream is null or is not a trace of a supported
+   *     version.
+   * @throws IllegalStateException If the header of the trace can't be read.
+   * @since 3.1.6
+   */
+  public CardExchangeReplayer(InputStream in, boolean isLatencyReplayed) {
+    Assert.getInstance().notNull(in, "in");
+    this.in = new DataInputStream(new BufferedInputStream(in));
+    this.isLatencyReplayed = isLatencyReplayed;
+    try {
+      String[] header = CardExchangeTrace.readHeader(this.in);
+      this.readerName = header[0];
+      this.isContactless = Boolean.parseBoolean(header[1]);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read the header of the trace", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return The name of the recorded reader.
+   * @since 3.1.6
+   */
+  @Override
+  public String getName() {
+    return readerName;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return The contactless flag of the recorded reader.
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isContactless() {
+    return isContactless;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return true as long as the trace contains events not replayed yet.
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized boolean isCardPresent() {
+    return peekEvent() != null;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Serves the next recorded exchange and reports the differences with the provided card
+   * request.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized CardResponseApi transmitCardRequest(
+      CardRequestSpi cardRequest, ChannelControl channelControl)
+      throws ReaderBrokenCommunicationException, CardBrokenCommunicationException,
+          UnexpectedStatusWordException {
+    long start = System.nanoTime();
+    int index = exchangeIndex++;
+    CardExchangeTrace.Event event = pollEvent();
+    while (event != null && !event.isExchange()) {
+      divergences.add(new Divergence(index, -1, "channel release", "card request"));
+      event = pollEvent();
+    }
+    if (event == null) {
+      divergences.add(new Divergence(index, -1, "end of trace", "card request"));
+      throw new CardBrokenCommunicationException(
+          EMPTY_CARD_RESPONSE, false, "No more recorded exchange to replay");
+    }
+    compare(index, event, cardRequest, channelControl);
+    waitRecordedLatency(start, event);
+    CardResponseApi cardResponse = event.buildCardResponse();
+    switch (event.getOutcome()) {
+      case UNEXPECTED_STATUS_WORD:
+        throw new UnexpectedStatusWordException(
+            cardResponse, event.isCardResponseComplete(), "Recorded unexpected status word");
+      case CARD_BROKEN_COMMUNICATION:
+        throw new CardBrokenCommunicationException(
+            cardResponse, event.isCardResponseComplete(), "Recorded card communication failure");
+      case READER_BROKEN_COMMUNICATION:
+        throw new ReaderBrokenCommunicationException(
+            cardResponse, event.isCardResponseComplete(), "Recorded reader communication failure");
+      default:
+        return cardResponse;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Serves the next recorded channel release. If a card request was recorded instead, the
+   * difference is reported and the recorded card request is kept for the next call.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized void releaseChannel() throws ReaderBrokenCommunicationException {
+    long start = System.nanoTime();
+    CardExchangeTrace.Event event = peekEvent();
+    if (event == null || event.isExchange()) {
+      divergences.add(
+          new Divergence(
+              exchangeIndex,
+              -1,
+              event == null ? "end of trace" : "card request",
+              "channel release"));
+      return;
+    }
+    pollEvent();
+    waitRecordedLatency(start, event);
+    if (event.getOutcome() == CardExchangeTrace.Outcome.READER_BROKEN_COMMUNICATION) {
+      throw new ReaderBrokenCommunicationException(
+          null, false, "Recorded reader communication failure");
+    }
+  }
+
+  /**
+   * Ends the replay: the recorded card requests not replayed are reported as divergences and the
+   * trace is closed.
+   *
+   * @return A not null unmodifiable list of all the divergences, in their order of detection.
+   * @since 3.1.6
+   */
+  public synchronized List<Divergence> complete() {
+    CardExchangeTrace.Event event;
+    while ((event = pollEvent()) != null) {
+      if (event.isExchange()) {
+        divergences.add(new Divergence(exchangeIndex++, -1, "card request", "end of replay"));
+      }
+    }
+    closeQuietly();
+    return getDivergences();
+  }
+
+  /**
+   * @return A not null unmodifiable copy of the divergences detected so far.
+   * @since 3.1.6
+   */
+  public synchronized List<Divergence> getDivergences() {
+    return Collections.unmodifiableList(new ArrayList<>(divergences));
+  }
+
+  /**
+   * @return The sum of the recorded durations of the exchanges replayed so far, in nanoseconds.
+   * @since 3.1.6
+   */
+  public synchronized long getReplayedNanos() {
+    return replayedNanos;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    isTraceExhausted = true;
+    nextEvent = null;
+    in.close();
+  }
+
+  /**
+   * Compares a card request to the recorded one.
+   *
+   * @param index The index of the exchange.
+   * @param event The recorded exchange.
+   * @param cardRequest The card request.
+   * @param channelControl The channel control.
+   */
+  private void compare(
+      int index,
+      CardExchangeTrace.Event event,
+      CardRequestSpi cardRequest,
+      ChannelControl channelControl) {
+    if (event.getChannelControl() != channelControl) {
+      divergences.add(
+          new Divergence(
+              index,
+              -1,
+              String.valueOf(event.getChannelControl()),
+              String.valueOf(channelControl)));
+    }
+    List<byte[]> expected = event.getApduRequests();
+    List<ApduRequestSpi> actual = cardRequest.getApduRequests();
+    int nbApdus = Math.max(expected.size(), actual.size());
+    for (int i = 0; i < nbApdus; i++) {
+      byte[] expectedApdu = i < expected.size() ? expected.get(i) : null;
+      byte[] actualApdu = i < actual.size() ? actual.get(i).getApdu() : null;
+      if (expectedApdu == null || actualApdu == null || !Arrays.equals(expectedApdu, actualApdu)) {
+        divergences.add(new Divergence(index, i, toHex(expectedApdu), toHex(actualApdu)));
+      }
+    }
+  }
+
+  /**
+   * Waits until the recorded duration of the event has elapsed since the provided start time, if
+   * the latency is replayed.
+   *
+   * @param start The start time of the exchange.
+   * @param event The recorded event.
+   */
+  private void waitRecordedLatency(long start, CardExchangeTrace.Event event) {
+    replayedNanos += event.getElapsedNanos();
+    if (!isLatencyReplayed) {
+      return;
+    }
+    long deadline = start + event.getElapsedNanos();
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+    }
+  }
+
+  /**
+   * @return The next event without consuming it, null at the end of the trace.
+   */
+  private CardExchangeTrace.Event peekEvent() {
+    if (nextEvent == null && !isTraceExhausted) {
+      try {
+        nextEvent = CardExchangeTrace.readEvent(in);
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to read the trace", e);
+      }
+      isTraceExhausted = nextEvent == null;
+    }
+    return nextEvent;
+  }
+
+  /**
+   * @return The next event, null at the end of the trace.
+   */
+  private CardExchangeTrace.Event pollEvent() {
+    CardExchangeTrace.Event event = peekEvent();
+    nextEvent = null;
+    return event;
+  }
+
+  /** Closes the trace, ignoring the errors. */
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (IOException e) {
+      // nothing to do, the trace has been fully read
+    }
+  }
+
+  /**
+   * @param apdu The APDU, may be null.
+   * @return The hexadecimal representation of the APDU, or "none".
+   */
+  private static String toHex(byte[] apdu) {
+    return apdu != null ? HexUtil.toHex(apdu) : "none";
+  }
+
+  /**
+   * Difference between the recorded exchanges and the replayed ones.
+   *
+   * @since 3.1.6
+   */
+  public static final class Divergence {
+
+    private final int exchangeIndex;
+    private final int apduIndex;
+    private final String expected;
+    private final String actual;
+
+    /**
+     * Constructor.
+     *
+     * @param exchangeIndex The index of the exchange.
+     * @param apduIndex The index of the APDU in the exchange, -1 if the whole exchange is
+     *     concerned.
+     * @param expected The recorded value.
+     * @param actual The replayed value.
+     * @since 3.1.6
+     */
+    Divergence(int exchangeIndex, int apduIndex, String expected, String actual) {
+      this.exchangeIndex = exchangeIndex;
+      this.apduIndex = apduIndex;
+      this.expected = expected;
+      this.actual = actual;
+    }
+
+    /**
+     * @return The index of the exchange, starting at 0.
+     * @since 3.1.6
+     */
+    public int getExchangeIndex() {
+      return exchangeIndex;
+    }
+
+    /**
+     * @return The index of the APDU in the exchange, -1 if the whole exchange is concerned.
+     * @since 3.1.6
+     */
+    public int getApduIndex() {
+      return apduIndex;
+    }
+
+    /**
+     * @return The recorded value (APDU in hexadecimal, channel control or kind of event).
+     * @since 3.1.6
+     */
+    public String getExpected() {
+      return expected;
+    }
+
+    /**
+     * @return The replayed value (APDU in hexadecimal, channel control or kind of event).
+     * @since 3.1.6
+     */
+    public String getActual() {
+      return actual;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @since 3.1.6
+     */
+    @Override
+    public String toString() {
+      return "exchange #"
+          + exchangeIndex
+          + (apduIndex >= 0 ? ", APDU #" + apduIndex : "")
+          + ": - "
+          + expected
+          + " + "
+          + actual;
+    }
+  }
+}
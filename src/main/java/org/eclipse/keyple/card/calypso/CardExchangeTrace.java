@@ -0,0 +1,415 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.keypop.card.ApduResponseApi;
+import org.eclipse.keypop.card.CardResponseApi;
+import org.eclipse.keypop.card.ChannelControl;
+
+/**
+ * Binary format of the traces of the exchanges with a card reader, written by {@link
+ * CardExchangeRecorder} and read by {@link CardExchangeReplayer}.
+ *
+ * <p>A trace starts with a header (magic number, format version, reader name and contactless
+ * flag) followed by the events in their order of occurrence: card requests with their outcome,
+ * responses and duration, and channel releases. Lengths and durations are encoded as unsigned
+ * variable-length integers.
+ *
+ * @since 3.1.6
+ */
+final class CardExchangeTrace {
+
+  private static final int MAGIC = 0x43455431; // "CET1"
+  private static final int FORMAT_VERSION = 1;
+  private static final int MAX_APDU_LENGTH = 65544; // extended APDU request
+  private static final int EVENT_EXCHANGE = 1;
+  private static final int EVENT_RELEASE_CHANNEL = 2;
+  private static final ChannelControl[] CHANNEL_CONTROLS = ChannelControl.values();
+  private static final Outcome[] OUTCOMES = Outcome.values();
+
+  /** Private constructor */
+  private CardExchangeTrace() {}
+
+  /**
+   * Outcome of a card request.
+   *
+   * @since 3.1.6
+   */
+  enum Outcome {
+    /**
+     * Card response received.
+     *
+     * @since 3.1.6
+     */
+    SUCCESS,
+    /**
+     * Card response interrupted by an unexpected status word.
+     *
+     * @since 3.1.6
+     */
+    UNEXPECTED_STATUS_WORD,
+    /**
+     * Communication with the card lost.
+     *
+     * @since 3.1.6
+     */
+    CARD_BROKEN_COMMUNICATION,
+    /**
+     * Communication with the reader lost.
+     *
+     * @since 3.1.6
+     */
+    READER_BROKEN_COMMUNICATION
+  }
+
+  /**
+   * Recorded event: a card request with its outcome, or a channel release (no APDU).
+   *
+   * @since 3.1.6
+   */
+  static final class Event {
+
+    private final boolean isExchange;
+    private final ChannelControl channelControl;
+    private final Outcome outcome;
+    private final boolean isCardResponseComplete;
+    private final boolean isLogicalChannelOpen;
+    private final long elapsedNanos;
+    private final List<byte[]> apduRequests;
+    private final List<byte[]> apduResponses;
+
+    /**
+     * Constructor.
+     *
+     * @param isExchange true for a card request, false for a channel release.
+     * @param channelControl The channel control of the card request, null for a channel release.
+     * @param outcome The outcome of the card request or of the channel release.
+     * @param isCardResponseComplete true if all the APDU requests have been answered.
+     * @param isLogicalChannelOpen true if the logical channel is open after the card request.
+     * @param elapsedNanos The duration in nanoseconds.
+     * @param apduRequests The APDU requests.
+     * @param apduResponses The APDU responses received.
+     * @since 3.1.6
+     */
+    Event(
+        boolean isExchange,
+        ChannelControl channelControl,
+        Outcome outcome,
+        boolean isCardResponseComplete,
+        boolean isLogicalChannelOpen,
+        long elapsedNanos,
+        List<byte[]> apduRequests,
+        List<byte[]> apduResponses) {
+      this.isExchange = isExchange;
+      this.channelControl = channelControl;
+      this.outcome = outcome;
+      this.isCardResponseComplete = isCardResponseComplete;
+      this.isLogicalChannelOpen = isLogicalChannelOpen;
+      this.elapsedNanos = elapsedNanos;
+      this.apduRequests = apduRequests;
+      this.apduResponses = apduResponses;
+    }
+
+    /**
+     * @return true for a card request, false for a channel release.
+     * @since 3.1.6
+     */
+    boolean isExchange() {
+      return isExchange;
+    }
+
+    /**
+     * @return The channel control of the card request, null for a channel release.
+     * @since 3.1.6
+     */
+    ChannelControl getChannelControl() {
+      return channelControl;
+    }
+
+    /**
+     * @return The outcome.
+     * @since 3.1.6
+     */
+    Outcome getOutcome() {
+      return outcome;
+    }
+
+    /**
+     * @return true if all the APDU requests have been answered.
+     * @since 3.1.6
+     */
+    boolean isCardResponseComplete() {
+      return isCardResponseComplete;
+    }
+
+    /**
+     * @return The duration in nanoseconds.
+     * @since 3.1.6
+     */
+    long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * @return The APDU requests.
+     * @since 3.1.6
+     */
+    List<byte[]> getApduRequests() {
+      return apduRequests;
+    }
+
+    /**
+     * Builds the recorded card response.
+     *
+     * @return A not null reference.
+     * @since 3.1.6
+     */
+    CardResponseApi buildCardResponse() {
+      List<ApduResponseApi> responses = new ArrayList<>(apduResponses.size());
+      for (byte[] apdu : apduResponses) {
+        responses.add(new CalypsoCardBinaryCodec.ApduResponse(apdu));
+      }
+      return new RecordedCardResponse(
+          Collections.unmodifiableList(responses), isLogicalChannelOpen);
+    }
+  }
+
+  /**
+   * Writes the header of a trace.
+   *
+   * @param out The destination.
+   * @param readerName The name of the reader.
+   * @param isContactless true if the reader is contactless.
+   * @throws IOException If an I/O error occurs.
+   * @since 3.1.6
+   */
+  static void writeHeader(DataOutputStream out, String readerName, boolean isContactless)
+      throws IOException {
+    out.writeInt(MAGIC);
+    writeUnsignedVarInt(out, FORMAT_VERSION);
+    out.writeUTF(readerName != null ? readerName : "");
+    out.writeBoolean(isContactless);
+  }
+
+  /**
+   * Writes an event.
+   *
+   * @param out The destination.
+   * @param event The event.
+   * @throws IOException If an I/O error occurs.
+   * @since 3.1.6
+   */
+  static void writeEvent(DataOutputStream out, Event event) throws IOException {
+    if (!event.isExchange) {
+      out.writeByte(EVENT_RELEASE_CHANNEL);
+      out.writeByte(event.outcome.ordinal());
+      writeUnsignedVarLong(out, event.elapsedNanos);
+      return;
+    }
+    out.writeByte(EVENT_EXCHANGE);
+    out.writeByte(event.channelControl.ordinal());
+    out.writeByte(event.outcome.ordinal());
+    out.writeByte((event.isCardResponseComplete ? 1 : 0) | (event.isLogicalChannelOpen ? 2 : 0));
+    writeUnsignedVarLong(out, event.elapsedNanos);
+    writeApdus(out, event.apduRequests);
+    writeApdus(out, event.apduResponses);
+  }
+
+  /**
+   * Reads and checks the header of a trace.
+   *
+   * @param in The source.
+   * @return The reader name and contactless flag ("true" or "false").
+   * @throws IOException If an I/O error occurs.
+   * @throws IllegalArgumentException If the source is not a trace of a supported version.
+   * @since 3.1.6
+   */
+  static String[] readHeader(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a card exchange trace");
+    }
+    int version = readUnsignedVarInt(in);
+    if (version != FORMAT_VERSION) {
+      throw new IllegalArgumentException("Unsupported trace format version: " + version);
+    }
+    String readerName = in.readUTF();
+    return new String[] {readerName, Boolean.toString(in.readBoolean())};
+  }
+
+  /**
+   * Reads the next event.
+   *
+   * @param in The source.
+   * @return Null at the end of the trace.
+   * @throws IOException If an I/O error occurs.
+   * @throws IllegalArgumentException If the trace is malformed.
+   * @since 3.1.6
+   */
+  static Event readEvent(DataInputStream in) throws IOException {
+    int eventType = in.read();
+    if (eventType < 0) {
+      return null;
+    }
+    try {
+      if (eventType == EVENT_RELEASE_CHANNEL) {
+        Outcome outcome = OUTCOMES[in.readUnsignedByte()];
+        return new Event(
+            false,
+            null,
+            outcome,
+            true,
+            false,
+            readUnsignedVarLong(in),
+            Collections.<byte[]>emptyList(),
+            Collections.<byte[]>emptyList());
+      }
+      if (eventType != EVENT_EXCHANGE) {
+        throw new IllegalArgumentException("Unknown trace event type: " + eventType);
+      }
+      ChannelControl channelControl = CHANNEL_CONTROLS[in.readUnsignedByte()];
+      Outcome outcome = OUTCOMES[in.readUnsignedByte()];
+      int flags = in.readUnsignedByte();
+      long elapsedNanos = readUnsignedVarLong(in);
+      List<byte[]> apduRequests = readApdus(in);
+      List<byte[]> apduResponses = readApdus(in);
+      return new Event(
+          true,
+          channelControl,
+          outcome,
+          (flags & 1) != 0,
+          (flags & 2) != 0,
+          elapsedNanos,
+          apduRequests,
+          apduResponses);
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Malformed trace event", e);
+    } catch (EOFException e) {
+      throw new IllegalArgumentException("Truncated trace", e);
+    }
+  }
+
+  /**
+   * @param out The destination.
+   * @param apdus The APDUs.
+   * @throws IOException If an I/O error occurs.
+   */
+  private static void writeApdus(DataOutputStream out, List<byte[]> apdus) throws IOException {
+    writeUnsignedVarInt(out, apdus.size());
+    for (byte[] apdu : apdus) {
+      writeUnsignedVarInt(out, apdu.length);
+      out.write(apdu);
+    }
+  }
+
+  /**
+   * @param in The source.
+   * @return The APDUs.
+   * @throws IOException If an I/O error occurs or if the length of an APDU exceeds the maximum
+   *     length of an extended APDU.
+   */
+  private static List<byte[]> readApdus(DataInputStream in) throws IOException {
+    int nbApdus = readUnsignedVarInt(in);
+    List<byte[]> apdus = new ArrayList<>(Math.min(nbApdus, 64));
+    for (int i = 0; i < nbApdus; i++) {
+      int length = readUnsignedVarInt(in);
+      if (length > MAX_APDU_LENGTH) {
+        throw new IOException("Invalid APDU length: " + length);
+      }
+      byte[] apdu = new byte[length];
+      in.readFully(apdu);
+      apdus.add(apdu);
+    }
+    return apdus;
+  }
+
+  /**
+   * @param out The destination.
+   * @param value The value, not negative.
+   * @throws IOException If an I/O error occurs.
+   */
+  private static void writeUnsignedVarInt(DataOutputStream out, int value) throws IOException {
+    writeUnsignedVarLong(out, value);
+  }
+
+  /**
+   * @param out The destination.
+   * @param value The value, not negative.
+   * @throws IOException If an I/O error occurs.
+   */
+  private static void writeUnsignedVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  /**
+   * @param in The source.
+   * @return The value.
+   * @throws IOException If an I/O error occurs.
+   */
+  private static int readUnsignedVarInt(DataInputStream in) throws IOException {
+    long value = readUnsignedVarLong(in);
+    if (value > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Malformed trace: value too large");
+    }
+    return (int) value;
+  }
+
+  /**
+   * @param in The source.
+   * @return The value.
+   * @throws IOException If an I/O error occurs.
+   */
+  private static long readUnsignedVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed trace: variable-length integer too long");
+  }
+
+  /** Card response restored from a trace. */
+  private static final class RecordedCardResponse implements CardResponseApi {
+
+    private final List<ApduResponseApi> apduResponses;
+    private final boolean isLogicalChannelOpen;
+
+    private RecordedCardResponse(
+        List<ApduResponseApi> apduResponses, boolean isLogicalChannelOpen) {
+      this.apduResponses = apduResponses;
+      this.isLogicalChannelOpen = isLogicalChannelOpen;
+    }
+
+    @Override
+    public List<ApduResponseApi> getApduResponses() {
+      return apduResponses;
+    }
+
+    @Override
+    public boolean isLogicalChannelOpen() {
+      return isLogicalChannelOpen;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import org.eclipse.keyple.core.util.json.JsonUtil;
+
+/**
+ * Changes made to a card during its transactions, as recorded in its card image since its
+ * selection or since a named checkpoint.
+ *
+ * <p>For each modified EF, the delta contains the number of records appended (the records of a
+ * cyclic EF being shifted accordingly before the other changes are applied), the new content of
+ * the modified records and the new value of the modified counters. The new SV balance and SV
+ * transaction number are present if an SV operation has been performed.
+ *
+ * <p>The delta of a card is obtained with {@code CalypsoExtensionService.getDelta}.
+ *
+ * @since 3.1.6
+ */
+public final class CardImageDelta {
+
+  private final String applicationSerialNumber;
+  private final String checkpoint;
+  private final List<FileDelta> files;
+  private final Integer svBalance;
+  private final Integer svLastTNum;
+
+  /**
+   * Constructor.
+   *
+   * @param applicationSerialNumber The application serial number (hex string).
+   * @param checkpoint The name of the checkpoint, null for the selection.
+   * @param files The changes of the EFs.
+   * @param svBalance The new SV balance, null if no SV operation has been performed.
+   * @param svLastTNum The new SV transaction number, null if no SV operation has been performed.
+   * @since 3.1.6
+   */
+  CardImageDelta(
+      String applicationSerialNumber,
+      String checkpoint,
+      List<FileDelta> files,
+      Integer svBalance,
+      Integer svLastTNum) {
+    this.applicationSerialNumber = applicationSerialNumber;
+    this.checkpoint = checkpoint;
+    this.files = files;
+    this.svBalance = svBalance;
+    this.svLastTNum = svLastTNum;
+  }
+
+  /**
+   * @return The application serial number (hex string).
+   * @since 3.1.6
+   */
+  public String getApplicationSerialNumber() {
+    return applicationSerialNumber;
+  }
+
+  /**
+   * @return The name of the checkpoint, null for the selection.
+   * @since 3.1.6
+   */
+  public String getCheckpoint() {
+    return checkpoint;
+  }
+
+  /**
+   * @return An unmodifiable list of the changes of the EFs, in ascending SFI order.
+   * @since 3.1.6
+   */
+  public List<FileDelta> getFiles() {
+    return Collections.unmodifiableList(files);
+  }
+
+  /**
+   * @return The new SV balance, null if no SV operation has been performed.
+   * @since 3.1.6
+   */
+  public Integer getSvBalance() {
+    return svBalance;
+  }
+
+  /**
+   * @return The new SV transaction number, null if no SV operation has been performed.
+   * @since 3.1.6
+   */
+  public Integer getSvLastTNum() {
+    return svLastTNum;
+  }
+
+  /**
+   * @return true if the card has not been modified.
+   * @since 3.1.6
+   */
+  public boolean isEmpty() {
+    return files.isEmpty() && svBalance == null;
+  }
+
+  /**
+   * Gets the delta as a Json string.
+   *
+   * @return A not empty string.
+   * @since 3.1.6
+   */
+  public String toJson() {
+    return JsonUtil.toJson(this);
+  }
+
+  /**
+   * Changes made to an EF.
+   *
+   * @since 3.1.6
+   */
+  public static final class FileDelta {
+
+    private final int sfi;
+    private final int nbAppendedRecords;
+    private final SortedMap<Integer, String> records;
+    private final SortedMap<Integer, Integer> counters;
+
+    /**
+     * Constructor.
+     *
+     * @param sfi The SFI.
+     * @param nbAppendedRecords The number of records appended.
+     * @param records The new content of the modified records (hex strings), by record number.
+     * @param counters The new value of the modified counters, by counter number.
+     * @since 3.1.6
+     */
+    FileDelta(
+        int sfi,
+        int nbAppendedRecords,
+        SortedMap<Integer, String> records,
+        SortedMap<Integer, Integer> counters) {
+      this.sfi = sfi;
+      this.nbAppendedRecords = nbAppendedRecords;
+      this.records = records;
+      this.counters = counters;
+    }
+
+    /**
+     * @return The SFI.
+     * @since 3.1.6
+     */
+    public int getSfi() {
+      return sfi;
+    }
+
+    /**
+     * @return The number of records appended.
+     * @since 3.1.6
+     */
+    public int getNbAppendedRecords() {
+      return nbAppendedRecords;
+    }
+
+    /**
+     * @return An unmodifiable map of the new content of the modified records (hex strings), by
+     *     record number.
+     * @since 3.1.6
+     */
+    public SortedMap<Integer, String> getRecords() {
+      return Collections.unmodifiableSortedMap(records);
+    }
+
+    /**
+     * @return An unmodifiable map of the new value of the modified counters, by counter number.
+     * @since 3.1.6
+     */
+    public SortedMap<Integer, Integer> getCounters() {
+      return Collections.unmodifiableSortedMap(counters);
+    }
+  }
+}
@@ -0,0 +1,687 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keyple.core.util.ByteArrayUtil;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+import org.eclipse.keypop.calypso.card.transaction.SvOperation;
+
+/**
+ * Offline reconstruction of card images from archived transactions.
+ *
+ * <p>An archived transaction is made of the image of the card at the beginning of the transaction,
+ * encoded with {@code CalypsoExtensionService.encodeCard}, and of the APDUs exchanged with the card
+ * as returned by the transaction audit data (request and response of each command, one after the
+ * other). The engine rebuilds the commands from the requests and feeds the responses through the
+ * same parsing logic as the transaction managers, without reader nor crypto service:
+ *
+ * <ul>
+ *   <li>the reads, record/binary updates, appends, counter changes and "SV Get" commands update the
+ *       card image, a "Read Record" command without record number (ratification) being skipped;
+ *   <li>the "SV Reload", "SV Debit" and "SV Undebit" commands update the SV balance, the SV
+ *       transaction number and the SV logs, provided that the SV data is known from the initial
+ *       image or from a previous "SV Get" command;
+ *   <li>the record read by an "Open Secure Session" command is stored in the card image;
+ *   <li>the changes made within a secure session are discarded if the session is aborted, if its
+ *       closing fails or if it is not closed;
+ *   <li>the other commands, and the commands exchanged while the encryption is active, are skipped.
+ * </ul>
+ *
+ * <p>A skipped SV operation leaves the SV data of the card image out of date, which is reported by
+ * {@link Result#getSkippedSvOperationsCount()}.
+ *
+ * <p>The transactions are replayed in parallel on a fork-join pool, the results being streamed to
+ * a handler as soon as available. The number of transactions read from the source and not yet
+ * handled is bounded, so that the memory used does not depend on the number of transactions. The
+ * replays share no mutable state apart from the statistics counters.
+ *
+ * @since 3.1.6
+ */
+public final class CardImageReplayEngine {
+
+  private static final int SW_SUCCESS = 0x9000;
+  private static final int SW_POSTPONED_DATA = 0x6200;
+  private static final int DEFAULT_MAX_PENDING_TRANSACTIONS_PER_THREAD = 64;
+
+  private final ForkJoinPool pool;
+  private final int maxPendingTransactions;
+  private final LongAdder nbReplayedTransactions = new LongAdder();
+  private final LongAdder nbFailedTransactions = new LongAdder();
+  private final LongAdder nbReplayedCommands = new LongAdder();
+  private final LongAdder nbSkippedCommands = new LongAdder();
+  private final LongAdder nbRejectedCommands = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param pool The pool running the replays.
+   * @param maxPendingTransactions The maximum number of transactions read from the source and not
+   *     yet handled.
+   * @since 3.1.6
+   */
+  public CardImageReplayEngine(ForkJoinPool pool, int maxPendingTransactions) {
+    Assert.getInstance()
+        .notNull(pool, "pool")
+        .greaterOrEqual(maxPendingTransactions, 1, "maxPendingTransactions");
+    this.pool = pool;
+    this.maxPendingTransactions = maxPendingTransactions;
+  }
+
+  /**
+   * Creates an engine running on the common fork-join pool, with at most 64 pending transactions
+   * per thread of the pool.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public static CardImageReplayEngine create() {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    return new CardImageReplayEngine(
+        pool, pool.getParallelism() * DEFAULT_MAX_PENDING_TRANSACTIONS_PER_THREAD);
+  }
+
+  /**
+   * Replays all the provided transactions and waits for the handling of their results.
+   *
+   * <p>The transactions are read from the source by the calling thread. The handler is called from
+   * the threads of the pool, in no particular order, and must be thread-safe. If the handler fails,
+   * no more transaction is read and the failure is rethrown once the pending transactions have
+   * been handled. The same applies if the pool rejects a replay.
+   *
+   * @param transactions The source of the archived transactions.
+   * @param handler The handler of the results.
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   * @since 3.1.6
+   */
+  public void replayAll(Iterator<ArchivedTransaction> transactions, final ResultHandler handler)
+      throws InterruptedException {
+    Assert.getInstance().notNull(transactions, "transactions").notNull(handler, "handler");
+    final Semaphore pendingTransactions = new Semaphore(maxPendingTransactions);
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    long index = 0;
+    while (failure.get() == null && transactions.hasNext()) {
+      final ArchivedTransaction transaction = transactions.next();
+      final long transactionIndex = index++;
+      pendingTransactions.acquire();
+      try {
+        pool.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  handler.onResult(replay(transactionIndex, transaction));
+                } catch (RuntimeException | Error e) {
+                  failure.compareAndSet(null, e);
+                } finally {
+                  pendingTransactions.release();
+                }
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        pendingTransactions.release();
+        failure.compareAndSet(null, e);
+      }
+    }
+    // Wait for the pending transactions
+    pendingTransactions.acquire(maxPendingTransactions);
+    pendingTransactions.release(maxPendingTransactions);
+    Throwable error = failure.get();
+    if (error instanceof Error) {
+      throw (Error) error;
+    }
+    if (error != null) {
+      throw (RuntimeException) error;
+    }
+  }
+
+  /**
+   * Replays a transaction in the calling thread.
+   *
+   * @param index The index of the transaction.
+   * @param transaction The archived transaction.
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public Result replay(long index, ArchivedTransaction transaction) {
+    Result result = replayTransaction(index, transaction);
+    nbReplayedTransactions.increment();
+    if (result.error != null) {
+      nbFailedTransactions.increment();
+    }
+    nbReplayedCommands.add(result.nbReplayedCommands);
+    nbSkippedCommands.add(result.nbSkippedCommands);
+    nbRejectedCommands.add(result.nbRejectedCommands);
+    return result;
+  }
+
+  /**
+   * @return The number of replayed transactions.
+   * @since 3.1.6
+   */
+  public long getReplayedTransactionsCount() {
+    return nbReplayedTransactions.sum();
+  }
+
+  /**
+   * @return The number of transactions whose replay failed.
+   * @since 3.1.6
+   */
+  public long getFailedTransactionsCount() {
+    return nbFailedTransactions.sum();
+  }
+
+  /**
+   * @return The number of commands replayed, including the secure session management commands.
+   * @since 3.1.6
+   */
+  public long getReplayedCommandsCount() {
+    return nbReplayedCommands.sum();
+  }
+
+  /**
+   * @return The number of commands skipped because not supported or exchanged while the encryption
+   *     was active.
+   * @since 3.1.6
+   */
+  public long getSkippedCommandsCount() {
+    return nbSkippedCommands.sum();
+  }
+
+  /**
+   * @return The number of commands whose response was rejected by the parsing (unsuccessful status
+   *     word or inconsistent data).
+   * @since 3.1.6
+   */
+  public long getRejectedCommandsCount() {
+    return nbRejectedCommands.sum();
+  }
+
+  /**
+   * Replays a transaction.
+   *
+   * @param index The index of the transaction.
+   * @param transaction The archived transaction.
+   * @return A not null reference.
+   */
+  private static Result replayTransaction(long index, ArchivedTransaction transaction) {
+    CalypsoCardAdapter card;
+    try {
+      card = CalypsoCardBinaryCodec.decode(transaction.cardImage);
+    } catch (RuntimeException e) {
+      return new Result(index, null, 0, 0, 0, 0, e);
+    }
+    List<byte[]> apdus = transaction.apdus;
+    if (apdus.size() % 2 != 0) {
+      return new Result(
+          index,
+          card,
+          0,
+          0,
+          0,
+          0,
+          new IllegalArgumentException("Odd number of APDUs: " + apdus.size()));
+    }
+    TransactionContextDto transactionContext = new TransactionContextDto(card);
+    CommandContextDto commandContext = new CommandContextDto(false, false);
+    boolean isSessionOpen = false;
+    boolean isEncryptionActive = false;
+    int nbReplayed = 0;
+    int nbSkipped = 0;
+    int nbRejected = 0;
+    int nbSkippedSvOperations = 0;
+    for (int i = 0; i < apdus.size(); i += 2) {
+      byte[] request = apdus.get(i);
+      byte[] response = apdus.get(i + 1);
+      if (request.length < 4 || response.length < 2) {
+        nbSkipped++;
+        continue;
+      }
+      CalypsoCardBinaryCodec.ApduResponse apduResponse =
+          new CalypsoCardBinaryCodec.ApduResponse(response);
+      byte ins = request[1];
+      // Secure session boundaries
+      if (ins == CardCommandRef.OPEN_SECURE_SESSION.getInstructionByte()) {
+        if (apduResponse.getStatusWord() != SW_SUCCESS) {
+          nbReplayed++;
+          continue;
+        }
+        if (isSessionOpen) {
+          card.restoreFiles();
+        }
+        card.backupFiles();
+        isSessionOpen = true;
+        isEncryptionActive = false;
+        try {
+          storeOpenSecureSessionRecord(card, request, apduResponse.getDataOut());
+          nbReplayed++;
+        } catch (RuntimeException e) {
+          nbRejected++;
+        }
+        continue;
+      }
+      if (ins == CardCommandRef.CLOSE_SECURE_SESSION.getInstructionByte()) {
+        // A successful closing returns the card signature, an abort returns no data
+        if (isSessionOpen
+            && (apduResponse.getStatusWord() != SW_SUCCESS || response.length == 2)) {
+          card.restoreFiles();
+        }
+        isSessionOpen = false;
+        isEncryptionActive = false;
+        nbReplayed++;
+        continue;
+      }
+      if (ins == CardCommandRef.MANAGE_SECURE_SESSION.getInstructionByte()) {
+        if (isSessionOpen && apduResponse.getStatusWord() == SW_SUCCESS) {
+          isEncryptionActive = (request[3] & 0x02) != 0;
+        }
+        nbReplayed++;
+        continue;
+      }
+      if (ins == CardCommandRef.SV_RELOAD.getInstructionByte()
+          || ins == CardCommandRef.SV_DEBIT.getInstructionByte()
+          || ins == CardCommandRef.SV_UNDEBIT.getInstructionByte()) {
+        int statusWord = apduResponse.getStatusWord();
+        if (statusWord != SW_SUCCESS && statusWord != SW_POSTPONED_DATA) {
+          nbRejected++;
+        } else if (!isEncryptionActive && replaySvOperation(card, request)) {
+          nbReplayed++;
+        } else {
+          nbSkipped++;
+          nbSkippedSvOperations++;
+        }
+        continue;
+      }
+      Command command =
+          isEncryptionActive ? null : buildCommand(transactionContext, commandContext, request);
+      if (command == null) {
+        nbSkipped++;
+        continue;
+      }
+      try {
+        command.parseResponse(apduResponse);
+        nbReplayed++;
+      } catch (CardCommandException e) {
+        nbRejected++;
+      } catch (RuntimeException e) {
+        nbRejected++;
+      }
+    }
+    if (isSessionOpen) {
+      // The card cancels the changes of a session not closed
+      card.restoreFiles();
+    }
+    return new Result(
+        index, card, nbReplayed, nbSkipped, nbRejected, nbSkippedSvOperations, null);
+  }
+
+  /**
+   * Updates the SV data and the SV logs of the card image with a successful "SV Reload", "SV Debit"
+   * or "SV Undebit" command, as done by {@link CommandSvReload} and {@link
+   * CommandSvDebitOrUndebit}.
+   *
+   * @param card The card image.
+   * @param apdu The APDU request.
+   * @return false if the SV data is unknown or if the request is too short.
+   */
+  private static boolean replaySvOperation(CalypsoCardAdapter card, byte[] apdu) {
+    boolean isReload = apdu[1] == CardCommandRef.SV_RELOAD.getInstructionByte();
+    if (!card.isSvDataKnown() || apdu.length < (isReload ? 23 : 20)) {
+      return false;
+    }
+    // The card adds the signed amount of the request to the balance
+    int amount =
+        isReload
+            ? ByteArrayUtil.extractInt(apdu, 11, 3, true)
+            : ByteArrayUtil.extractInt(apdu, 6, 2, true);
+    int balance = card.getSvBalance() + amount;
+    card.updateSvData(balance, card.getSvLastTNum() + 1);
+    if (isReload) {
+      byte[] reloadLog = new byte[22];
+      System.arraycopy(apdu, 6, reloadLog, 0, 5);
+      ByteArrayUtil.copyBytes(balance, reloadLog, 5, 3);
+      ByteArrayUtil.copyBytes(amount, reloadLog, 8, 3);
+      System.arraycopy(apdu, 14, reloadLog, 11, 9);
+      ByteArrayUtil.copyBytes(card.getSvLastTNum(), reloadLog, 20, 2);
+      card.addCyclicContent(CalypsoCardConstant.SV_RELOAD_LOG_FILE_SFI, reloadLog);
+      card.markRecordAppended(CalypsoCardConstant.SV_RELOAD_LOG_FILE_SFI);
+    } else {
+      byte[] debitLog = new byte[19];
+      System.arraycopy(apdu, 6, debitLog, 0, 14);
+      ByteArrayUtil.copyBytes(balance, debitLog, 14, 3);
+      ByteArrayUtil.copyBytes(card.getSvLastTNum(), debitLog, 17, 2);
+      card.addCyclicContent(CalypsoCardConstant.SV_DEBIT_LOG_FILE_SFI, debitLog);
+      card.markRecordAppended(CalypsoCardConstant.SV_DEBIT_LOG_FILE_SFI);
+    }
+    return true;
+  }
+
+  /**
+   * Stores in the card image the record read by an "Open Secure Session" command, the response
+   * being decoded as done by {@link CommandOpenSecureSession} according to the product type.
+   *
+   * @param card The card image.
+   * @param apdu The APDU request.
+   * @param dataOut The response data.
+   * @throws IllegalStateException If the response is inconsistent.
+   */
+  private static void storeOpenSecureSessionRecord(
+      CalypsoCardAdapter card, byte[] apdu, byte[] dataOut) {
+    int p1 = apdu[2] & 0xFF;
+    int p2 = apdu[3] & 0xFF;
+    int recordOffset;
+    int recordLength;
+    boolean isConsistent;
+    switch (card.getProductType()) {
+      case PRIME_REVISION_1:
+        // CC CC CC CC [RR RR] [NN..NN]
+        recordOffset = dataOut.length == 4 || dataOut.length == 33 ? 4 : 6;
+        recordLength = dataOut.length - recordOffset;
+        isConsistent = recordLength == 0 || recordLength == 29;
+        break;
+      case PRIME_REVISION_2:
+        // KK CC CC CC CC [RR RR] [NN..NN]
+        recordOffset = dataOut.length == 5 || dataOut.length == 34 ? 5 : 7;
+        recordLength = dataOut.length - recordOffset;
+        isConsistent = recordLength == 0 || recordLength == 29;
+        p1 &= 0x7F;
+        break;
+      default:
+        if ((p2 & 0x07) == 0x03) {
+          // PKI mode
+          recordOffset = dataOut.length > 0 ? (dataOut[0] & 0xFF) + 22 : 1;
+        } else {
+          // Extended mode or not
+          recordOffset = (p2 & 0x07) == 0x02 ? 12 : 8;
+        }
+        recordLength = recordOffset <= dataOut.length ? dataOut[recordOffset - 1] & 0xFF : -1;
+        isConsistent = recordLength >= 0 && recordOffset + recordLength <= dataOut.length;
+    }
+    if (!isConsistent) {
+      throw new IllegalStateException(
+          "Bad response length to Open Secure Session: " + dataOut.length);
+    }
+    if (recordLength > 0 && p1 >> 3 != 0) {
+      card.setCompleteContent(
+          (byte) (p2 >> 3),
+          p1 >> 3,
+          Arrays.copyOfRange(dataOut, recordOffset, recordOffset + recordLength));
+    }
+  }
+
+  /**
+   * Rebuilds the command corresponding to the provided APDU request.
+   *
+   * @param transactionContext The transaction context.
+   * @param commandContext The command context.
+   * @param apdu The APDU request.
+   * @return Null if the command is not supported.
+   */
+  private static Command buildCommand(
+      TransactionContextDto transactionContext, CommandContextDto commandContext, byte[] apdu) {
+    byte ins = apdu[1];
+    int p1 = apdu[2] & 0xFF;
+    int p2 = apdu[3] & 0xFF;
+    byte[] dataIn = getDataIn(apdu);
+    int le = getLe(apdu);
+    byte sfi = (byte) (p2 >> 3);
+    if (ins == CardCommandRef.READ_RECORDS.getInstructionByte()) {
+      if (p1 == 0) {
+        return null; // Ratification
+      }
+      CommandReadRecords.ReadMode readMode =
+          (p2 & 0x07) == 0x04
+              ? CommandReadRecords.ReadMode.ONE_RECORD
+              : CommandReadRecords.ReadMode.MULTIPLE_RECORD;
+      return new CommandReadRecords(
+          transactionContext, commandContext, sfi, p1, readMode, le, le);
+    }
+    if (ins == CardCommandRef.READ_BINARY.getInstructionByte()) {
+      boolean isSfi = (p1 & 0x80) != 0;
+      return new CommandReadBinary(
+          transactionContext,
+          commandContext,
+          isSfi ? (byte) (p1 & 0x1F) : 0,
+          isSfi ? p2 : (p1 << 8) | p2,
+          le);
+    }
+    if (ins == CardCommandRef.SV_GET.getInstructionByte()) {
+      return new CommandSvGet(
+          transactionContext,
+          commandContext,
+          p2 == 0x07 ? SvOperation.RELOAD : SvOperation.DEBIT,
+          p1 == 0x01);
+    }
+    if (dataIn == null) {
+      return null;
+    }
+    if (ins == CardCommandRef.UPDATE_RECORD.getInstructionByte()) {
+      return new CommandUpdateRecord(transactionContext, commandContext, sfi, p1, dataIn);
+    }
+    if (ins == CardCommandRef.WRITE_RECORD.getInstructionByte()) {
+      return new CommandWriteRecord(transactionContext, commandContext, sfi, p1, dataIn);
+    }
+    if (ins == CardCommandRef.APPEND_RECORD.getInstructionByte()) {
+      return new CommandAppendRecord(transactionContext, commandContext, sfi, dataIn);
+    }
+    if (ins == CardCommandRef.UPDATE_BINARY.getInstructionByte()
+        || ins == CardCommandRef.WRITE_BINARY.getInstructionByte()) {
+      boolean isSfi = (p1 & 0x80) != 0;
+      return new CommandUpdateOrWriteBinary(
+          ins == CardCommandRef.UPDATE_BINARY.getInstructionByte(),
+          transactionContext,
+          commandContext,
+          isSfi ? (byte) (p1 & 0x1F) : 0,
+          isSfi ? p2 : (p1 << 8) | p2,
+          dataIn);
+    }
+    if ((ins == CardCommandRef.INCREASE.getInstructionByte()
+            || ins == CardCommandRef.DECREASE.getInstructionByte())
+        && dataIn.length == 3) {
+      return new CommandIncreaseOrDecrease(
+          ins == CardCommandRef.DECREASE.getInstructionByte(),
+          transactionContext,
+          commandContext,
+          sfi,
+          p1,
+          ByteArrayUtil.extractInt(dataIn, 0, 3, false));
+    }
+    if ((ins == CardCommandRef.INCREASE_MULTIPLE.getInstructionByte()
+            || ins == CardCommandRef.DECREASE_MULTIPLE.getInstructionByte())
+        && dataIn.length % 4 == 0) {
+      SortedMap<Integer, Integer> counterNumberToIncDecValueMap = new TreeMap<>();
+      for (int i = 0; i < dataIn.length; i += 4) {
+        counterNumberToIncDecValueMap.put(
+            dataIn[i] & 0xFF, ByteArrayUtil.extractInt(dataIn, i + 1, 3, false));
+      }
+      return new CommandIncreaseOrDecreaseMultiple(
+          ins == CardCommandRef.DECREASE_MULTIPLE.getInstructionByte(),
+          transactionContext,
+          commandContext,
+          sfi,
+          counterNumberToIncDecValueMap);
+    }
+    return null;
+  }
+
+  /**
+   * @param apdu The APDU request.
+   * @return The incoming data, null if none.
+   */
+  private static byte[] getDataIn(byte[] apdu) {
+    if (apdu.length <= 5) {
+      return null;
+    }
+    int lc = apdu[4] & 0xFF;
+    return 5 + lc <= apdu.length ? Arrays.copyOfRange(apdu, 5, 5 + lc) : null;
+  }
+
+  /**
+   * @param apdu The APDU request.
+   * @return The expected length, 0 if not specified.
+   */
+  private static int getLe(byte[] apdu) {
+    if (apdu.length == 5) {
+      return apdu[4] & 0xFF;
+    }
+    if (apdu.length > 5 && apdu.length == 6 + (apdu[4] & 0xFF)) {
+      return apdu[apdu.length - 1] & 0xFF;
+    }
+    return 0;
+  }
+
+  /**
+   * Archived transaction.
+   *
+   * @since 3.1.6
+   */
+  public static final class ArchivedTransaction {
+
+    private final byte[] cardImage;
+    private final List<byte[]> apdus;
+
+    /**
+     * Constructor.
+     *
+     * @param cardImage The image of the card at the beginning of the transaction, encoded with
+     *     {@code CalypsoExtensionService.encodeCard}.
+     * @param apdus The exchanged APDUs as returned by the transaction audit data: request and
+     *     response of each command, one after the other.
+     * @throws IllegalArgumentException If one of the arguments is null.
+     * @since 3.1.6
+     */
+    public ArchivedTransaction(byte[] cardImage, List<byte[]> apdus) {
+      Assert.getInstance().notNull(cardImage, "cardImage").notNull(apdus, "apdus");
+      this.cardImage = cardImage;
+      this.apdus = apdus;
+    }
+  }
+
+  /**
+   * Result of the replay of a transaction.
+   *
+   * @since 3.1.6
+   */
+  public static final class Result {
+
+    private final long index;
+    private final CalypsoCardAdapter card;
+    private final int nbReplayedCommands;
+    private final int nbSkippedCommands;
+    private final int nbRejectedCommands;
+    private final int nbSkippedSvOperations;
+    private final RuntimeException error;
+
+    private Result(
+        long index,
+        CalypsoCardAdapter card,
+        int nbReplayedCommands,
+        int nbSkippedCommands,
+        int nbRejectedCommands,
+        int nbSkippedSvOperations,
+        RuntimeException error) {
+      this.index = index;
+      this.card = card;
+      this.nbReplayedCommands = nbReplayedCommands;
+      this.nbSkippedCommands = nbSkippedCommands;
+      this.nbRejectedCommands = nbRejectedCommands;
+      this.nbSkippedSvOperations = nbSkippedSvOperations;
+      this.error = error;
+    }
+
+    /**
+     * @return The index of the transaction in the source.
+     * @since 3.1.6
+     */
+    public long getIndex() {
+      return index;
+    }
+
+    /**
+     * @return The reconstructed card image, null if the initial image could not be decoded.
+     * @since 3.1.6
+     */
+    public CalypsoCard getCard() {
+      return card;
+    }
+
+    /**
+     * @return The number of commands replayed, including the secure session management commands.
+     * @since 3.1.6
+     */
+    public int getReplayedCommandsCount() {
+      return nbReplayedCommands;
+    }
+
+    /**
+     * @return The number of commands skipped.
+     * @since 3.1.6
+     */
+    public int getSkippedCommandsCount() {
+      return nbSkippedCommands;
+    }
+
+    /**
+     * @return The number of commands whose response was rejected.
+     * @since 3.1.6
+     */
+    public int getRejectedCommandsCount() {
+      return nbRejectedCommands;
+    }
+
+    /**
+     * @return The number of successful SV operations skipped because the SV data was unknown or
+     *     the encryption was active. When not zero, the SV balance, the SV transaction number and
+     *     the SV logs of the reconstructed card image are out of date.
+     * @since 3.1.6
+     */
+    public int getSkippedSvOperationsCount() {
+      return nbSkippedSvOperations;
+    }
+
+    /**
+     * @return The error preventing the replay of the transaction, null if the replay succeeded.
+     * @since 3.1.6
+     */
+    public RuntimeException getError() {
+      return error;
+    }
+  }
+
+  /**
+   * Handler of the results of the replays.
+   *
+   * @since 3.1.6
+   */
+  public interface ResultHandler {
+
+    /**
+     * Called when the replay of a transaction is done.
+     *
+     * @param result The result.
+     * @since 3.1.6
+     */
+    void onResult(Result result);
+  }
+}
@@ -0,0 +1,245 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import org.eclipse.keyple.core.util.ByteArrayUtil;
+import org.eclipse.keypop.calypso.card.card.FileHeader;
+
+/**
+ * Immutable view of the content of a card image at a given time.
+ *
+ * <p>A snapshot is taken by the thread processing the transactions (see {@code
+ * CalypsoExtensionService.snapshot}) and can then be read by any thread without synchronization.
+ * The snapshots share the record arrays with the card image, and a new snapshot shares the views
+ * of the EFs not modified since the previous one. The record contents and the EF headers are
+ * returned as copies.
+ *
+ * @since 3.1.6
+ */
+public final class CardImageSnapshot {
+
+  private final long sequenceNumber;
+  private final byte[] applicationSerialNumber;
+  private final Integer transactionCounter;
+  private final Integer svBalance;
+  private final int svLastTNum;
+  private final List<FileSnapshot> files;
+
+  /**
+   * Constructor.
+   *
+   * @param sequenceNumber The sequence number of the snapshot.
+   * @param applicationSerialNumber The application serial number, null if unknown.
+   * @param transactionCounter The transaction counter, null if unknown.
+   * @param svBalance The SV balance, null if unknown.
+   * @param svLastTNum The last SV transaction number.
+   * @param files The unmodifiable list of the EF views, in ascending SFI order.
+   * @since 3.1.6
+   */
+  CardImageSnapshot(
+      long sequenceNumber,
+      byte[] applicationSerialNumber,
+      Integer transactionCounter,
+      Integer svBalance,
+      int svLastTNum,
+      List<FileSnapshot> files) {
+    this.sequenceNumber = sequenceNumber;
+    this.applicationSerialNumber = applicationSerialNumber;
+    this.transactionCounter = transactionCounter;
+    this.svBalance = svBalance;
+    this.svLastTNum = svLastTNum;
+    this.files = files;
+  }
+
+  /**
+   * @return The sequence number of the snapshot, incremented each time the card image changed
+   *     between two snapshots.
+   * @since 3.1.6
+   */
+  public long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  /**
+   * @return A copy of the application serial number, null if unknown.
+   * @since 3.1.6
+   */
+  public byte[] getApplicationSerialNumber() {
+    return applicationSerialNumber != null
+        ? Arrays.copyOf(applicationSerialNumber, applicationSerialNumber.length)
+        : null;
+  }
+
+  /**
+   * @return The transaction counter, null if unknown.
+   * @since 3.1.6
+   */
+  public Integer getTransactionCounter() {
+    return transactionCounter;
+  }
+
+  /**
+   * @return The SV balance, null if unknown.
+   * @since 3.1.6
+   */
+  public Integer getSvBalance() {
+    return svBalance;
+  }
+
+  /**
+   * @return The last SV transaction number.
+   * @since 3.1.6
+   */
+  public int getSvLastTNum() {
+    return svLastTNum;
+  }
+
+  /**
+   * @return A not null unmodifiable list of the EF views, in ascending SFI order.
+   * @since 3.1.6
+   */
+  public List<FileSnapshot> getFiles() {
+    return files;
+  }
+
+  /**
+   * Gets the view of the EF having the provided SFI.
+   *
+   * @param sfi The SFI.
+   * @return Null if the EF is not in the card image.
+   * @since 3.1.6
+   */
+  public FileSnapshot getFileBySfi(byte sfi) {
+    for (FileSnapshot file : files) {
+      if (file.sfi == sfi) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Immutable view of the content of an EF.
+   *
+   * @since 3.1.6
+   */
+  public static final class FileSnapshot {
+
+    private final byte sfi;
+    private final FileHeaderAdapter header;
+    private final SortedMap<Integer, byte[]> records;
+
+    /**
+     * Constructor.
+     *
+     * @param sfi The SFI.
+     * @param header A copy of the EF header, null if unknown.
+     * @param records The unmodifiable map of the records content, whose arrays are never modified.
+     * @since 3.1.6
+     */
+    FileSnapshot(byte sfi, FileHeaderAdapter header, SortedMap<Integer, byte[]> records) {
+      this.sfi = sfi;
+      this.header = header;
+      this.records = records;
+    }
+
+    /**
+     * @return The SFI.
+     * @since 3.1.6
+     */
+    public byte getSfi() {
+      return sfi;
+    }
+
+    /**
+     * @return A copy of the EF header, null if unknown.
+     * @since 3.1.6
+     */
+    public FileHeader getHeader() {
+      return header != null ? new FileHeaderAdapter(header) : null;
+    }
+
+    /**
+     * @return The number of records set.
+     * @since 3.1.6
+     */
+    public int getNbRecords() {
+      return records.size();
+    }
+
+    /**
+     * @return A not null unmodifiable set of the numbers of the records set, in ascending order.
+     * @since 3.1.6
+     */
+    public Set<Integer> getRecordNumbers() {
+      return records.keySet();
+    }
+
+    /**
+     * @param numRecord The record number.
+     * @return A copy of the record content, null if the record is not set.
+     * @since 3.1.6
+     */
+    public byte[] getContent(int numRecord) {
+      byte[] content = records.get(numRecord);
+      return content != null ? Arrays.copyOf(content, content.length) : null;
+    }
+
+    /**
+     * @param numCounter The counter number (should be {@code >=} 1).
+     * @return The counter value, null if the counter is not set.
+     * @since 3.1.6
+     */
+    public Integer getCounterValue(int numCounter) {
+      byte[] rec1 = records.get(1);
+      int counterIndex = (numCounter - 1) * 3;
+      if (rec1 == null || counterIndex < 0 || counterIndex + 3 > rec1.length) {
+        return null;
+      }
+      return ByteArrayUtil.extractInt(rec1, counterIndex, 3, false);
+    }
+
+    /**
+     * @return The unmodifiable map of the records content, shared with the card image.
+     * @since 3.1.6
+     */
+    SortedMap<Integer, byte[]> getRecords() {
+      return records;
+    }
+
+    /**
+     * Indicates if the EF header of the snapshot has the same content as the provided one.
+     *
+     * @param otherHeader The header to compare, may be null.
+     * @return true if both headers are null or have the same content.
+     * @since 3.1.6
+     */
+    boolean isSameHeader(FileHeader otherHeader) {
+      if (header == null || otherHeader == null) {
+        return header == otherHeader;
+      }
+      return header.getLid() == otherHeader.getLid()
+          && header.getRecordsNumber() == otherHeader.getRecordsNumber()
+          && header.getRecordSize() == otherHeader.getRecordSize()
+          && header.getEfType() == otherHeader.getEfType()
+          && Arrays.equals(header.getAccessConditions(), otherHeader.getAccessConditions())
+          && Arrays.equals(header.getKeyIndexes(), otherHeader.getKeyIndexes())
+          && Objects.equals(header.getDfStatus(), otherHeader.getDfStatus())
+          && Objects.equals(header.getSharedReference(), otherHeader.getSharedReference());
+    }
+  }
+}
@@ -0,0 +1,457 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the card product profiles, i.e. the specificities of some card batches identified by
+ * a masked pattern of their startup information.
+ *
+ * <p>The profiles are indexed by product type (revision 1 cards share the profiles of revision 2),
+ * then grouped by mask, each group being a hash table of the masked startup information values. A
+ * lookup thus costs one hash lookup per distinct mask. When several profiles match, the first one
+ * in the order of definition is applied.
+ *
+ * <p>The registry always contains the default profiles listed below. Additional profiles may be
+ * loaded from a JSON file designated by the system property {@value #PROFILES_FILE_PROPERTY} or, if
+ * not set, from the classpath resource {@value #PROFILES_RESOURCE} when the class is initialized,
+ * and reloaded at any time with {@link CalypsoExtensionService#loadCardProfiles(Path)}. They take
+ * precedence over the default profiles:
+ *
+ * <pre>{@code
+ * {
+ *   "version": 2,
+ *   "profiles": [
+ *     {
+ *       "productType": "PRIME_REVISION_3",
+ *       "startupInfo": "003C0000001000",
+ *       "mask": "00FF000000FF00",
+ *       "payloadCapacity": 235
+ *     },
+ *     {
+ *       "productType": "PRIME_REVISION_2",
+ *       "startupInfo": "03080304000200",
+ *       "counterValuePostponed": true,
+ *       "legacyCase1": true
+ *     }
+ *   ]
+ * }
+ * }</pre>
+ *
+ * The mask is optional (exact match by default). A set of profiles whose version is lower than the
+ * version of the current set is rejected.
+ *
+ * <p>All the data used by a lookup is held by an immutable snapshot published through a volatile
+ * field, so reloads never block the lookups, which may be performed concurrently from any thread.
+ *
+ * @since 3.1.6
+ */
+final class CardProfileRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(CardProfileRegistry.class);
+
+  static final String PROFILES_FILE_PROPERTY = "org.eclipse.keyple.card.calypso.profiles";
+  static final String PROFILES_RESOURCE = "/org/eclipse/keyple/card/calypso/card-profiles.json";
+
+  private static final long EXACT_MATCH_MASK = -1L;
+  private static final List<Profile> DEFAULT_PROFILES;
+
+  static {
+    List<Profile> profiles = new ArrayList<>();
+    // Patches for revision 3:
+    // XX 3C XX XX XX 10 XX
+    profiles.add(
+        new Profile(
+            CalypsoCard.ProductType.PRIME_REVISION_3,
+            "003C0000001000",
+            "00FF000000FF00",
+            235,
+            null,
+            null));
+
+    // Patches for revision 1 & 2:
+    // 06 XX 01 03 XX XX XX
+    profiles.add(rev12CounterValuePostponed("06000103000000", "FF00FFFF000000"));
+    // 06 0A 01 02 XX XX XX
+    profiles.add(rev12CounterValuePostponed("060A0102000000", "FFFFFFFF000000"));
+    // XX XX 0X XX 15 XX XX
+    profiles.add(rev12CounterValuePostponed("00000000150000", "0000F000FF0000"));
+    // XX XX 1X XX 15 XX XX
+    profiles.add(rev12CounterValuePostponed("00001000150000", "0000F000FF0000"));
+    // 0A 0A 01 02 20 03 11: PACA Card
+    profiles.add(rev12CounterValuePostponed("0A0A0102200311", "FFFFFFFFFFFFFF"));
+    // 0A 2E 13 02 00 01 01: OURA Card
+    profiles.add(rev12CounterValuePostponed("0A2E1302000101", "FFFFFFFFFFFFFF"));
+    // 03 08 03 04 00 02 00: targets ASK Tango having this startup info values
+    profiles.add(
+        new Profile(
+            CalypsoCard.ProductType.PRIME_REVISION_2,
+            "03080304000200",
+            "FFFFFFFFFFFFFF",
+            null,
+            null,
+            true));
+    DEFAULT_PROFILES = Collections.unmodifiableList(profiles);
+  }
+
+  private static final CardProfileRegistry INSTANCE = new CardProfileRegistry();
+
+  private volatile Snapshot snapshot; // NOSONAR the snapshot is immutable
+
+  /** Builds the registry with the default profiles and the profiles configured at startup. */
+  private CardProfileRegistry() {
+    snapshot = new Snapshot(0, Collections.<Profile>emptyList());
+    try {
+      String file = System.getProperty(PROFILES_FILE_PROPERTY);
+      if (file != null) {
+        load(Paths.get(file));
+      } else {
+        InputStream in = CardProfileRegistry.class.getResourceAsStream(PROFILES_RESOURCE);
+        if (in != null) {
+          try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            load(reader);
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Failed to load the card profiles, using the default ones: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the unique instance.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  static CardProfileRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns the profile to apply to a card.
+   *
+   * @param productType The product type of the card.
+   * @param startupInfo The startup information of the card as a long value.
+   * @return Null if no profile matches.
+   * @since 3.1.6
+   */
+  Profile findProfile(CalypsoCard.ProductType productType, long startupInfo) {
+    MaskGroup[] groups = snapshot.groupsByProductType.get(getFamily(productType));
+    if (groups == null) {
+      return null;
+    }
+    Profile bestProfile = null;
+    for (MaskGroup group : groups) {
+      Profile profile = group.profiles.get(startupInfo & group.mask);
+      if (profile != null && (bestProfile == null || profile.rank < bestProfile.rank)) {
+        bestProfile = profile;
+      }
+    }
+    return bestProfile;
+  }
+
+  /**
+   * @return The version of the current set of loaded profiles, 0 if only the default profiles are
+   *     available.
+   * @since 3.1.6
+   */
+  int getVersion() {
+    return snapshot.version;
+  }
+
+  /**
+   * Loads a set of profiles from a JSON file, replacing the previously loaded ones.
+   *
+   * @param file The JSON file.
+   * @throws IOException If the file cannot be read.
+   * @throws IllegalArgumentException If the content is invalid or its version is lower than the
+   *     current version.
+   * @since 3.1.6
+   */
+  void load(Path file) throws IOException {
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      load(reader);
+    }
+    logger.info("Card profiles loaded from {} (version {})", file, snapshot.version);
+  }
+
+  /**
+   * Loads a set of profiles in JSON format, replacing the previously loaded ones.
+   *
+   * <p>The current profiles remain in use until the new ones are entirely parsed and indexed.
+   *
+   * @param reader The JSON content.
+   * @throws IOException If the content cannot be read.
+   * @throws IllegalArgumentException If the content is invalid or its version is lower than the
+   *     current version.
+   * @since 3.1.6
+   */
+  synchronized void load(Reader reader) throws IOException {
+    int version = -1;
+    List<Profile> profiles = new ArrayList<>();
+    JsonReader in = new JsonReader(reader);
+    try {
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if ("version".equals(name)) {
+          version = in.nextInt();
+        } else if ("profiles".equals(name)) {
+          in.beginArray();
+          while (in.hasNext()) {
+            profiles.add(readProfile(in));
+          }
+          in.endArray();
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+    } catch (IllegalStateException | NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid card profiles: " + e.getMessage(), e);
+    }
+    Assert.getInstance().greaterOrEqual(version, 1, "version");
+    if (version < snapshot.version) {
+      throw new IllegalArgumentException(
+          "Card profiles version " + version + " is older than the current " + snapshot.version);
+    }
+    snapshot = new Snapshot(version, profiles);
+  }
+
+  /**
+   * Removes the loaded profiles, only the default profiles remain.
+   *
+   * @since 3.1.6
+   */
+  synchronized void reset() {
+    snapshot = new Snapshot(0, Collections.<Profile>emptyList());
+  }
+
+  /**
+   * Reads a profile.
+   *
+   * @param in The JSON reader positioned on the profile object.
+   * @return A not null reference.
+   * @throws IOException If the content cannot be read.
+   */
+  private static Profile readProfile(JsonReader in) throws IOException {
+    CalypsoCard.ProductType productType = null;
+    String startupInfo = null;
+    String mask = null;
+    Integer payloadCapacity = null;
+    Boolean isCounterValuePostponed = null;
+    Boolean isLegacyCase1 = null;
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      if ("productType".equals(name)) {
+        productType = CalypsoCard.ProductType.valueOf(in.nextString());
+      } else if ("startupInfo".equals(name)) {
+        startupInfo = in.nextString();
+      } else if ("mask".equals(name)) {
+        mask = in.nextString();
+      } else if ("payloadCapacity".equals(name)) {
+        payloadCapacity = in.nextInt();
+      } else if ("counterValuePostponed".equals(name)) {
+        isCounterValuePostponed = in.nextBoolean();
+      } else if ("legacyCase1".equals(name)) {
+        isLegacyCase1 = in.nextBoolean();
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    Assert.getInstance()
+        .notNull(productType, "productType")
+        .isHexString(startupInfo, "startupInfo");
+    if (mask != null) {
+      Assert.getInstance().isHexString(mask, "mask");
+    }
+    if (payloadCapacity != null) {
+      Assert.getInstance().isInRange(payloadCapacity, 1, 255, "payloadCapacity");
+    }
+    return new Profile(
+        productType, startupInfo, mask, payloadCapacity, isCounterValuePostponed, isLegacyCase1);
+  }
+
+  /**
+   * Builds a default revision 1 &amp; 2 profile with postponed counter values.
+   *
+   * @param startupInfo The startup information pattern.
+   * @param mask The mask.
+   * @return A not null reference.
+   */
+  private static Profile rev12CounterValuePostponed(String startupInfo, String mask) {
+    return new Profile(
+        CalypsoCard.ProductType.PRIME_REVISION_2, startupInfo, mask, null, true, null);
+  }
+
+  /**
+   * @param productType The product type.
+   * @return The product type under which the profiles of the provided product type are indexed.
+   */
+  private static CalypsoCard.ProductType getFamily(CalypsoCard.ProductType productType) {
+    return productType == CalypsoCard.ProductType.PRIME_REVISION_1
+        ? CalypsoCard.ProductType.PRIME_REVISION_2
+        : productType;
+  }
+
+  /**
+   * Specificities to be applied to the cards whose startup information matches a masked pattern.
+   *
+   * <p>A null property leaves the corresponding card property unchanged.
+   *
+   * @since 3.1.6
+   */
+  static final class Profile {
+
+    private final CalypsoCard.ProductType productType;
+    private final long startupInfo;
+    private final long mask;
+    private final Integer payloadCapacity;
+    private final Boolean isCounterValuePostponed;
+    private final Boolean isLegacyCase1;
+    private final int rank;
+
+    private Profile(
+        CalypsoCard.ProductType productType,
+        String startupInfo,
+        String mask,
+        Integer payloadCapacity,
+        Boolean isCounterValuePostponed,
+        Boolean isLegacyCase1) {
+      this.productType = getFamily(productType);
+      this.mask = mask != null ? HexUtil.toLong(mask) : EXACT_MATCH_MASK;
+      this.startupInfo = HexUtil.toLong(startupInfo) & this.mask;
+      this.payloadCapacity = payloadCapacity;
+      this.isCounterValuePostponed = isCounterValuePostponed;
+      this.isLegacyCase1 = isLegacyCase1;
+      this.rank = 0;
+    }
+
+    /**
+     * Copy constructor assigning the rank of the profile in a snapshot.
+     *
+     * @param source The profile to copy.
+     * @param rank The rank.
+     */
+    private Profile(Profile source, int rank) {
+      this.productType = source.productType;
+      this.mask = source.mask;
+      this.startupInfo = source.startupInfo;
+      this.payloadCapacity = source.payloadCapacity;
+      this.isCounterValuePostponed = source.isCounterValuePostponed;
+      this.isLegacyCase1 = source.isLegacyCase1;
+      this.rank = rank;
+    }
+
+    /**
+     * @return The payload capacity to apply, or null.
+     * @since 3.1.6
+     */
+    Integer getPayloadCapacity() {
+      return payloadCapacity;
+    }
+
+    /**
+     * @return The "counter value postponed" flag to apply, or null.
+     * @since 3.1.6
+     */
+    Boolean isCounterValuePostponed() {
+      return isCounterValuePostponed;
+    }
+
+    /**
+     * @return The "legacy case 1" flag to apply, or null.
+     * @since 3.1.6
+     */
+    Boolean isLegacyCase1() {
+      return isLegacyCase1;
+    }
+  }
+
+  /** Profiles sharing the same mask, indexed by masked startup information value. */
+  private static final class MaskGroup {
+
+    private final long mask;
+    private final Map<Long, Profile> profiles = new HashMap<>();
+
+    private MaskGroup(long mask) {
+      this.mask = mask;
+    }
+  }
+
+  /** Immutable index of the loaded profiles followed by the default profiles. */
+  private static final class Snapshot {
+
+    private final int version;
+    private final Map<CalypsoCard.ProductType, MaskGroup[]> groupsByProductType =
+        new EnumMap<>(CalypsoCard.ProductType.class);
+
+    private Snapshot(int version, List<Profile> loadedProfiles) {
+      this.version = version;
+      List<Profile> profiles = new ArrayList<>(loadedProfiles);
+      profiles.addAll(DEFAULT_PROFILES);
+      Map<CalypsoCard.ProductType, Map<Long, MaskGroup>> groups =
+          new EnumMap<>(CalypsoCard.ProductType.class);
+      int rank = 0;
+      for (Profile source : profiles) {
+        // Profiles are copied since the rank depends on the snapshot
+        Profile profile = new Profile(source, rank++);
+        Map<Long, MaskGroup> productTypeGroups = groups.get(profile.productType);
+        if (productTypeGroups == null) {
+          productTypeGroups = new LinkedHashMap<>();
+          groups.put(profile.productType, productTypeGroups);
+        }
+        MaskGroup group = productTypeGroups.get(profile.mask);
+        if (group == null) {
+          group = new MaskGroup(profile.mask);
+          productTypeGroups.put(profile.mask, group);
+        }
+        if (!group.profiles.containsKey(profile.startupInfo)) {
+          group.profiles.put(profile.startupInfo, profile);
+        }
+      }
+      for (Map.Entry<CalypsoCard.ProductType, Map<Long, MaskGroup>> entry : groups.entrySet()) {
+        groupsByProductType.put(
+            entry.getKey(), entry.getValue().values().toArray(new MaskGroup[0]));
+      }
+    }
+  }
+}
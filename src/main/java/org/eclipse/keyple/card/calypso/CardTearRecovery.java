@@ -0,0 +1,294 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.card.ApduResponseApi;
+
+/**
+ * Keeps the exchanges performed before a card tear so that the transaction can be resumed on the
+ * next presentation of the same card.
+ *
+ * <p>When the communication with the card is lost, the transaction manager records the reads
+ * successfully processed before the tear, outside any secure session, with their responses and the
+ * index of the first command left without response. When the same card is presented again, the
+ * first commands prepared by a new transaction manager that match the kept ones (same APDU) are
+ * answered from the kept responses, and only the remaining commands are transmitted. A tear is
+ * resumed at most once.
+ *
+ * <p>The card is identified by its serial number and, when known on both presentations, by its
+ * transaction counter. Since the transaction counter is not always known, a tear is also discarded
+ * when it is older than a maximum age, beyond which the content of the card may have been changed
+ * by another terminal. Only the reads are answered from the kept responses, up to the first command
+ * changing the card state. A secure session interrupted by a tear is never resumed: it is
+ * restarted, only the reads preceding its opening being answered from the kept responses.
+ *
+ * <p>The recovery is attached to a transaction manager with {@code
+ * CalypsoExtensionService.setCardTearRecovery}. It is thread-safe and may be shared by transaction
+ * managers running concurrently on several readers.
+ *
+ * @since 3.1.6
+ */
+public final class CardTearRecovery {
+
+  private static final int DEFAULT_MAX_PENDING_TEARS = 16;
+  private static final int DEFAULT_MAX_TEAR_AGE_MILLIS = 30000;
+
+  private final Map<String, Tear> pendingTears;
+  private final long maxTearAgeNanos;
+  private long nbRecordedTears;
+  private long nbResumedTears;
+  private long nbIdentityMismatches;
+  private long nbExpiredTears;
+  private long nbServedCommands;
+
+  /**
+   * Constructor.
+   *
+   * @param maxPendingTears The maximum number of cards whose tear is kept, the oldest tear being
+   *     discarded first.
+   * @param maxTearAgeMillis The maximum time in milliseconds between a tear and the next
+   *     presentation of the card for the tear to be resumed.
+   * @throws IllegalArgumentException If one of the arguments is lower than 1.
+   * @since 3.1.6
+   */
+  public CardTearRecovery(final int maxPendingTears, int maxTearAgeMillis) {
+    Assert.getInstance()
+        .greaterOrEqual(maxPendingTears, 1, "maxPendingTears")
+        .greaterOrEqual(maxTearAgeMillis, 1, "maxTearAgeMillis");
+    maxTearAgeNanos = maxTearAgeMillis * 1_000_000L;
+    pendingTears =
+        new LinkedHashMap<String, Tear>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Tear> eldest) {
+            return size() > maxPendingTears;
+          }
+        };
+  }
+
+  /**
+   * Creates a recovery keeping the tears of at most 16 cards for at most 30 seconds.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public static CardTearRecovery create() {
+    return new CardTearRecovery(DEFAULT_MAX_PENDING_TEARS, DEFAULT_MAX_TEAR_AGE_MILLIS);
+  }
+
+  /**
+   * Indicates if the response to a command can be kept to resume a transaction.
+   *
+   * <p>Only the reads, which leave the card state unchanged, are resumable: a command changing the
+   * card state (selected file, challenge, PIN status...) must be sent again to the card.
+   *
+   * @param command The command.
+   * @return true for the reads (Read Records, Read Record Multiple, Read Binary, Search Record
+   *     Multiple and Get Data) executed outside a secure session.
+   * @since 3.1.6
+   */
+  static boolean isResumable(Command command) {
+    if (command.getCommandContext().isSecureSessionOpen()) {
+      return false;
+    }
+    switch (command.getCommandRef()) {
+      case READ_RECORDS:
+      case READ_RECORD_MULTIPLE:
+      case READ_BINARY:
+      case SEARCH_RECORD_MULTIPLE:
+      case GET_DATA:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Records a tear, replacing any tear previously recorded for the card.
+   *
+   * @param card The card.
+   * @param commands The commands successfully processed before the tear, all resumable.
+   * @param apduResponses The responses to the commands.
+   * @param failingIndex The index of the first command left without response.
+   * @since 3.1.6
+   */
+  synchronized void record(
+      CalypsoCardAdapter card,
+      List<Command> commands,
+      List<ApduResponseApi> apduResponses,
+      int failingIndex) {
+    String serialNumber = getSerialNumber(card);
+    if (serialNumber == null) {
+      return;
+    }
+    List<byte[]> apduRequests = new ArrayList<>(commands.size());
+    for (Command command : commands) {
+      apduRequests.add(command.getApduRequest().getApdu());
+    }
+    pendingTears.put(
+        serialNumber,
+        new Tear(
+            System.nanoTime(),
+            card.getTransactionCounterIfKnown(),
+            apduRequests,
+            new ArrayList<>(apduResponses),
+            failingIndex));
+    nbRecordedTears++;
+  }
+
+  /**
+   * Consumes the tear recorded for the card, if any, and returns the kept responses to the longest
+   * prefix of the provided commands matching the commands processed before the tear.
+   *
+   * @param card The card.
+   * @param commands The commands to be processed.
+   * @return A not null list, empty if no tear is recorded for the card, if the tear is too old, if
+   *     the identity of the card does not match or if the first command does not match.
+   * @since 3.1.6
+   */
+  synchronized List<ApduResponseApi> takeKeptResponses(
+      CalypsoCardAdapter card, List<Command> commands) {
+    if (pendingTears.isEmpty()) {
+      return Collections.emptyList();
+    }
+    String serialNumber = getSerialNumber(card);
+    Tear tear = serialNumber != null ? pendingTears.remove(serialNumber) : null;
+    if (tear == null) {
+      return Collections.emptyList();
+    }
+    if (System.nanoTime() - tear.timestampNanos > maxTearAgeNanos) {
+      nbExpiredTears++;
+      return Collections.emptyList();
+    }
+    Integer transactionCounter = card.getTransactionCounterIfKnown();
+    if (tear.transactionCounter != null
+        && transactionCounter != null
+        && !tear.transactionCounter.equals(transactionCounter)) {
+      nbIdentityMismatches++;
+      return Collections.emptyList();
+    }
+    int nbMatching = 0;
+    while (nbMatching < commands.size()
+        && nbMatching < tear.apduRequests.size()
+        && isResumable(commands.get(nbMatching))
+        && Arrays.equals(
+            commands.get(nbMatching).getApduRequest().getApdu(),
+            tear.apduRequests.get(nbMatching))) {
+      nbMatching++;
+    }
+    if (nbMatching == 0) {
+      return Collections.emptyList();
+    }
+    nbResumedTears++;
+    nbServedCommands += nbMatching;
+    return tear.apduResponses.subList(0, nbMatching);
+  }
+
+  /**
+   * @param card The card.
+   * @return The index of the first command left without response during the tear recorded for the
+   *     card, -1 if no tear is recorded.
+   * @since 3.1.6
+   */
+  synchronized int getFailingIndex(CalypsoCardAdapter card) {
+    String serialNumber = getSerialNumber(card);
+    Tear tear = serialNumber != null ? pendingTears.get(serialNumber) : null;
+    return tear != null ? tear.failingIndex : -1;
+  }
+
+  /**
+   * @return The number of cards whose tear is kept.
+   * @since 3.1.6
+   */
+  public synchronized int getPendingTearsCount() {
+    return pendingTears.size();
+  }
+
+  /**
+   * @return The number of recorded tears.
+   * @since 3.1.6
+   */
+  public synchronized long getRecordedTearsCount() {
+    return nbRecordedTears;
+  }
+
+  /**
+   * @return The number of resumed tears.
+   * @since 3.1.6
+   */
+  public synchronized long getResumedTearsCount() {
+    return nbResumedTears;
+  }
+
+  /**
+   * @return The number of tears discarded because the transaction counter of the card changed.
+   * @since 3.1.6
+   */
+  public synchronized long getIdentityMismatchesCount() {
+    return nbIdentityMismatches;
+  }
+
+  /**
+   * @return The number of tears discarded because the card was presented again too late.
+   * @since 3.1.6
+   */
+  public synchronized long getExpiredTearsCount() {
+    return nbExpiredTears;
+  }
+
+  /**
+   * @return The number of commands answered from the kept responses.
+   * @since 3.1.6
+   */
+  public synchronized long getServedCommandsCount() {
+    return nbServedCommands;
+  }
+
+  /**
+   * @param card The card.
+   * @return The full serial number of the card as a hex string, null if unknown.
+   */
+  private static String getSerialNumber(CalypsoCardAdapter card) {
+    byte[] serialNumber = card.getCalypsoSerialNumberFull();
+    return serialNumber != null ? HexUtil.toHex(serialNumber) : null;
+  }
+
+  /** The exchanges performed on a card before a tear. */
+  private static final class Tear {
+
+    private final long timestampNanos;
+    private final Integer transactionCounter;
+    private final List<byte[]> apduRequests;
+    private final List<ApduResponseApi> apduResponses;
+    private final int failingIndex;
+
+    private Tear(
+        long timestampNanos,
+        Integer transactionCounter,
+        List<byte[]> apduRequests,
+        List<ApduResponseApi> apduResponses,
+        int failingIndex) {
+      this.timestampNanos = timestampNanos;
+      this.transactionCounter = transactionCounter;
+      this.apduRequests = apduRequests;
+      this.apduResponses = apduResponses;
+      this.failingIndex = failingIndex;
+    }
+  }
+}
@@ -15,8 +15,12 @@
 import static org.eclipse.keyple.card.calypso.CalypsoCardConstant.SW_RECORD_NOT_FOUND;
 import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.eclipse.keypop.calypso.card.transaction.CryptoException;
 import org.eclipse.keypop.calypso.card.transaction.CryptoIOException;
 import org.eclipse.keypop.calypso.crypto.asymmetric.AsymmetricCryptoException;
@@ -45,17 +49,36 @@ abstract class Command {
   static final byte[] APDU_RESPONSE_9000 = new byte[] {(byte) 0x90, 0x00};
 
   /**
-   * This Map stores expected status that could be by default initialized with sw1=90 and sw2=00
+   * Successful status words shared by the requests of the commands whose data may be postponed
+   * (9000h and 6200h).
+   *
+   * @since 3.1.6
+   */
+  static final Set<Integer> POSTPONED_DATA_SUCCESSFUL_STATUS_WORDS =
+      Collections.unmodifiableSet(new HashSet<>(Arrays.asList(0x9000, 0x6200)));
+
+  /**
+   * Successful status words shared by the requests of the commands executed in "best effort" mode
+   * within a secure session (9000h, 6A82h and 6A83h).
+   */
+  private static final Set<Integer> BEST_EFFORT_SUCCESSFUL_STATUS_WORDS =
+      Collections.unmodifiableSet(
+          new HashSet<>(Arrays.asList(0x9000, SW_FILE_NOT_FOUND, SW_RECORD_NOT_FOUND)));
+
+  /**
+   * This table stores expected status that could be by default initialized with sw1=90 and sw2=00
    * (Success)
    *
+   * <p>The tables of the commands extend it with their own status words.
+   *
    * @since 2.0.1
    */
-  static final Map<Integer, StatusProperties> STATUS_TABLE;
+  static final StatusTable STATUS_TABLE;
 
   static {
-    HashMap<Integer, StatusProperties> m = new HashMap<>();
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(0x9000, new StatusProperties("Success"));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(null, m);
   }
 
   private final CardCommandRef commandRef;
@@ -143,9 +166,7 @@ final void setApduRequest(ApduRequestAdapter apduRequest) {
   final void setApduRequestInBestEffortMode(ApduRequestAdapter apduRequest) {
     setApduRequest(apduRequest);
     if (commandContext.isSecureSessionOpen()) {
-      apduRequest
-          .addSuccessfulStatusWord(SW_FILE_NOT_FOUND)
-          .addSuccessfulStatusWord(SW_RECORD_NOT_FOUND);
+      apduRequest.setSuccessfulStatusWords(BEST_EFFORT_SUCCESSFUL_STATUS_WORDS);
     }
   }
 
@@ -407,31 +428,43 @@ final void setApduResponseAndCheckStatus(ApduResponseApi apduResponse)
   final boolean setApduResponseAndCheckStatusInBestEffortMode(ApduResponseApi apduResponse)
       throws CardCommandException {
     this.apduResponse = apduResponse;
-    try {
-      checkStatus();
-    } catch (CardDataAccessException e) {
-      if (commandContext.isSecureSessionOpen()
-          || (apduResponse.getStatusWord() != SW_FILE_NOT_FOUND
-              && apduResponse.getStatusWord() != SW_RECORD_NOT_FOUND)) {
-        throw e;
+    // The expected errors are detected before any exception is built
+    if (!commandContext.isSecureSessionOpen()) {
+      int statusWord = apduResponse.getStatusWord();
+      if (statusWord == SW_FILE_NOT_FOUND || statusWord == SW_RECORD_NOT_FOUND) {
+        StatusProperties props = getStatusWordProperties();
+        if (props != null && props.getExceptionClass() == CardDataAccessException.class) {
+          return false;
+        }
       }
-      return false;
     }
+    checkStatus();
     return true;
   }
 
+  /**
+   * Returns the SFI of the EF whose content is modified in the card by this command.
+   *
+   * @return The SFI, 0 if the command modifies the current EF, or -1 if the command does not modify
+   *     the content of any EF.
+   * @since 3.1.6
+   */
+  int getModifiedSfi() {
+    return -1;
+  }
+
   /**
    * Returns the internal status table
    *
    * @return A not null reference
    * @since 2.0.1
    */
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 
   /**
-   * @return The properties of the result.
+   * @return The properties of the result, null if the status word is not referenced.
    * @throws NullPointerException If the response is not set.
    */
   private StatusProperties getStatusWordProperties() {
@@ -580,4 +613,56 @@ Class<? extends CardCommandException> getExceptionClass() {
       return exceptionClass;
     }
   }
+
+  /**
+   * This internal class provides an immutable table of status word properties.
+   *
+   * <p>The status words are compiled into a sorted array searched by dichotomy, so that the lookup
+   * of a response status word does not box it. A table may extend a parent table: its own entries
+   * take precedence and the entries of the parent are looked up without being copied.
+   *
+   * @since 3.1.6
+   */
+  static final class StatusTable {
+
+    private final StatusTable parent;
+    private final int[] statusWords;
+    private final StatusProperties[] statusProperties;
+
+    /**
+     * Creates a table.
+     *
+     * @param parent The table to extend, null if none.
+     * @param statusTable The status word properties of the table, by status word.
+     * @since 3.1.6
+     */
+    StatusTable(StatusTable parent, Map<Integer, StatusProperties> statusTable) {
+      this.parent = parent;
+      statusWords = new int[statusTable.size()];
+      int i = 0;
+      for (Integer statusWord : statusTable.keySet()) {
+        statusWords[i++] = statusWord;
+      }
+      Arrays.sort(statusWords);
+      statusProperties = new StatusProperties[statusWords.length];
+      for (i = 0; i < statusWords.length; i++) {
+        statusProperties[i] = statusTable.get(statusWords[i]);
+      }
+    }
+
+    /**
+     * Gets the properties of a status word.
+     *
+     * @param statusWord The status word.
+     * @return Null if the status word is not referenced.
+     * @since 3.1.6
+     */
+    StatusProperties get(int statusWord) {
+      int index = Arrays.binarySearch(statusWords, statusWord);
+      if (index >= 0) {
+        return statusProperties[index];
+      }
+      return parent != null ? parent.get(statusWord) : null;
+    }
+  }
 }
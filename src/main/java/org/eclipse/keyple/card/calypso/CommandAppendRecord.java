@@ -30,10 +30,10 @@ final class CommandAppendRecord extends Command {
 
   private static final Logger logger = LoggerFactory.getLogger(CommandAppendRecord.class);
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6B00,
         new StatusProperties("P1 or P2 value not supported", CardIllegalParameterException.class));
@@ -59,7 +59,7 @@ final class CommandAppendRecord extends Command {
         0x6986,
         new StatusProperties("Command not allowed (no current EF)", CardDataAccessException.class));
     m.put(0x6A82, new StatusProperties("File not found", CardDataAccessException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   /* Construction arguments */
@@ -143,16 +143,27 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     decryptResponseAndUpdateTerminalSessionMacIfNeeded(apduResponse);
     super.setApduResponseAndCheckStatus(apduResponse);
     getTransactionContext().getCard().addCyclicContent((byte) sfi, data);
+    getTransactionContext().getCard().markRecordAppended((byte) sfi);
     updateTerminalSessionIfNeeded();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  int getModifiedSfi() {
+    return sfi;
+  }
+
   /**
    * {@inheritDoc}
    *
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
@@ -29,10 +29,10 @@
  */
 final class CommandChangeKey extends Command {
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6700,
         new StatusProperties(
@@ -59,7 +59,7 @@ final class CommandChangeKey extends Command {
         0x6A87,
         new StatusProperties("Lc not compatible with P2", CardIllegalParameterException.class));
     m.put(0x6B00, new StatusProperties("Incorrect P1, P2", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final byte keyIndex;
@@ -166,7 +166,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 2.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
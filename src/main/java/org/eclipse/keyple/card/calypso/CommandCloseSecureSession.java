@@ -47,10 +47,10 @@ final class CommandCloseSecureSession extends Command {
 
   private static final CardCommandRef commandRef = CardCommandRef.CLOSE_SECURE_SESSION;
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6700,
         new StatusProperties(
@@ -63,7 +63,7 @@ final class CommandCloseSecureSession extends Command {
     m.put(
         0x6985, new StatusProperties("No session was opened", CardAccessForbiddenException.class));
     m.put(0x6988, new StatusProperties("incorrect signatureLo", CardSecurityDataException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final boolean isAutoRatificationAsked;
@@ -171,6 +171,14 @@ void finalizeRequest() {
     }
   }
 
+  /**
+   * @return true if the command aborts the secure session instead of closing it.
+   * @since 3.1.6
+   */
+  boolean isAbortSecureSession() {
+    return isAbortSecureSession;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -294,7 +302,7 @@ private void parseResponseInAsymmetricMode(byte[] responseData) {
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
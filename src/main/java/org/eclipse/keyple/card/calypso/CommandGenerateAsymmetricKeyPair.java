@@ -26,11 +26,11 @@
  */
 final class CommandGenerateAsymmetricKeyPair extends Command {
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
   private static final String SECP256R1_OID = "06082A8648CE3D030107";
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(0x6700, new StatusProperties("Lc value not supported", CardDataAccessException.class));
     m.put(
         0x6985,
@@ -48,7 +48,7 @@ final class CommandGenerateAsymmetricKeyPair extends Command {
     m.put(
         0x6D00,
         new StatusProperties("PKI mode not available", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   /**
@@ -118,7 +118,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 3.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
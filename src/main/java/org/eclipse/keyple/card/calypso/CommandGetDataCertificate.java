@@ -28,10 +28,10 @@
  */
 final class CommandGetDataCertificate extends Command {
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6A88,
         new StatusProperties(
@@ -39,7 +39,7 @@ final class CommandGetDataCertificate extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P1 or P2 value not supported", CardDataAccessException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final boolean isCardCertificate;
@@ -160,7 +160,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 3.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
@@ -30,7 +30,7 @@
  */
 final class CommandGetDataEfList extends Command {
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
   private static final int DESCRIPTORS_OFFSET = 2;
   private static final int DESCRIPTOR_DATA_OFFSET = 2;
   private static final int DESCRIPTOR_DATA_SFI_OFFSET = 2;
@@ -38,7 +38,7 @@ final class CommandGetDataEfList extends Command {
   private static final int DESCRIPTOR_DATA_LENGTH = 6;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6A88,
         new StatusProperties(
@@ -46,9 +46,11 @@ final class CommandGetDataEfList extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P1 or P2 value not supported", CardDataAccessException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
+  private FileStructureCache fileStructureCache;
+
   /**
    * Constructor.
    *
@@ -74,6 +76,18 @@ final class CommandGetDataEfList extends Command {
     addSubName("EF_LIST");
   }
 
+  /**
+   * Sets the cache in which the file structure returned by the card is stored.
+   *
+   * @param fileStructureCache The cache, null to store nothing.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  CommandGetDataEfList setFileStructureCache(FileStructureCache fileStructureCache) {
+    this.fileStructureCache = fileStructureCache;
+    return this;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -117,6 +131,13 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     for (Map.Entry<FileHeaderAdapter, Byte> entry : fileHeaderToSfiMap.entrySet()) {
       getTransactionContext().getCard().setFileHeader(entry.getValue(), entry.getKey());
     }
+    if (fileStructureCache != null) {
+      Map<Byte, FileHeaderAdapter> sfiToFileHeaderMap = new HashMap<>();
+      for (Map.Entry<FileHeaderAdapter, Byte> entry : fileHeaderToSfiMap.entrySet()) {
+        sfiToFileHeaderMap.put(entry.getValue(), entry.getKey());
+      }
+      fileStructureCache.put(getTransactionContext().getCard(), sfiToFileHeaderMap);
+    }
     updateTerminalSessionIfNeeded();
   }
 
@@ -126,7 +147,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 2.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 
@@ -13,10 +13,10 @@
 
 import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import org.eclipse.keyple.core.util.ApduUtil;
-import org.eclipse.keyple.core.util.BerTlvUtil;
 import org.eclipse.keyple.core.util.HexUtil;
 import org.eclipse.keypop.card.ApduResponseApi;
 import org.slf4j.Logger;
@@ -34,10 +34,10 @@ final class CommandGetDataFci extends Command {
 
   private static final Logger logger = LoggerFactory.getLogger(CommandGetDataFci.class);
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6A88,
         new StatusProperties(
@@ -46,7 +46,7 @@ final class CommandGetDataFci extends Command {
         0x6B00,
         new StatusProperties("P1 or P2 value not supported", CardDataAccessException.class));
     m.put(0x6283, new StatusProperties("Successful execution, FCI request and DF is invalidated"));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   /* BER-TLV tags definitions */
@@ -146,8 +146,6 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     decryptResponseAndUpdateTerminalSessionMacIfNeeded(apduResponse);
     super.setApduResponseAndCheckStatus(apduResponse);
 
-    Map<Integer, byte[]> tags;
-
     /* check the command status to determine if the DF has been invalidated */
     // CL-INV-STATUS.1
     if (getApduResponse().getStatusWord() == 0x6283) {
@@ -155,20 +153,46 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
       isDfInvalidated = true;
     }
 
-    /* parse the raw data with the help of the TLV class */
+    /* walk the raw data in place and copy only the retained fields */
     try {
-      /* init TLV object with the raw data and extract the FCI Template */
-      byte[] responseData = getApduResponse().getDataOut();
+      byte[] apdu = getApduResponse().getApdu();
       // CL-SEL-TLVDATA.1
       // CL-TLV-VAR.1
       // CL-TLV-ORDER.1
-      tags = BerTlvUtil.parseSimple(responseData, true);
+      BerTlvReader tlvReader = new BerTlvReader(apdu, 0, apdu.length - 2);
+      int dfNameOffset = -1;
+      int dfNameLength = 0;
+      int applicationSNOffset = -1;
+      int applicationSNLength = 0;
+      int discretionaryDataOffset = -1;
+      int discretionaryDataLength = 0;
+      while (tlvReader.next()) {
+        if (tlvReader.isConstructed()) {
+          continue;
+        }
+        switch (tlvReader.getTag()) {
+          case TAG_DF_NAME:
+            dfNameOffset = tlvReader.getValueOffset();
+            dfNameLength = tlvReader.getValueLength();
+            break;
+          case TAG_APPLICATION_SERIAL_NUMBER:
+            applicationSNOffset = tlvReader.getValueOffset();
+            applicationSNLength = tlvReader.getValueLength();
+            break;
+          case TAG_DISCRETIONARY_DATA:
+            discretionaryDataOffset = tlvReader.getValueOffset();
+            discretionaryDataLength = tlvReader.getValueLength();
+            break;
+          default:
+            break;
+        }
+      }
 
-      dfName = tags.get(TAG_DF_NAME);
-      if (dfName == null) {
+      if (dfNameOffset < 0) {
         logger.error("DF name tag (84h) not found");
         return;
       }
+      dfName = Arrays.copyOfRange(apdu, dfNameOffset, dfNameOffset + dfNameLength);
       if (dfName.length < 5 || dfName.length > 16) {
         logger.error("Invalid DF name length {} (not in range [5..16])", dfName.length);
         return;
@@ -177,11 +201,12 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
         logger.debug("DF name: {}", HexUtil.toHex(dfName));
       }
 
-      applicationSN = tags.get(TAG_APPLICATION_SERIAL_NUMBER);
-      if (applicationSN == null) {
+      if (applicationSNOffset < 0) {
         logger.error("Serial number tag (C7h) not found");
         return;
       }
+      applicationSN =
+          Arrays.copyOfRange(apdu, applicationSNOffset, applicationSNOffset + applicationSNLength);
       // CL-SEL-CSN.1
       if (applicationSN.length != 8) {
         logger.error(
@@ -192,11 +217,13 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
         logger.debug("Application serial number: {}h", HexUtil.toHex(applicationSN));
       }
 
-      discretionaryData = tags.get(TAG_DISCRETIONARY_DATA);
-      if (discretionaryData == null) {
+      if (discretionaryDataOffset < 0) {
         logger.error("Discretionary data tag (53h) not found");
         return;
       }
+      discretionaryData =
+          Arrays.copyOfRange(
+              apdu, discretionaryDataOffset, discretionaryDataOffset + discretionaryDataLength);
       if (discretionaryData.length < 7) {
         logger.error("Invalid startup info length {} (should be >= 7)", discretionaryData.length);
         return;
@@ -273,7 +300,7 @@ boolean isDfInvalidated() {
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
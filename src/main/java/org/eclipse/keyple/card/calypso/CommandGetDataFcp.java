@@ -31,10 +31,10 @@
  */
 final class CommandGetDataFcp extends Command {
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6A88,
         new StatusProperties(
@@ -43,7 +43,7 @@ final class CommandGetDataFcp extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P1 or P2 value not supported", CardDataAccessException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   /**
@@ -110,8 +110,7 @@ boolean synchronizeCryptoServiceBeforeCardProcessing() {
   void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     decryptResponseAndUpdateTerminalSessionMacIfNeeded(apduResponse);
     super.setApduResponseAndCheckStatus(apduResponse);
-    CommandSelectFile.parseProprietaryInformation(
-        apduResponse.getDataOut(), getTransactionContext().getCard());
+    CommandSelectFile.parseProprietaryInformation(apduResponse, getTransactionContext().getCard());
     updateTerminalSessionIfNeeded();
   }
 
@@ -121,7 +120,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
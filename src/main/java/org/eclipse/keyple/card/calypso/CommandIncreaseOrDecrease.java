@@ -34,10 +34,10 @@ final class CommandIncreaseOrDecrease extends Command {
 
   private static final int SW_POSTPONED_DATA = 0x6200;
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6400,
         new StatusProperties(
@@ -73,7 +73,7 @@ final class CommandIncreaseOrDecrease extends Command {
         SW_POSTPONED_DATA,
         new StatusProperties(
             "Successful execution, response data postponed until session closing"));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final int sfi;
@@ -141,7 +141,7 @@ final class CommandIncreaseOrDecrease extends Command {
                   p2,
                   valueBuffer,
                   null));
-      apduRequest.addSuccessfulStatusWord(SW_POSTPONED_DATA);
+      apduRequest.setSuccessfulStatusWords(POSTPONED_DATA_SUCCESSFUL_STATUS_WORDS);
     }
 
     setApduRequest(apduRequest);
@@ -268,16 +268,29 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
           .setCounter(
               (byte) sfi, counterNumber != 0 ? counterNumber : 1, apduResponse.getDataOut());
     }
+    getTransactionContext()
+        .getCard()
+        .markCounterModified((byte) sfi, counterNumber != 0 ? counterNumber : 1);
     updateTerminalSessionIfNeeded();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  int getModifiedSfi() {
+    return sfi;
+  }
+
   /**
    * {@inheritDoc}
    *
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
@@ -31,10 +31,10 @@ final class CommandIncreaseOrDecreaseMultiple extends Command {
 
   private static final Logger logger =
       LoggerFactory.getLogger(CommandIncreaseOrDecreaseMultiple.class);
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6400,
         new StatusProperties(
@@ -70,7 +70,7 @@ final class CommandIncreaseOrDecreaseMultiple extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P1 or P2 value not supported", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final byte sfi;
@@ -186,18 +186,29 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
             .getCard()
             .setCounter(
                 sfi, dataOut[i * 4] & 0xFF, Arrays.copyOfRange(dataOut, (i * 4) + 1, (i * 4) + 4));
+        getTransactionContext().getCard().markCounterModified(sfi, dataOut[i * 4] & 0xFF);
       }
     }
     updateTerminalSessionIfNeeded();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  int getModifiedSfi() {
+    return sfi;
+  }
+
   /**
    * {@inheritDoc}
    *
    * @since 2.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 
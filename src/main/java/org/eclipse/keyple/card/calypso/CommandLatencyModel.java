@@ -0,0 +1,239 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+
+/**
+ * Model of the time needed by a card to process the commands, learned from the observed exchanges.
+ *
+ * <p>An estimated processing time is kept for each product type and each card command. Since an
+ * exchange transmits several commands at once, the difference between the observed time of an
+ * exchange and its prediction is distributed among its commands in proportion to their estimated
+ * times, each estimate being updated as an exponentially weighted moving average.
+ *
+ * <p>The model also collects the metrics of the deadline-aware processing of the transaction
+ * managers: prediction error, deadline misses, rejected plans and dropped optional commands.
+ *
+ * <p>The model is attached to a transaction manager with {@code
+ * CalypsoExtensionService.setCommandLatencyModel}. It is thread-safe and may be shared by
+ * transaction managers running concurrently on several readers.
+ * @since 3.1.6
+ */
+public final class CommandLatencyModel {
+
+  private static final double DEFAULT_SMOOTHING_FACTOR = 0.2;
+  private static final int DEFAULT_INITIAL_ESTIMATE_MILLIS = 10;
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  private final double smoothingFactor;
+  private final long initialEstimateNanos;
+  private final Map<CalypsoCard.ProductType, Map<CardCommandRef, Double>> estimates =
+      new EnumMap<>(CalypsoCard.ProductType.class);
+  private long nbObservations;
+  private double sumAbsoluteErrorNanos;
+  private long nbDeadlineChecks;
+  private long nbDeadlineMisses;
+  private long nbRejectedPlans;
+  private long nbDroppedCommands;
+
+  /**
+   * Constructor.
+   *
+   * @param smoothingFactor The weight of a new observation in the moving averages, in ]0, 1].
+   * @param initialEstimateMillis The estimated processing time of a command never observed, in
+   *     milliseconds.
+   * @since 3.1.6
+   */
+  public CommandLatencyModel(double smoothingFactor, int initialEstimateMillis) {
+    Assert.getInstance().greaterOrEqual(initialEstimateMillis, 0, "initialEstimateMillis");
+    if (smoothingFactor <= 0 || smoothingFactor > 1) {
+      throw new IllegalArgumentException("smoothingFactor must be in ]0, 1]: " + smoothingFactor);
+    }
+    this.smoothingFactor = smoothingFactor;
+    this.initialEstimateNanos = initialEstimateMillis * 1_000_000L;
+  }
+
+  /**
+   * Creates a model with a smoothing factor of 0.2 and an initial estimate of 10 ms per command.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public static CommandLatencyModel create() {
+    return new CommandLatencyModel(DEFAULT_SMOOTHING_FACTOR, DEFAULT_INITIAL_ESTIMATE_MILLIS);
+  }
+
+  /**
+   * Predicts the time needed by the card to process the provided commands.
+   *
+   * @param productType The product type of the card.
+   * @param commands The commands.
+   * @return The predicted time in nanoseconds.
+   * @since 3.1.6
+   */
+  synchronized long predictNanos(CalypsoCard.ProductType productType, List<Command> commands) {
+    double prediction = 0;
+    for (Command command : commands) {
+      prediction += getEstimate(productType, command.getCommandRef());
+    }
+    return (long) prediction;
+  }
+
+  /**
+   * Updates the model with an observed exchange.
+   *
+   * @param productType The product type of the card.
+   * @param commands The commands processed by the card during the exchange.
+   * @param elapsedNanos The observed time of the exchange in nanoseconds.
+   * @since 3.1.6
+   */
+  synchronized void observe(
+      CalypsoCard.ProductType productType, List<Command> commands, long elapsedNanos) {
+    if (commands.isEmpty()) {
+      return;
+    }
+    double prediction = predictNanos(productType, commands);
+    double error = elapsedNanos - prediction;
+    nbObservations++;
+    sumAbsoluteErrorNanos += Math.abs(error);
+    // Each command gets its share of the error, the estimate of a command is updated only once
+    Set<CardCommandRef> commandRefs = EnumSet.noneOf(CardCommandRef.class);
+    for (Command command : commands) {
+      commandRefs.add(command.getCommandRef());
+    }
+    Map<CardCommandRef, Double> productTypeEstimates = getEstimates(productType);
+    for (CardCommandRef commandRef : commandRefs) {
+      double estimate = getEstimate(productType, commandRef);
+      double share = prediction > 0 ? estimate / prediction : 1.0 / commands.size();
+      double newEstimate = Math.max(0, estimate + smoothingFactor * error * share);
+      productTypeEstimates.put(commandRef, newEstimate);
+    }
+  }
+
+  /**
+   * Records the result of a deadline-aware processing.
+   *
+   * @param isDeadlineMissed true if the processing took longer than its time budget.
+   * @param nbDropped The number of optional commands dropped to fit in the time budget.
+   * @since 3.1.6
+   */
+  synchronized void recordDeadlineCheck(boolean isDeadlineMissed, int nbDropped) {
+    nbDeadlineChecks++;
+    if (isDeadlineMissed) {
+      nbDeadlineMisses++;
+    }
+    nbDroppedCommands += nbDropped;
+  }
+
+  /**
+   * Records a deadline-aware processing rejected before any transmission because the prepared
+   * commands were predicted not to fit in the time budget.
+   *
+   * @param nbDropped The number of optional commands dropped before the rejection.
+   * @since 3.1.6
+   */
+  synchronized void recordRejectedPlan(int nbDropped) {
+    nbDeadlineChecks++;
+    nbRejectedPlans++;
+    nbDroppedCommands += nbDropped;
+  }
+
+  /**
+   * @param productType The product type.
+   * @param commandRef The card command.
+   * @return The estimated processing time of the command in milliseconds.
+   * @since 3.1.6
+   */
+  synchronized double getEstimateMillis(
+      CalypsoCard.ProductType productType, CardCommandRef commandRef) {
+    return getEstimate(productType, commandRef) / NANOS_PER_MILLI;
+  }
+
+  /**
+   * @return The number of exchanges observed.
+   * @since 3.1.6
+   */
+  public synchronized long getObservationsCount() {
+    return nbObservations;
+  }
+
+  /**
+   * @return The mean absolute difference between the predicted and the observed times of the
+   *     exchanges in milliseconds, 0 if no exchange has been observed.
+   * @since 3.1.6
+   */
+  public synchronized double getMeanAbsoluteErrorMillis() {
+    return nbObservations == 0 ? 0 : sumAbsoluteErrorNanos / nbObservations / NANOS_PER_MILLI;
+  }
+
+  /**
+   * @return The number of deadline-aware processings.
+   * @since 3.1.6
+   */
+  public synchronized long getDeadlineChecksCount() {
+    return nbDeadlineChecks;
+  }
+
+  /**
+   * @return The number of deadline-aware processings that took longer than their time budget.
+   * @since 3.1.6
+   */
+  public synchronized long getDeadlineMissesCount() {
+    return nbDeadlineMisses;
+  }
+
+  /**
+   * @return The number of deadline-aware processings rejected before any transmission.
+   * @since 3.1.6
+   */
+  public synchronized long getRejectedPlansCount() {
+    return nbRejectedPlans;
+  }
+
+  /**
+   * @return The number of optional commands dropped to fit in a time budget.
+   * @since 3.1.6
+   */
+  public synchronized long getDroppedCommandsCount() {
+    return nbDroppedCommands;
+  }
+
+  /**
+   * @param productType The product type.
+   * @param commandRef The card command.
+   * @return The estimated processing time in nanoseconds.
+   */
+  private double getEstimate(CalypsoCard.ProductType productType, CardCommandRef commandRef) {
+    Double estimate = getEstimates(productType).get(commandRef);
+    return estimate != null ? estimate : initialEstimateNanos;
+  }
+
+  /**
+   * @param productType The product type.
+   * @return The estimates of the product type.
+   */
+  private Map<CardCommandRef, Double> getEstimates(CalypsoCard.ProductType productType) {
+    Map<CardCommandRef, Double> productTypeEstimates = estimates.get(productType);
+    if (productTypeEstimates == null) {
+      productTypeEstimates = new EnumMap<>(CardCommandRef.class);
+      estimates.put(productType, productTypeEstimates);
+    }
+    return productTypeEstimates;
+  }
+}
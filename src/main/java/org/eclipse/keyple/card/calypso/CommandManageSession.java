@@ -32,10 +32,10 @@ final class CommandManageSession extends Command {
 
   private static final CardCommandRef commandRef = CardCommandRef.MANAGE_SECURE_SESSION;
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6700,
         new StatusProperties("Lc value not supported", CardIllegalParameterException.class));
@@ -57,7 +57,7 @@ final class CommandManageSession extends Command {
         new StatusProperties(
             "Extended mode not supported, or AES keys not supported",
             CardSecurityContextException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private boolean isEncryptionRequested;
@@ -226,7 +226,7 @@ private void updateCryptoServiceEncryptionStateIfNeeded() {
    * @since 2.3.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
@@ -41,10 +41,10 @@ final class CommandOpenSecureSession extends Command {
   private static final Logger logger = LoggerFactory.getLogger(CommandOpenSecureSession.class);
   private static final String PATTERN_1_BYTE_HEX = "%02Xh";
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6700,
         new StatusProperties("Lc value not supported", CardIllegalParameterException.class));
@@ -86,7 +86,7 @@ final class CommandOpenSecureSession extends Command {
         0x6200,
         new StatusProperties(
             "Successful execution, with warning (Pre-Open variant, secure session not opened)"));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final WriteAccessLevel writeAccessLevel;
@@ -334,6 +334,23 @@ boolean isReadModeConfigured() {
     return isReadModeConfigured;
   }
 
+  /**
+   * @return The write access level of the session, null in PKI mode.
+   * @since 3.1.6
+   */
+  WriteAccessLevel getWriteAccessLevel() {
+    return writeAccessLevel;
+  }
+
+  /**
+   * @return The KVC of the session key returned by the card, null if the response has not been
+   *     parsed yet or if the card did not provide it.
+   * @since 3.1.6
+   */
+  Byte getCardKvc() {
+    return kvc;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -477,7 +494,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     // CL-CSS-INFOTCNT.1
     card.setTransactionCounter(ByteArrayUtil.extractInt(challengeTransactionCounter, 0, 3, false));
     if (recordData.length > 0) {
-      card.setContent((byte) sfi, recordNumber, recordData);
+      card.setCompleteContent((byte) sfi, recordNumber, recordData);
     }
     // If it is a pre-open variant, then we save the pre-open data into the Calypso card image.
     if (isPreOpenModeOnSelection && apduResponse.getStatusWord() == 0x6200) {
@@ -688,7 +705,7 @@ private void parsePki(byte[] apduResponseData) {
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
@@ -29,10 +29,10 @@
  */
 final class CommandPutData extends Command {
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6400,
         new StatusProperties(
@@ -56,7 +56,7 @@ final class CommandPutData extends Command {
         0x6D00,
         new StatusProperties(
             "Command Put Data not supported", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final PutDataTag tag;
@@ -192,7 +192,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 3.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
@@ -31,10 +31,10 @@
 final class CommandReadBinary extends Command {
 
   private static final Logger logger = LoggerFactory.getLogger(CommandReadBinary.class);
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6981,
         new StatusProperties("Incorrect EF type: not a Binary EF", CardDataAccessException.class));
@@ -60,7 +60,7 @@ final class CommandReadBinary extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P1 value not supported", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final byte sfi;
@@ -222,7 +222,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 2.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
@@ -32,10 +32,10 @@ final class CommandReadRecords extends Command {
 
   private static final Logger logger = LoggerFactory.getLogger(CommandReadRecords.class);
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6981,
         new StatusProperties("Command forbidden on binary files", CardDataAccessException.class));
@@ -61,7 +61,7 @@ final class CommandReadRecords extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P2 value not supported", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   /**
@@ -213,7 +213,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     }
     byte[] dataOut = apduResponse.getDataOut();
     if (readMode == CommandReadRecords.ReadMode.ONE_RECORD) {
-      getTransactionContext().getCard().setContent((byte) sfi, firstRecordNumber, dataOut);
+      getTransactionContext().getCard().setCompleteContent((byte) sfi, firstRecordNumber, dataOut);
     } else {
       int apduLen = dataOut.length;
       int index = 0;
@@ -222,7 +222,8 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
         byte len = dataOut[index++];
         getTransactionContext()
             .getCard()
-            .setContent((byte) sfi, recordNb, Arrays.copyOfRange(dataOut, index, index + len));
+            .setCompleteContent(
+                (byte) sfi, recordNb, Arrays.copyOfRange(dataOut, index, index + len));
         index = index + len;
         apduLen = apduLen - 2 - len;
       }
@@ -243,7 +244,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 
@@ -30,10 +30,10 @@
 final class CommandSearchRecordMultiple extends Command {
 
   private static final Logger logger = LoggerFactory.getLogger(CommandSearchRecordMultiple.class);
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6400,
         new StatusProperties(
@@ -76,7 +76,7 @@ final class CommandSearchRecordMultiple extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P1 or P2 value not supported", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final SearchCommandDataAdapter data;
@@ -211,7 +211,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     if (data.isFetchFirstMatchingResult() && nbRecords > 0) {
       getTransactionContext()
           .getCard()
-          .setContent(
+          .setCompleteContent(
               data.getSfi(),
               data.getMatchingRecordNumbers().get(0),
               Arrays.copyOfRange(dataOut, nbRecords + 1, dataOut.length));
@@ -225,7 +225,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 2.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
@@ -36,12 +36,10 @@
 import static org.eclipse.keyple.card.calypso.CalypsoCardConstant.SEL_TYPE_OFFSET;
 import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
 
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import org.eclipse.keyple.core.util.ApduUtil;
 import org.eclipse.keyple.core.util.Assert;
-import org.eclipse.keyple.core.util.BerTlvUtil;
 import org.eclipse.keyple.core.util.ByteArrayUtil;
 import org.eclipse.keyple.core.util.HexUtil;
 import org.eclipse.keypop.calypso.card.SelectFileControl;
@@ -68,16 +66,16 @@ final class CommandSelectFile extends Command {
 
   private static final CardCommandRef commandRef = CardCommandRef.SELECT_FILE;
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6700,
         new StatusProperties("Lc value not supported", CardIllegalParameterException.class));
     m.put(0x6A82, new StatusProperties("File not found", CardDataAccessException.class));
     m.put(0x6119, new StatusProperties("Correct execution (ISO7816 T=0)"));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private static final int TAG_PROPRIETARY_INFORMATION = 0x85;
@@ -237,7 +235,7 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     } catch (CardDataAccessException e) {
       throw new SelectFileException("File not found", e);
     }
-    parseProprietaryInformation(apduResponse.getDataOut(), getTransactionContext().getCard());
+    parseProprietaryInformation(apduResponse, getTransactionContext().getCard());
     updateTerminalSessionIfNeeded();
   }
 
@@ -247,30 +245,33 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 
   /**
    * Parses the proprietary information and updates the corresponding Calypso card.
    *
-   * @param dataOut The dataOut block to parse.
+   * <p>The response is walked in place, only the retained fields are copied.
+   *
+   * @param apduResponse The response to parse.
    * @param calypsoCard The Calypso card to update.
    * @since 2.2.3
    */
-  static void parseProprietaryInformation(byte[] dataOut, CalypsoCardAdapter calypsoCard) {
-    byte[] proprietaryInformation = getProprietaryInformation(dataOut);
-    byte sfi = proprietaryInformation[SEL_SFI_OFFSET];
-    byte fileType = proprietaryInformation[SEL_TYPE_OFFSET];
+  static void parseProprietaryInformation(
+      ApduResponseApi apduResponse, CalypsoCardAdapter calypsoCard) {
+    byte[] apdu = apduResponse.getApdu();
+    int offset = getProprietaryInformationOffset(apdu);
+    byte sfi = apdu[offset + SEL_SFI_OFFSET];
+    byte fileType = apdu[offset + SEL_TYPE_OFFSET];
     switch (fileType) {
       case FILE_TYPE_MF:
       case FILE_TYPE_DF:
-        DirectoryHeader directoryHeader =
-            createDirectoryHeader(proprietaryInformation, calypsoCard);
+        DirectoryHeader directoryHeader = createDirectoryHeader(apdu, offset, calypsoCard);
         calypsoCard.setDirectoryHeader(directoryHeader);
         break;
       case FILE_TYPE_EF:
-        FileHeaderAdapter fileHeader = createFileHeader(proprietaryInformation, calypsoCard);
+        FileHeaderAdapter fileHeader = createFileHeader(apdu, offset, calypsoCard);
         calypsoCard.setFileHeader(sfi, fileHeader);
         break;
       default:
@@ -279,57 +280,56 @@ static void parseProprietaryInformation(byte[] dataOut, CalypsoCardAdapter calyp
   }
 
   /**
-   * @return The content of the proprietary information tag present in the response to the Select
-   *     File command
+   * @param apdu The response to the Select File command, including the status word.
+   * @return The offset in the response of the content of the proprietary information tag.
    */
-  private static byte[] getProprietaryInformation(byte[] dataOut) {
-    byte[] proprietaryInformation;
-    Map<Integer, byte[]> tags = BerTlvUtil.parseSimple(dataOut, true);
-    proprietaryInformation = tags.get(TAG_PROPRIETARY_INFORMATION);
-    if (proprietaryInformation == null) {
+  private static int getProprietaryInformationOffset(byte[] apdu) {
+    BerTlvReader tlvReader = new BerTlvReader(apdu, 0, apdu.length - 2);
+    if (!tlvReader.seekPrimitive(TAG_PROPRIETARY_INFORMATION)) {
       throw new IllegalStateException("Proprietary information: tag not found");
     }
-    Assert.getInstance().isEqual(proprietaryInformation.length, 23, "proprietaryInformation");
-    return proprietaryInformation;
+    Assert.getInstance().isEqual(tlvReader.getValueLength(), 23, "proprietaryInformation");
+    return tlvReader.getValueOffset();
   }
 
   /**
    * Parses the proprietaryInformation field of a file identified as an DF and create a {@link
    * DirectoryHeader}
    *
-   * @param proprietaryInformation from the response to a Select File command.
+   * @param data The response to a Select File command.
+   * @param offset The offset of the proprietary information in the response.
    * @param calypsoCard the Calypso card.
    * @return A {@link DirectoryHeader} object
    */
   private static DirectoryHeader createDirectoryHeader(
-      byte[] proprietaryInformation, CalypsoCardAdapter calypsoCard) {
+      byte[] data, int offset, CalypsoCardAdapter calypsoCard) {
 
     byte[] accessConditions = new byte[SEL_AC_LENGTH];
-    System.arraycopy(proprietaryInformation, SEL_AC_OFFSET, accessConditions, 0, SEL_AC_LENGTH);
+    System.arraycopy(data, offset + SEL_AC_OFFSET, accessConditions, 0, SEL_AC_LENGTH);
 
     byte[] keyIndexes = new byte[SEL_NKEY_LENGTH];
-    System.arraycopy(proprietaryInformation, SEL_NKEY_OFFSET, keyIndexes, 0, SEL_NKEY_LENGTH);
+    System.arraycopy(data, offset + SEL_NKEY_OFFSET, keyIndexes, 0, SEL_NKEY_LENGTH);
 
-    byte dfStatus = proprietaryInformation[SEL_DF_STATUS_OFFSET];
+    byte dfStatus = data[offset + SEL_DF_STATUS_OFFSET];
 
     int lidOffset =
         calypsoCard.getProductType() == CalypsoCard.ProductType.PRIME_REVISION_2
             ? SEL_LID_OFFSET_REV2
             : SEL_LID_OFFSET;
 
-    short lid = ByteArrayUtil.extractShort(proprietaryInformation, lidOffset);
+    short lid = ByteArrayUtil.extractShort(data, offset + lidOffset);
 
     return DirectoryHeaderAdapter.builder()
         .lid(lid)
         .accessConditions(accessConditions)
         .keyIndexes(keyIndexes)
         .dfStatus(dfStatus)
-        .kvc(WriteAccessLevel.PERSONALIZATION, proprietaryInformation[SEL_KVCS_OFFSET])
-        .kvc(WriteAccessLevel.LOAD, proprietaryInformation[SEL_KVCS_OFFSET + 1])
-        .kvc(WriteAccessLevel.DEBIT, proprietaryInformation[SEL_KVCS_OFFSET + 2])
-        .kif(WriteAccessLevel.PERSONALIZATION, proprietaryInformation[SEL_KIFS_OFFSET])
-        .kif(WriteAccessLevel.LOAD, proprietaryInformation[SEL_KIFS_OFFSET + 1])
-        .kif(WriteAccessLevel.DEBIT, proprietaryInformation[SEL_KIFS_OFFSET + 2])
+        .kvc(WriteAccessLevel.PERSONALIZATION, data[offset + SEL_KVCS_OFFSET])
+        .kvc(WriteAccessLevel.LOAD, data[offset + SEL_KVCS_OFFSET + 1])
+        .kvc(WriteAccessLevel.DEBIT, data[offset + SEL_KVCS_OFFSET + 2])
+        .kif(WriteAccessLevel.PERSONALIZATION, data[offset + SEL_KIFS_OFFSET])
+        .kif(WriteAccessLevel.LOAD, data[offset + SEL_KIFS_OFFSET + 1])
+        .kif(WriteAccessLevel.DEBIT, data[offset + SEL_KIFS_OFFSET + 2])
         .build();
   }
 
@@ -337,50 +337,50 @@ private static DirectoryHeader createDirectoryHeader(
    * Parses the proprietaryInformation field of a file identified as an EF and create a {@link
    * FileHeaderAdapter}
    *
-   * @param proprietaryInformation from the response to a Select File command.
+   * @param data The response to a Select File command.
+   * @param offset The offset of the proprietary information in the response.
    * @param calypsoCard the Calypso card.
    * @return A {@link FileHeaderAdapter} object
    */
   private static FileHeaderAdapter createFileHeader(
-      byte[] proprietaryInformation, CalypsoCardAdapter calypsoCard) {
+      byte[] data, int offset, CalypsoCardAdapter calypsoCard) {
 
-    ElementaryFile.Type fileType =
-        getEfTypeFromCardValue(proprietaryInformation[SEL_EF_TYPE_OFFSET]);
+    ElementaryFile.Type fileType = getEfTypeFromCardValue(data[offset + SEL_EF_TYPE_OFFSET]);
 
     int recordSize;
     int recordsNumber;
     if (fileType == ElementaryFile.Type.BINARY) {
-      recordSize = ByteArrayUtil.extractInt(proprietaryInformation, SEL_REC_SIZE_OFFSET, 2, false);
+      recordSize = ByteArrayUtil.extractInt(data, offset + SEL_REC_SIZE_OFFSET, 2, false);
       recordsNumber = 1;
     } else {
-      recordSize = proprietaryInformation[SEL_REC_SIZE_OFFSET];
-      recordsNumber = proprietaryInformation[SEL_NUM_REC_OFFSET];
+      recordSize = data[offset + SEL_REC_SIZE_OFFSET];
+      recordsNumber = data[offset + SEL_NUM_REC_OFFSET];
     }
 
     byte[] accessConditions = new byte[SEL_AC_LENGTH];
-    System.arraycopy(proprietaryInformation, SEL_AC_OFFSET, accessConditions, 0, SEL_AC_LENGTH);
+    System.arraycopy(data, offset + SEL_AC_OFFSET, accessConditions, 0, SEL_AC_LENGTH);
 
     byte[] keyIndexes = new byte[SEL_NKEY_LENGTH];
-    System.arraycopy(proprietaryInformation, SEL_NKEY_OFFSET, keyIndexes, 0, SEL_NKEY_LENGTH);
+    System.arraycopy(data, offset + SEL_NKEY_OFFSET, keyIndexes, 0, SEL_NKEY_LENGTH);
 
-    byte dfStatus = proprietaryInformation[SEL_DF_STATUS_OFFSET];
+    byte dfStatus = data[offset + SEL_DF_STATUS_OFFSET];
 
-    short sharedReference = ByteArrayUtil.extractShort(proprietaryInformation, SEL_DATA_REF_OFFSET);
+    short sharedReference = ByteArrayUtil.extractShort(data, offset + SEL_DATA_REF_OFFSET);
 
     int lidOffset =
         calypsoCard.getProductType() == CalypsoCard.ProductType.PRIME_REVISION_2
             ? SEL_LID_OFFSET_REV2
             : SEL_LID_OFFSET;
 
-    short lid = ByteArrayUtil.extractShort(proprietaryInformation, lidOffset);
+    short lid = ByteArrayUtil.extractShort(data, offset + lidOffset);
 
     return FileHeaderAdapter.builder()
         .lid(lid)
         .recordsNumber(recordsNumber)
         .recordSize(recordSize)
         .type(fileType)
-        .accessConditions(Arrays.copyOf(accessConditions, accessConditions.length))
-        .keyIndexes(Arrays.copyOf(keyIndexes, keyIndexes.length))
+        .accessConditions(accessConditions)
+        .keyIndexes(keyIndexes)
         .dfStatus(dfStatus)
         .sharedReference(sharedReference)
         .build();
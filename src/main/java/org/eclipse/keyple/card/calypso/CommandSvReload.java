@@ -61,11 +61,11 @@ final class CommandSvReload extends Command {
       "Unable to verify the card SV MAC associated to the SV operation";
   public static final String MSG_INVALID_CARD_SESSION_MAC = "Invalid card session MAC";
   private static final int SW_POSTPONED_DATA = 0x6200;
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
   private final int amount;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6400,
         new StatusProperties(
@@ -86,7 +86,7 @@ final class CommandSvReload extends Command {
         SW_POSTPONED_DATA,
         new StatusProperties(
             "Successful execution, response data postponed until session closing"));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final boolean isExtendedModeAllowed;
@@ -185,7 +185,7 @@ void finalizeCommand(SvCommandSecurityDataApiAdapter svCommandSecurityData) {
                     p2,
                     dataIn,
                     null))
-            .addSuccessfulStatusWord(SW_POSTPONED_DATA));
+            .setSuccessfulStatusWords(POSTPONED_DATA_SUCCESSFUL_STATUS_WORDS));
   }
 
   /**
@@ -298,6 +298,17 @@ private void updateCalypsoCardSvHistory(CalypsoCardAdapter calypsoCard) {
     System.arraycopy(getApduRequest().getApdu(), 14, reloadLog, 11, 9);
     ByteArrayUtil.copyBytes(calypsoCard.getSvLastTNum(), reloadLog, 20, 2);
     calypsoCard.addCyclicContent(CalypsoCardConstant.SV_RELOAD_LOG_FILE_SFI, reloadLog);
+    calypsoCard.markRecordAppended(CalypsoCardConstant.SV_RELOAD_LOG_FILE_SFI);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  int getModifiedSfi() {
+    return CalypsoCardConstant.SV_RELOAD_LOG_FILE_SFI;
   }
 
   /**
@@ -306,7 +317,7 @@ private void updateCalypsoCardSvHistory(CalypsoCardAdapter calypsoCard) {
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
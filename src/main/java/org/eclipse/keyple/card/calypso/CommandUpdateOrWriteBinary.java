@@ -29,10 +29,10 @@
 final class CommandUpdateOrWriteBinary extends Command {
 
   private static final Logger logger = LoggerFactory.getLogger(CommandUpdateOrWriteBinary.class);
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6400,
         new StatusProperties(
@@ -67,7 +67,7 @@ final class CommandUpdateOrWriteBinary extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P1 value not supported", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   private final byte sfi;
@@ -174,16 +174,27 @@ void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     } else {
       getTransactionContext().getCard().fillContent(sfi, 1, data, offset);
     }
+    getTransactionContext().getCard().markRecordModified(sfi, 1);
     updateTerminalSessionIfNeeded();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  int getModifiedSfi() {
+    return sfi;
+  }
+
   /**
    * {@inheritDoc}
    *
    * @since 2.1.0
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
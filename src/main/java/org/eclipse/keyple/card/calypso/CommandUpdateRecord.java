@@ -30,10 +30,10 @@ final class CommandUpdateRecord extends Command {
 
   private static final Logger logger = LoggerFactory.getLogger(CommandUpdateRecord.class);
 
-  private static final Map<Integer, StatusProperties> STATUS_TABLE;
+  private static final StatusTable STATUS_TABLE;
 
   static {
-    Map<Integer, StatusProperties> m = new HashMap<>(Command.STATUS_TABLE);
+    Map<Integer, StatusProperties> m = new HashMap<>();
     m.put(
         0x6400,
         new StatusProperties(
@@ -66,7 +66,7 @@ final class CommandUpdateRecord extends Command {
     m.put(
         0x6B00,
         new StatusProperties("P2 value not supported", CardIllegalParameterException.class));
-    STATUS_TABLE = m;
+    STATUS_TABLE = new StatusTable(Command.STATUS_TABLE, m);
   }
 
   /* Construction arguments */
@@ -159,17 +159,28 @@ boolean synchronizeCryptoServiceBeforeCardProcessing() {
   void parseResponse(ApduResponseApi apduResponse) throws CardCommandException {
     decryptResponseAndUpdateTerminalSessionMacIfNeeded(apduResponse);
     super.setApduResponseAndCheckStatus(apduResponse);
-    getTransactionContext().getCard().setContent((byte) sfi, recordNumber, data);
+    getTransactionContext().getCard().setCompleteContent((byte) sfi, recordNumber, data);
+    getTransactionContext().getCard().markRecordModified((byte) sfi, recordNumber);
     updateTerminalSessionIfNeeded();
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  int getModifiedSfi() {
+    return sfi;
+  }
+
   /**
    * {@inheritDoc}
    *
    * @since 2.0.1
    */
   @Override
-  Map<Integer, StatusProperties> getStatusTable() {
+  StatusTable getStatusTable() {
     return STATUS_TABLE;
   }
 }
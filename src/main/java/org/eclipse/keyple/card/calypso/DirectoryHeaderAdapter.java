@@ -12,6 +12,7 @@
 package org.eclipse.keyple.card.calypso;
 
 import java.util.EnumMap;
+import java.util.Map;
 import org.eclipse.keyple.core.util.Assert;
 import org.eclipse.keyple.core.util.json.JsonUtil;
 import org.eclipse.keypop.calypso.card.WriteAccessLevel;
@@ -180,6 +181,22 @@ public byte getKvc(WriteAccessLevel writeAccessLevel) {
     return kvc.get(writeAccessLevel);
   }
 
+  /**
+   * @return The KIFs by write access level.
+   * @since 3.1.6
+   */
+  Map<WriteAccessLevel, Byte> getKifMap() {
+    return kif;
+  }
+
+  /**
+   * @return The KVCs by write access level.
+   * @since 3.1.6
+   */
+  Map<WriteAccessLevel, Byte> getKvcMap() {
+    return kvc;
+  }
+
   /**
    * Gets a new builder.
    *
@@ -46,23 +46,27 @@ private DtoAdapters() {}
   static final class ApduRequestAdapter implements ApduRequestSpi {
 
     private static final int DEFAULT_SUCCESSFUL_CODE = 0x9000;
+    private static final Set<Integer> DEFAULT_SUCCESSFUL_STATUS_WORDS =
+        Collections.singleton(DEFAULT_SUCCESSFUL_CODE);
 
     private byte[] apdu;
-    private final Set<Integer> successfulStatusWords;
+    private Set<Integer> successfulStatusWords;
+    private transient boolean isSuccessfulStatusWordsShared; // NOSONAR
     private String info;
 
     /**
      * Builds an APDU request from a raw byte buffer.
      *
-     * <p>The default status words list is initialized with the standard successful code 9000h.
+     * <p>The default status words list is initialized with the standard successful code 9000h. It
+     * is shared by all the requests until a status word is added.
      *
      * @param apdu The bytes of the APDU's body.
      * @since 2.0.0
      */
     ApduRequestAdapter(byte[] apdu) {
       this.apdu = apdu;
-      successfulStatusWords = new HashSet<>();
-      successfulStatusWords.add(DEFAULT_SUCCESSFUL_CODE);
+      successfulStatusWords = DEFAULT_SUCCESSFUL_STATUS_WORDS;
+      isSuccessfulStatusWordsShared = true;
     }
 
     /**
@@ -75,10 +79,31 @@ static final class ApduRequestAdapter implements ApduRequestSpi {
      * @since 2.0.0
      */
     ApduRequestAdapter addSuccessfulStatusWord(int successfulStatusWord) {
+      if (isSuccessfulStatusWordsShared) {
+        successfulStatusWords = new HashSet<>(successfulStatusWords);
+        isSuccessfulStatusWordsShared = false;
+      }
       successfulStatusWords.add(successfulStatusWord);
       return this;
     }
 
+    /**
+     * Sets the status words that should be considered successful for the APDU.
+     *
+     * <p>The provided set is shared by the requests, not copied, and must therefore be immutable. A
+     * status word added afterwards is added to a copy.
+     *
+     * @param successfulStatusWords An immutable set containing the standard successful status word
+     *     {@code 9000h}.
+     * @return The object instance.
+     * @since 3.1.6
+     */
+    ApduRequestAdapter setSuccessfulStatusWords(Set<Integer> successfulStatusWords) {
+      this.successfulStatusWords = successfulStatusWords;
+      isSuccessfulStatusWordsShared = true;
+      return this;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -232,6 +257,21 @@ static final class CardSelectionRequestAdapter implements CardSelectionRequestSp
       successfulSelectionStatusWords.add(SW_DEFAULT_SUCCESSFUL);
     }
 
+    /**
+     * Builds an immutable card selection request with a predefined set of successful selection
+     * status words.
+     *
+     * @param cardRequest The card request (null if there is no additional APDU).
+     * @param successfulSelectionStatusWords The successful selection status words, which must not
+     *     be modified afterward.
+     * @since 3.1.6
+     */
+    CardSelectionRequestAdapter(
+        CardRequestSpi cardRequest, Set<Integer> successfulSelectionStatusWords) {
+      this.cardRequest = cardRequest;
+      this.successfulSelectionStatusWords = successfulSelectionStatusWords;
+    }
+
     /**
      * Adds the status word to the acceptation list.
      *
@@ -571,6 +611,14 @@ static final class SvDebitLogRecordAdapter implements SvDebitLogRecord {
       this.offset = offset;
     }
 
+    /**
+     * @return The offset of the log in the raw data.
+     * @since 3.1.6
+     */
+    int getOffset() {
+      return offset;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -656,10 +704,7 @@ public byte[] getSamId() {
      */
     @Override
     public int getSvTNum() {
-      byte[] tnNum = new byte[2];
-      tnNum[0] = cardResponse[offset + 17];
-      tnNum[1] = cardResponse[offset + 18];
-      return ByteArrayUtil.extractInt(tnNum, 0, 2, false);
+      return ByteArrayUtil.extractInt(cardResponse, offset + 17, 2, false);
     }
 
     /**
@@ -669,9 +714,7 @@ public int getSvTNum() {
      */
     @Override
     public int getSamTNum() {
-      byte[] samTNum = new byte[3];
-      System.arraycopy(cardResponse, offset + 11, samTNum, 0, 3);
-      return ByteArrayUtil.extractInt(samTNum, 0, 3, false);
+      return ByteArrayUtil.extractInt(cardResponse, offset + 11, 3, false);
     }
 
     /**
@@ -723,6 +766,14 @@ static final class SvLoadLogRecordAdapter implements SvLoadLogRecord {
       this.offset = offset;
     }
 
+    /**
+     * @return The offset of the log in the raw data.
+     * @since 3.1.6
+     */
+    int getOffset() {
+      return offset;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -821,10 +872,7 @@ public byte[] getSamId() {
      */
     @Override
     public int getSvTNum() {
-      byte[] tnNum = new byte[2];
-      tnNum[0] = cardResponse[offset + 20];
-      tnNum[1] = cardResponse[offset + 21];
-      return ByteArrayUtil.extractInt(tnNum, 0, 2, false);
+      return ByteArrayUtil.extractInt(cardResponse, offset + 20, 2, false);
     }
 
     /**
@@ -834,9 +882,7 @@ public int getSvTNum() {
      */
     @Override
     public int getSamTNum() {
-      byte[] samTNum = new byte[3];
-      System.arraycopy(cardResponse, offset + 17, samTNum, 0, 3);
-      return ByteArrayUtil.extractInt(samTNum, 0, 3, false);
+      return ByteArrayUtil.extractInt(cardResponse, offset + 17, 3, false);
     }
 
     /**
@@ -29,6 +29,11 @@ class FileDataAdapter implements FileData {
   private static final Logger logger = LoggerFactory.getLogger(FileDataAdapter.class);
 
   private final TreeMap<Integer, byte[]> records = new TreeMap<>();
+  private final TreeMap<Integer, BitSet> knownBytes = new TreeMap<>();
+  private final TreeMap<Integer, Long> recordModifications = new TreeMap<>();
+  private final TreeMap<Integer, Long> counterModifications = new TreeMap<>();
+  private final List<Long> recordAppends = new ArrayList<>();
+  private SortedMap<Integer, byte[]> recordsSnapshot;
 
   /**
    * Constructor
@@ -48,6 +53,14 @@ class FileDataAdapter implements FileData {
     for (Map.Entry<Integer, byte[]> entry : sourceContent.entrySet()) {
       records.put(entry.getKey(), Arrays.copyOf(entry.getValue(), entry.getValue().length));
     }
+    if (source instanceof FileDataAdapter) {
+      for (Map.Entry<Integer, BitSet> entry : ((FileDataAdapter) source).knownBytes.entrySet()) {
+        knownBytes.put(entry.getKey(), (BitSet) entry.getValue().clone());
+      }
+      recordModifications.putAll(((FileDataAdapter) source).recordModifications);
+      counterModifications.putAll(((FileDataAdapter) source).counterModifications);
+      recordAppends.addAll(((FileDataAdapter) source).recordAppends);
+    }
   }
 
   /**
@@ -182,6 +195,75 @@ public SortedMap<Integer, Integer> getAllCountersValue() {
    */
   void setContent(int numRecord, byte[] content) {
     records.put(numRecord, content);
+    knownBytes.remove(numRecord);
+    recordsSnapshot = null;
+  }
+
+  /**
+   * Sets or replaces the entire content of the specified record #numRecord by the full record
+   * content returned by the card, and marks all its bytes as known.
+   *
+   * @param numRecord the record number (should be {@code >=} 1).
+   * @param content the full record content (should be not empty).
+   * @since 3.1.6
+   */
+  void setCompleteContent(int numRecord, byte[] content) {
+    records.put(numRecord, content);
+    recordsSnapshot = null;
+    BitSet known = new BitSet(content.length);
+    known.set(0, content.length);
+    knownBytes.put(numRecord, known);
+  }
+
+  /**
+   * Indicates if the bytes of the specified range of the specified record are known to be identical
+   * to the card content, i.e. if they have been returned by the card or successfully written to it
+   * during the life of this card image.
+   *
+   * <p>Zero padding bytes and records restored from a serialized card image are never known.
+   *
+   * @param numRecord the record number (should be {@code >=} 1).
+   * @param from the index of the first byte (inclusive).
+   * @param to the index of the last byte (exclusive).
+   * @return True if all the bytes of the range are known.
+   * @since 3.1.6
+   */
+  boolean isContentKnown(int numRecord, int from, int to) {
+    byte[] content = records.get(numRecord);
+    BitSet known = knownBytes.get(numRecord);
+    return content != null
+        && known != null
+        && to <= content.length
+        && known.nextClearBit(from) >= to;
+  }
+
+  /**
+   * Indicates if all the bytes of the specified record are known to be identical to the card
+   * content (see {@link #isContentKnown(int, int, int)}).
+   *
+   * @param numRecord the record number (should be {@code >=} 1).
+   * @return True if the record is entirely known.
+   * @since 3.1.6
+   */
+  boolean isRecordKnown(int numRecord) {
+    byte[] content = records.get(numRecord);
+    return content != null && isContentKnown(numRecord, 0, content.length);
+  }
+
+  /**
+   * Marks the specified range of the specified record as known.
+   *
+   * @param numRecord the record number.
+   * @param from the index of the first byte (inclusive).
+   * @param to the index of the last byte (exclusive).
+   */
+  private void setContentKnown(int numRecord, int from, int to) {
+    BitSet known = knownBytes.get(numRecord);
+    if (known == null) {
+      known = new BitSet(to);
+      knownBytes.put(numRecord, known);
+    }
+    known.set(from, to);
   }
 
   /**
@@ -199,7 +281,8 @@ void setCounter(int numCounter, byte[] content) {
    * Sets or replaces the content at the specified offset of record #numRecord by a copy of the
    * provided content.<br>
    * If actual record content is not set or has a size {@code <} offset, then missing data will be
-   * padded with 0.
+   * padded with 0.<br>
+   * The actual record content is never modified in place (see {@link #getRecordsSnapshot()}).
    *
    * @param numRecord the record number (should be {@code >=} 1).
    * @param content the content (should be not empty).
@@ -219,17 +302,20 @@ void setContent(int numRecord, byte[] content, int offset) {
       newContent = new byte[newLength];
       System.arraycopy(oldContent, 0, newContent, 0, offset);
     } else {
-      newContent = oldContent;
+      newContent = Arrays.copyOf(oldContent, oldContent.length);
     }
     System.arraycopy(content, 0, newContent, offset, content.length);
     records.put(numRecord, newContent);
+    recordsSnapshot = null;
+    setContentKnown(numRecord, offset, newLength);
   }
 
   /**
    * Fills the content at the specified offset of the specified record using a binary OR operation
    * with the provided content.<br>
    * If actual record content is not set or has a size {@code <} offset + content size, then missing
-   * data will be completed by the provided content.
+   * data will be completed by the provided content.<br>
+   * The actual record content is never modified in place (see {@link #getRecordsSnapshot()}).
    *
    * @param numRecord the record number (should be {@code >=} 1).
    * @param content the content (should be not empty).
@@ -251,10 +337,13 @@ void fillContent(int numRecord, byte[] content, int offset) {
       }
       records.put(numRecord, contentLeftPadded);
     } else {
+      byte[] newContent = Arrays.copyOf(actualContent, actualContent.length);
       for (int i = 0; i < contentLeftPadded.length; i++) {
-        actualContent[i] |= contentLeftPadded[i];
+        newContent[i] |= contentLeftPadded[i];
       }
+      records.put(numRecord, newContent);
     }
+    recordsSnapshot = null;
   }
 
   /**
@@ -270,8 +359,119 @@ void addCyclicContent(byte[] content) {
     ArrayList<Integer> descendingKeys = new ArrayList<>(records.descendingKeySet());
     for (Integer i : descendingKeys) {
       records.put(i + 1, records.get(i));
+      BitSet known = knownBytes.remove(i);
+      if (known != null) {
+        knownBytes.put(i + 1, known);
+      }
+      Long modification = recordModifications.remove(i);
+      if (modification != null) {
+        recordModifications.put(i + 1, modification);
+      }
     }
     records.put(1, content);
+    recordsSnapshot = null;
+  }
+
+  /**
+   * Gets an immutable view of the records content as of now, shared until the next modification of
+   * the records.
+   *
+   * <p>Since the record arrays are replaced but never modified in place by this class, the view
+   * only references them: taking a view costs a copy of the record references, and nothing if the
+   * records have not been modified since the previous view.
+   *
+   * @return A not null unmodifiable map of the records content by record number.
+   * @since 3.1.6
+   */
+  SortedMap<Integer, byte[]> getRecordsSnapshot() {
+    if (recordsSnapshot == null) {
+      recordsSnapshot = Collections.unmodifiableSortedMap(new TreeMap<>(records));
+    }
+    return recordsSnapshot;
+  }
+
+  /**
+   * Marks the specified record as modified in the card.
+   *
+   * @param numRecord the record number (should be {@code >=} 1).
+   * @param sequenceNumber the sequence number of the modification in the card image.
+   * @since 3.1.6
+   */
+  void markRecordModified(int numRecord, long sequenceNumber) {
+    recordModifications.put(numRecord, sequenceNumber);
+  }
+
+  /**
+   * Marks the specified counter as modified in the card.
+   *
+   * @param numCounter the counter number (should be {@code >=} 1).
+   * @param sequenceNumber the sequence number of the modification in the card image.
+   * @since 3.1.6
+   */
+  void markCounterModified(int numCounter, long sequenceNumber) {
+    counterModifications.put(numCounter, sequenceNumber);
+  }
+
+  /**
+   * Marks the record #1 as appended in the card, the previous records having been shifted by
+   * {@link #addCyclicContent(byte[])}.
+   *
+   * @param sequenceNumber the sequence number of the modification in the card image.
+   * @since 3.1.6
+   */
+  void markRecordAppended(long sequenceNumber) {
+    recordAppends.add(sequenceNumber);
+    recordModifications.put(1, sequenceNumber);
+  }
+
+  /**
+   * Gets the records modified in the card after the specified modification.
+   *
+   * @param sequenceNumber the sequence number of the modification.
+   * @return A not null list of record numbers, in ascending order.
+   * @since 3.1.6
+   */
+  List<Integer> getRecordsModifiedAfter(long sequenceNumber) {
+    return getModifiedAfter(recordModifications, sequenceNumber);
+  }
+
+  /**
+   * Gets the counters modified in the card after the specified modification.
+   *
+   * @param sequenceNumber the sequence number of the modification.
+   * @return A not null list of counter numbers, in ascending order.
+   * @since 3.1.6
+   */
+  List<Integer> getCountersModifiedAfter(long sequenceNumber) {
+    return getModifiedAfter(counterModifications, sequenceNumber);
+  }
+
+  /**
+   * Gets the number of records appended in the card after the specified modification.
+   *
+   * @param sequenceNumber the sequence number of the modification.
+   * @return A positive value or 0.
+   * @since 3.1.6
+   */
+  int getNbRecordsAppendedAfter(long sequenceNumber) {
+    int nbAppended = 0;
+    for (long append : recordAppends) {
+      if (append > sequenceNumber) {
+        nbAppended++;
+      }
+    }
+    return nbAppended;
+  }
+
+  private static List<Integer> getModifiedAfter(
+      SortedMap<Integer, Long> modifications, long sequenceNumber) {
+    List<Integer> modified = new ArrayList<>();
+    for (Map.Entry<Integer, Long> entry : modifications.entrySet()) {
+      if (entry.getValue() > sequenceNumber) {
+        modified.add(entry.getKey());
+      }
+    }
+    return modified;
   }
 
   /**
@@ -271,9 +271,8 @@ static FileHeaderBuilder builder() {
     recordsNumber = source.getRecordsNumber();
     recordSize = source.getRecordSize();
     type = source.getEfType();
-    accessConditions =
-        Arrays.copyOf(source.getAccessConditions(), source.getAccessConditions().length);
-    keyIndexes = Arrays.copyOf(source.getKeyIndexes(), source.getKeyIndexes().length);
+    accessConditions = copyOrNull(source.getAccessConditions());
+    keyIndexes = copyOrNull(source.getKeyIndexes());
     dfStatus = source.getDfStatus();
     sharedReference = source.getSharedReference();
   }
@@ -286,11 +285,10 @@ static FileHeaderBuilder builder() {
    */
   void updateMissingInfoFrom(FileHeader source) {
     if (accessConditions == null) {
-      accessConditions =
-          Arrays.copyOf(source.getAccessConditions(), source.getAccessConditions().length);
+      accessConditions = copyOrNull(source.getAccessConditions());
     }
     if (keyIndexes == null) {
-      keyIndexes = Arrays.copyOf(source.getKeyIndexes(), source.getKeyIndexes().length);
+      keyIndexes = copyOrNull(source.getKeyIndexes());
     }
     if (dfStatus == null) {
       dfStatus = source.getDfStatus();
@@ -300,6 +298,14 @@ void updateMissingInfoFrom(FileHeader source) {
     }
   }
 
+  /**
+   * @param source The array to copy, may be null (e.g. header built from an EF list).
+   * @return A copy of the array, or null.
+   */
+  private static byte[] copyOrNull(byte[] source) {
+    return source != null ? Arrays.copyOf(source, source.length) : null;
+  }
+
   /**
    * Comparison is based on field "lid".
    *
@@ -0,0 +1,270 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keyple.core.util.HexUtil;
+
+/**
+ * Cache of the file structures (EF headers) of the DFs, shared by the cards having the same DF name
+ * and the same masked startup information.
+ *
+ * <p>The structure of a DF is learned from the response to a "Get Data" command for the EF LIST
+ * tag. It can then be injected into the image of the following cards right after their selection,
+ * and the "Get Data (EF LIST)" commands prepared for them are answered from the cache without any
+ * APDU exchange.
+ *
+ * <p>To detect a change in the personalization of a card batch, one cache hit out of {@code
+ * verificationPeriod} can be verified: the command is then sent anyway and its response replaces
+ * the cached structure.
+ *
+ * <p>The cache is thread-safe and may be shared by transaction managers running concurrently on
+ * several readers. It is attached to the card selection extensions and to the transaction managers
+ * with {@code CalypsoExtensionService.setFileStructureCache}.
+ *
+ * @since 3.1.6
+ */
+public final class FileStructureCache {
+
+  private static final String DEFAULT_STARTUP_INFO_MASK = "FFFFFFFFFFFFFF";
+
+  private final long startupInfoMask;
+  private final int maxSize;
+  private final int verificationPeriod;
+  private final ConcurrentMap<Key, Map<Byte, FileHeaderAdapter>> structures =
+      new ConcurrentHashMap<>();
+  private final AtomicLong nbHits = new AtomicLong();
+  private final AtomicLong nbMisses = new AtomicLong();
+  private final AtomicLong nbDiscoveryHits = new AtomicLong();
+  private final AtomicLong nbMismatches = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param startupInfoMask The mask to apply to the startup information (hex string) to build the
+   *     cache key, i.e. the bytes identifying a file structure in the card batches.
+   * @param maxSize The maximum number of cached file structures.
+   * @param verificationPeriod The number of discovery command hits after which the command is sent
+   *     anyway to verify the cached structure, 0 to never verify.
+   * @since 3.1.6
+   */
+  public FileStructureCache(String startupInfoMask, int maxSize, int verificationPeriod) {
+    Assert.getInstance()
+        .isHexString(startupInfoMask, "startupInfoMask")
+        .greaterOrEqual(maxSize, 1, "maxSize")
+        .greaterOrEqual(verificationPeriod, 0, "verificationPeriod");
+    this.startupInfoMask = HexUtil.toLong(startupInfoMask);
+    this.maxSize = maxSize;
+    this.verificationPeriod = verificationPeriod;
+  }
+
+  /**
+   * Creates a cache keyed on the full startup information, with at most 64 structures and no
+   * verification.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public static FileStructureCache create() {
+    return new FileStructureCache(DEFAULT_STARTUP_INFO_MASK, 64, 0);
+  }
+
+  /**
+   * Injects the cached file structure of the current DF into the card image.
+   *
+   * <p>The headers are copied into the card image and merged with the headers already known.
+   *
+   * @param card The card.
+   * @return false if no structure is cached for the DF of the card.
+   * @since 3.1.6
+   */
+  boolean applyTo(CalypsoCardAdapter card) {
+    Key key = buildKey(card);
+    Map<Byte, FileHeaderAdapter> structure = key != null ? structures.get(key) : null;
+    if (structure == null) {
+      nbMisses.incrementAndGet();
+      return false;
+    }
+    nbHits.incrementAndGet();
+    for (Map.Entry<Byte, FileHeaderAdapter> entry : structure.entrySet()) {
+      card.setFileHeader(entry.getKey(), new FileHeaderAdapter(entry.getValue()));
+    }
+    return true;
+  }
+
+  /**
+   * Injects the cached file structure of the current DF into the card image in place of a
+   * discovery command.
+   *
+   * @param card The card.
+   * @return false if the discovery command must be sent, i.e. if no structure is cached for the DF
+   *     of the card or if the cached structure must be verified.
+   * @since 3.1.6
+   */
+  boolean applyInsteadOfDiscovery(CalypsoCardAdapter card) {
+    if (!applyTo(card)) {
+      return false;
+    }
+    return verificationPeriod == 0 || nbDiscoveryHits.incrementAndGet() % verificationPeriod != 0;
+  }
+
+  /**
+   * Stores the file structure of the current DF of the card, as returned by a discovery command.
+   *
+   * <p>An already cached structure is replaced, a difference being counted as a mismatch.
+   *
+   * @param card The card.
+   * @param structure The EF headers of the DF, by SFI.
+   * @since 3.1.6
+   */
+  void put(CalypsoCardAdapter card, Map<Byte, FileHeaderAdapter> structure) {
+    Key key = buildKey(card);
+    if (key == null) {
+      return;
+    }
+    Map<Byte, FileHeaderAdapter> copy = new HashMap<>(structure.size() * 2);
+    for (Map.Entry<Byte, FileHeaderAdapter> entry : structure.entrySet()) {
+      copy.put(entry.getKey(), new FileHeaderAdapter(entry.getValue()));
+    }
+    Map<Byte, FileHeaderAdapter> previous;
+    // The size check and the insertion are atomic, the lookups remain lock-free
+    synchronized (structures) {
+      previous = structures.get(key);
+      if (previous == null && structures.size() >= maxSize) {
+        return;
+      }
+      structures.put(key, copy);
+    }
+    if (previous != null && !isSameStructure(previous, copy)) {
+      nbMismatches.incrementAndGet();
+    }
+  }
+
+  /**
+   * Removes all the cached structures.
+   *
+   * @since 3.1.6
+   */
+  public void clear() {
+    structures.clear();
+  }
+
+  /**
+   * @return The number of cached structures.
+   * @since 3.1.6
+   */
+  public int size() {
+    return structures.size();
+  }
+
+  /**
+   * @return The number of lookups that found a cached structure.
+   * @since 3.1.6
+   */
+  public long getHitsCount() {
+    return nbHits.get();
+  }
+
+  /**
+   * @return The number of lookups that found no cached structure.
+   * @since 3.1.6
+   */
+  public long getMissesCount() {
+    return nbMisses.get();
+  }
+
+  /**
+   * @return The number of verifications that found a structure different from the cached one.
+   * @since 3.1.6
+   */
+  public long getMismatchesCount() {
+    return nbMismatches.get();
+  }
+
+  /**
+   * @param structure1 A structure.
+   * @param structure2 Another structure.
+   * @return true if both structures contain the same EFs with the same LID, type and sizes.
+   */
+  private static boolean isSameStructure(
+      Map<Byte, FileHeaderAdapter> structure1, Map<Byte, FileHeaderAdapter> structure2) {
+    if (structure1.size() != structure2.size()) {
+      return false;
+    }
+    for (Map.Entry<Byte, FileHeaderAdapter> entry : structure1.entrySet()) {
+      FileHeaderAdapter header1 = entry.getValue();
+      FileHeaderAdapter header2 = structure2.get(entry.getKey());
+      if (header2 == null
+          || header1.getLid() != header2.getLid()
+          || header1.getEfType() != header2.getEfType()
+          || header1.getRecordSize() != header2.getRecordSize()
+          || header1.getRecordsNumber() != header2.getRecordsNumber()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param card The card.
+   * @return Null if the DF name or the startup information of the card is unknown.
+   */
+  private Key buildKey(CalypsoCardAdapter card) {
+    byte[] dfName = card.getDfName();
+    byte[] startupInfo = card.getStartupInfoRawData();
+    if (dfName == null || startupInfo == null || startupInfo.length > 8) {
+      return null;
+    }
+    long startupInfoLong = 0;
+    for (byte b : startupInfo) {
+      startupInfoLong = (startupInfoLong << 8) | (b & 0xFF);
+    }
+    return new Key(dfName, startupInfoLong & startupInfoMask);
+  }
+
+  /** Cache key: DF name and masked startup information. */
+  private static final class Key {
+
+    private final byte[] dfName;
+    private final long maskedStartupInfo;
+    private final int hashCode;
+
+    private Key(byte[] dfName, long maskedStartupInfo) {
+      this.dfName = dfName;
+      this.maskedStartupInfo = maskedStartupInfo;
+      this.hashCode = 31 * Arrays.hashCode(dfName) + Long.valueOf(maskedStartupInfo).hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return maskedStartupInfo == key.maskedStartupInfo && Arrays.equals(dfName, key.dfName);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
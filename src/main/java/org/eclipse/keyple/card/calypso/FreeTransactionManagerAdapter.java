@@ -83,7 +83,7 @@ int getPayloadCapacity() {
    */
   @Override
   void resetTransaction() {
-    commands.clear();
+    clearCommands();
   }
 
   /**
@@ -96,6 +96,16 @@ void prepareNewSecureSessionIfNeeded(Command command) {
     // NOP
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  void releaseSessionBuffer(Command command) {
+    // NOP
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -121,7 +131,7 @@ public FreeTransactionManager processCommands(ChannelControl channelControl) {
       return this;
     }
     try {
-      List<Command> cardRequestCommands = new ArrayList<>();
+      List<Command> cardRequestCommands = new ArrayList<>(commands.size());
       for (Command command : commands) {
         command.finalizeRequest();
         cardRequestCommands.add(command);
@@ -131,7 +141,7 @@ public FreeTransactionManager processCommands(ChannelControl channelControl) {
       resetTransaction();
       throw e;
     } finally {
-      commands.clear();
+      clearCommands();
     }
     return currentInstance;
   }
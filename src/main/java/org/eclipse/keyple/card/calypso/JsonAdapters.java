@@ -13,20 +13,32 @@
 
 import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
-import java.lang.reflect.Type;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keyple.core.util.json.JsonUtil;
+import org.eclipse.keypop.calypso.card.WriteAccessLevel;
 import org.eclipse.keypop.calypso.card.card.*;
 
 /**
  * Contains all JSON adapters used for serialization and deserialization processes.<br>
  * These adapters are required for interfaces and abstract classes.
  *
+ * <p>The adapters are streaming {@link TypeAdapter}s writing directly to the {@link JsonWriter}
+ * without building an intermediate JSON tree. Their output is identical to the reflective one
+ * produced by {@link JsonUtil}, whose numeric values and byte arrays are hexadecimal strings and
+ * whose null fields are omitted.
+ *
  * @since 2.2.3
  */
 final class JsonAdapters {
@@ -35,6 +47,21 @@ final class JsonAdapters {
   private static final String DATA = "data";
   private static final String UNKNOWN_TYPE_TEMPLATE = "Unknown type: %s";
 
+  private static final String LID = "lid";
+  private static final String ACCESS_CONDITIONS = "accessConditions";
+  private static final String KEY_INDEXES = "keyIndexes";
+  private static final String DF_STATUS = "dfStatus";
+  private static final String KIF = "kif";
+  private static final String KVC = "kvc";
+  private static final String RECORDS_NUMBER = "recordsNumber";
+  private static final String RECORD_SIZE = "recordSize";
+  private static final String SHARED_REFERENCE = "sharedReference";
+  private static final String SFI = "sfi";
+  private static final String HEADER = "header";
+  private static final String RECORDS = "records";
+  private static final String OFFSET = "offset";
+  private static final String CARD_RESPONSE = "cardResponse";
+
   private JsonAdapters() {}
 
   /**
@@ -42,30 +69,90 @@ private JsonAdapters() {}
    *
    * @since 2.0.0
    */
-  static final class DirectoryHeaderJsonAdapter
-      implements JsonSerializer<DirectoryHeaderAdapter>, JsonDeserializer<DirectoryHeaderAdapter> {
+  static final class DirectoryHeaderJsonAdapter extends TypeAdapter<DirectoryHeader> {
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.1.1
+     * @since 3.1.6
      */
     @Override
-    public JsonElement serialize(
-        DirectoryHeaderAdapter src, Type typeOfSrc, JsonSerializationContext context) {
-      return context.serialize(src);
+    public void write(JsonWriter out, DirectoryHeader value) throws IOException {
+      DirectoryHeaderAdapter src = (DirectoryHeaderAdapter) value;
+      out.beginObject();
+      out.name(LID).value(HexUtil.toHex(src.getLid()));
+      writeBytes(out, ACCESS_CONDITIONS, src.getAccessConditions());
+      writeBytes(out, KEY_INDEXES, src.getKeyIndexes());
+      out.name(DF_STATUS).value(HexUtil.toHex(src.getDfStatus()));
+      writeKeyMap(out, KIF, src.getKifMap());
+      writeKeyMap(out, KVC, src.getKvcMap());
+      out.endObject();
     }
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.0.0
+     * @since 3.1.6
      */
     @Override
-    public DirectoryHeaderAdapter deserialize(
-        JsonElement json, Type typeOfT, JsonDeserializationContext context)
-        throws JsonParseException {
-      return context.deserialize(json, DirectoryHeaderAdapter.class);
+    public DirectoryHeader read(JsonReader in) throws IOException {
+      DirectoryHeaderAdapter.DirectoryHeaderBuilder builder = DirectoryHeaderAdapter.builder();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case LID:
+            builder.lid(HexUtil.toShort(in.nextString()));
+            break;
+          case ACCESS_CONDITIONS:
+            builder.accessConditions(HexUtil.toByteArray(in.nextString()));
+            break;
+          case KEY_INDEXES:
+            builder.keyIndexes(HexUtil.toByteArray(in.nextString()));
+            break;
+          case DF_STATUS:
+            builder.dfStatus(HexUtil.toByte(in.nextString()));
+            break;
+          case KIF:
+            for (Map.Entry<WriteAccessLevel, Byte> entry : readKeyMap(in).entrySet()) {
+              builder.kif(entry.getKey(), entry.getValue());
+            }
+            break;
+          case KVC:
+            for (Map.Entry<WriteAccessLevel, Byte> entry : readKeyMap(in).entrySet()) {
+              builder.kvc(entry.getKey(), entry.getValue());
+            }
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return builder.build();
+    }
+
+    private static void writeKeyMap(JsonWriter out, String name, Map<WriteAccessLevel, Byte> map)
+        throws IOException {
+      out.name(name).beginObject();
+      for (Map.Entry<WriteAccessLevel, Byte> entry : map.entrySet()) {
+        out.name(entry.getKey().name()).value(HexUtil.toHex(entry.getValue()));
+      }
+      out.endObject();
+    }
+
+    private static Map<WriteAccessLevel, Byte> readKeyMap(JsonReader in) throws IOException {
+      Map<WriteAccessLevel, Byte> map = new EnumMap<>(WriteAccessLevel.class);
+      in.beginObject();
+      while (in.hasNext()) {
+        WriteAccessLevel level = WriteAccessLevel.valueOf(in.nextName());
+        map.put(level, HexUtil.toByte(in.nextString()));
+      }
+      in.endObject();
+      return map;
     }
   }
 
@@ -74,30 +161,66 @@ public DirectoryHeaderAdapter deserialize(
    *
    * @since 2.0.0
    */
-  static final class ElementaryFileJsonAdapter
-      implements JsonSerializer<ElementaryFileAdapter>, JsonDeserializer<ElementaryFileAdapter> {
+  static final class ElementaryFileJsonAdapter extends TypeAdapter<ElementaryFile> {
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.1.1
+     * @since 3.1.6
      */
     @Override
-    public JsonElement serialize(
-        ElementaryFileAdapter src, Type typeOfSrc, JsonSerializationContext context) {
-      return context.serialize(src);
+    public void write(JsonWriter out, ElementaryFile value) throws IOException {
+      out.beginObject();
+      out.name(SFI).value(HexUtil.toHex(value.getSfi()));
+      if (value.getHeader() != null) {
+        out.name(HEADER);
+        FileHeaderJsonAdapter.writeHeader(out, (FileHeaderAdapter) value.getHeader());
+      }
+      out.name(DATA);
+      FileDataJsonAdapter.writeData(out, value.getData());
+      out.endObject();
     }
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.0.0
+     * @since 3.1.6
      */
     @Override
-    public ElementaryFileAdapter deserialize(
-        JsonElement json, Type typeOfT, JsonDeserializationContext context)
-        throws JsonParseException {
-      return context.deserialize(json, ElementaryFileAdapter.class);
+    public ElementaryFile read(JsonReader in) throws IOException {
+      byte sfi = 0;
+      FileHeaderAdapter header = null;
+      SortedMap<Integer, byte[]> records = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case SFI:
+            sfi = HexUtil.toByte(in.nextString());
+            break;
+          case HEADER:
+            header = FileHeaderJsonAdapter.readHeader(in);
+            break;
+          case DATA:
+            records = FileDataJsonAdapter.readRecords(in);
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      ElementaryFileAdapter ef = new ElementaryFileAdapter(sfi);
+      ef.setHeader(header);
+      if (records != null) {
+        for (Map.Entry<Integer, byte[]> entry : records.entrySet()) {
+          ef.getData().setContent(entry.getKey(), entry.getValue());
+        }
+      }
+      return ef;
     }
   }
 
@@ -106,30 +229,150 @@ public ElementaryFileAdapter deserialize(
    *
    * @since 2.0.0
    */
-  static final class FileHeaderJsonAdapter
-      implements JsonSerializer<FileHeaderAdapter>, JsonDeserializer<FileHeaderAdapter> {
+  static final class FileHeaderJsonAdapter extends TypeAdapter<FileHeader> {
+
+    /**
+     * {@inheritDoc}
+     *
+     * @since 3.1.6
+     */
+    @Override
+    public void write(JsonWriter out, FileHeader value) throws IOException {
+      writeHeader(out, (FileHeaderAdapter) value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @since 3.1.6
+     */
+    @Override
+    public FileHeader read(JsonReader in) throws IOException {
+      return readHeader(in);
+    }
+
+    private static void writeHeader(JsonWriter out, FileHeaderAdapter src) throws IOException {
+      out.beginObject();
+      out.name(LID).value(HexUtil.toHex(src.getLid()));
+      out.name(RECORDS_NUMBER).value(HexUtil.toHex(src.getRecordsNumber()));
+      out.name(RECORD_SIZE).value(HexUtil.toHex(src.getRecordSize()));
+      if (src.getEfType() != null) {
+        out.name(TYPE).value(src.getEfType().name());
+      }
+      writeBytes(out, ACCESS_CONDITIONS, src.getAccessConditions());
+      writeBytes(out, KEY_INDEXES, src.getKeyIndexes());
+      if (src.getDfStatus() != null) {
+        out.name(DF_STATUS).value(HexUtil.toHex(src.getDfStatus()));
+      }
+      if (src.getSharedReference() != null) {
+        out.name(SHARED_REFERENCE).value(HexUtil.toHex(src.getSharedReference()));
+      }
+      out.endObject();
+    }
+
+    private static FileHeaderAdapter readHeader(JsonReader in) throws IOException {
+      FileHeaderAdapter.FileHeaderBuilder builder = FileHeaderAdapter.builder();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case LID:
+            builder.lid(HexUtil.toShort(in.nextString()));
+            break;
+          case RECORDS_NUMBER:
+            builder.recordsNumber(HexUtil.toInt(in.nextString()));
+            break;
+          case RECORD_SIZE:
+            builder.recordSize(HexUtil.toInt(in.nextString()));
+            break;
+          case TYPE:
+            builder.type(ElementaryFile.Type.valueOf(in.nextString()));
+            break;
+          case ACCESS_CONDITIONS:
+            builder.accessConditions(HexUtil.toByteArray(in.nextString()));
+            break;
+          case KEY_INDEXES:
+            builder.keyIndexes(HexUtil.toByteArray(in.nextString()));
+            break;
+          case DF_STATUS:
+            builder.dfStatus(HexUtil.toByte(in.nextString()));
+            break;
+          case SHARED_REFERENCE:
+            builder.sharedReference(HexUtil.toShort(in.nextString()));
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return builder.build();
+    }
+  }
+
+  /**
+   * JSON serializer/deserializer of a {@link FileData}.
+   *
+   * @since 3.1.6
+   */
+  static final class FileDataJsonAdapter extends TypeAdapter<FileData> {
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.1.1
+     * @since 3.1.6
      */
     @Override
-    public JsonElement serialize(
-        FileHeaderAdapter src, Type typeOfSrc, JsonSerializationContext context) {
-      return context.serialize(src);
+    public void write(JsonWriter out, FileData value) throws IOException {
+      writeData(out, value);
     }
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.0.0
+     * @since 3.1.6
      */
     @Override
-    public FileHeaderAdapter deserialize(
-        JsonElement json, Type typeOfT, JsonDeserializationContext context)
-        throws JsonParseException {
-      return context.deserialize(json, FileHeaderAdapter.class);
+    public FileData read(JsonReader in) throws IOException {
+      FileDataAdapter data = new FileDataAdapter();
+      for (Map.Entry<Integer, byte[]> entry : readRecords(in).entrySet()) {
+        data.setContent(entry.getKey(), entry.getValue());
+      }
+      return data;
+    }
+
+    private static void writeData(JsonWriter out, FileData src) throws IOException {
+      out.beginObject();
+      out.name(RECORDS).beginObject();
+      for (Map.Entry<Integer, byte[]> entry : src.getAllRecordsContent().entrySet()) {
+        // decimal record numbers, as written by the Gson map adapter
+        out.name(String.valueOf(entry.getKey())).value(HexUtil.toHex(entry.getValue()));
+      }
+      out.endObject();
+      out.endObject();
+    }
+
+    private static SortedMap<Integer, byte[]> readRecords(JsonReader in) throws IOException {
+      SortedMap<Integer, byte[]> records = new TreeMap<>();
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (RECORDS.equals(name) && in.peek() == JsonToken.BEGIN_OBJECT) {
+          in.beginObject();
+          while (in.hasNext()) {
+            int numRecord = Integer.parseInt(in.nextName());
+            records.put(numRecord, HexUtil.toByteArray(in.nextString()));
+          }
+          in.endObject();
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      return records;
     }
   }
 
@@ -138,30 +381,28 @@ public FileHeaderAdapter deserialize(
    *
    * @since 2.0.0
    */
-  static final class SvLoadLogRecordJsonAdapter
-      implements JsonSerializer<SvLoadLogRecordAdapter>, JsonDeserializer<SvLoadLogRecordAdapter> {
+  static final class SvLoadLogRecordJsonAdapter extends TypeAdapter<SvLoadLogRecord> {
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.1.1
+     * @since 3.1.6
      */
     @Override
-    public JsonElement serialize(
-        SvLoadLogRecordAdapter src, Type typeOfSrc, JsonSerializationContext context) {
-      return context.serialize(src);
+    public void write(JsonWriter out, SvLoadLogRecord value) throws IOException {
+      SvLoadLogRecordAdapter src = (SvLoadLogRecordAdapter) value;
+      writeSvLogRecord(out, src.getOffset(), src.getRawData());
     }
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.0.0
+     * @since 3.1.6
      */
     @Override
-    public SvLoadLogRecordAdapter deserialize(
-        JsonElement json, Type typeOfT, JsonDeserializationContext context)
-        throws JsonParseException {
-      return context.deserialize(json, SvLoadLogRecordAdapter.class);
+    public SvLoadLogRecord read(JsonReader in) throws IOException {
+      SvLogRecordFields fields = readSvLogRecord(in);
+      return new SvLoadLogRecordAdapter(fields.cardResponse, fields.offset);
     }
   }
 
@@ -170,74 +411,143 @@ public SvLoadLogRecordAdapter deserialize(
    *
    * @since 2.0.0
    */
-  static final class SvDebitLogRecordJsonAdapter
-      implements JsonSerializer<SvDebitLogRecordAdapter>,
-          JsonDeserializer<SvDebitLogRecordAdapter> {
+  static final class SvDebitLogRecordJsonAdapter extends TypeAdapter<SvDebitLogRecord> {
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.1.1
+     * @since 3.1.6
      */
     @Override
-    public JsonElement serialize(
-        SvDebitLogRecordAdapter src, Type typeOfSrc, JsonSerializationContext context) {
-      return context.serialize(src);
+    public void write(JsonWriter out, SvDebitLogRecord value) throws IOException {
+      SvDebitLogRecordAdapter src = (SvDebitLogRecordAdapter) value;
+      writeSvLogRecord(out, src.getOffset(), src.getRawData());
     }
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.0.0
+     * @since 3.1.6
      */
     @Override
-    public SvDebitLogRecordAdapter deserialize(
-        JsonElement json, Type typeOfT, JsonDeserializationContext context)
-        throws JsonParseException {
-      return context.deserialize(json, SvDebitLogRecordAdapter.class);
+    public SvDebitLogRecord read(JsonReader in) throws IOException {
+      SvLogRecordFields fields = readSvLogRecord(in);
+      return new SvDebitLogRecordAdapter(fields.cardResponse, fields.offset);
     }
   }
 
   /**
    * JSON serializer/deserializer of a {@link Command}.
    *
+   * <p>The command data is written and read with the adapter of its concrete class.
+   *
    * @since 2.2.3
    */
-  static final class AbstractCardCommandJsonAdapter
-      implements JsonSerializer<Command>, JsonDeserializer<Command> {
+  static final class AbstractCardCommandJsonAdapter extends TypeAdapter<Command> {
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.2.3
+     * @since 3.1.6
      */
     @Override
-    public JsonElement serialize(Command src, Type typeOfSrc, JsonSerializationContext context) {
-      JsonObject jsonObject = new JsonObject();
-      jsonObject.addProperty(TYPE, src.getClass().getName());
-      jsonObject.add(DATA, context.serialize(src));
-      return jsonObject;
+    @SuppressWarnings("unchecked")
+    public void write(JsonWriter out, Command value) throws IOException {
+      out.beginObject();
+      out.name(TYPE).value(value.getClass().getName());
+      out.name(DATA);
+      ((TypeAdapter<Command>) JsonUtil.getParser().getAdapter(value.getClass())).write(out, value);
+      out.endObject();
     }
 
     /**
      * {@inheritDoc}
      *
-     * @since 2.2.3
+     * @since 3.1.6
      */
     @Override
-    public Command deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
-        throws JsonParseException {
-      JsonObject jsonObject = json.getAsJsonObject();
-      String type = jsonObject.get(TYPE).getAsString();
-      JsonObject data = jsonObject.get(DATA).getAsJsonObject();
-      Command command;
+    public Command read(JsonReader in) throws IOException {
+      Class<?> classOfData = null;
+      JsonElement pendingData = null;
+      Command command = null;
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (TYPE.equals(name)) {
+          classOfData = getClassOfData(in.nextString());
+        } else if (DATA.equals(name)) {
+          if (classOfData != null) {
+            command = (Command) JsonUtil.getParser().getAdapter(classOfData).read(in);
+          } else {
+            // The type is not known yet: keep the data as a tree
+            pendingData = JsonParser.parseReader(in);
+          }
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      if (classOfData == null) {
+        throw new JsonParseException(String.format(UNKNOWN_TYPE_TEMPLATE, (Object) null));
+      }
+      if (pendingData != null) {
+        command = (Command) JsonUtil.getParser().fromJson(pendingData, classOfData);
+      }
+      return command;
+    }
+
+    private static Class<?> getClassOfData(String type) {
       try {
-        Class<?> classOfData = Class.forName(type);
-        command = context.deserialize(data, classOfData);
+        return Class.forName(type);
       } catch (ClassNotFoundException e) {
         throw new JsonParseException(String.format(UNKNOWN_TYPE_TEMPLATE, type));
       }
-      return command;
     }
   }
+
+  /**
+   * Writes a byte array as a hexadecimal string, or nothing if it is null.
+   *
+   * @param out The JSON writer.
+   * @param name The field name.
+   * @param value The value.
+   */
+  private static void writeBytes(JsonWriter out, String name, byte[] value) throws IOException {
+    if (value != null) {
+      out.name(name).value(HexUtil.toHex(value));
+    }
+  }
+
+  private static void writeSvLogRecord(JsonWriter out, int offset, byte[] cardResponse)
+      throws IOException {
+    out.beginObject();
+    out.name(OFFSET).value(HexUtil.toHex(offset));
+    writeBytes(out, CARD_RESPONSE, cardResponse);
+    out.endObject();
+  }
+
+  private static SvLogRecordFields readSvLogRecord(JsonReader in) throws IOException {
+    SvLogRecordFields fields = new SvLogRecordFields();
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+      } else if (OFFSET.equals(name)) {
+        fields.offset = HexUtil.toInt(in.nextString());
+      } else if (CARD_RESPONSE.equals(name)) {
+        fields.cardResponse = HexUtil.toByteArray(in.nextString());
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return fields;
+  }
+
+  /** Fields of a SV log record read from JSON. */
+  private static final class SvLogRecordFields {
+    private int offset;
+    private byte[] cardResponse;
+  }
 }
@@ -0,0 +1,307 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keypop.calypso.card.WriteAccessLevel;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+
+/**
+ * Engine of the opportunistic rotation of the card keys during the ordinary transactions.
+ *
+ * <p>The application configures the target KIF and KVC of each key index to rotate, with the keys
+ * of the crypto service ciphering them, and a time budget per card presentation. When a
+ * transaction manager closes its first secure session, the KVCs observed in the directory header
+ * and in the session opening response are compared to the targets, and the first outdated key is
+ * changed right after the closing of the session, provided that the latency model predicts that
+ * the "Get Challenge" and "Change Key" commands fit in the remaining time budget. At most one key
+ * is changed per presentation; the remaining keys are changed during the next presentations.
+ *
+ * <p>The engine also collects the progress of the rotation and its impact on the presentation
+ * time.
+ *
+ * <p>The engine is attached to a secure transaction manager with {@code
+ * CalypsoExtensionService.setKeyRotationEngine}. It is thread-safe and may be shared by transaction
+ * managers running concurrently on several readers.
+ *
+ * @since 3.1.6
+ */
+public final class KeyRotationEngine {
+
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+  private final CommandLatencyModel latencyModel;
+  private final long tapTimeBudgetNanos;
+  private final Map<WriteAccessLevel, Target> targets = new EnumMap<>(WriteAccessLevel.class);
+  private final long[] nbSucceededRotationsByKeyIndex = new long[WriteAccessLevel.values().length];
+  private long nbObservedCards;
+  private long nbUpToDateCards;
+  private long nbRotations;
+  private long nbFailedRotations;
+  private long nbDeferredRotations;
+  private long nbBudgetOverruns;
+  private long sumRotationNanos;
+  private long maxRotationNanos;
+
+  /**
+   * Constructor.
+   *
+   * @param latencyModel The latency model predicting the time needed by the rotation commands.
+   * @param tapTimeBudgetMillis The time budget of a card presentation in milliseconds, counted from
+   *     the first processing of the transaction manager.
+   * @throws IllegalArgumentException If the latency model is null or if the time budget is
+   *     negative.
+   * @since 3.1.6
+   */
+  public KeyRotationEngine(CommandLatencyModel latencyModel, int tapTimeBudgetMillis) {
+    Assert.getInstance()
+        .notNull(latencyModel, "latencyModel")
+        .greaterOrEqual(tapTimeBudgetMillis, 0, "tapTimeBudgetMillis");
+    this.latencyModel = latencyModel;
+    this.tapTimeBudgetNanos = tapTimeBudgetMillis * 1_000_000L;
+  }
+
+  /**
+   * Sets the target of a key index, replacing any previous one.
+   *
+   * @param keyIndex The index of the key (1: issuer, 2: load, 3: debit).
+   * @param kif The KIF of the new key.
+   * @param kvc The KVC of the new key.
+   * @param issuerKif The KIF of the key of the crypto service ciphering the new key.
+   * @param issuerKvc The KVC of the key of the crypto service ciphering the new key.
+   * @throws IllegalArgumentException If the key index is out of range.
+   * @since 3.1.6
+   */
+  public synchronized void addTarget(
+      int keyIndex, byte kif, byte kvc, byte issuerKif, byte issuerKvc) {
+    Assert.getInstance().isInRange(keyIndex, 1, 3, "keyIndex");
+    targets.put(
+        WriteAccessLevel.values()[keyIndex - 1],
+        new Target(keyIndex, kif, kvc, issuerKif, issuerKvc));
+  }
+
+  /**
+   * Compares the KVCs observed on a card to the targets.
+   *
+   * <p>A card is counted as up to date when none of its known KVCs differs from its target.
+   *
+   * @param currentKvcs The KVCs observed on the card by write access level, the unknown ones
+   *     being absent.
+   * @return The target of the outdated key with the lowest index, null if there is none.
+   * @since 3.1.6
+   */
+  synchronized Target getOutdatedKey(Map<WriteAccessLevel, Byte> currentKvcs) {
+    nbObservedCards++;
+    for (Map.Entry<WriteAccessLevel, Target> entry : targets.entrySet()) {
+      Byte currentKvc = currentKvcs.get(entry.getKey());
+      if (currentKvc != null && currentKvc != entry.getValue().getKvc()) {
+        return entry.getValue();
+      }
+    }
+    nbUpToDateCards++;
+    return null;
+  }
+
+  /**
+   * Checks if the rotation commands are predicted to fit in the remaining time budget of the card
+   * presentation, and counts the rotation as deferred if not.
+   *
+   * @param productType The product type of the card.
+   * @param rotationCommands The prepared rotation commands.
+   * @param tapElapsedNanos The time already elapsed in the card presentation in nanoseconds.
+   * @return true if the rotation can be processed.
+   * @since 3.1.6
+   */
+  synchronized boolean fitsInTapBudget(
+      CalypsoCard.ProductType productType, List<Command> rotationCommands, long tapElapsedNanos) {
+    long predictedNanos = latencyModel.predictNanos(productType, rotationCommands);
+    if (tapElapsedNanos + predictedNanos > tapTimeBudgetNanos) {
+      nbDeferredRotations++;
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Records a processed rotation.
+   *
+   * @param target The target of the changed key.
+   * @param isSuccessful true if the card accepted the new key.
+   * @param rotationNanos The time added to the card presentation by the rotation in nanoseconds.
+   * @param tapElapsedNanos The time elapsed in the card presentation at the end of the rotation in
+   *     nanoseconds.
+   * @since 3.1.6
+   */
+  synchronized void recordRotation(
+      Target target, boolean isSuccessful, long rotationNanos, long tapElapsedNanos) {
+    nbRotations++;
+    if (isSuccessful) {
+      nbSucceededRotationsByKeyIndex[target.getKeyIndex() - 1]++;
+    } else {
+      nbFailedRotations++;
+    }
+    if (tapElapsedNanos > tapTimeBudgetNanos) {
+      nbBudgetOverruns++;
+    }
+    sumRotationNanos += rotationNanos;
+    maxRotationNanos = Math.max(maxRotationNanos, rotationNanos);
+  }
+
+  /**
+   * @return The number of cards whose KVCs have been compared to the targets.
+   * @since 3.1.6
+   */
+  public synchronized long getObservedCardsCount() {
+    return nbObservedCards;
+  }
+
+  /**
+   * @return The number of observed cards having no outdated key.
+   * @since 3.1.6
+   */
+  public synchronized long getUpToDateCardsCount() {
+    return nbUpToDateCards;
+  }
+
+  /**
+   * @return The number of processed rotations, successful or not.
+   * @since 3.1.6
+   */
+  public synchronized long getRotationsCount() {
+    return nbRotations;
+  }
+
+  /**
+   * @return The number of keys successfully changed.
+   * @since 3.1.6
+   */
+  public synchronized long getSucceededRotationsCount() {
+    return nbRotations - nbFailedRotations;
+  }
+
+  /**
+   * @param keyIndex The index of the key (1: issuer, 2: load, 3: debit).
+   * @return The number of keys of the provided index successfully changed.
+   * @since 3.1.6
+   */
+  public synchronized long getSucceededRotationsCount(int keyIndex) {
+    Assert.getInstance().isInRange(keyIndex, 1, 3, "keyIndex");
+    return nbSucceededRotationsByKeyIndex[keyIndex - 1];
+  }
+
+  /**
+   * @return The number of rotations that failed.
+   * @since 3.1.6
+   */
+  public synchronized long getFailedRotationsCount() {
+    return nbFailedRotations;
+  }
+
+  /**
+   * @return The number of rotations not processed because they were predicted not to fit in the
+   *     time budget.
+   * @since 3.1.6
+   */
+  public synchronized long getDeferredRotationsCount() {
+    return nbDeferredRotations;
+  }
+
+  /**
+   * @return The number of rotations that ended after the time budget of the card presentation.
+   * @since 3.1.6
+   */
+  public synchronized long getBudgetOverrunsCount() {
+    return nbBudgetOverruns;
+  }
+
+  /**
+   * @return The mean time added to a card presentation by a rotation in milliseconds, 0 if no
+   *     rotation has been processed.
+   * @since 3.1.6
+   */
+  public synchronized double getMeanRotationTimeMillis() {
+    return nbRotations == 0 ? 0 : sumRotationNanos / NANOS_PER_MILLI / nbRotations;
+  }
+
+  /**
+   * @return The longest time added to a card presentation by a rotation in milliseconds.
+   * @since 3.1.6
+   */
+  public synchronized double getMaxRotationTimeMillis() {
+    return maxRotationNanos / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Target of a key index.
+   *
+   * @since 3.1.6
+   */
+  static final class Target {
+
+    private final int keyIndex;
+    private final byte kif;
+    private final byte kvc;
+    private final byte issuerKif;
+    private final byte issuerKvc;
+
+    private Target(int keyIndex, byte kif, byte kvc, byte issuerKif, byte issuerKvc) {
+      this.keyIndex = keyIndex;
+      this.kif = kif;
+      this.kvc = kvc;
+      this.issuerKif = issuerKif;
+      this.issuerKvc = issuerKvc;
+    }
+
+    /**
+     * @return The index of the key.
+     * @since 3.1.6
+     */
+    int getKeyIndex() {
+      return keyIndex;
+    }
+
+    /**
+     * @return The KIF of the new key.
+     * @since 3.1.6
+     */
+    byte getKif() {
+      return kif;
+    }
+
+    /**
+     * @return The KVC of the new key.
+     * @since 3.1.6
+     */
+    byte getKvc() {
+      return kvc;
+    }
+
+    /**
+     * @return The KIF of the key ciphering the new key.
+     * @since 3.1.6
+     */
+    byte getIssuerKif() {
+      return issuerKif;
+    }
+
+    /**
+     * @return The KVC of the key ciphering the new key.
+     * @since 3.1.6
+     */
+    byte getIssuerKvc() {
+      return issuerKvc;
+    }
+  }
+}
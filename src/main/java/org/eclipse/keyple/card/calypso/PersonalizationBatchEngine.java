@@ -0,0 +1,592 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.card.GetDataTag;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+import org.eclipse.keypop.calypso.card.transaction.ChannelControl;
+import org.eclipse.keypop.calypso.card.transaction.SecureSymmetricCryptoTransactionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Personalization of batches of cards presented on several readers at the same time.
+ *
+ * <p>The {@link PersonalizationProfile} is compiled once per product type into a command plan:
+ *
+ * <ul>
+ *   <li>the record, binary and counter steps are grouped in one secure session, opened with the
+ *       write access level of the profile, the counters to set being read at its beginning (one
+ *       "Read Record" per counter file, up to the highest counter number of the file);
+ *   <li>the generation of the key pair, followed by the reading of the public key of the card, and
+ *       the "Put Data" commands are then prepared outside the secure session;
+ *   <li>the key changes come last, the issuer key (index 1) being changed after the other keys;
+ *   <li>a profile containing a step not supported by the product type (binary files on revision 1,
+ *       PKI on other cards than revision 3, key change on Basic) gives a plan rejecting the cards
+ *       of this type without any exchange.
+ * </ul>
+ *
+ * <p>Each reader is represented by a {@link CardStation} giving the cards presented one after the
+ * other with their transaction manager. The stations are run concurrently, one task per station,
+ * and the result of each card is streamed to a handler as soon as available. The failure of a card
+ * is isolated: it is reported in its result, the physical channel is released and the station
+ * goes on with the next card.
+ *
+ * @since 3.1.6
+ */
+public final class PersonalizationBatchEngine {
+
+  private static final Logger logger = LoggerFactory.getLogger(PersonalizationBatchEngine.class);
+
+  private final PersonalizationProfile profile;
+  private final ConcurrentMap<CalypsoCard.ProductType, Plan> plans = new ConcurrentHashMap<>();
+  private final LongAdder nbPersonalizedCards = new LongAdder();
+  private final LongAdder nbFailedCards = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param profile The personalization profile.
+   * @since 3.1.6
+   */
+  public PersonalizationBatchEngine(PersonalizationProfile profile) {
+    Assert.getInstance().notNull(profile, "profile");
+    this.profile = profile;
+  }
+
+  /**
+   * Personalizes the cards of all the stations and waits for the handling of their results.
+   *
+   * <p>One task per station is submitted to the executor, which should therefore be able to run
+   * them all at the same time. The handler is called from these tasks, in no particular order, and
+   * must be thread-safe. If the handler or a station fails, the stations stop after their current
+   * card and the failure is rethrown once all of them have stopped. The same applies if the
+   * executor rejects a task.
+   *
+   * @param stations The stations.
+   * @param executor The executor running the stations.
+   * @param handler The handler of the results.
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   * @since 3.1.6
+   */
+  public void personalizeAll(
+      List<? extends CardStation> stations, Executor executor, final ResultHandler handler)
+      throws InterruptedException {
+    Assert.getInstance()
+        .notNull(stations, "stations")
+        .notNull(executor, "executor")
+        .notNull(handler, "handler");
+    final CountDownLatch runningStations = new CountDownLatch(stations.size());
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    for (final CardStation station : stations) {
+      try {
+        executor.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  CardStation.Target target;
+                  while (failure.get() == null && (target = station.nextCard()) != null) {
+                    handler.onResult(personalize(station, target));
+                  }
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  failure.compareAndSet(null, e);
+                } catch (RuntimeException e) {
+                  failure.compareAndSet(null, e);
+                } catch (Error e) {
+                  failure.compareAndSet(null, e);
+                } finally {
+                  runningStations.countDown();
+                }
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        runningStations.countDown();
+        failure.compareAndSet(null, e);
+      }
+    }
+    runningStations.await();
+    Throwable error = failure.get();
+    if (error instanceof Error) {
+      throw (Error) error;
+    }
+    if (error instanceof InterruptedException) {
+      throw new IllegalStateException("Station interrupted", error);
+    }
+    if (error != null) {
+      throw (RuntimeException) error;
+    }
+  }
+
+  /**
+   * Personalizes a card in the calling thread.
+   *
+   * @param station The station on which the card is presented.
+   * @param target The card and its transaction manager.
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public Result personalize(CardStation station, CardStation.Target target) {
+    long startNanos = System.nanoTime();
+    CalypsoCard card = target.getCard();
+    RuntimeException error = null;
+    try {
+      getPlan(card.getProductType()).apply(profile, target.getTransactionManager(), card);
+      nbPersonalizedCards.increment();
+    } catch (RuntimeException e) {
+      error = e;
+      nbFailedCards.increment();
+      releaseChannel(target.getTransactionManager());
+    }
+    return new Result(
+        station.getName(),
+        HexUtil.toHex(card.getApplicationSerialNumber()),
+        System.nanoTime() - startNanos,
+        error);
+  }
+
+  /**
+   * Cancels the commands and the secure session left by a failed personalization and releases the
+   * physical channel, without raising any exception.
+   *
+   * @param transactionManager The transaction manager of the card.
+   */
+  private static void releaseChannel(
+      SecureSymmetricCryptoTransactionManager<?> transactionManager) {
+    try {
+      if (transactionManager instanceof TransactionManagerAdapter) {
+        ((TransactionManagerAdapter<?>) transactionManager).cancelAndReleaseChannel();
+      } else {
+        transactionManager.processCommands(ChannelControl.CLOSE_AFTER);
+      }
+    } catch (RuntimeException e) {
+      logger.warn("Failed to release the channel: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the plan of a product type, compiled on first use.
+   *
+   * @param productType The product type.
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  Plan getPlan(CalypsoCard.ProductType productType) {
+    Plan plan = plans.get(productType);
+    if (plan == null) {
+      plan = Plan.compile(profile, productType);
+      Plan existingPlan = plans.putIfAbsent(productType, plan);
+      if (existingPlan != null) {
+        plan = existingPlan;
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * @return The number of cards successfully personalized.
+   * @since 3.1.6
+   */
+  public long getPersonalizedCardsCount() {
+    return nbPersonalizedCards.sum();
+  }
+
+  /**
+   * @return The number of cards whose personalization failed.
+   * @since 3.1.6
+   */
+  public long getFailedCardsCount() {
+    return nbFailedCards.sum();
+  }
+
+  /**
+   * Command plan of a product type.
+   *
+   * @since 3.1.6
+   */
+  static final class Plan {
+
+    private final String unsupportedStep;
+    private final Map<Byte, Integer> counterReads;
+    private final List<PersonalizationProfile.Step> sessionSteps;
+    private final List<PersonalizationProfile.Step> putDataSteps;
+    private final List<PersonalizationProfile.Step> keySteps;
+
+    private Plan(
+        String unsupportedStep,
+        Map<Byte, Integer> counterReads,
+        List<PersonalizationProfile.Step> sessionSteps,
+        List<PersonalizationProfile.Step> putDataSteps,
+        List<PersonalizationProfile.Step> keySteps) {
+      this.unsupportedStep = unsupportedStep;
+      this.counterReads = counterReads;
+      this.sessionSteps = sessionSteps;
+      this.putDataSteps = putDataSteps;
+      this.keySteps = keySteps;
+    }
+
+    /**
+     * Compiles a profile for a product type.
+     *
+     * @param profile The profile.
+     * @param productType The product type.
+     * @return A not null reference.
+     */
+    private static Plan compile(
+        PersonalizationProfile profile, CalypsoCard.ProductType productType) {
+      boolean isPkiAvailable = productType == CalypsoCard.ProductType.PRIME_REVISION_3;
+      if (profile.isAsymmetricKeyPairGenerated() && !isPkiAvailable) {
+        return unsupported("Generate Asymmetric Key Pair", productType);
+      }
+      Map<Byte, Integer> counterReads = new TreeMap<>();
+      List<PersonalizationProfile.Step> sessionSteps = new ArrayList<>();
+      List<PersonalizationProfile.Step> putDataSteps = new ArrayList<>();
+      List<PersonalizationProfile.Step> keySteps = new ArrayList<>();
+      List<PersonalizationProfile.Step> issuerKeySteps = new ArrayList<>();
+      for (PersonalizationProfile.Step step : profile.getSteps()) {
+        switch (step.getType()) {
+          case UPDATE_BINARY:
+            if (productType != CalypsoCard.ProductType.PRIME_REVISION_3
+                && productType != CalypsoCard.ProductType.PRIME_REVISION_2) {
+              return unsupported("Update Binary", productType);
+            }
+            sessionSteps.add(step);
+            break;
+          case SET_COUNTER:
+            Integer nbCounters = counterReads.get(step.getSfi());
+            if (nbCounters == null || nbCounters < step.getNumber()) {
+              counterReads.put(step.getSfi(), step.getNumber());
+            }
+            sessionSteps.add(step);
+            break;
+          case CHANGE_KEY:
+            if (productType == CalypsoCard.ProductType.BASIC) {
+              return unsupported("Change Key", productType);
+            }
+            (step.getNumber() == 1 ? issuerKeySteps : keySteps).add(step);
+            break;
+          case PUT_DATA:
+            if (!isPkiAvailable) {
+              return unsupported("Put Data", productType);
+            }
+            putDataSteps.add(step);
+            break;
+          default:
+            sessionSteps.add(step);
+        }
+      }
+      keySteps.addAll(issuerKeySteps);
+      return new Plan(
+          null,
+          Collections.unmodifiableMap(counterReads),
+          Collections.unmodifiableList(sessionSteps),
+          Collections.unmodifiableList(putDataSteps),
+          Collections.unmodifiableList(keySteps));
+    }
+
+    /**
+     * @param command The unsupported command.
+     * @param productType The product type.
+     * @return A plan rejecting the cards.
+     */
+    private static Plan unsupported(String command, CalypsoCard.ProductType productType) {
+      List<PersonalizationProfile.Step> noSteps = Collections.emptyList();
+      return new Plan(
+          "'" + command + "' command not available for product type " + productType,
+          Collections.<Byte, Integer>emptyMap(),
+          noSteps,
+          noSteps,
+          noSteps);
+    }
+
+    /**
+     * Applies the plan to a card.
+     *
+     * @param profile The profile.
+     * @param transactionManager The transaction manager of the card.
+     * @param card The card image.
+     * @throws UnsupportedOperationException If the profile is not supported by the product type.
+     * @throws RuntimeException If the preparation or the processing of the commands fails.
+     */
+    private void apply(
+        PersonalizationProfile profile,
+        SecureSymmetricCryptoTransactionManager<?> transactionManager,
+        CalypsoCard card) {
+      if (unsupportedStep != null) {
+        throw new UnsupportedOperationException(unsupportedStep);
+      }
+      if (!sessionSteps.isEmpty()) {
+        transactionManager.prepareOpenSecureSession(profile.getWriteAccessLevel());
+        if (!counterReads.isEmpty()) {
+          for (Map.Entry<Byte, Integer> entry : counterReads.entrySet()) {
+            transactionManager.prepareReadCounter(entry.getKey(), entry.getValue());
+          }
+          transactionManager.processCommands(ChannelControl.KEEP_OPEN);
+        }
+        for (PersonalizationProfile.Step step : sessionSteps) {
+          prepareSessionStep(transactionManager, step);
+        }
+        transactionManager.prepareCloseSecureSession();
+        if (profile.isAsymmetricKeyPairGenerated() || !putDataSteps.isEmpty()) {
+          // The PKI commands can only be prepared once the secure session is closed on the card
+          transactionManager.processCommands(ChannelControl.KEEP_OPEN);
+        }
+      }
+      if (profile.isAsymmetricKeyPairGenerated()) {
+        transactionManager.prepareGenerateAsymmetricKeyPair();
+        if (!putDataSteps.isEmpty()) {
+          // The data to put may depend on the public key of the card
+          transactionManager.prepareGetData(GetDataTag.CARD_PUBLIC_KEY);
+          transactionManager.processCommands(ChannelControl.KEEP_OPEN);
+        }
+      }
+      for (PersonalizationProfile.Step step : putDataSteps) {
+        transactionManager.preparePutData(
+            step.getPutDataTag(), step.getDataProvider().getData(card));
+      }
+      for (PersonalizationProfile.Step step : keySteps) {
+        transactionManager.prepareChangeKey(
+            step.getNumber(),
+            step.getKif(),
+            step.getKvc(),
+            step.getIssuerKif(),
+            step.getIssuerKvc());
+      }
+      transactionManager.processCommands(ChannelControl.CLOSE_AFTER);
+    }
+
+    /**
+     * Prepares a step of the secure session.
+     *
+     * @param transactionManager The transaction manager.
+     * @param step The step.
+     */
+    private static void prepareSessionStep(
+        SecureSymmetricCryptoTransactionManager<?> transactionManager,
+        PersonalizationProfile.Step step) {
+      switch (step.getType()) {
+        case UPDATE_RECORD:
+          transactionManager.prepareUpdateRecord(step.getSfi(), step.getNumber(), step.getData());
+          break;
+        case WRITE_RECORD:
+          transactionManager.prepareWriteRecord(step.getSfi(), step.getNumber(), step.getData());
+          break;
+        case UPDATE_BINARY:
+          transactionManager.prepareUpdateBinary(step.getSfi(), step.getNumber(), step.getData());
+          break;
+        case SET_COUNTER:
+          transactionManager.prepareSetCounter(step.getSfi(), step.getNumber(), step.getValue());
+          break;
+        default:
+          throw new IllegalStateException("Not a secure session step: " + step.getType());
+      }
+    }
+
+    /**
+     * @return The reason why the cards are rejected, null if the profile is supported.
+     * @since 3.1.6
+     */
+    String getUnsupportedStep() {
+      return unsupportedStep;
+    }
+
+    /**
+     * @return The highest counter number to read per counter file.
+     * @since 3.1.6
+     */
+    Map<Byte, Integer> getCounterReads() {
+      return counterReads;
+    }
+
+    /**
+     * @return The steps of the secure session.
+     * @since 3.1.6
+     */
+    List<PersonalizationProfile.Step> getSessionSteps() {
+      return sessionSteps;
+    }
+
+    /**
+     * @return The "Put Data" steps.
+     * @since 3.1.6
+     */
+    List<PersonalizationProfile.Step> getPutDataSteps() {
+      return putDataSteps;
+    }
+
+    /**
+     * @return The key changes, in their order of processing.
+     * @since 3.1.6
+     */
+    List<PersonalizationProfile.Step> getKeySteps() {
+      return keySteps;
+    }
+  }
+
+  /**
+   * Reader on which the cards to personalize are presented one after the other.
+   *
+   * @since 3.1.6
+   */
+  public interface CardStation {
+
+    /**
+     * @return The name of the station, reported in the results.
+     * @since 3.1.6
+     */
+    String getName();
+
+    /**
+     * Waits for the next card, selects it and creates its transaction manager.
+     *
+     * @return Null if there are no more cards to personalize on this station.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     * @since 3.1.6
+     */
+    Target nextCard() throws InterruptedException;
+
+    /**
+     * Card to personalize with its transaction manager.
+     *
+     * @since 3.1.6
+     */
+    final class Target {
+
+      private final CalypsoCard card;
+      private final SecureSymmetricCryptoTransactionManager<?> transactionManager;
+
+      /**
+       * Constructor.
+       *
+       * @param card The selected card.
+       * @param transactionManager The transaction manager of the card.
+       * @since 3.1.6
+       */
+      public Target(
+          CalypsoCard card, SecureSymmetricCryptoTransactionManager<?> transactionManager) {
+        Assert.getInstance()
+            .notNull(card, "card")
+            .notNull(transactionManager, "transactionManager");
+        this.card = card;
+        this.transactionManager = transactionManager;
+      }
+
+      /**
+       * @return The selected card.
+       * @since 3.1.6
+       */
+      public CalypsoCard getCard() {
+        return card;
+      }
+
+      /**
+       * @return The transaction manager of the card.
+       * @since 3.1.6
+       */
+      public SecureSymmetricCryptoTransactionManager<?> getTransactionManager() {
+        return transactionManager;
+      }
+    }
+  }
+
+  /**
+   * Result of the personalization of a card.
+   *
+   * @since 3.1.6
+   */
+  public static final class Result {
+
+    private final String stationName;
+    private final String serialNumber;
+    private final long durationNanos;
+    private final RuntimeException error;
+
+    private Result(
+        String stationName, String serialNumber, long durationNanos, RuntimeException error) {
+      this.stationName = stationName;
+      this.serialNumber = serialNumber;
+      this.durationNanos = durationNanos;
+      this.error = error;
+    }
+
+    /**
+     * @return The name of the station.
+     * @since 3.1.6
+     */
+    public String getStationName() {
+      return stationName;
+    }
+
+    /**
+     * @return The application serial number of the card in hexadecimal.
+     * @since 3.1.6
+     */
+    public String getSerialNumber() {
+      return serialNumber;
+    }
+
+    /**
+     * @return The duration of the personalization in nanoseconds.
+     * @since 3.1.6
+     */
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    /**
+     * @return true if the card has been personalized.
+     * @since 3.1.6
+     */
+    public boolean isSuccessful() {
+      return error == null;
+    }
+
+    /**
+     * @return The error preventing the personalization of the card, null if it succeeded.
+     * @since 3.1.6
+     */
+    public RuntimeException getError() {
+      return error;
+    }
+  }
+
+  /**
+   * Handler of the results of the personalizations.
+   *
+   * @since 3.1.6
+   */
+  public interface ResultHandler {
+
+    /**
+     * Called when the personalization of a card is done.
+     *
+     * @param result The result.
+     * @since 3.1.6
+     */
+    void onResult(Result result);
+  }
+}
@@ -0,0 +1,420 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.eclipse.keyple.core.util.Assert;
+import org.eclipse.keypop.calypso.card.PutDataTag;
+import org.eclipse.keypop.calypso.card.WriteAccessLevel;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+
+/**
+ * Declarative description of the personalization of a batch of cards, compiled by {@link
+ * PersonalizationBatchEngine} into command plans.
+ *
+ * <p>The profile lists the records, binary data and counter values to write in the files, the keys
+ * to change and the PKI data to generate or to put in the cards. The data written in the files and
+ * the keys are the same for all the cards, the data put with "Put Data" (certificates, key pair) is
+ * provided per card.
+ *
+ * <p>The profile must be configured before being given to the engine, and must not be modified
+ * afterwards.
+ *
+ * @since 3.1.6
+ */
+public final class PersonalizationProfile {
+
+  // number of 3-byte counters in a record of 250 bytes
+  private static final int MAX_COUNTER_NUMBER = 83;
+
+  private final WriteAccessLevel writeAccessLevel;
+  private final List<Step> steps = new ArrayList<>();
+  private boolean isAsymmetricKeyPairGenerated;
+
+  /**
+   * Constructor.
+   *
+   * @param writeAccessLevel The write access level of the secure session in which the files are
+   *     written.
+   * @since 3.1.6
+   */
+  public PersonalizationProfile(WriteAccessLevel writeAccessLevel) {
+    Assert.getInstance().notNull(writeAccessLevel, "writeAccessLevel");
+    this.writeAccessLevel = writeAccessLevel;
+  }
+
+  /**
+   * Adds the replacement of the content of a record.
+   *
+   * @param sfi The SFI of the file.
+   * @param recordNumber The number of the record.
+   * @param recordData The new content of the record.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public PersonalizationProfile updateRecord(byte sfi, int recordNumber, byte[] recordData) {
+    checkRecord(sfi, recordNumber, recordData);
+    steps.add(new Step(StepType.UPDATE_RECORD, sfi, recordNumber, recordData.clone()));
+    return this;
+  }
+
+  /**
+   * Adds the writing (binary OR) of data in a record.
+   *
+   * @param sfi The SFI of the file.
+   * @param recordNumber The number of the record.
+   * @param recordData The data to write.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public PersonalizationProfile writeRecord(byte sfi, int recordNumber, byte[] recordData) {
+    checkRecord(sfi, recordNumber, recordData);
+    steps.add(new Step(StepType.WRITE_RECORD, sfi, recordNumber, recordData.clone()));
+    return this;
+  }
+
+  /**
+   * Adds the replacement of data in a binary file.
+   *
+   * @param sfi The SFI of the file.
+   * @param offset The offset of the data.
+   * @param data The new data.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public PersonalizationProfile updateBinary(byte sfi, int offset, byte[] data) {
+    Assert.getInstance()
+        .isInRange((int) sfi, CalypsoCardConstant.SFI_MIN, CalypsoCardConstant.SFI_MAX, "sfi")
+        .isInRange(
+            offset, CalypsoCardConstant.OFFSET_MIN, CalypsoCardConstant.OFFSET_BINARY_MAX, "offset")
+        .notEmpty(data, "data");
+    steps.add(new Step(StepType.UPDATE_BINARY, sfi, offset, data.clone()));
+    return this;
+  }
+
+  /**
+   * Adds the setting of the value of a counter, the current value being read beforehand in the
+   * same secure session.
+   *
+   * @param sfi The SFI of the counter file.
+   * @param counterNumber The number of the counter.
+   * @param value The new value.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public PersonalizationProfile setCounter(byte sfi, int counterNumber, int value) {
+    Assert.getInstance()
+        .isInRange((int) sfi, CalypsoCardConstant.SFI_MIN, CalypsoCardConstant.SFI_MAX, "sfi")
+        .isInRange(
+            counterNumber, CalypsoCardConstant.NUM_CNT_MIN, MAX_COUNTER_NUMBER, "counterNumber")
+        .isInRange(
+            value, CalypsoCardConstant.CNT_VALUE_MIN, CalypsoCardConstant.CNT_VALUE_MAX, "value");
+    steps.add(new Step(StepType.SET_COUNTER, sfi, counterNumber, value));
+    return this;
+  }
+
+  /**
+   * Adds the change of a key.
+   *
+   * <p>The key of index 1 (issuer) is changed after the other keys, which are therefore ciphered
+   * with the current issuer key.
+   *
+   * @param keyIndex The index of the key (1: issuer, 2: load, 3: debit).
+   * @param newKif The KIF of the new key.
+   * @param newKvc The KVC of the new key.
+   * @param issuerKif The KIF of the current issuer key.
+   * @param issuerKvc The KVC of the current issuer key.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public PersonalizationProfile changeKey(
+      int keyIndex, byte newKif, byte newKvc, byte issuerKif, byte issuerKvc) {
+    Assert.getInstance().isInRange(keyIndex, 1, 3, "keyIndex");
+    steps.add(new Step(keyIndex, newKif, newKvc, issuerKif, issuerKvc));
+    return this;
+  }
+
+  /**
+   * Adds the generation of the asymmetric key pair of the card, whose public key is read back
+   * before providing the data of the "Put Data" commands.
+   *
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public PersonalizationProfile generateAsymmetricKeyPair() {
+    isAsymmetricKeyPairGenerated = true;
+    return this;
+  }
+
+  /**
+   * Adds a "Put Data" command whose data is provided per card.
+   *
+   * @param tag The tag of the data.
+   * @param dataProvider The provider of the data.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public PersonalizationProfile putData(PutDataTag tag, CardDataProvider dataProvider) {
+    Assert.getInstance().notNull(tag, "tag").notNull(dataProvider, "dataProvider");
+    steps.add(new Step(tag, dataProvider));
+    return this;
+  }
+
+  /**
+   * @return The write access level of the secure session.
+   * @since 3.1.6
+   */
+  WriteAccessLevel getWriteAccessLevel() {
+    return writeAccessLevel;
+  }
+
+  /**
+   * @return The steps, in the order in which they have been added.
+   * @since 3.1.6
+   */
+  List<Step> getSteps() {
+    return Collections.unmodifiableList(steps);
+  }
+
+  /**
+   * @return true if the asymmetric key pair of the card is generated.
+   * @since 3.1.6
+   */
+  boolean isAsymmetricKeyPairGenerated() {
+    return isAsymmetricKeyPairGenerated;
+  }
+
+  /**
+   * Checks the arguments of a record step.
+   *
+   * @param sfi The SFI.
+   * @param recordNumber The record number.
+   * @param recordData The data.
+   */
+  private static void checkRecord(byte sfi, int recordNumber, byte[] recordData) {
+    Assert.getInstance()
+        .isInRange((int) sfi, CalypsoCardConstant.SFI_MIN, CalypsoCardConstant.SFI_MAX, "sfi")
+        .isInRange(
+            recordNumber,
+            CalypsoCardConstant.NB_REC_MIN,
+            CalypsoCardConstant.NB_REC_MAX,
+            "recordNumber")
+        .notNull(recordData, "recordData");
+  }
+
+  /**
+   * Type of a step.
+   *
+   * @since 3.1.6
+   */
+  enum StepType {
+    UPDATE_RECORD,
+    WRITE_RECORD,
+    UPDATE_BINARY,
+    SET_COUNTER,
+    CHANGE_KEY,
+    PUT_DATA
+  }
+
+  /**
+   * Provider of the data of a "Put Data" command.
+   *
+   * @since 3.1.6
+   */
+  public interface CardDataProvider {
+
+    /**
+     * Returns the data to put in a card.
+     *
+     * <p>Called from the thread personalizing the card; must be thread-safe.
+     *
+     * @param card The card image, containing the public key of the card if the key pair has been
+     *     generated.
+     * @return The data.
+     * @since 3.1.6
+     */
+    byte[] getData(CalypsoCard card);
+  }
+
+  /**
+   * Step of the personalization.
+   *
+   * @since 3.1.6
+   */
+  static final class Step {
+
+    private final StepType type;
+    private final byte sfi;
+    private final int number;
+    private final byte[] data;
+    private final int value;
+    private final byte kif;
+    private final byte kvc;
+    private final byte issuerKif;
+    private final byte issuerKvc;
+    private final PutDataTag putDataTag;
+    private final CardDataProvider dataProvider;
+
+    private Step(StepType type, byte sfi, int number, byte[] data) {
+      this(type, sfi, number, data, 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0, null, null);
+    }
+
+    private Step(StepType type, byte sfi, int number, int value) {
+      this(type, sfi, number, null, value, (byte) 0, (byte) 0, (byte) 0, (byte) 0, null, null);
+    }
+
+    private Step(int keyIndex, byte kif, byte kvc, byte issuerKif, byte issuerKvc) {
+      this(
+          StepType.CHANGE_KEY,
+          (byte) 0,
+          keyIndex,
+          null,
+          0,
+          kif,
+          kvc,
+          issuerKif,
+          issuerKvc,
+          null,
+          null);
+    }
+
+    private Step(PutDataTag putDataTag, CardDataProvider dataProvider) {
+      this(
+          StepType.PUT_DATA,
+          (byte) 0,
+          0,
+          null,
+          0,
+          (byte) 0,
+          (byte) 0,
+          (byte) 0,
+          (byte) 0,
+          putDataTag,
+          dataProvider);
+    }
+
+    private Step(
+        StepType type,
+        byte sfi,
+        int number,
+        byte[] data,
+        int value,
+        byte kif,
+        byte kvc,
+        byte issuerKif,
+        byte issuerKvc,
+        PutDataTag putDataTag,
+        CardDataProvider dataProvider) {
+      this.type = type;
+      this.sfi = sfi;
+      this.number = number;
+      this.data = data;
+      this.value = value;
+      this.kif = kif;
+      this.kvc = kvc;
+      this.issuerKif = issuerKif;
+      this.issuerKvc = issuerKvc;
+      this.putDataTag = putDataTag;
+      this.dataProvider = dataProvider;
+    }
+
+    /**
+     * @return The type of the step.
+     * @since 3.1.6
+     */
+    StepType getType() {
+      return type;
+    }
+
+    /**
+     * @return The SFI of the file.
+     * @since 3.1.6
+     */
+    byte getSfi() {
+      return sfi;
+    }
+
+    /**
+     * @return The record number, the binary offset, the counter number or the key index.
+     * @since 3.1.6
+     */
+    int getNumber() {
+      return number;
+    }
+
+    /**
+     * @return The record or binary data, null for the other steps.
+     * @since 3.1.6
+     */
+    byte[] getData() {
+      return data;
+    }
+
+    /**
+     * @return The counter value.
+     * @since 3.1.6
+     */
+    int getValue() {
+      return value;
+    }
+
+    /**
+     * @return The KIF of the new key.
+     * @since 3.1.6
+     */
+    byte getKif() {
+      return kif;
+    }
+
+    /**
+     * @return The KVC of the new key.
+     * @since 3.1.6
+     */
+    byte getKvc() {
+      return kvc;
+    }
+
+    /**
+     * @return The KIF of the issuer key.
+     * @since 3.1.6
+     */
+    byte getIssuerKif() {
+      return issuerKif;
+    }
+
+    /**
+     * @return The KVC of the issuer key.
+     * @since 3.1.6
+     */
+    byte getIssuerKvc() {
+      return issuerKvc;
+    }
+
+    /**
+     * @return The tag of the "Put Data" command.
+     * @since 3.1.6
+     */
+    PutDataTag getPutDataTag() {
+      return putDataTag;
+    }
+
+    /**
+     * @return The provider of the data of the "Put Data" command.
+     * @since 3.1.6
+     */
+    CardDataProvider getDataProvider() {
+      return dataProvider;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
+
+import org.eclipse.keypop.calypso.card.card.ElementaryFile;
+import org.eclipse.keypop.calypso.card.card.FileHeader;
+
+/**
+ * Executes a "Search Record Multiple" locally against the records of the card image, applying the
+ * same semantics as the card command (start record, offset, repeated offset, mask and first
+ * matching result).
+ *
+ * <p>The search data and the mask are compiled into a masked pattern whose first 8 bytes are packed
+ * into a {@code long}. With repeated offset, records are scanned with a rolling 8-byte window so
+ * that each candidate offset costs a single masked comparison of two words; the remaining bytes of
+ * longer patterns are only compared when the first word matches. A single offset is compared byte
+ * by byte with early exit.
+ *
+ * @since 3.1.6
+ */
+final class RecordSearchEngine {
+
+  private static final int WORD_SIZE = 8;
+
+  private final byte[] pattern;
+  private final byte[] mask;
+  private final int headLength;
+  private final long headPattern;
+  private final long headMask;
+
+  /**
+   * Constructor.
+   *
+   * @param searchData The data to search (not empty).
+   * @param mask The mask to apply, or null. It is right padded with FFh if shorter than the search
+   *     data (CL-CMD-SEARCH.1).
+   * @since 3.1.6
+   */
+  RecordSearchEngine(byte[] searchData, byte[] mask) {
+    int length = searchData.length;
+    this.pattern = new byte[length];
+    this.mask = new byte[length];
+    for (int i = 0; i < length; i++) {
+      byte m = mask != null && i < mask.length ? mask[i] : (byte) 0xFF;
+      this.mask[i] = m;
+      this.pattern[i] = (byte) (searchData[i] & m);
+    }
+    headLength = Math.min(length, WORD_SIZE);
+    long p = 0;
+    long m = 0;
+    for (int i = 0; i < headLength; i++) {
+      p = (p << 8) | (pattern[i] & 0xFF);
+      m = (m << 8) | (this.mask[i] & 0xFF);
+    }
+    headPattern = p;
+    headMask = m;
+  }
+
+  /**
+   * Searches the provided record starting at the provided offset.
+   *
+   * @param record The record content.
+   * @param recordSize The number of significant bytes of the record.
+   * @param offset The offset of the search.
+   * @param repeatedOffset True if the pattern has to be searched at all offsets from the provided
+   *     one to the end of the record, false if only the provided offset has to be tested.
+   * @return True if the record matches.
+   * @since 3.1.6
+   */
+  boolean matches(byte[] record, int recordSize, int offset, boolean repeatedOffset) {
+    int lastOffset = recordSize - pattern.length;
+    if (offset > lastOffset) {
+      return false;
+    }
+    if (!repeatedOffset) {
+      return matchesAt(record, offset, 0);
+    }
+    // Preload the rolling window with the head bytes preceding the first candidate end
+    long window = 0;
+    int index = offset;
+    int firstEnd = offset + headLength - 1;
+    while (index < firstEnd) {
+      window = (window << 8) | (record[index++] & 0xFF);
+    }
+    for (int start = offset; start <= lastOffset; start++) {
+      window = (window << 8) | (record[index++] & 0xFF);
+      if ((window & headMask) == headPattern && matchesAt(record, start, headLength)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compares the bytes of the pattern from the provided index with the record.
+   *
+   * @param record The record content.
+   * @param start The position of the pattern in the record.
+   * @param from The index of the first byte of the pattern to compare.
+   * @return True if all bytes match.
+   */
+  private boolean matchesAt(byte[] record, int start, int from) {
+    for (int i = from; i < pattern.length; i++) {
+      if ((record[start + i] & mask[i]) != pattern[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Performs the search described by the provided data against the card image, if and only if all
+   * the records involved are completely known.
+   *
+   * <p>The matching record numbers are added to the output list of the provided data. The content
+   * of the first matching record, if requested, is already present in the card image.
+   *
+   * @param card The card image.
+   * @param data The search input/output data (already checked).
+   * @return False if the search cannot be resolved from the card image, in which case the provided
+   *     data is left untouched.
+   * @since 3.1.6
+   */
+  static boolean searchInCardImage(CalypsoCardAdapter card, SearchCommandDataAdapter data) {
+    ElementaryFile ef = card.getFileBySfi(data.getSfi());
+    if (ef == null) {
+      return false;
+    }
+    FileHeader header = ef.getHeader();
+    if (header == null
+        || (header.getEfType() != ElementaryFile.Type.LINEAR
+            && header.getEfType() != ElementaryFile.Type.CYCLIC)) {
+      return false;
+    }
+    int recordSize = header.getRecordSize();
+    int nbRecords = header.getRecordsNumber();
+    if (data.getOffset() + data.getSearchData().length > recordSize
+        || data.getRecordNumber() > nbRecords) {
+      return false; // rejected by the card, let it report the error
+    }
+    FileDataAdapter fileData = (FileDataAdapter) ef.getData();
+    for (int i = data.getRecordNumber(); i <= nbRecords; i++) {
+      if (!fileData.isContentKnown(i, 0, recordSize)) {
+        return false;
+      }
+    }
+    RecordSearchEngine engine = new RecordSearchEngine(data.getSearchData(), data.getMask());
+    for (int i = data.getRecordNumber(); i <= nbRecords; i++) {
+      if (engine.matches(
+          fileData.getAllRecordsContent().get(i),
+          recordSize,
+          data.getOffset(),
+          data.isEnableRepeatedOffset())) {
+        data.getMatchingRecordNumbers().add(i);
+      }
+    }
+    return true;
+  }
+}
@@ -137,7 +137,7 @@ void resetTransaction() {
     isGetDataCardCertificatePrepared = false;
     isGetDataCaCertificatePrepared = false;
     disablePreOpenMode();
-    commands.clear();
+    clearCommands();
     if (transactionContext.isSecureSessionOpen()) {
       try {
         CommandCloseSecureSession cancelSecureSessionCommand =
@@ -165,6 +165,16 @@ void prepareNewSecureSessionIfNeeded(Command command) {
     // NOP
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  void releaseSessionBuffer(Command command) {
+    // NOP
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -265,7 +275,7 @@ public SecurePkiModeTransactionManager processCommands(ChannelControl channelCon
       resetTransaction();
       throw e;
     } finally {
-      commands.clear();
+      clearCommands();
     }
     return this;
   }
@@ -310,12 +320,11 @@ private void checkCardCertificateAndGetCardPublicKey() {
       readCaCertificate();
       // Parse the CA certificate raw data
       CaCertificateSpi caCertificateSpi = parseCaCertificate();
-      // Register the CA certificate into the store
-      asymmetricCryptoSecuritySetting.addCaCertificate((CaCertificate) caCertificateSpi);
-      // Retrieve the CA certificate content from the store
+      // Register the CA certificate into the store, unless a concurrent transaction sharing the
+      // same security setting did it in the meantime, and retrieve the registered content
       caCertificateContentSpi =
-          asymmetricCryptoSecuritySetting.getCaCertificate(
-              cardCertificateSpi.getIssuerPublicKeyReference());
+          asymmetricCryptoSecuritySetting.addCaCertificateIfAbsent(
+              (CaCertificate) caCertificateSpi);
     } else {
       // Force the closing of the channel if originally requested
       if (originalChannelControl == ChannelControl.CLOSE_AFTER) {
@@ -434,6 +443,9 @@ public SecurePkiModeTransactionManager prepareOpenSecureSession() {
   public SecurePkiModeTransactionManager prepareCloseSecureSession() {
     try {
       checkSecureSession();
+      if (card.isDenyListInvalidationPending() && !isInvalidatePrepared()) {
+        commands.add(new CommandInvalidate(transactionContext, getCommandContext()));
+      }
       commands.add(new CommandCloseSecureSession(transactionContext, getCommandContext(), false));
     } catch (RuntimeException e) {
       resetTransaction();
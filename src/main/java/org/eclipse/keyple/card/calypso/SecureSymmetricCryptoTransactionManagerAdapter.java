@@ -14,10 +14,14 @@
 import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import org.eclipse.keyple.core.util.Assert;
 import org.eclipse.keypop.calypso.card.WriteAccessLevel;
 import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+import org.eclipse.keypop.calypso.card.card.DirectoryHeader;
 import org.eclipse.keypop.calypso.card.transaction.*;
 import org.eclipse.keypop.calypso.card.transaction.ChannelControl;
 import org.eclipse.keypop.calypso.card.transaction.spi.CardTransactionCryptoExtension;
@@ -62,6 +66,12 @@
   private SvOperation svOperation;
   private SvAction svAction;
   private boolean isSvOperationInSecureSession;
+  private KeyRotationEngine keyRotationEngine;
+  private CommandOpenSecureSession lastOpenSecureSessionCommand;
+  private final Map<WriteAccessLevel, Byte> changedKvcs = new EnumMap<>(WriteAccessLevel.class);
+  private boolean isKeyRotationEvaluated;
+  private boolean isTapStarted;
+  private long tapStartNanos;
 
   final TransactionContextDto transactionContext; // package-private for perf optimization
   boolean isExtendedMode; // package-private for perf optimization
@@ -161,7 +171,7 @@ final void resetTransaction() {
     svOperation = null;
     isSvOperationInSecureSession = false;
     disablePreOpenMode();
-    commands.clear();
+    clearCommands();
     if (transactionContext.isSecureSessionOpen()) {
       try {
         CommandCloseSecureSession cancelSecureSessionCommand =
@@ -216,6 +226,18 @@ final void prepareNewSecureSessionIfNeeded(Command command) {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  final void releaseSessionBuffer(Command command) {
+    if (isSecureSessionOpen) {
+      modificationsCounter += computeCommandSessionBufferSize(command);
+    }
+  }
+
   /**
    * Computes the session buffer size of the provided command.<br>
    * The size may be a number of bytes or 1 depending on the card specificities.
@@ -290,13 +312,180 @@ final T prepareIncreaseOrDecreaseCounter(
    */
   @Override
   public final T processCommands(ChannelControl channelControl) {
+    if (keyRotationEngine == null) {
+      processPreparedCommands(channelControl);
+      return currentInstance;
+    }
+    if (!isTapStarted) {
+      tapStartNanos = System.nanoTime();
+      isTapStarted = true;
+    }
+    if (isKeyRotationEvaluated || !isSecureSessionClosingPrepared()) {
+      processPreparedCommands(channelControl);
+      return currentInstance;
+    }
+    try {
+      processPreparedCommands(ChannelControl.KEEP_OPEN);
+    } catch (RuntimeException e) {
+      releaseChannelQuietly(channelControl);
+      throw e;
+    }
+    processKeyRotation(channelControl);
+    return currentInstance;
+  }
+
+  /**
+   * Sets the engine changing the outdated keys of the card after the closing of the secure
+   * sessions.
+   *
+   * <p>When set, the channel is kept open during the processing of the prepared commands closing a
+   * secure session, then the first outdated key is changed if the latency model of the engine
+   * predicts that it fits in the time budget of the card presentation, before the channel is
+   * managed as requested. A failure of the key change is logged and recorded by the engine, it
+   * does not fail the processing of the commands. Nothing is done for the cards of the product type
+   * {@link CalypsoCard.ProductType#BASIC}.
+   *
+   * <p>The keys are compared to the targets of the engine at the first closing of a secure session
+   * only, at most one key being changed per card presentation. The time budget is counted from the
+   * first processing of the transaction manager after the engine is set.
+   *
+   * @param keyRotationEngine The engine, null to disable the key rotation (default).
+   * @since 3.1.6
+   */
+  final void setKeyRotationEngine(KeyRotationEngine keyRotationEngine) {
+    this.keyRotationEngine = keyRotationEngine;
+    lastOpenSecureSessionCommand = null;
+    isKeyRotationEvaluated = false;
+    isTapStarted = false;
+  }
+
+  /**
+   * @return true if the prepared commands close a secure session of a card supporting the key
+   *     change.
+   */
+  private boolean isSecureSessionClosingPrepared() {
+    if (card.getProductType() == CalypsoCard.ProductType.BASIC) {
+      return false;
+    }
+    for (Command command : commands) {
+      if (command instanceof CommandCloseSecureSession
+          && !((CommandCloseSecureSession) command).isAbortSecureSession()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Changes the first outdated key of the card if it fits in the time budget, then manages the
+   * channel as requested.
+   *
+   * @param channelControl Policy for managing the physical channel after the key change.
+   */
+  private void processKeyRotation(ChannelControl channelControl) {
+    isKeyRotationEvaluated = true;
+    KeyRotationEngine.Target target = keyRotationEngine.getOutdatedKey(getCurrentKvcs());
+    lastOpenSecureSessionCommand = null;
+    if (target == null) {
+      releaseChannel(channelControl);
+      return;
+    }
+    prepareChangeKey(
+        target.getKeyIndex(),
+        target.getKif(),
+        target.getKvc(),
+        target.getIssuerKif(),
+        target.getIssuerKvc());
+    if (!keyRotationEngine.fitsInTapBudget(
+        card.getProductType(), commands, System.nanoTime() - tapStartNanos)) {
+      clearCommands();
+      if (logger.isDebugEnabled()) {
+        logger.debug("Change of key {} deferred, not enough time left", target.getKeyIndex());
+      }
+      releaseChannel(channelControl);
+      return;
+    }
+    long startTime = System.nanoTime();
+    boolean isSuccessful = false;
+    try {
+      processPreparedCommands(channelControl);
+      isSuccessful = true;
+      changedKvcs.put(WriteAccessLevel.values()[target.getKeyIndex() - 1], target.getKvc());
+    } catch (RuntimeException e) {
+      logger.warn("Failed to change key {}: {}", target.getKeyIndex(), e.getMessage());
+    } finally {
+      long endTime = System.nanoTime();
+      keyRotationEngine.recordRotation(
+          target, isSuccessful, endTime - startTime, endTime - tapStartNanos);
+    }
+    if (!isSuccessful) {
+      releaseChannelQuietly(channelControl);
+    }
+  }
+
+  /**
+   * Closes the physical channel if requested.
+   *
+   * @param channelControl Policy for managing the physical channel.
+   */
+  private void releaseChannel(ChannelControl channelControl) {
+    if (channelControl == ChannelControl.CLOSE_AFTER) {
+      executeCardCommands(Collections.<Command>emptyList(), channelControl);
+    }
+  }
+
+  /**
+   * Closes the physical channel if requested, without raising any exception.
+   *
+   * @param channelControl Policy for managing the physical channel.
+   */
+  private void releaseChannelQuietly(ChannelControl channelControl) {
+    try {
+      releaseChannel(channelControl);
+    } catch (RuntimeException e) {
+      logger.warn("Failed to release the channel: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * @return The KVCs of the card known from its directory header, from the keys changed by this
+   *     transaction manager (the directory header not being updated by a key change) and from the
+   *     response to the last opening of a secure session, by write access level.
+   */
+  private Map<WriteAccessLevel, Byte> getCurrentKvcs() {
+    Map<WriteAccessLevel, Byte> currentKvcs = new EnumMap<>(WriteAccessLevel.class);
+    DirectoryHeader directoryHeader = card.getDirectoryHeader();
+    if (directoryHeader != null) {
+      currentKvcs.putAll(((DirectoryHeaderAdapter) directoryHeader).getKvcMap());
+    }
+    currentKvcs.putAll(changedKvcs);
+    if (lastOpenSecureSessionCommand != null
+        && lastOpenSecureSessionCommand.getWriteAccessLevel() != null
+        && lastOpenSecureSessionCommand.getCardKvc() != null) {
+      currentKvcs.put(
+          lastOpenSecureSessionCommand.getWriteAccessLevel(),
+          lastOpenSecureSessionCommand.getCardKvc());
+    }
+    return currentKvcs;
+  }
+
+  /**
+   * Processes the prepared commands.
+   *
+   * @param channelControl Policy for managing the physical channel after executing commands to the
+   *     card.
+   */
+  private void processPreparedCommands(ChannelControl channelControl) {
     if (commands.isEmpty()) {
       processCryptoPreparedCommands();
-      return currentInstance;
+      return;
     }
     try {
-      List<Command> cardRequestCommands = new ArrayList<>();
+      List<Command> cardRequestCommands = new ArrayList<>(commands.size());
       for (Command command : commands) {
+        if (keyRotationEngine != null && command instanceof CommandOpenSecureSession) {
+          lastOpenSecureSessionCommand = (CommandOpenSecureSession) command;
+        }
         if (command.isCryptoServiceRequiredToFinalizeRequest()
             && (!synchronizeCryptoServiceBeforeCardProcessing(cardRequestCommands))) {
           executeCardCommands(cardRequestCommands, ChannelControl.KEEP_OPEN);
@@ -311,12 +500,11 @@ public final T processCommands(ChannelControl channelControl) {
       resetTransaction();
       throw e;
     } finally {
-      commands.clear();
+      clearCommands();
       if (isExtendedMode && !card.isExtendedModeSupported()) {
         isExtendedMode = false;
       }
     }
-    return currentInstance;
   }
 
   /**
@@ -482,6 +670,11 @@ public final T prepareOpenSecureSession(WriteAccessLevel writeAccessLevel) {
   public final T prepareCloseSecureSession() {
     try {
       checkSecureSession();
+      if (card.isDenyListInvalidationPending() && !isInvalidatePrepared()) {
+        CommandInvalidate command = new CommandInvalidate(transactionContext, getCommandContext());
+        prepareNewSecureSessionIfNeeded(command);
+        commands.add(command);
+      }
       if (symmetricCryptoSecuritySetting.isRatificationMechanismEnabled()
           && ((CardReader) cardReader).isContactless()) {
         // CL-RAT-CMD.1
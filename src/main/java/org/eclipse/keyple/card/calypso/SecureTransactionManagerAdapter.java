@@ -79,6 +79,21 @@ final void disablePreOpenMode() {
     card.setPreOpenDataOut(null);
   }
 
+  /**
+   * Indicates if an "Invalidate" command is already part of the prepared commands.
+   *
+   * @return true if an "Invalidate" command is prepared.
+   * @since 3.1.6
+   */
+  final boolean isInvalidatePrepared() {
+    for (Command command : commands) {
+      if (command.getCommandRef() == CardCommandRef.INVALIDATE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -0,0 +1,308 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.keyple.core.util.Assert;
+
+/**
+ * Learning component choosing the reads to be added to a card selection request.
+ *
+ * <p>The reads prepared by the transaction managers on the selected cards (records and binary
+ * ranges designated by SFI) are counted once per card. After a warm-up period, the reads performed
+ * on at least a given proportion of the cards are proposed, most frequent first and within a
+ * maximum number of commands, to the card selection extension, which adds them to its selection
+ * request so that their data is already in the card image when the transaction starts.
+ *
+ * <p>The precision (proportion of prefetched reads actually needed by the transaction) and the
+ * recall (proportion of the transaction reads that were prefetched) are available to check that
+ * the prefetch does not bloat the selection.
+ *
+ * <p>An advisor is attached to one card selection extension, i.e. to one AID, and to the
+ * transaction managers of the cards it selects, with {@code
+ * CalypsoExtensionService.setSelectionPrefetchAdvisor}. It is thread-safe and may be shared by
+ * transaction managers running concurrently on several readers.
+ *
+ * @since 3.1.6
+ */
+public final class SelectionPrefetchAdvisor {
+
+  /**
+   * Maximum length of a prefetchable binary read, so that it fits in the payload capacity of any
+   * card.
+   */
+  static final int MAX_BINARY_READ_LENGTH = 128;
+
+  private static final int DEFAULT_MIN_OBSERVED_CARDS = 10;
+  private static final double DEFAULT_MIN_FREQUENCY = 0.8;
+  private static final int DEFAULT_MAX_READS = 4;
+
+  private final int minObservedCards;
+  private final double minFrequency;
+  private final int maxReads;
+  private final ConcurrentMap<ReadItem, AtomicLong> nbCardsByRead = new ConcurrentHashMap<>();
+  private final AtomicLong nbObservedCards = new AtomicLong();
+  private final AtomicLong nbPrefetchedReads = new AtomicLong();
+  private final AtomicLong nbTransactionReads = new AtomicLong();
+  private final AtomicLong nbPrefetchHits = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param minObservedCards The number of selected cards to observe before proposing any read.
+   * @param minFrequency The minimum proportion of cards on which a read must have been performed to
+   *     be proposed, in ]0, 1].
+   * @param maxReads The maximum number of reads to propose.
+   * @since 3.1.6
+   */
+  public SelectionPrefetchAdvisor(int minObservedCards, double minFrequency, int maxReads) {
+    Assert.getInstance()
+        .greaterOrEqual(minObservedCards, 1, "minObservedCards")
+        .greaterOrEqual(maxReads, 0, "maxReads");
+    if (minFrequency <= 0 || minFrequency > 1) {
+      throw new IllegalArgumentException("minFrequency must be in ]0, 1]: " + minFrequency);
+    }
+    this.minObservedCards = minObservedCards;
+    this.minFrequency = minFrequency;
+    this.maxReads = maxReads;
+  }
+
+  /**
+   * Creates an advisor proposing at most 4 reads performed on at least 80% of the cards, after 10
+   * observed cards.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  public static SelectionPrefetchAdvisor create() {
+    return new SelectionPrefetchAdvisor(
+        DEFAULT_MIN_OBSERVED_CARDS, DEFAULT_MIN_FREQUENCY, DEFAULT_MAX_READS);
+  }
+
+  /**
+   * Returns the reads to be added to the next card selection request.
+   *
+   * @param excludedReads The reads already prepared explicitly in the selection scenario.
+   * @return A not null list, empty during the warm-up period.
+   * @since 3.1.6
+   */
+  List<ReadItem> getReadsToPrefetch(Set<ReadItem> excludedReads) {
+    long nbCards = nbObservedCards.get();
+    if (nbCards < minObservedCards || maxReads == 0) {
+      return Collections.emptyList();
+    }
+    List<Map.Entry<ReadItem, AtomicLong>> candidates = new ArrayList<>();
+    for (Map.Entry<ReadItem, AtomicLong> entry : nbCardsByRead.entrySet()) {
+      if (!excludedReads.contains(entry.getKey())
+          && entry.getValue().get() >= minFrequency * nbCards) {
+        candidates.add(entry);
+      }
+    }
+    Collections.sort(
+        candidates,
+        new Comparator<Map.Entry<ReadItem, AtomicLong>>() {
+          @Override
+          public int compare(
+              Map.Entry<ReadItem, AtomicLong> o1, Map.Entry<ReadItem, AtomicLong> o2) {
+            int result = Long.compare(o2.getValue().get(), o1.getValue().get());
+            return result != 0 ? result : o1.getKey().compareTo(o2.getKey());
+          }
+        });
+    List<ReadItem> reads = new ArrayList<>(Math.min(maxReads, candidates.size()));
+    for (int i = 0; i < candidates.size() && i < maxReads; i++) {
+      reads.add(candidates.get(i).getKey());
+    }
+    return reads;
+  }
+
+  /**
+   * Notifies the selection of a card.
+   *
+   * @param card The selected card.
+   * @param prefetchedReads The reads added to the selection request by the advisor.
+   * @since 3.1.6
+   */
+  void onCardSelected(CalypsoCardAdapter card, List<ReadItem> prefetchedReads) {
+    nbObservedCards.incrementAndGet();
+    nbPrefetchedReads.addAndGet(prefetchedReads.size());
+    card.setPrefetchedReads(prefetchedReads);
+  }
+
+  /**
+   * Notifies a read prepared by a transaction manager, once per card.
+   *
+   * @param card The card.
+   * @param read The read.
+   * @since 3.1.6
+   */
+  void onRead(CalypsoCardAdapter card, ReadItem read) {
+    AtomicLong nbCards = nbCardsByRead.get(read);
+    if (nbCards == null) {
+      AtomicLong newNbCards = new AtomicLong();
+      nbCards = nbCardsByRead.putIfAbsent(read, newNbCards);
+      if (nbCards == null) {
+        nbCards = newNbCards;
+      }
+    }
+    nbCards.incrementAndGet();
+    nbTransactionReads.incrementAndGet();
+    if (card.getPrefetchedReads().contains(read)) {
+      nbPrefetchHits.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return The number of cards selected since the creation of the advisor.
+   * @since 3.1.6
+   */
+  public long getObservedCardsCount() {
+    return nbObservedCards.get();
+  }
+
+  /**
+   * @return The proportion of prefetched reads that were needed by the transactions, 1 if no read
+   *     has been prefetched.
+   * @since 3.1.6
+   */
+  public double getPrecision() {
+    long nbPrefetched = nbPrefetchedReads.get();
+    return nbPrefetched == 0 ? 1 : (double) nbPrefetchHits.get() / nbPrefetched;
+  }
+
+  /**
+   * @return The proportion of the transaction reads that were prefetched, 0 if no read has been
+   *     performed.
+   * @since 3.1.6
+   */
+  public double getRecall() {
+    long nbReads = nbTransactionReads.get();
+    return nbReads == 0 ? 0 : (double) nbPrefetchHits.get() / nbReads;
+  }
+
+  /**
+   * A read designated by SFI: a whole record, or a range of bytes of a binary file.
+   *
+   * @since 3.1.6
+   */
+  static final class ReadItem implements Comparable<ReadItem> {
+
+    private final byte sfi;
+    private final boolean isBinary;
+    private final int recordNumberOrOffset;
+    private final int nbBytes;
+
+    private ReadItem(byte sfi, boolean isBinary, int recordNumberOrOffset, int nbBytes) {
+      this.sfi = sfi;
+      this.isBinary = isBinary;
+      this.recordNumberOrOffset = recordNumberOrOffset;
+      this.nbBytes = nbBytes;
+    }
+
+    /**
+     * @param sfi The SFI.
+     * @param recordNumber The record number.
+     * @return A read of a whole record.
+     * @since 3.1.6
+     */
+    static ReadItem record(byte sfi, int recordNumber) {
+      return new ReadItem(sfi, false, recordNumber, 0);
+    }
+
+    /**
+     * @param sfi The SFI.
+     * @param offset The offset.
+     * @param nbBytes The number of bytes.
+     * @return A read of a range of bytes of a binary file.
+     * @since 3.1.6
+     */
+    static ReadItem binary(byte sfi, int offset, int nbBytes) {
+      return new ReadItem(sfi, true, offset, nbBytes);
+    }
+
+    /**
+     * @return The SFI.
+     * @since 3.1.6
+     */
+    byte getSfi() {
+      return sfi;
+    }
+
+    /**
+     * @return True for a range of bytes of a binary file, false for a whole record.
+     * @since 3.1.6
+     */
+    boolean isBinary() {
+      return isBinary;
+    }
+
+    /**
+     * @return The record number or the offset.
+     * @since 3.1.6
+     */
+    int getRecordNumberOrOffset() {
+      return recordNumberOrOffset;
+    }
+
+    /**
+     * @return The number of bytes of a binary read.
+     * @since 3.1.6
+     */
+    int getNbBytes() {
+      return nbBytes;
+    }
+
+    @Override
+    public int compareTo(ReadItem o) {
+      if (sfi != o.sfi) {
+        return Byte.compare(sfi, o.sfi);
+      }
+      if (isBinary != o.isBinary) {
+        return isBinary ? 1 : -1;
+      }
+      if (recordNumberOrOffset != o.recordNumberOrOffset) {
+        return Integer.compare(recordNumberOrOffset, o.recordNumberOrOffset);
+      }
+      return Integer.compare(nbBytes, o.nbBytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ReadItem readItem = (ReadItem) o;
+      return sfi == readItem.sfi
+          && isBinary == readItem.isBinary
+          && recordNumberOrOffset == readItem.recordNumberOrOffset
+          && nbBytes == readItem.nbBytes;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = sfi;
+      result = 31 * result + (isBinary ? 1 : 0);
+      result = 31 * result + recordNumberOrOffset;
+      return 31 * result + nbBytes;
+    }
+  }
+}
@@ -0,0 +1,388 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import java.nio.ByteBuffer;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import org.eclipse.keyple.core.util.Assert;
+
+/**
+ * Decoder of SV load or debit log records stored one after the other in a {@link ByteBuffer}, with
+ * a fixed stride (e.g. the 29 bytes records of the SV log files, as read from the card images).
+ *
+ * <p>The records are decoded in place through a {@link Cursor}, a flyweight whose getters read the
+ * fields directly from the buffer and return primitive values: iterating over the records does not
+ * allocate anything. The fields are the same as those of {@link
+ * DtoAdapters.SvLoadLogRecordAdapter} and {@link DtoAdapters.SvDebitLogRecordAdapter}, the byte
+ * array fields (date, time, SAM ID) being returned as big-endian unsigned values.
+ *
+ * <p>The decoder only performs absolute reads of the buffer and is thread-safe as long as the
+ * content of the buffer does not change: its {@link #spliterator()} can be used to process the
+ * records with a parallel stream, each split using its own cursor.
+ *
+ * @since 3.1.6
+ */
+final class SvLogRecordDecoder {
+
+  /**
+   * Type of SV log record.
+   *
+   * @since 3.1.6
+   */
+  enum LogType {
+    /**
+     * SV load log record.
+     *
+     * @since 3.1.6
+     */
+    LOAD(22, 8, 3, 5, 0, 11, 3, 13, 17, 20),
+    /**
+     * SV debit log record.
+     *
+     * @since 3.1.6
+     */
+    DEBIT(19, 0, 2, 14, 2, 4, 6, 7, 11, 17);
+
+    private final int minLength;
+    private final int amountOffset;
+    private final int amountLength;
+    private final int balanceOffset;
+    private final int dateOffset;
+    private final int timeOffset;
+    private final int kvcOffset;
+    private final int samIdOffset;
+    private final int samTNumOffset;
+    private final int svTNumOffset;
+
+    LogType(
+        int minLength,
+        int amountOffset,
+        int amountLength,
+        int balanceOffset,
+        int dateOffset,
+        int timeOffset,
+        int kvcOffset,
+        int samIdOffset,
+        int samTNumOffset,
+        int svTNumOffset) {
+      this.minLength = minLength;
+      this.amountOffset = amountOffset;
+      this.amountLength = amountLength;
+      this.balanceOffset = balanceOffset;
+      this.dateOffset = dateOffset;
+      this.timeOffset = timeOffset;
+      this.kvcOffset = kvcOffset;
+      this.samIdOffset = samIdOffset;
+      this.samTNumOffset = samTNumOffset;
+      this.svTNumOffset = svTNumOffset;
+    }
+
+    /**
+     * @return The length of the significant part of a record.
+     * @since 3.1.6
+     */
+    int getMinLength() {
+      return minLength;
+    }
+  }
+
+  private final ByteBuffer buffer;
+  private final LogType logType;
+  private final int recordLength;
+  private final int nbRecords;
+
+  /**
+   * Constructor.
+   *
+   * <p>The records are those between the position and the limit of the provided buffer, which are
+   * not modified.
+   *
+   * @param buffer The buffer containing the records.
+   * @param logType The type of the records.
+   * @param recordLength The length of each record in the buffer, at least the minimum length of the
+   *     log type.
+   * @throws IllegalArgumentException If the length of the records is too short or if the remaining
+   *     bytes of the buffer are not a multiple of it.
+   * @since 3.1.6
+   */
+  SvLogRecordDecoder(ByteBuffer buffer, LogType logType, int recordLength) {
+    Assert.getInstance()
+        .notNull(buffer, "buffer")
+        .notNull(logType, "logType")
+        .greaterOrEqual(recordLength, logType.minLength, "recordLength");
+    if (buffer.remaining() % recordLength != 0) {
+      throw new IllegalArgumentException(
+          "The buffer length ("
+              + buffer.remaining()
+              + ") is not a multiple of the record length ("
+              + recordLength
+              + ")");
+    }
+    this.buffer = buffer.slice();
+    this.logType = logType;
+    this.recordLength = recordLength;
+    this.nbRecords = buffer.remaining() / recordLength;
+  }
+
+  /**
+   * Creates a decoder of records having the length of the records of the SV log files.
+   *
+   * @param buffer The buffer containing the records.
+   * @param logType The type of the records.
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  static SvLogRecordDecoder ofLogFileRecords(ByteBuffer buffer, LogType logType) {
+    return new SvLogRecordDecoder(buffer, logType, CalypsoCardConstant.SV_LOG_FILE_REC_LENGTH);
+  }
+
+  /**
+   * @return The type of the records.
+   * @since 3.1.6
+   */
+  LogType getLogType() {
+    return logType;
+  }
+
+  /**
+   * @return The number of records.
+   * @since 3.1.6
+   */
+  int getNbRecords() {
+    return nbRecords;
+  }
+
+  /**
+   * Creates a new cursor positioned before the first record.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Creates a spliterator over all the records.
+   *
+   * <p>The same cursor is provided to the action for all the records of a split: it must not be
+   * kept beyond the call of the action.
+   *
+   * @return A not null reference.
+   * @since 3.1.6
+   */
+  Spliterator<Cursor> spliterator() {
+    return new CursorSpliterator(0, nbRecords);
+  }
+
+  /**
+   * Flyweight giving access to the fields of the current record.
+   *
+   * <p>A cursor is not thread-safe.
+   *
+   * @since 3.1.6
+   */
+  final class Cursor {
+
+    private int index = -1;
+    private int base = -recordLength;
+
+    private Cursor() {}
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false if there is no more record.
+     * @since 3.1.6
+     */
+    boolean next() {
+      if (index + 1 >= nbRecords) {
+        return false;
+      }
+      moveTo(index + 1);
+      return true;
+    }
+
+    /**
+     * Moves to the specified record.
+     *
+     * @param index The index of the record, in [0, number of records[.
+     * @return The current instance.
+     * @throws IndexOutOfBoundsException If the index is out of range.
+     * @since 3.1.6
+     */
+    Cursor moveTo(int index) {
+      if (index < 0 || index >= nbRecords) {
+        throw new IndexOutOfBoundsException(
+            "Record index: " + index + ", nb records: " + nbRecords);
+      }
+      this.index = index;
+      this.base = index * recordLength;
+      return this;
+    }
+
+    /**
+     * @return The index of the current record.
+     * @since 3.1.6
+     */
+    int getIndex() {
+      return index;
+    }
+
+    /**
+     * @return The signed amount.
+     * @since 3.1.6
+     */
+    int getAmount() {
+      return getSigned(logType.amountOffset, logType.amountLength);
+    }
+
+    /**
+     * @return The signed balance.
+     * @since 3.1.6
+     */
+    int getBalance() {
+      return getSigned(logType.balanceOffset, 3);
+    }
+
+    /**
+     * @return The date as a 2-byte unsigned value.
+     * @since 3.1.6
+     */
+    int getDate() {
+      return getUnsigned(logType.dateOffset, 2);
+    }
+
+    /**
+     * @return The time as a 2-byte unsigned value.
+     * @since 3.1.6
+     */
+    int getTime() {
+      return getUnsigned(logType.timeOffset, 2);
+    }
+
+    /**
+     * @return The KVC.
+     * @since 3.1.6
+     */
+    byte getKvc() {
+      return buffer.get(base + logType.kvcOffset);
+    }
+
+    /**
+     * @return The SAM ID as a 4-byte unsigned value.
+     * @since 3.1.6
+     */
+    long getSamId() {
+      return getUnsigned(logType.samIdOffset, 4) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return The SAM transaction number.
+     * @since 3.1.6
+     */
+    int getSamTNum() {
+      return getUnsigned(logType.samTNumOffset, 3);
+    }
+
+    /**
+     * @return The SV transaction number.
+     * @since 3.1.6
+     */
+    int getSvTNum() {
+      return getUnsigned(logType.svTNumOffset, 2);
+    }
+
+    /**
+     * @param offset The offset of the field in the record.
+     * @param length The length of the field (1 to 4).
+     * @return The big-endian value of the field.
+     */
+    private int getUnsigned(int offset, int length) {
+      int position = base + offset;
+      int value = 0;
+      for (int i = 0; i < length; i++) {
+        value = (value << 8) | (buffer.get(position + i) & 0xFF);
+      }
+      return value;
+    }
+
+    /**
+     * @param offset The offset of the field in the record.
+     * @param length The length of the field (1 to 4).
+     * @return The big-endian value of the field, sign-extended.
+     */
+    private int getSigned(int offset, int length) {
+      int shift = 32 - length * 8;
+      return (getUnsigned(offset, length) << shift) >> shift;
+    }
+  }
+
+  /** Spliterator over a range of records, sharing a single cursor for all its records. */
+  private final class CursorSpliterator implements Spliterator<Cursor> {
+
+    private int index;
+    private final int end;
+    private Cursor cursor;
+
+    private CursorSpliterator(int index, int end) {
+      this.index = index;
+      this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Cursor> action) {
+      if (index >= end) {
+        return false;
+      }
+      action.accept(getCursor().moveTo(index++));
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Cursor> action) {
+      Cursor c = getCursor();
+      while (index < end) {
+        action.accept(c.moveTo(index++));
+      }
+    }
+
+    @Override
+    public Spliterator<Cursor> trySplit() {
+      int middle = (index + end) >>> 1;
+      if (middle <= index) {
+        return null;
+      }
+      Spliterator<Cursor> prefix = new CursorSpliterator(index, middle);
+      index = middle;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return (long) end - index;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    private Cursor getCursor() {
+      if (cursor == null) {
+        cursor = new Cursor();
+      }
+      return cursor;
+    }
+  }
+}
@@ -22,6 +22,7 @@
 import org.eclipse.keypop.calypso.card.SelectFileControl;
 import org.eclipse.keypop.calypso.card.card.CalypsoCard;
 import org.eclipse.keypop.calypso.card.card.ElementaryFile;
+import org.eclipse.keypop.calypso.card.card.FileHeader;
 import org.eclipse.keypop.calypso.card.transaction.*;
 import org.eclipse.keypop.calypso.card.transaction.ChannelControl;
 import org.eclipse.keypop.card.*;
@@ -90,6 +91,10 @@
       "PKI mode not available for this card";
   private static final String MSG_DATA_LENGTH = "data length";
 
+  // commands that modify the content of the card in session have a cost on the session buffer equal
+  // to the length of the outgoing data plus 6 bytes
+  private static final int SESSION_BUFFER_CMD_ADDITIONAL_COST = 6;
+
   /* Final fields */
   T currentInstance = (T) this;
   final ProxyReaderApi cardReader;
@@ -98,6 +103,25 @@
 
   /* Dynamic fields */
   final List<Command> commands = new ArrayList<>();
+  private boolean isWriteElisionEnabled;
+  private int nbElidedCommands;
+  private int nbElidedBytes;
+  private boolean isBinaryUpdateCoalescingEnabled;
+  private BinaryUpdateCoalescer binaryUpdateCoalescer;
+  private int binaryUpdateRunIndex;
+  private Command binaryUpdateRunLastCommand;
+  private int binaryUpdateRunNbCommandsSaved;
+  private int binaryUpdateRunNbBytesSaved;
+  private int nbCoalescedCommands;
+  private int nbCoalescedBytes;
+  private FileStructureCache fileStructureCache;
+  private SelectionPrefetchAdvisor prefetchAdvisor;
+  private final Set<SelectionPrefetchAdvisor.ReadItem> observedReads = new HashSet<>();
+  private CommandLatencyModel latencyModel;
+  private final Set<Command> optionalCommands =
+      Collections.newSetFromMap(new IdentityHashMap<Command, Boolean>());
+  private CardTearRecovery tearRecovery;
+  private boolean isSnapshotPublicationEnabled;
 
   /**
    * Builds a new instance.
@@ -111,6 +135,301 @@
     this.card = card;
   }
 
+  /**
+   * Enables or disables the write elision mode.
+   *
+   * <p>When enabled, the commands modifying the content of an EF are compared with the card image
+   * when they are prepared:
+   *
+   * <ul>
+   *   <li>an "Update Record" whose data is identical to the record content is not prepared,
+   *   <li>a "Write Record" is reduced to the bytes up to the last modified one, or not prepared if
+   *       it does not modify anything,
+   *   <li>an "Update/Write Binary" is reduced to the range of modified bytes, or not prepared if it
+   *       does not modify anything,
+   *   <li>an "Increase/Decrease" of zero is not prepared.
+   * </ul>
+   *
+   * This saves APDU exchanges and secure session buffer, and thus possibly a session closing and
+   * reopening.
+   *
+   * <p>A byte of the card image is only trusted if it has been returned by the card or successfully
+   * written to it, and if its EF is not modified by a command still pending.
+   *
+   * @param isWriteElisionEnabled True to enable the mode, false to disable it (default).
+   * @since 3.1.6
+   */
+  final void setWriteElisionEnabled(boolean isWriteElisionEnabled) {
+    this.isWriteElisionEnabled = isWriteElisionEnabled;
+  }
+
+  /**
+   * @return The number of commands not prepared since the creation of the transaction manager
+   *     because of the write elision mode.
+   * @since 3.1.6
+   */
+  final int getElidedCommandsCount() {
+    return nbElidedCommands;
+  }
+
+  /**
+   * @return The number of data bytes removed from the prepared commands (including the elided ones)
+   *     since the creation of the transaction manager because of the write elision mode.
+   * @since 3.1.6
+   */
+  final int getElidedBytesCount() {
+    return nbElidedBytes;
+  }
+
+  /**
+   * Enables or disables the binary update coalescing mode.
+   *
+   * <p>When enabled, the "Update/Write Binary" commands designating their EF by SFI and prepared
+   * consecutively (i.e. without any other command prepared in between) are merged file by file:
+   * overlapping and adjacent byte ranges are combined (the last "Update Binary" wins, a "Write
+   * Binary" is OR-combined with the already updated bytes) and the result is split again according
+   * to the payload capacity.
+   *
+   * <p>This saves APDU exchanges and secure session buffer, and thus possibly a session closing and
+   * reopening.
+   *
+   * @param isBinaryUpdateCoalescingEnabled True to enable the mode, false to disable it (default).
+   * @since 3.1.6
+   */
+  final void setBinaryUpdateCoalescingEnabled(boolean isBinaryUpdateCoalescingEnabled) {
+    this.isBinaryUpdateCoalescingEnabled = isBinaryUpdateCoalescingEnabled;
+  }
+
+  /**
+   * @return The number of APDUs saved since the creation of the transaction manager because of the
+   *     binary update coalescing mode.
+   * @since 3.1.6
+   */
+  final int getCoalescedCommandsCount() {
+    return nbCoalescedCommands;
+  }
+
+  /**
+   * @return The number of secure session buffer bytes saved since the creation of the transaction
+   *     manager because of the binary update coalescing mode.
+   * @since 3.1.6
+   */
+  final int getCoalescedBytesCount() {
+    return nbCoalescedBytes;
+  }
+
+  /**
+   * Sets the file structure cache to be used by the "Get Data (EF LIST)" commands.
+   *
+   * <p>When the structure of the current DF is cached, {@link #prepareGetData(GetDataTag)} with the
+   * {@link GetDataTag#EF_LIST} tag updates the card image from the cache instead of preparing a
+   * command (except when the cache requests a verification). Otherwise, the structure returned by
+   * the card is stored in the cache.
+   *
+   * @param fileStructureCache The cache, null to disable it (default).
+   * @since 3.1.6
+   */
+  final void setFileStructureCache(FileStructureCache fileStructureCache) {
+    this.fileStructureCache = fileStructureCache;
+  }
+
+  /**
+   * Sets the selection prefetch advisor to be notified of the reads prepared on the card.
+   *
+   * <p>The advisor should be the one attached to the card selection extension used to select the
+   * card.
+   *
+   * @param prefetchAdvisor The advisor, null to disable the notifications (default).
+   * @since 3.1.6
+   */
+  final void setSelectionPrefetchAdvisor(SelectionPrefetchAdvisor prefetchAdvisor) {
+    this.prefetchAdvisor = prefetchAdvisor;
+  }
+
+  /**
+   * Sets the latency model learning the processing time of the commands from the exchanges with
+   * the card, and used by {@link #processCommands(ChannelControl, int)}.
+   *
+   * @param latencyModel The model, null to disable the learning (default).
+   * @since 3.1.6
+   */
+  final void setCommandLatencyModel(CommandLatencyModel latencyModel) {
+    this.latencyModel = latencyModel;
+  }
+
+  /**
+   * Enables or disables the resumable execution mode.
+   *
+   * <p>When enabled, a loss of communication with the card keeps in the recovery the reads
+   * processed before the tear outside any secure session, and the first commands processed on the
+   * next presentation of the same card are answered from the kept responses when they match.
+   *
+   * @param tearRecovery The recovery, null to disable the resumable execution mode (default).
+   * @see CardTearRecovery
+   * @since 3.1.6
+   */
+  final void setCardTearRecovery(CardTearRecovery tearRecovery) {
+    this.tearRecovery = tearRecovery;
+  }
+
+  /**
+   * Enables or disables the publication of the card image snapshots.
+   *
+   * <p>When enabled, a snapshot of the card image is taken after the processing of the responses of
+   * each exchange with the card, so that other threads can follow the content of the card through
+   * {@link CalypsoCardAdapter#getLastSnapshot()} without synchronization.
+   *
+   * @param isSnapshotPublicationEnabled True to enable the publication, false to disable it
+   *     (default).
+   * @since 3.1.6
+   */
+  final void setSnapshotPublicationEnabled(boolean isSnapshotPublicationEnabled) {
+    this.isSnapshotPublicationEnabled = isSnapshotPublicationEnabled;
+  }
+
+  /**
+   * Removes all the prepared commands, including their optional marks.
+   *
+   * @since 3.1.6
+   */
+  final void clearCommands() {
+    commands.clear();
+    optionalCommands.clear();
+  }
+
+  /**
+   * Cancels the prepared commands and the secure session in progress, if any, then releases the
+   * physical channel.
+   *
+   * @since 3.1.6
+   */
+  final void cancelAndReleaseChannel() {
+    resetTransaction();
+    executeCardCommands(Collections.<Command>emptyList(), ChannelControl.CLOSE_AFTER);
+  }
+
+  /**
+   * Marks the last prepared command as optional: {@link #processCommands(ChannelControl, int)} may
+   * drop it to fit in its time budget.
+   *
+   * <p>Only reads can be optional. The optional commands are dropped from the last prepared one.
+   *
+   * @return The current instance.
+   * @throws IllegalStateException If no command is prepared or if the last prepared command is not
+   *     a read.
+   * @since 3.1.6
+   */
+  final T markLastCommandOptional() {
+    Command command = commands.isEmpty() ? null : commands.get(commands.size() - 1);
+    if (command == null
+        || (command.getCommandRef() != CardCommandRef.READ_RECORDS
+            && command.getCommandRef() != CardCommandRef.READ_RECORD_MULTIPLE
+            && command.getCommandRef() != CardCommandRef.READ_BINARY)) {
+      throw new IllegalStateException("The last prepared command is not a read");
+    }
+    optionalCommands.add(command);
+    return currentInstance;
+  }
+
+  /**
+   * Processes the prepared commands within a time budget.
+   *
+   * <p>Before any transmission, the time needed by the card to process the prepared commands is
+   * predicted with the latency model. If it exceeds the time budget, the optional commands are
+   * dropped, starting with the last prepared one, until the prediction fits. If it still does not
+   * fit, the transaction is reset and nothing is transmitted.
+   *
+   * <p>The prediction only covers the prepared card commands, not the commands added by the
+   * transaction manager itself (e.g. the closing of a secure session) nor the processing of the
+   * crypto service.
+   *
+   * @param channelControl Policy for managing the physical channel after executing commands to the
+   *     card.
+   * @param timeBudgetMillis The time budget in milliseconds.
+   * @return The current instance.
+   * @throws IllegalStateException If no latency model is set or if the prepared commands do not fit
+   *     in the time budget.
+   * @since 3.1.6
+   */
+  final T processCommands(ChannelControl channelControl, int timeBudgetMillis) {
+    if (latencyModel == null) {
+      throw new IllegalStateException("No command latency model is set");
+    }
+    long timeBudgetNanos = timeBudgetMillis * 1_000_000L;
+    CalypsoCard.ProductType productType = card.getProductType();
+    long predictedNanos = latencyModel.predictNanos(productType, commands);
+    int nbDropped = 0;
+    for (int i = commands.size() - 1; i >= 0 && predictedNanos > timeBudgetNanos; i--) {
+      Command command = commands.get(i);
+      if (optionalCommands.contains(command)) {
+        predictedNanos -= latencyModel.predictNanos(productType, commands.subList(i, i + 1));
+        commands.remove(i);
+        nbDropped++;
+      }
+    }
+    optionalCommands.clear();
+    if (predictedNanos > timeBudgetNanos) {
+      latencyModel.recordRejectedPlan(nbDropped);
+      resetTransaction();
+      throw new IllegalStateException(
+          "The prepared commands are predicted to take "
+              + predictedNanos / 1_000_000L
+              + " ms, beyond the time budget of "
+              + timeBudgetMillis
+              + " ms");
+    }
+    if (nbDropped != 0 && logger.isDebugEnabled()) {
+      logger.debug("{} optional command(s) dropped to fit in the time budget", nbDropped);
+    }
+    long startTime = System.nanoTime();
+    try {
+      processCommands(channelControl);
+    } finally {
+      latencyModel.recordDeadlineCheck(System.nanoTime() - startTime > timeBudgetNanos, nbDropped);
+    }
+    return currentInstance;
+  }
+
+  /**
+   * Notifies the selection prefetch advisor of a read, once per read.
+   *
+   * <p>The reads of the current EF (SFI 0) are ignored since they depend on the file selected
+   * beforehand.
+   *
+   * @param read The read.
+   */
+  private void observeRead(SelectionPrefetchAdvisor.ReadItem read) {
+    if (prefetchAdvisor != null && read.getSfi() != 0 && observedReads.add(read)) {
+      prefetchAdvisor.onRead(card, read);
+    }
+  }
+
+  /**
+   * Indicates if a read can be served from the card image because it was prefetched in the card
+   * selection request.
+   *
+   * <p>As for a local search, this is only the case outside a secure session and when no command is
+   * pending. The prefetched data must also be entirely known in the card image.
+   *
+   * @param read The read.
+   * @return True if the read does not need to be sent to the card.
+   */
+  private boolean isPrefetched(SelectionPrefetchAdvisor.ReadItem read) {
+    if (!commands.isEmpty()
+        || getCommandContext().isSecureSessionOpen()
+        || !card.getPrefetchedReads().contains(read)) {
+      return false;
+    }
+    ElementaryFileAdapter ef = (ElementaryFileAdapter) card.getFileBySfi(read.getSfi());
+    if (ef == null) {
+      return false;
+    }
+    int from = read.getRecordNumberOrOffset();
+    return read.isBinary()
+        ? ef.getData().isContentKnown(1, from, from + read.getNbBytes())
+        : ef.getData().isRecordKnown(from);
+  }
+
   /**
    * Returns the transaction context.
    *
@@ -158,6 +477,16 @@
    */
   abstract void prepareNewSecureSessionIfNeeded(Command command);
 
+  /**
+   * Gives back the secure session buffer space reserved by {@link
+   * #prepareNewSecureSessionIfNeeded(Command)} for a command that has been removed from the
+   * prepared commands.
+   *
+   * @param command The removed command.
+   * @since 3.1.6
+   */
+  abstract void releaseSessionBuffer(Command command);
+
   /**
    * @return True if it is possible to configure the auto read record into the open secure session
    *     command.
@@ -174,6 +503,23 @@
    */
   final void executeCardCommands(List<Command> commands, ChannelControl channelControl) {
 
+    // Answer the commands already processed before a tear of the card
+    if (tearRecovery != null) {
+      List<ApduResponseApi> keptResponses = tearRecovery.takeKeptResponses(card, commands);
+      if (!keptResponses.isEmpty()) {
+        parseCommandResponses(commands, keptResponses);
+        commands = commands.subList(keptResponses.size(), commands.size());
+        if (logger.isDebugEnabled()) {
+          logger.debug(
+              "{} command(s) answered from the exchanges kept before a card tear",
+              keptResponses.size());
+        }
+        if (commands.isEmpty() && channelControl == ChannelControl.KEEP_OPEN) {
+          return;
+        }
+      }
+    }
+
     // Retrieve the list of C-APDUs
     List<ApduRequestSpi> apduRequests = getApduRequests(commands);
 
@@ -181,11 +527,28 @@ final void executeCardCommands(List<Command> commands, ChannelControl channelCon
     CardRequestSpi cardRequest = new CardRequestAdapter(apduRequests, true);
 
     // Transmit the commands to the card
-    CardResponseApi cardResponse = transmitCardRequest(cardRequest, channelControl);
+    long startTime = System.nanoTime();
+    CardResponseApi cardResponse;
+    try {
+      cardResponse = transmitCardRequest(cardRequest, channelControl);
+    } catch (CardIOException e) {
+      if (tearRecovery != null && e.getCause() instanceof CardBrokenCommunicationException) {
+        keepResponsesBeforeTear(
+            commands, ((CardBrokenCommunicationException) e.getCause()).getCardResponse());
+      }
+      throw e;
+    }
 
     // Retrieve the list of R-APDUs
     List<ApduResponseApi> apduResponses = cardResponse.getApduResponses(); // NOSONAR
 
+    if (latencyModel != null && apduResponses.size() <= commands.size()) {
+      latencyModel.observe(
+          card.getProductType(),
+          commands.subList(0, apduResponses.size()),
+          System.nanoTime() - startTime);
+    }
+
     // If there are more responses than requests, then we are unable to fill the card image. In this
     // case we stop processing immediately because it may be a case of fraud, and we throw a
     // desynchronized exception.
@@ -201,6 +564,27 @@ final void executeCardCommands(List<Command> commands, ChannelControl channelCon
     // We go through all the responses (and not the requests) because there may be fewer in the
     // case of an error that occurred in strict mode. In this case the last response will raise an
     // exception.
+    parseCommandResponses(commands, apduResponses);
+
+    // Finally, if no error has occurred and there are fewer responses than requests, then we
+    // throw a desynchronized exception.
+    if (apduResponses.size() < commands.size()) {
+      throw new InconsistentDataException(
+          MSG_THE_NUMBER_OF_COMMANDS_RESPONSES_DOES_NOT_MATCH_NB_COMMANDS
+              + commands.size()
+              + MSG_NB_RESPONSES
+              + apduResponses.size()
+              + getTransactionAuditDataAsString());
+    }
+  }
+
+  /**
+   * Parses the responses to the first commands.
+   *
+   * @param commands The commands.
+   * @param apduResponses The responses, not more than the commands.
+   */
+  private void parseCommandResponses(List<Command> commands, List<ApduResponseApi> apduResponses) {
     for (int i = 0; i < apduResponses.size(); i++) {
       Command command = commands.get(i);
       try {
@@ -214,17 +598,35 @@ final void executeCardCommands(List<Command> commands, ChannelControl channelCon
             e);
       }
     }
+    if (isSnapshotPublicationEnabled) {
+      card.snapshot();
+    }
+  }
 
-    // Finally, if no error has occurred and there are fewer responses than requests, then we
-    // throw a desynchronized exception.
-    if (apduResponses.size() < commands.size()) {
-      throw new InconsistentDataException(
-          MSG_THE_NUMBER_OF_COMMANDS_RESPONSES_DOES_NOT_MATCH_NB_COMMANDS
-              + commands.size()
-              + MSG_NB_RESPONSES
-              + apduResponses.size()
-              + getTransactionAuditDataAsString());
+  /**
+   * Parses the responses received before a tear of the card and keeps them in the tear recovery,
+   * up to the first command which is not a read outside a secure session, or failing.
+   *
+   * @param commands The transmitted commands.
+   * @param cardResponse The partial card response, may be null.
+   */
+  private void keepResponsesBeforeTear(List<Command> commands, CardResponseApi cardResponse) {
+    List<ApduResponseApi> apduResponses =
+        cardResponse != null
+            ? cardResponse.getApduResponses()
+            : Collections.<ApduResponseApi>emptyList();
+    int nbResponses = Math.min(apduResponses.size(), commands.size());
+    int nbKept = 0;
+    while (nbKept < nbResponses && CardTearRecovery.isResumable(commands.get(nbKept))) {
+      try {
+        parseCommandResponse(commands.get(nbKept), apduResponses.get(nbKept));
+      } catch (CardCommandException | RuntimeException e) {
+        break;
+      }
+      nbKept++;
     }
+    tearRecovery.record(
+        card, commands.subList(0, nbKept), apduResponses.subList(0, nbKept), nbResponses);
   }
 
   /**
@@ -248,11 +650,12 @@ void parseCommandResponse(Command command, ApduResponseApi apduResponse)
    * @since 2.2.0
    */
   private static List<ApduRequestSpi> getApduRequests(List<Command> commands) {
-    List<ApduRequestSpi> apduRequests = new ArrayList<>();
-    if (commands != null) {
-      for (Command command : commands) {
-        apduRequests.add(command.getApduRequest());
-      }
+    if (commands == null || commands.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<ApduRequestSpi> apduRequests = new ArrayList<>(commands.size());
+    for (Command command : commands) {
+      apduRequests.add(command.getApduRequest());
     }
     return apduRequests;
   }
@@ -387,7 +790,11 @@ public T prepareGetData(GetDataTag tag) {
           commands.add(new CommandGetDataFcp(getTransactionContext(), getCommandContext()));
           break;
         case EF_LIST:
-          commands.add(new CommandGetDataEfList(getTransactionContext(), getCommandContext()));
+          if (fileStructureCache == null || !fileStructureCache.applyInsteadOfDiscovery(card)) {
+            commands.add(
+                new CommandGetDataEfList(getTransactionContext(), getCommandContext())
+                    .setFileStructureCache(fileStructureCache));
+          }
           break;
         case TRACEABILITY_INFORMATION:
           commands.add(
@@ -431,19 +838,24 @@ public T prepareGetData(GetDataTag tag) {
    */
   @Override
   public T preparePutData(PutDataTag putDataTag, byte[] data) {
-    Assert.getInstance().notNull(putDataTag, "putDataTag").notNull(data, "data");
-    switch (putDataTag) {
-      case CARD_KEY_PAIR:
-        preparePutDataCardKeyPair(putDataTag, data);
-        break;
-      case CARD_CERTIFICATE:
-        preparePutDataCertificate(putDataTag, data, CalypsoCardConstant.CARD_CERTIFICATE_SIZE);
-        break;
-      case CA_CERTIFICATE:
-        preparePutDataCertificate(putDataTag, data, CalypsoCardConstant.CA_CERTIFICATE_SIZE);
-        break;
-      default:
-        throw new UnsupportedOperationException("Unsupported tag: " + putDataTag);
+    try {
+      Assert.getInstance().notNull(putDataTag, "putDataTag").notNull(data, "data");
+      switch (putDataTag) {
+        case CARD_KEY_PAIR:
+          preparePutDataCardKeyPair(putDataTag, data);
+          break;
+        case CARD_CERTIFICATE:
+          preparePutDataCertificate(putDataTag, data, CalypsoCardConstant.CARD_CERTIFICATE_SIZE);
+          break;
+        case CA_CERTIFICATE:
+          preparePutDataCertificate(putDataTag, data, CalypsoCardConstant.CA_CERTIFICATE_SIZE);
+          break;
+        default:
+          throw new UnsupportedOperationException("Unsupported tag: " + putDataTag);
+      }
+    } catch (RuntimeException e) {
+      resetTransaction();
+      throw e;
     }
     return currentInstance;
   }
@@ -512,6 +924,12 @@ public final T prepareReadRecord(byte sfi, int recordNumber) {
               CalypsoCardConstant.NB_REC_MIN,
               CalypsoCardConstant.NB_REC_MAX,
               MSG_RECORD_NUMBER);
+      SelectionPrefetchAdvisor.ReadItem read =
+          SelectionPrefetchAdvisor.ReadItem.record(sfi, recordNumber);
+      observeRead(read);
+      if (isPrefetched(read)) {
+        return currentInstance;
+      }
 
       // A record size of 0 indicates that the card determines the output length.
       // However, "legacy case 1" cards require a non-zero value.
@@ -523,9 +941,17 @@ public final T prepareReadRecord(byte sfi, int recordNumber) {
             .configureReadMode(sfi, recordNumber);
       } else {
         CommandContextDto commandContext = getCommandContext();
-        if (commandContext.isSecureSessionOpen() && !((CardReader) cardReader).isContactless()) {
-          throw new IllegalStateException(
-              "Explicit record size is expected inside a secure session in contact mode");
+        if (commandContext.isSecureSessionOpen()
+            && recordSize == 0
+            && !((CardReader) cardReader).isContactless()) {
+          // The record size may be known from the file structure cache
+          if (fileStructureCache != null) {
+            recordSize = getKnownRecordSize(sfi);
+          }
+          if (recordSize == 0) {
+            throw new IllegalStateException(
+                "Explicit record size is expected inside a secure session in contact mode");
+          }
         }
         commands.add(
             new CommandReadRecords(
@@ -544,6 +970,18 @@ public final T prepareReadRecord(byte sfi, int recordNumber) {
     return currentInstance;
   }
 
+  /**
+   * @param sfi The SFI of the EF.
+   * @return The record size of the EF from its header in the card image, 0 if unknown.
+   */
+  private int getKnownRecordSize(byte sfi) {
+    ElementaryFile ef = card.getFileBySfi(sfi);
+    if (ef == null || ef.getHeader() == null) {
+      return 0;
+    }
+    return ef.getHeader().getRecordSize();
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -563,6 +1001,15 @@ public final T prepareReadRecords(
           .isInRange(
               toRecordNumber, fromRecordNumber, CalypsoCardConstant.NB_REC_MAX, "toRecordNumber")
           .isInRange(recordSize, 0, getPayloadCapacity(), "recordSize");
+      boolean isAllPrefetched = true;
+      for (int i = fromRecordNumber; i <= toRecordNumber; i++) {
+        SelectionPrefetchAdvisor.ReadItem read = SelectionPrefetchAdvisor.ReadItem.record(sfi, i);
+        observeRead(read);
+        isAllPrefetched = isAllPrefetched && isPrefetched(read);
+      }
+      if (isAllPrefetched) {
+        return currentInstance;
+      }
 
       if (toRecordNumber == fromRecordNumber
           || (card.getProductType() != CalypsoCard.ProductType.PRIME_REVISION_3
@@ -718,6 +1165,17 @@ public final T prepareReadBinary(byte sfi, int offset, int nbBytesToRead) {
               CalypsoCardConstant.OFFSET_BINARY_MAX,
               MSG_OFFSET)
           .greaterOrEqual(nbBytesToRead, 1, "nbBytesToRead");
+      if (sfi > 0
+          && offset <= 255
+          && nbBytesToRead <= SelectionPrefetchAdvisor.MAX_BINARY_READ_LENGTH) {
+        // Only the reads that can be embedded in a card selection request are observed.
+        SelectionPrefetchAdvisor.ReadItem read =
+            SelectionPrefetchAdvisor.ReadItem.binary(sfi, offset, nbBytesToRead);
+        observeRead(read);
+        if (isPrefetched(read)) {
+          return currentInstance;
+        }
+      }
 
       if (sfi > 0 && offset > 255) { // FFh
         // Tips to select the file: add a "Read Binary" command (read one byte at offset 0).
@@ -764,7 +1222,8 @@ public final T prepareReadCounter(byte sfi, int nbCountersToRead) {
   @Override
   public final T prepareSearchRecords(SearchCommandData data) {
     try {
-      if (card.getProductType() != CalypsoCard.ProductType.PRIME_REVISION_3) {
+      if (card.getProductType() != CalypsoCard.ProductType.PRIME_REVISION_3
+          && !isSearchInCardImagePossible(data)) {
         throw new UnsupportedOperationException(
             "'Search Record Multiple' command not available for this card");
       }
@@ -808,9 +1267,17 @@ public final T prepareSearchRecords(SearchCommandData data) {
                 "mask");
       }
 
-      commands.add(
-          new CommandSearchRecordMultiple(
-              getTransactionContext(), getCommandContext(), dataAdapter));
+      if (!isSearchInCardImagePossible(dataAdapter)
+          || !RecordSearchEngine.searchInCardImage(card, dataAdapter)) {
+        if (card.getProductType() != CalypsoCard.ProductType.PRIME_REVISION_3) {
+          throw new UnsupportedOperationException(
+              "'Search Record Multiple' command not available for this card and the records"
+                  + " involved are not completely known in the card image");
+        }
+        commands.add(
+            new CommandSearchRecordMultiple(
+                getTransactionContext(), getCommandContext(), dataAdapter));
+      }
 
     } catch (RuntimeException e) {
       resetTransaction();
@@ -819,6 +1286,25 @@ public final T prepareSearchRecords(SearchCommandData data) {
     return currentInstance;
   }
 
+  /**
+   * Indicates if a search can be resolved locally against the card image instead of being sent to
+   * the card.
+   *
+   * <p>This is only the case outside a secure session (the result would not be certified by the
+   * session MAC) and when no command is pending (the card image reflects the current state of the
+   * card). The records involved must also be completely known, which is checked by {@link
+   * RecordSearchEngine#searchInCardImage(CalypsoCardAdapter, SearchCommandDataAdapter)}.
+   *
+   * @param data The search data.
+   * @return True if a local search may be attempted.
+   */
+  private boolean isSearchInCardImagePossible(SearchCommandData data) {
+    return data instanceof SearchCommandDataAdapter
+        && ((SearchCommandDataAdapter) data).getSearchData() != null
+        && commands.isEmpty()
+        && !getCommandContext().isSecureSessionOpen();
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -878,6 +1364,9 @@ public final T prepareUpdateRecord(byte sfi, int recordNumber, byte[] recordData
               MSG_RECORD_NUMBER)
           .notNull(recordData, MSG_RECORD_DATA)
           .isInRange(recordData.length, 0, getPayloadCapacity(), MSG_RECORD_DATA_LENGTH);
+      if (isUpdateRecordElided(sfi, recordNumber, recordData)) {
+        return currentInstance;
+      }
       CommandUpdateRecord command =
           new CommandUpdateRecord(
               getTransactionContext(), getCommandContext(), sfi, recordNumber, recordData);
@@ -907,9 +1396,13 @@ public final T prepareWriteRecord(byte sfi, int recordNumber, byte[] recordData)
               MSG_RECORD_NUMBER)
           .notNull(recordData, MSG_RECORD_DATA)
           .isInRange(recordData.length, 0, getPayloadCapacity(), MSG_RECORD_DATA_LENGTH);
+      byte[] data = getWriteRecordDataToPrepare(sfi, recordNumber, recordData);
+      if (data == null) {
+        return currentInstance;
+      }
       CommandWriteRecord command =
           new CommandWriteRecord(
-              getTransactionContext(), getCommandContext(), sfi, recordNumber, recordData);
+              getTransactionContext(), getCommandContext(), sfi, recordNumber, data);
       prepareNewSecureSessionIfNeeded(command);
       commands.add(command);
     } catch (RuntimeException e) {
@@ -949,7 +1442,8 @@ public final T prepareWriteBinary(byte sfi, int offset, byte[] data) {
    * @param data The data to update/write.
    * @return The current instance.
    */
-  private T prepareUpdateOrWriteBinary(boolean isUpdateCommand, byte sfi, int offset, byte[] data) {
+  private T prepareUpdateOrWriteBinary(
+      boolean isUpdateCommand, byte sfi, int binaryOffset, byte[] binaryData) {
     try {
       if (card.getProductType() != CalypsoCard.ProductType.PRIME_REVISION_3) {
         if (card.getProductType() == CalypsoCard.ProductType.PRIME_REVISION_2) {
@@ -964,11 +1458,36 @@ private T prepareUpdateOrWriteBinary(boolean isUpdateCommand, byte sfi, int offs
       Assert.getInstance()
           .isInRange((int) sfi, CalypsoCardConstant.SFI_MIN, CalypsoCardConstant.SFI_MAX, "sfi")
           .isInRange(
-              offset,
+              binaryOffset,
               CalypsoCardConstant.OFFSET_MIN,
               CalypsoCardConstant.OFFSET_BINARY_MAX,
               MSG_OFFSET)
-          .notEmpty(data, "data");
+          .notEmpty(binaryData, "data");
+
+      int offset = binaryOffset;
+      byte[] data = binaryData;
+      FileDataAdapter fileData = getTrustedFileData(sfi);
+      if (fileData != null) {
+        int[] range = getModifiedRange(fileData, 1, offset, data, !isUpdateCommand);
+        if (range == null) {
+          countElision(1, data.length, "Update/Write Binary", sfi, 1);
+          return currentInstance;
+        }
+        int from = range[0];
+        if (offset <= 255 && offset + from > 255) {
+          from = 255 - offset; // keeps the SFI addressing, avoiding an extra "Read Binary"
+        }
+        if (from > 0 || range[1] < data.length) {
+          countElision(0, data.length - (range[1] - from), "Update/Write Binary", sfi, 1);
+          offset += from;
+          data = Arrays.copyOfRange(data, from, range[1]);
+        }
+      }
+
+      if (isBinaryUpdateCoalescingEnabled && sfi != 0) {
+        prepareCoalescedUpdateOrWriteBinary(isUpdateCommand, sfi, offset, data);
+        return currentInstance;
+      }
 
       if (sfi > 0 && offset > 255) { // FFh
         // Tips to select the file: add a "Read Binary" command (read one byte at offset 0).
@@ -1087,6 +1606,9 @@ public final T prepareSetCounter(byte sfi, int counterNumber, int newValue) {
         }
         prepareDecreaseCounter(sfi, counterNumber, -delta);
       } else {
+        if (isWriteElisionEnabled) {
+          nbElidedCommands++;
+        }
         if (logger.isDebugEnabled()) {
           logger.debug(
               "Counter #{} (sfi {}h) already set to the desired value {}",
@@ -1129,6 +1651,10 @@ T prepareIncreaseOrDecreaseCounter(
               CalypsoCardConstant.CNT_VALUE_MIN,
               CalypsoCardConstant.CNT_VALUE_MAX,
               "incDecValue");
+      if (incDecValue == 0 && isCounterValueTrusted(sfi, counterNumber)) {
+        countElision(1, 3, "Increase/Decrease", sfi, 1);
+        return currentInstance;
+      }
       CommandIncreaseOrDecrease command =
           new CommandIncreaseOrDecrease(
               isDecreaseCommand,
@@ -1178,9 +1704,14 @@ private T prepareIncreaseOrDecreaseCounters(
                 CalypsoCardConstant.CNT_VALUE_MAX,
                 "counterNumberToIncDecValueMapValue");
       }
+      Map<Integer, Integer> countersToPrepare =
+          getCountersToPrepare(sfi, counterNumberToIncDecValueMap);
+      if (countersToPrepare.isEmpty()) {
+        return currentInstance;
+      }
       if (card.getProductType() != CalypsoCard.ProductType.PRIME_REVISION_3
           && card.getProductType() != CalypsoCard.ProductType.PRIME_REVISION_2) {
-        for (Map.Entry<Integer, Integer> entry : counterNumberToIncDecValueMap.entrySet()) {
+        for (Map.Entry<Integer, Integer> entry : countersToPrepare.entrySet()) {
           if (isDecreaseCommand) {
             prepareDecreaseCounter(sfi, entry.getKey(), entry.getValue());
           } else {
@@ -1189,14 +1720,14 @@ private T prepareIncreaseOrDecreaseCounters(
         }
       } else {
         int nbCountersPerApdu = getPayloadCapacity() / 4;
-        if (counterNumberToIncDecValueMap.size() <= nbCountersPerApdu) {
+        if (countersToPrepare.size() <= nbCountersPerApdu) {
           CommandIncreaseOrDecreaseMultiple command =
               new CommandIncreaseOrDecreaseMultiple(
                   isDecreaseCommand,
                   getTransactionContext(),
                   getCommandContext(),
                   sfi,
-                  new TreeMap<>(counterNumberToIncDecValueMap));
+                  new TreeMap<>(countersToPrepare));
           prepareNewSecureSessionIfNeeded(command);
           commands.add(command);
         } else {
@@ -1204,7 +1735,7 @@ private T prepareIncreaseOrDecreaseCounters(
           // commands
           int i = 0;
           TreeMap<Integer, Integer> map = new TreeMap<>();
-          for (Map.Entry<Integer, Integer> entry : counterNumberToIncDecValueMap.entrySet()) {
+          for (Map.Entry<Integer, Integer> entry : countersToPrepare.entrySet()) {
             i++;
             map.put(entry.getKey(), entry.getValue());
             if (i == nbCountersPerApdu) {
@@ -1237,6 +1768,262 @@ private T prepareIncreaseOrDecreaseCounters(
     return currentInstance;
   }
 
+  /**
+   * Adds an "Update/Write Binary" operation to the current run of binary update commands, or starts
+   * a new run if the last prepared command does not belong to it, then prepares the commands of the
+   * whole run again from the merged operations.
+   *
+   * @param isUpdateCommand True if it is an "Update Binary" command, false if it is a "Write
+   *     Binary" command.
+   * @param sfi The SFI.
+   * @param offset The offset.
+   * @param data The data to update/write.
+   */
+  private void prepareCoalescedUpdateOrWriteBinary(
+      boolean isUpdateCommand, byte sfi, int offset, byte[] data) {
+
+    int payloadCapacity = getPayloadCapacity();
+
+    if (binaryUpdateCoalescer != null
+        && commands.size() > binaryUpdateRunIndex
+        && commands.get(commands.size() - 1) == binaryUpdateRunLastCommand) {
+      // Withdraw the commands of the current run
+      while (commands.size() > binaryUpdateRunIndex) {
+        Command command = commands.remove(commands.size() - 1);
+        if (command.getCommandRef() != CardCommandRef.READ_BINARY) {
+          releaseSessionBuffer(command);
+        }
+      }
+      nbCoalescedCommands -= binaryUpdateRunNbCommandsSaved;
+      nbCoalescedBytes -= binaryUpdateRunNbBytesSaved;
+    } else {
+      binaryUpdateCoalescer = new BinaryUpdateCoalescer();
+      binaryUpdateRunIndex = commands.size();
+      binaryUpdateRunNbCommandsSaved = 0;
+      binaryUpdateRunNbBytesSaved = 0;
+    }
+    binaryUpdateCoalescer.add(sfi, isUpdateCommand, offset, data);
+
+    // Cost of the operation if it was prepared alone
+    int nbChunks = (data.length + payloadCapacity - 1) / payloadCapacity;
+    binaryUpdateRunNbCommandsSaved += nbChunks + (offset > 255 ? 1 : 0); // FFh
+    binaryUpdateRunNbBytesSaved += data.length + nbChunks * SESSION_BUFFER_CMD_ADDITIONAL_COST;
+
+    boolean isSessionSplit = false;
+    byte previousSfi = 0;
+    for (BinaryUpdateCoalescer.Operation operation :
+        binaryUpdateCoalescer.getOperations(payloadCapacity)) {
+      if (operation.getSfi() != previousSfi && operation.getOffset() > 255) { // FFh
+        // Tips to select the file: add a "Read Binary" command (read one byte at offset 0).
+        commands.add(
+            new CommandReadBinary(
+                getTransactionContext(), getCommandContext(), operation.getSfi(), 0, 1));
+        binaryUpdateRunNbCommandsSaved--;
+      }
+      previousSfi = operation.getSfi();
+      CommandUpdateOrWriteBinary command =
+          new CommandUpdateOrWriteBinary(
+              operation.isUpdate(),
+              getTransactionContext(),
+              getCommandContext(),
+              operation.getSfi(),
+              operation.getOffset(),
+              operation.getData());
+      int nbCommands = commands.size();
+      prepareNewSecureSessionIfNeeded(command);
+      isSessionSplit |= commands.size() != nbCommands;
+      commands.add(command);
+      binaryUpdateRunNbCommandsSaved--;
+      binaryUpdateRunNbBytesSaved -=
+          operation.getData().length + SESSION_BUFFER_CMD_ADDITIONAL_COST;
+    }
+    binaryUpdateRunLastCommand = commands.get(commands.size() - 1);
+    nbCoalescedCommands += binaryUpdateRunNbCommandsSaved;
+    nbCoalescedBytes += binaryUpdateRunNbBytesSaved;
+
+    if (isSessionSplit) {
+      // The session buffer counter has been reset: the run can no longer be withdrawn.
+      binaryUpdateCoalescer = null;
+    }
+  }
+
+  /**
+   * Returns the content of the provided EF if it can be trusted to elide write commands, i.e. if
+   * the write elision mode is enabled, the EF is designated by its SFI and it is not modified by a
+   * pending command.
+   *
+   * @param sfi The SFI of the EF.
+   * @return Null if the EF content cannot be trusted.
+   */
+  private FileDataAdapter getTrustedFileData(byte sfi) {
+    if (!isWriteElisionEnabled || sfi == 0) {
+      return null;
+    }
+    for (Command command : commands) {
+      int modifiedSfi = command.getModifiedSfi();
+      if (modifiedSfi == 0 || modifiedSfi == sfi) {
+        return null;
+      }
+    }
+    ElementaryFile ef = card.getFileBySfi(sfi);
+    return ef != null ? (FileDataAdapter) ef.getData() : null;
+  }
+
+  /**
+   * Returns the range of the provided data that would modify the known content of a record.
+   *
+   * @param fileData The trusted EF content.
+   * @param numRecord The record number.
+   * @param offset The offset of the data in the record.
+   * @param data The data to update/write.
+   * @param isOrOperation True if the data is combined with the record content with a binary OR
+   *     operation ("Write" commands), false if it replaces it ("Update" commands).
+   * @return The indexes (first inclusive, last exclusive) of the range of data bytes modifying the
+   *     record content, or null if the data does not modify the record content.
+   */
+  private static int[] getModifiedRange(
+      FileDataAdapter fileData, int numRecord, int offset, byte[] data, boolean isOrOperation) {
+    byte[] content = fileData.getAllRecordsContent().get(numRecord);
+    int from = -1;
+    int to = -1;
+    for (int i = 0; i < data.length; i++) {
+      int index = offset + i;
+      if (!fileData.isContentKnown(numRecord, index, index + 1)
+          || (isOrOperation ? (byte) (content[index] | data[i]) : data[i]) != content[index]) {
+        if (from < 0) {
+          from = i;
+        }
+        to = i + 1;
+      }
+    }
+    return from < 0 ? null : new int[] {from, to};
+  }
+
+  /**
+   * Indicates if an "Update Record" command can be elided because the record content is already
+   * known to be identical to the provided data.
+   *
+   * <p>The data must cover the whole record since the effect of a shorter "Update Record" on the
+   * remaining bytes is not modeled by the card image.
+   *
+   * @param sfi The SFI of the EF.
+   * @param recordNumber The record number.
+   * @param recordData The data to update.
+   * @return True if the command must not be prepared.
+   */
+  private boolean isUpdateRecordElided(byte sfi, int recordNumber, byte[] recordData) {
+    FileDataAdapter fileData = getTrustedFileData(sfi);
+    if (fileData == null) {
+      return false;
+    }
+    FileHeader header = card.getFileBySfi(sfi).getHeader();
+    byte[] content = fileData.getAllRecordsContent().get(recordNumber);
+    if (header == null
+        || header.getRecordSize() != recordData.length
+        || content == null
+        || content.length != recordData.length
+        || getModifiedRange(fileData, recordNumber, 0, recordData, false) != null) {
+      return false;
+    }
+    countElision(1, recordData.length, "Update Record", sfi, recordNumber);
+    return true;
+  }
+
+  /**
+   * Returns the data to be written by a "Write Record" command, i.e. the provided data without its
+   * trailing bytes which do not modify the known record content.
+   *
+   * @param sfi The SFI of the EF.
+   * @param recordNumber The record number.
+   * @param recordData The data to write.
+   * @return Null if the command must not be prepared.
+   */
+  private byte[] getWriteRecordDataToPrepare(byte sfi, int recordNumber, byte[] recordData) {
+    FileDataAdapter fileData = getTrustedFileData(sfi);
+    if (fileData == null) {
+      return recordData;
+    }
+    int[] range = getModifiedRange(fileData, recordNumber, 0, recordData, true);
+    if (range == null) {
+      countElision(1, recordData.length, "Write Record", sfi, recordNumber);
+      return null;
+    }
+    if (range[1] < recordData.length) {
+      countElision(0, recordData.length - range[1], "Write Record", sfi, recordNumber);
+      return Arrays.copyOf(recordData, range[1]);
+    }
+    return recordData;
+  }
+
+  /**
+   * Indicates if the value of the provided counter is known in the trusted card image.
+   *
+   * @param sfi The SFI of the EF.
+   * @param counterNumber The counter number (0 for a simulated counter).
+   * @return True if the counter value is known.
+   */
+  private boolean isCounterValueTrusted(byte sfi, int counterNumber) {
+    FileDataAdapter fileData = getTrustedFileData(sfi);
+    int index = ((counterNumber != 0 ? counterNumber : 1) - 1) * 3;
+    return fileData != null && fileData.isContentKnown(1, index, index + 3);
+  }
+
+  /**
+   * Returns the counters to be increased/decreased, i.e. the provided counters without those
+   * modified by zero and having a known value.
+   *
+   * @param sfi The SFI of the EF.
+   * @param counterNumberToIncDecValueMap The counter numbers and increment/decrement values.
+   * @return The provided map or a filtered copy.
+   */
+  private Map<Integer, Integer> getCountersToPrepare(
+      byte sfi, Map<Integer, Integer> counterNumberToIncDecValueMap) {
+    if (!isWriteElisionEnabled || !counterNumberToIncDecValueMap.containsValue(0)) {
+      return counterNumberToIncDecValueMap;
+    }
+    Map<Integer, Integer> countersToPrepare = new TreeMap<>();
+    for (Map.Entry<Integer, Integer> entry : counterNumberToIncDecValueMap.entrySet()) {
+      if (entry.getValue() != 0 || !isCounterValueTrusted(sfi, entry.getKey())) {
+        countersToPrepare.put(entry.getKey(), entry.getValue());
+      }
+    }
+    int nbElidedCounters = counterNumberToIncDecValueMap.size() - countersToPrepare.size();
+    if (nbElidedCounters > 0) {
+      countElision(
+          countersToPrepare.isEmpty() ? 1 : 0,
+          nbElidedCounters * 4,
+          "Increase/Decrease Multiple",
+          sfi,
+          1);
+      return countersToPrepare;
+    }
+    return counterNumberToIncDecValueMap;
+  }
+
+  /**
+   * Updates the write elision counters.
+   *
+   * @param nbCommands The number of commands not prepared.
+   * @param nbBytes The number of data bytes not transmitted.
+   * @param commandName The name of the command.
+   * @param sfi The SFI of the EF.
+   * @param numRecord The record number.
+   */
+  private void countElision(
+      int nbCommands, int nbBytes, String commandName, byte sfi, int numRecord) {
+    nbElidedCommands += nbCommands;
+    nbElidedBytes += nbBytes;
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          "Write elision: '{}' (sfi {}h, rec {}) {} ({} data bytes saved)",
+          commandName,
+          HexUtil.toHex(sfi),
+          numRecord,
+          nbCommands != 0 ? "not prepared" : "reduced",
+          nbBytes);
+    }
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -1278,14 +2065,19 @@ public final T prepareSvReadAllLogs() {
    */
   @Override
   public T prepareGenerateAsymmetricKeyPair() {
-    if (!card.isPkiModeSupported()) {
-      throw new UnsupportedOperationException(MSG_PKI_MODE_IS_NOT_AVAILABLE_FOR_THIS_CARD);
-    }
-    if (getTransactionContext().isSecureSessionOpen()) {
-      throw new IllegalStateException(MSG_SECURE_SESSION_OPEN);
+    try {
+      if (!card.isPkiModeSupported()) {
+        throw new UnsupportedOperationException(MSG_PKI_MODE_IS_NOT_AVAILABLE_FOR_THIS_CARD);
+      }
+      if (getTransactionContext().isSecureSessionOpen()) {
+        throw new IllegalStateException(MSG_SECURE_SESSION_OPEN);
+      }
+      commands.add(
+          new CommandGenerateAsymmetricKeyPair(getTransactionContext(), getCommandContext()));
+    } catch (RuntimeException e) {
+      resetTransaction();
+      throw e;
     }
-    commands.add(
-        new CommandGenerateAsymmetricKeyPair(getTransactionContext(), getCommandContext()));
     return currentInstance;
   }
 
@@ -303,6 +303,59 @@ public void addCaCertificate_whenValidCertificateAlreadyRegistered_shouldThrowIS
     asymmetricCryptoSecuritySettingAdapter.addCaCertificate((CaCertificate) mockCaCert);
   }
 
+  @Test
+  public void
+      addCaCertificateIfAbsent_whenCertificateAlreadyRegistered_shouldReturnRegisteredContent()
+          throws CertificateValidationException, AsymmetricCryptoException {
+    // Mocking methods of PcaCertificateSpi
+    Object mockPcaCert =
+        Mockito.mock(
+            Object.class,
+            withSettings()
+                .extraInterfaces(
+                    PcaCertificate.class, PcaCertificateSpi.class, CaCertificateContentSpi.class));
+    CaCertificateContentSpi mockPcaCertContent = mock(CaCertificateContentSpi.class);
+    when(mockPcaCertContent.getPublicKeyReference()).thenReturn(PUBLIC_KEY_REFERENCE_1);
+    when(((PcaCertificateSpi) mockPcaCert).checkCertificateAndGetContent())
+        .thenReturn(mockPcaCertContent);
+
+    asymmetricCryptoSecuritySettingAdapter.addPcaCertificate((PcaCertificate) mockPcaCert);
+
+    // Mock two CaCertificateSpi providing the same public key reference
+    Object mockCaCert1 =
+        Mockito.mock(
+            Object.class,
+            withSettings().extraInterfaces(CaCertificate.class, CaCertificateSpi.class));
+    Object mockCaCert2 =
+        Mockito.mock(
+            Object.class,
+            withSettings().extraInterfaces(CaCertificate.class, CaCertificateSpi.class));
+    CaCertificateContentSpi mockCaCertContent1 = mock(CaCertificateContentSpi.class);
+    CaCertificateContentSpi mockCaCertContent2 = mock(CaCertificateContentSpi.class);
+    when(mockCaCertContent1.getPublicKeyReference()).thenReturn(PUBLIC_KEY_REFERENCE_2);
+    when(mockCaCertContent2.getPublicKeyReference()).thenReturn(PUBLIC_KEY_REFERENCE_2);
+    when(((CaCertificateSpi) mockCaCert1).getIssuerPublicKeyReference())
+        .thenReturn(PUBLIC_KEY_REFERENCE_1);
+    when(((CaCertificateSpi) mockCaCert2).getIssuerPublicKeyReference())
+        .thenReturn(PUBLIC_KEY_REFERENCE_1);
+    when(((CaCertificateSpi) mockCaCert1).checkCertificateAndGetContent(mockPcaCertContent))
+        .thenReturn(mockCaCertContent1);
+    when(((CaCertificateSpi) mockCaCert2).checkCertificateAndGetContent(mockPcaCertContent))
+        .thenReturn(mockCaCertContent2);
+
+    // Run twice the method being tested
+    assertThat(
+            asymmetricCryptoSecuritySettingAdapter.addCaCertificateIfAbsent(
+                (CaCertificate) mockCaCert1))
+        .isSameAs(mockCaCertContent1);
+    assertThat(
+            asymmetricCryptoSecuritySettingAdapter.addCaCertificateIfAbsent(
+                (CaCertificate) mockCaCert2))
+        .isSameAs(mockCaCertContent1);
+    assertThat(asymmetricCryptoSecuritySettingAdapter.getCaCertificate(PUBLIC_KEY_REFERENCE_2))
+        .isSameAs(mockCaCertContent1);
+  }
+
   @Test
   public void addCaCertificateParser_whenValidParser_shouldFillParserStore() {
     // Mocking methods of CaCertificateParserSpi
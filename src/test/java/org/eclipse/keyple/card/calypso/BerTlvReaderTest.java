@@ -0,0 +1,74 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.eclipse.keyple.core.util.HexUtil;
+import org.junit.Test;
+
+public class BerTlvReaderTest {
+
+  private static final byte[] FCI =
+      HexUtil.toByteArray(
+          "6F238409315449432E49434131A516BF0C13C708000000001122334453070A3C20051410019000");
+
+  @Test
+  public void next_shouldWalkTheStructureDepthFirst() {
+    BerTlvReader tlvReader = new BerTlvReader(FCI, 0, FCI.length - 2);
+    int[] expectedTags = {0x6F, 0x84, 0xA5, 0xBF0C, 0xC7, 0x53};
+    for (int expectedTag : expectedTags) {
+      assertThat(tlvReader.next()).isTrue();
+      assertThat(tlvReader.getTag()).isEqualTo(expectedTag);
+    }
+    assertThat(tlvReader.next()).isFalse();
+  }
+
+  @Test
+  public void seekPrimitive_whenTagIsPresent_shouldExposeValueInPlace() {
+    BerTlvReader tlvReader = new BerTlvReader(FCI, 0, FCI.length - 2);
+    assertThat(tlvReader.seekPrimitive(0xC7)).isTrue();
+    assertThat(tlvReader.isConstructed()).isFalse();
+    assertThat(tlvReader.getValueOffset()).isEqualTo(20);
+    assertThat(tlvReader.getValueLength()).isEqualTo(8);
+    assertThat(tlvReader.copyValue()).isEqualTo(HexUtil.toByteArray("0000000011223344"));
+  }
+
+  @Test
+  public void seekPrimitive_whenTagIsAbsent_shouldReturnFalse() {
+    BerTlvReader tlvReader = new BerTlvReader(FCI, 0, FCI.length - 2);
+    assertThat(tlvReader.seekPrimitive(0x85)).isFalse();
+    tlvReader.reset();
+    assertThat(tlvReader.seekPrimitive(0x84)).isTrue();
+  }
+
+  @Test
+  public void next_whenLengthIsInLongForm_shouldDecodeLength() {
+    byte[] data = HexUtil.toByteArray("8481020102");
+    BerTlvReader tlvReader = new BerTlvReader(data, 0, data.length);
+    assertThat(tlvReader.next()).isTrue();
+    assertThat(tlvReader.getValueOffset()).isEqualTo(3);
+    assertThat(tlvReader.getValueLength()).isEqualTo(2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void next_whenValueIsOutOfBounds_shouldThrowIAE() {
+    byte[] data = HexUtil.toByteArray("840501");
+    new BerTlvReader(data, 0, data.length).next();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void next_whenLengthIsMissing_shouldThrowIAE() {
+    byte[] data = HexUtil.toByteArray("BF0C");
+    new BerTlvReader(data, 0, data.length).next();
+  }
+}
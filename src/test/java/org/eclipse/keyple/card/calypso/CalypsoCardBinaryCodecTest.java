@@ -0,0 +1,150 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.keyple.card.calypso.TestDtoAdapters.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keyple.core.util.json.JsonUtil;
+import org.eclipse.keypop.calypso.card.WriteAccessLevel;
+import org.eclipse.keypop.calypso.card.card.ElementaryFile;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CalypsoCardBinaryCodecTest {
+
+  private static final String SELECT_APPLICATION_RESPONSE =
+      "6F23A516BF0C1353070A3C2005141001C70800000000123456788409315449432E494341319000";
+  private static final String POWER_ON_DATA = "3B8F8001805A0A010320031124B77FE7829000F7";
+
+  private CalypsoCardAdapter card;
+
+  @Before
+  public void setUp() throws Exception {
+    CalypsoExtensionService.getInstance(); // registers the JSON adapters
+    card =
+        new CalypsoCardAdapter(
+            new CardSelectionResponseAdapter(
+                new ApduResponseAdapter(HexUtil.toByteArray(SELECT_APPLICATION_RESPONSE))));
+    card.setFileHeader(
+        (byte) 0x07,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(3)
+            .recordSize(29)
+            .type(ElementaryFile.Type.LINEAR)
+            .accessConditions(HexUtil.toByteArray("10100000"))
+            .keyIndexes(HexUtil.toByteArray("01030101"))
+            .dfStatus((byte) 0x00)
+            .build());
+    card.setContent((byte) 0x07, 1, HexUtil.toByteArray("1122334455"));
+    card.setContent((byte) 0x07, 3, HexUtil.toByteArray("AABBCC"));
+    card.setCounter((byte) 0x19, 2, HexUtil.toByteArray("000102"));
+    card.setTransactionCounter(0x123456);
+    card.setDfRatified(true);
+    card.setSvData(
+        (byte) 0xAA, HexUtil.toByteArray("0102"), HexUtil.toByteArray("030405"), -500, 12);
+    card.backupFiles();
+    card.setContent((byte) 0x08, 1, HexUtil.toByteArray("5566"));
+    card.addCardCertificateBytes(HexUtil.toByteArray("C0C1C2"), true);
+  }
+
+  @Test
+  public void decode_whenEncodedFromFci_shouldRestoreTheSameImage() {
+    byte[] encoded = CalypsoCardBinaryCodec.encode(card);
+    CalypsoCardAdapter decoded = CalypsoCardBinaryCodec.decode(encoded);
+    assertThat(JsonUtil.toJson(decoded)).isEqualTo(JsonUtil.toJson(card));
+    assertThat(CalypsoCardBinaryCodec.encode(decoded)).isEqualTo(encoded);
+    assertThat(decoded.getFileBySfi((byte) 0x07).getHeader().getAccessConditions())
+        .isEqualTo(HexUtil.toByteArray("10100000"));
+    assertThat(decoded.getSvBalance()).isEqualTo(-500);
+    assertThat(decoded.getSelectApplicationResponse())
+        .isEqualTo(HexUtil.toByteArray(SELECT_APPLICATION_RESPONSE));
+  }
+
+  @Test
+  public void decode_whenEncodedFromPowerOnData_shouldRestoreTheSameImage() throws Exception {
+    card = new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    card.setDirectoryHeader(
+        DirectoryHeaderAdapter.builder()
+            .lid((short) 0x2000)
+            .accessConditions(HexUtil.toByteArray("10100000"))
+            .keyIndexes(HexUtil.toByteArray("01030101"))
+            .dfStatus((byte) 0x01)
+            .kif(WriteAccessLevel.PERSONALIZATION, (byte) 0x21)
+            .kvc(WriteAccessLevel.PERSONALIZATION, (byte) 0x79)
+            .build());
+    CalypsoCardAdapter decoded = CalypsoCardBinaryCodec.decode(CalypsoCardBinaryCodec.encode(card));
+    assertThat(JsonUtil.toJson(decoded)).isEqualTo(JsonUtil.toJson(card));
+  }
+
+  @Test
+  public void encode_whenStreams_shouldBeConsistentWithByteArray() throws Exception {
+    byte[] encoded = CalypsoCardBinaryCodec.encode(card);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CalypsoCardBinaryCodec.encode(card, out);
+    out.write(0x55); // trailing data must not be consumed by the decoder
+    assertThat(out.toByteArray()).startsWith(encoded);
+    ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+    assertThat(JsonUtil.toJson(CalypsoCardBinaryCodec.decode(in))).isEqualTo(JsonUtil.toJson(card));
+    assertThat(in.read()).isEqualTo(0x55);
+    ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 1);
+    CalypsoCardBinaryCodec.encode(card, buffer);
+    assertThat(buffer.position()).isEqualTo(encoded.length);
+    buffer.flip();
+    CalypsoCardBinaryCodec.decode(buffer);
+    assertThat(buffer.remaining()).isZero();
+  }
+
+  @Test
+  public void encode_shouldBeSmallerThanJson() {
+    assertThat(CalypsoCardBinaryCodec.encode(card).length)
+        .isLessThan(JsonUtil.toJson(card).length() / 4);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decode_whenBadMagic_shouldThrowIAE() {
+    CalypsoCardBinaryCodec.decode(new byte[] {0x00, 0x01});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decode_whenUnknownVersion_shouldThrowIAE() {
+    CalypsoCardBinaryCodec.decode(new byte[] {(byte) 0xCA, 0x7F});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decode_whenTruncated_shouldThrowIAE() {
+    byte[] encoded = CalypsoCardBinaryCodec.encode(card);
+    CalypsoCardBinaryCodec.decode(ByteBuffer.wrap(encoded, 0, encoded.length - 3));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decode_whenByteArrayLengthExceedsTheBytesLeft_shouldThrowIAE() {
+    // magic, version, flags and a select application response of 127 bytes
+    CalypsoCardBinaryCodec.decode(new byte[] {(byte) 0xCA, 0x01, 0x00, (byte) 0x80, 0x01, 0x00});
+  }
+
+  @Test(expected = IOException.class)
+  public void decode_whenByteArrayLengthIsTooLarge_shouldThrowIOException() throws Exception {
+    // magic, version, flags and a select application response of 2^31 - 2 bytes
+    CalypsoCardBinaryCodec.decode(
+        new ByteArrayInputStream(
+            new byte[] {
+              (byte) 0xCA, 0x01, 0x00, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07
+            }));
+  }
+}
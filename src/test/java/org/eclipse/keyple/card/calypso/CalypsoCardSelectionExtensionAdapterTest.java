@@ -14,11 +14,20 @@
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.shouldHaveThrown;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.eclipse.keyple.core.util.HexUtil;
 import org.eclipse.keypop.calypso.card.GetDataTag;
 import org.eclipse.keypop.calypso.card.SelectFileControl;
 import org.eclipse.keypop.calypso.card.WriteAccessLevel;
+import org.eclipse.keypop.card.ApduResponseApi;
 import org.eclipse.keypop.card.CardSelectionResponseApi;
 import org.eclipse.keypop.card.ParseException;
 import org.eclipse.keypop.card.spi.ApduRequestSpi;
@@ -27,6 +36,11 @@
 import org.junit.Test;
 
 public class CalypsoCardSelectionExtensionAdapterTest {
+
+  private static final String SELECT_APPLICATION_RESPONSE =
+      "6F23A516BF0C1353070A3C2005141001C70800000000123456788409315449432E494341319000";
+  private static final long SERIAL_NUMBER = 0x12345678L;
+
   CalypsoCardSelectionExtensionAdapter cardSelectionExtension;
 
   @Before
@@ -183,4 +197,130 @@ public void parse_whenCommandsResponsesMismatch_shouldThrowParseException() thro
     cardSelectionExtension.prepareGetData(GetDataTag.FCI_FOR_CURRENT_DF);
     cardSelectionExtension.parse(cardSelectionResponseApi);
   }
+
+  @Test
+  public void parse_whenSerialNumberIsDenyListed_shouldFlagTheCard() throws Exception {
+    CalypsoExtensionService.getInstance()
+        .setCardDenyList(cardSelectionExtension, CardDenyList.of(SERIAL_NUMBER), true);
+    CalypsoCardAdapter calypsoCard =
+        (CalypsoCardAdapter) cardSelectionExtension.parse(mockSelectionResponse());
+    assertThat(calypsoCard.isDenyListed()).isTrue();
+    assertThat(calypsoCard.isDenyListInvalidationPending()).isTrue();
+    assertThat(CalypsoExtensionService.getInstance().isDenyListed(calypsoCard)).isTrue();
+  }
+
+  @Test
+  public void parse_whenInvalidationIsNotRequested_shouldFlagTheCardOnly() throws Exception {
+    CalypsoExtensionService.getInstance()
+        .setCardDenyList(cardSelectionExtension, CardDenyList.of(SERIAL_NUMBER), false);
+    CalypsoCardAdapter calypsoCard =
+        (CalypsoCardAdapter) cardSelectionExtension.parse(mockSelectionResponse());
+    assertThat(calypsoCard.isDenyListed()).isTrue();
+    assertThat(calypsoCard.isDenyListInvalidationPending()).isFalse();
+  }
+
+  @Test
+  public void parse_whenSerialNumberIsNotDenyListed_shouldNotFlagTheCard() throws Exception {
+    CardDenyList denyList = CardDenyList.of(SERIAL_NUMBER + 1);
+    CalypsoExtensionService.getInstance().setCardDenyList(cardSelectionExtension, denyList, true);
+    CalypsoCardAdapter calypsoCard =
+        (CalypsoCardAdapter) cardSelectionExtension.parse(mockSelectionResponse());
+    assertThat(calypsoCard.isDenyListed()).isFalse();
+    assertThat(calypsoCard.isDenyListInvalidationPending()).isFalse();
+  }
+
+  @Test
+  public void parse_whenSerialNumberIsAddedAfterTheSetting_shouldFlagTheCard() throws Exception {
+    CardDenyList denyList = CardDenyList.empty();
+    CalypsoExtensionService.getInstance().setCardDenyList(cardSelectionExtension, denyList, true);
+    denyList.applyDelta(new long[] {SERIAL_NUMBER}, new long[0]);
+    CalypsoCardAdapter calypsoCard =
+        (CalypsoCardAdapter) cardSelectionExtension.parse(mockSelectionResponse());
+    assertThat(calypsoCard.isDenyListed()).isTrue();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void setCardDenyList_whenFrozen_shouldThrowISE() {
+    cardSelectionExtension.freeze();
+    CalypsoExtensionService.getInstance()
+        .setCardDenyList(cardSelectionExtension, CardDenyList.empty(), true);
+  }
+
+  @Test
+  public void parse_whenFrozenAndInvokedConcurrently_shouldParseEachResponseIndependently()
+      throws Exception {
+    cardSelectionExtension.prepareReadRecord((byte) 0x07, 1);
+    cardSelectionExtension.freeze();
+    List<Callable<CalypsoCardAdapter>> tasks = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      ApduResponseApi apduResponse =
+          new TestDtoAdapters.ApduResponseAdapter(new byte[] {(byte) i, (byte) 0x90, 0x00});
+      final CardSelectionResponseApi cardSelectionResponse = mockSelectionResponse();
+      when(cardSelectionResponse.getCardResponse())
+          .thenReturn(
+              new TestDtoAdapters.CardResponseAdapter(
+                  Collections.singletonList(apduResponse), true));
+      tasks.add(
+          new Callable<CalypsoCardAdapter>() {
+            @Override
+            public CalypsoCardAdapter call() throws Exception {
+              return (CalypsoCardAdapter) cardSelectionExtension.parse(cardSelectionResponse);
+            }
+          });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<CalypsoCardAdapter>> results = executor.invokeAll(tasks);
+      for (int i = 0; i < results.size(); i++) {
+        assertThat(results.get(i).get().getFileBySfi((byte) 0x07).getData().getContent(1))
+            .containsExactly((byte) i);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private CardSelectionResponseApi mockSelectionResponse() {
+    CardSelectionResponseApi cardSelectionResponse = mock(CardSelectionResponseApi.class);
+    when(cardSelectionResponse.getSelectApplicationResponse())
+        .thenReturn(
+            new TestDtoAdapters.ApduResponseAdapter(
+                HexUtil.toByteArray(SELECT_APPLICATION_RESPONSE)));
+    return cardSelectionResponse;
+  }
+
+  @Test
+  public void getCardSelectionRequest_whenFrozen_shouldReturnTheSameInstance() {
+    cardSelectionExtension.prepareSelectFile((short) 0x1234);
+    cardSelectionExtension.freeze();
+    CardSelectionRequestSpi cardSelectionRequest = cardSelectionExtension.getCardSelectionRequest();
+    assertThat(cardSelectionExtension.getCardSelectionRequest()).isSameAs(cardSelectionRequest);
+    ApduRequestSpi commandApdu = cardSelectionRequest.getCardRequest().getApduRequests().get(0);
+    assertThat(HexUtil.toHex(commandApdu.getApdu())).isEqualTo("00A4090002123400");
+    assertThat(cardSelectionRequest.getSuccessfulSelectionStatusWords()).containsExactly(0x9000);
+  }
+
+  @Test
+  public void
+      getCardSelectionRequest_whenFrozenAndAcceptInvalidatedCardIsInvoked_shouldReturnSuccessfulStatusWord6283() {
+    cardSelectionExtension.acceptInvalidatedCard();
+    cardSelectionExtension.freeze();
+    CardSelectionRequestSpi cardSelectionRequest = cardSelectionExtension.getCardSelectionRequest();
+    assertThat(cardSelectionRequest.getCardRequest()).isNull();
+    assertThat(cardSelectionRequest.getSuccessfulSelectionStatusWords())
+        .containsExactly(0x9000, 0x6283);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void getCardSelectionRequest_whenFrozen_shouldReturnImmutableApduRequests() {
+    cardSelectionExtension.prepareSelectFile((short) 0x1234);
+    cardSelectionExtension.freeze();
+    cardSelectionExtension.getCardSelectionRequest().getCardRequest().getApduRequests().clear();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void prepareSelectFile_whenFrozen_shouldThrowISE() {
+    cardSelectionExtension.freeze();
+    cardSelectionExtension.prepareSelectFile((short) 0x1234);
+  }
 }
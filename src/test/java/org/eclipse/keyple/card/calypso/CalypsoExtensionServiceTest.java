@@ -15,8 +15,15 @@
 import static org.eclipse.keyple.card.calypso.TestDtoAdapters.*;
 import static org.mockito.Mockito.mock;
 
+import java.io.StringReader;
+import java.nio.file.Path;
 import org.eclipse.keyple.core.common.CommonApiProperties;
+import org.eclipse.keyple.core.util.json.JsonUtil;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+import org.eclipse.keypop.calypso.card.card.CalypsoCardSelectionExtension;
+import org.eclipse.keypop.calypso.card.transaction.ChannelControl;
 import org.eclipse.keypop.calypso.card.transaction.FreeTransactionManager;
+import org.eclipse.keypop.calypso.card.transaction.SecureRegularModeTransactionManager;
 import org.eclipse.keypop.calypso.card.transaction.SymmetricCryptoSecuritySetting;
 import org.eclipse.keypop.calypso.card.transaction.spi.CardTransactionCryptoExtension;
 import org.eclipse.keypop.calypso.card.transaction.spi.SymmetricCryptoCardTransactionManagerFactory;
@@ -219,4 +226,201 @@ public void createSecureRegularModeTransactionManager_whenInvokedWithNullReader_
         .getCalypsoCardApiFactory()
         .createSecureExtendedModeTransactionManager(reader, calypsoCard, cardSecuritySetting);
   }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCardDenyList_whenCardSelectionExtensionIsNull_shouldThrowIAE() {
+    service.setCardDenyList(null, CardDenyList.empty(), true);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCardDenyList_whenCardSelectionExtensionIsNotAnAdapter_shouldThrowIAE() {
+    service.setCardDenyList(mock(CalypsoCardSelectionExtension.class), CardDenyList.empty(), true);
+  }
+
+  @Test
+  public void setCardDenyList_whenCardSelectionExtensionIsAnAdapter_shouldSetTheDenyList() {
+    service.setCardDenyList(
+        service.getCalypsoCardApiFactory().createCalypsoCardSelectionExtension(),
+        CardDenyList.empty(),
+        true);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void freeze_whenCardSelectionExtensionIsNotAnAdapter_shouldThrowIAE() {
+    service.freeze(mock(CalypsoCardSelectionExtension.class));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void freeze_whenInvoked_shouldPreventAnyFurtherChange() {
+    CalypsoCardSelectionExtension cardSelectionExtension =
+        service.getCalypsoCardApiFactory().createCalypsoCardSelectionExtension();
+    service.freeze(cardSelectionExtension);
+    cardSelectionExtension.acceptInvalidatedCard();
+  }
+
+  @Test
+  public void loadCardProfiles_whenContentIsValid_shouldReplaceTheProfilesUntilReset()
+      throws Exception {
+    try {
+      service.loadCardProfiles(
+          new StringReader(
+              "{\"version\":1,\"profiles\":[{\"productType\":\"PRIME_REVISION_3\","
+                  + "\"startupInfo\":\"0A3C2005141001\",\"payloadCapacity\":200}]}"));
+      assertThat(CardProfileRegistry.getInstance().getVersion()).isEqualTo(1);
+    } finally {
+      service.resetCardProfiles();
+    }
+    assertThat(CardProfileRegistry.getInstance().getVersion()).isZero();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void loadCardProfiles_whenFileIsNull_shouldThrowIAE() throws Exception {
+    service.loadCardProfiles((Path) null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setFileStructureCache_whenTransactionManagerIsNotAnAdapter_shouldThrowIAE() {
+    service.setFileStructureCache(mock(FreeTransactionManager.class), FileStructureCache.create());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void setFileStructureCache_whenCardSelectionExtensionIsFrozen_shouldThrowISE() {
+    CalypsoCardSelectionExtension cardSelectionExtension =
+        service.getCalypsoCardApiFactory().createCalypsoCardSelectionExtension();
+    service.freeze(cardSelectionExtension);
+    service.setFileStructureCache(cardSelectionExtension, FileStructureCache.create());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setSelectionPrefetchAdvisor_whenTransactionManagerIsNotAnAdapter_shouldThrowIAE() {
+    service.setSelectionPrefetchAdvisor(
+        mock(FreeTransactionManager.class), SelectionPrefetchAdvisor.create());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void setSelectionPrefetchAdvisor_whenCardSelectionExtensionIsFrozen_shouldThrowISE() {
+    CalypsoCardSelectionExtension cardSelectionExtension =
+        service.getCalypsoCardApiFactory().createCalypsoCardSelectionExtension();
+    service.freeze(cardSelectionExtension);
+    service.setSelectionPrefetchAdvisor(cardSelectionExtension, SelectionPrefetchAdvisor.create());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void isDenyListed_whenCardIsNull_shouldThrowIAE() {
+    service.isDenyListed(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void isDenyListed_whenCardIsNotAnAdapter_shouldThrowIAE() {
+    service.isDenyListed(mock(CalypsoCard.class));
+  }
+
+  @Test
+  public void isDenyListed_whenCardIsNotFlagged_shouldReturnFalse() {
+    assertThat(service.isDenyListed(calypsoCard)).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void encodeCard_whenCardIsNotAnAdapter_shouldThrowIAE() {
+    service.encodeCard(mock(CalypsoCard.class));
+  }
+
+  @Test
+  public void decodeCard_whenEncodedByTheService_shouldRestoreTheSameImage() throws Exception {
+    CalypsoCardAdapter card =
+        new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    CalypsoCard decoded = service.decodeCard(service.encodeCard(card));
+    assertThat(JsonUtil.toJson(decoded)).isEqualTo(JsonUtil.toJson(card));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void decodeCard_whenDataIsMalformed_shouldThrowIAE() {
+    service.decodeCard(new byte[] {0x01, 0x02});
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void
+      setBinaryUpdateCoalescingEnabled_whenTransactionManagerIsNotAnAdapter_shouldThrowIAE() {
+    service.setBinaryUpdateCoalescingEnabled(mock(FreeTransactionManager.class), true);
+  }
+
+  @Test
+  public void getCoalescedCommandsCount_whenNothingIsCoalesced_shouldReturnZero() throws Exception {
+    calypsoCard = new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    FreeTransactionManager transactionManager =
+        service.getCalypsoCardApiFactory().createFreeTransactionManager(reader, calypsoCard);
+    service.setBinaryUpdateCoalescingEnabled(transactionManager, true);
+    assertThat(service.getCoalescedCommandsCount(transactionManager)).isZero();
+    assertThat(service.getCoalescedBytesCount(transactionManager)).isZero();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCommandLatencyModel_whenTransactionManagerIsNotAnAdapter_shouldThrowIAE() {
+    service.setCommandLatencyModel(
+        mock(FreeTransactionManager.class), CommandLatencyModel.create());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void markLastCommandOptional_whenNoCommandIsPrepared_shouldThrowISE() throws Exception {
+    calypsoCard = new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    FreeTransactionManager transactionManager =
+        service.getCalypsoCardApiFactory().createFreeTransactionManager(reader, calypsoCard);
+    service.markLastCommandOptional(transactionManager);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void processCommands_whenNoLatencyModelIsSet_shouldThrowISE() throws Exception {
+    calypsoCard = new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    FreeTransactionManager transactionManager =
+        service.getCalypsoCardApiFactory().createFreeTransactionManager(reader, calypsoCard);
+    service.processCommands(transactionManager, ChannelControl.KEEP_OPEN, 100);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setCardTearRecovery_whenTransactionManagerIsNotAnAdapter_shouldThrowIAE() {
+    service.setCardTearRecovery(mock(FreeTransactionManager.class), CardTearRecovery.create());
+  }
+
+  @Test
+  public void getDelta_whenCheckpointIsSet_shouldReturnTheDeltaSinceTheCheckpoint()
+      throws Exception {
+    calypsoCard = new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    service.setCheckpoint(calypsoCard, "start");
+    CardImageDelta delta = service.getDelta(calypsoCard, "start");
+    assertThat(delta.getCheckpoint()).isEqualTo("start");
+    assertThat(delta.isEmpty()).isTrue();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void getDelta_whenCheckpointIsUnknown_shouldThrowIAE() throws Exception {
+    calypsoCard = new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    service.getDelta(calypsoCard, "unknown");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void getDelta_whenFilesAreModified_shouldThrowUOE() throws Exception {
+    calypsoCard = new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    service.getDelta(calypsoCard, null).getFiles().clear();
+  }
+
+  @Test
+  public void snapshot_whenCardIsNotModified_shouldReturnTheLastSnapshot() throws Exception {
+    calypsoCard = new CalypsoCardAdapter(new CardSelectionResponseAdapter(POWER_ON_DATA));
+    assertThat(service.getLastSnapshot(calypsoCard)).isNull();
+    CardImageSnapshot snapshot = service.snapshot(calypsoCard);
+    assertThat(service.getLastSnapshot(calypsoCard)).isSameAs(snapshot);
+    assertThat(service.snapshot(calypsoCard)).isSameAs(snapshot);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setSnapshotPublicationEnabled_whenTransactionManagerIsNotAnAdapter_shouldThrowIAE() {
+    service.setSnapshotPublicationEnabled(mock(FreeTransactionManager.class), true);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setKeyRotationEngine_whenTransactionManagerIsNotAnAdapter_shouldThrowIAE() {
+    service.setKeyRotationEngine(
+        mock(SecureRegularModeTransactionManager.class),
+        new KeyRotationEngine(CommandLatencyModel.create(), 1000));
+  }
 }
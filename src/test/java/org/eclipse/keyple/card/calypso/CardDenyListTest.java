@@ -0,0 +1,130 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.junit.Test;
+
+public class CardDenyListTest {
+
+  private static final byte[] SERIAL_NUMBER = HexUtil.toByteArray("0000000011223344");
+
+  @Test
+  public void toKey_shouldReturnBigEndianValue() {
+    assertThat(CardDenyList.toKey(SERIAL_NUMBER)).isEqualTo(0x11223344L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void toKey_whenLengthIsNot8_shouldThrowIAE() {
+    CardDenyList.toKey(new byte[7]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_whenNotSorted_shouldThrowIAE() {
+    new CardDenyList(LongBuffer.wrap(new long[] {3, 2}), true, 10);
+  }
+
+  @Test
+  public void constructor_whenSortedInUnsignedOrder_shouldAcceptHighSerialNumbers() {
+    CardDenyList denyList =
+        new CardDenyList(LongBuffer.wrap(new long[] {1, 0x7FFFFFFFFFFFFFFFL, -2, -1}), true, 10);
+    assertThat(denyList.contains(-2)).isTrue();
+    assertThat(denyList.contains(HexUtil.toByteArray("FFFFFFFFFFFFFFFF"))).isTrue();
+    assertThat(denyList.contains(-3)).isFalse();
+  }
+
+  @Test
+  public void applyDelta_whenHighSerialNumbers_shouldKeepTheUnsignedOrder() {
+    CardDenyList denyList = new CardDenyList(LongBuffer.wrap(new long[] {1, -1}), false, 2);
+    denyList.applyDelta(new long[] {-2, 2}, new long[] {-1});
+    assertThat(denyList.size()).isEqualTo(3);
+    assertThat(denyList.contains(-2)).isTrue();
+    assertThat(denyList.contains(2)).isTrue();
+    assertThat(denyList.contains(-1)).isFalse();
+    denyList.applyDelta(new long[] {0x8000000000000000L}, new long[0]);
+    assertThat(denyList.contains(0x8000000000000000L)).isTrue();
+    assertThat(denyList.contains(1)).isTrue();
+  }
+
+  @Test
+  public void contains_whenSerialNumberIsListed_shouldReturnTrue() {
+    CardDenyList denyList = CardDenyList.of(5, 0x11223344L, 1, 5);
+    assertThat(denyList.size()).isEqualTo(3);
+    assertThat(denyList.contains(SERIAL_NUMBER)).isTrue();
+    assertThat(denyList.contains(1)).isTrue();
+    assertThat(denyList.contains(5)).isTrue();
+  }
+
+  @Test
+  public void contains_whenSerialNumberIsNotListed_shouldReturnFalse() {
+    CardDenyList denyList = CardDenyList.of(1, 5);
+    assertThat(denyList.contains(SERIAL_NUMBER)).isFalse();
+    assertThat(CardDenyList.empty().contains(1)).isFalse();
+  }
+
+  @Test
+  public void contains_whenManyEntries_shouldFindAllOfThemAndOnlyThem() {
+    long[] serialNumbers = new long[100000];
+    for (int i = 0; i < serialNumbers.length; i++) {
+      serialNumbers[i] = i * 2L;
+    }
+    CardDenyList denyList = CardDenyList.of(serialNumbers);
+    for (int i = 0; i < serialNumbers.length; i++) {
+      assertThat(denyList.contains(i * 2L)).isTrue();
+      assertThat(denyList.contains(i * 2L + 1)).isFalse();
+    }
+  }
+
+  @Test
+  public void applyDelta_shouldAddAndRemoveSerialNumbers() {
+    CardDenyList denyList = new CardDenyList(LongBuffer.wrap(new long[] {1, 2, 3}), true, 10);
+    denyList.applyDelta(new long[] {4, 5}, new long[] {2});
+    assertThat(denyList.size()).isEqualTo(4);
+    assertThat(denyList.contains(2)).isFalse();
+    assertThat(denyList.contains(4)).isTrue();
+    assertThat(denyList.contains(5)).isTrue();
+    denyList.applyDelta(new long[] {2}, new long[] {5});
+    assertThat(denyList.size()).isEqualTo(4);
+    assertThat(denyList.contains(2)).isTrue();
+    assertThat(denyList.contains(5)).isFalse();
+  }
+
+  @Test
+  public void applyDelta_whenOverlayIsFull_shouldMergeIntoBase() {
+    CardDenyList denyList = new CardDenyList(LongBuffer.wrap(new long[] {1, 3, 5}), false, 2);
+    denyList.applyDelta(new long[] {0, 4, 6}, new long[] {3});
+    assertThat(denyList.size()).isEqualTo(5);
+    for (long serialNumber : new long[] {0, 1, 4, 5, 6}) {
+      assertThat(denyList.contains(serialNumber)).isTrue();
+    }
+    assertThat(denyList.contains(3)).isFalse();
+  }
+
+  @Test
+  public void map_shouldLoadSortedBigEndianFile() throws Exception {
+    File file = File.createTempFile("denylist", ".bin");
+    file.deleteOnExit();
+    ByteBuffer content = ByteBuffer.allocate(16);
+    content.putLong(7).putLong(0x11223344L);
+    Files.write(file.toPath(), content.array());
+    CardDenyList denyList = CardDenyList.map(file.toPath());
+    assertThat(denyList.size()).isEqualTo(2);
+    assertThat(denyList.contains(SERIAL_NUMBER)).isTrue();
+    assertThat(denyList.contains(8)).isFalse();
+  }
+}
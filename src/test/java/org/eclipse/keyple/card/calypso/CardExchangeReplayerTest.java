@@ -0,0 +1,190 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.shouldHaveThrown;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.card.ApduResponseApi;
+import org.eclipse.keypop.card.CardBrokenCommunicationException;
+import org.eclipse.keypop.card.CardResponseApi;
+import org.eclipse.keypop.card.ChannelControl;
+import org.eclipse.keypop.card.ProxyReaderApi;
+import org.eclipse.keypop.card.UnexpectedStatusWordException;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.eclipse.keypop.reader.CardReader;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CardExchangeReplayerTest {
+
+  private static final String READER_NAME = "READER";
+  private static final String READ_REC_SFI7_REC1_CMD = "00B2013C00";
+  private static final String READ_REC_SFI7_REC1_RSP = "1122339000";
+  private static final String READ_REC_SFI8_REC1_CMD = "00B2014400";
+  private static final String SW_6A82 = "6A82";
+
+  private ReaderMock reader;
+
+  interface ReaderMock extends CardReader, ProxyReaderApi {}
+
+  @Before
+  public void setUp() {
+    reader = mock(ReaderMock.class);
+    when(reader.getName()).thenReturn(READER_NAME);
+    when(reader.isContactless()).thenReturn(true);
+  }
+
+  private static CardRequestSpi buildCardRequest(String... apdus) {
+    List<ApduRequestSpi> apduRequests = new ArrayList<>();
+    for (String apdu : apdus) {
+      apduRequests.add(new DtoAdapters.ApduRequestAdapter(HexUtil.toByteArray(apdu)));
+    }
+    return new DtoAdapters.CardRequestAdapter(apduRequests, false);
+  }
+
+  private static CardResponseApi buildCardResponse(String... apdus) {
+    List<ApduResponseApi> apduResponses = new ArrayList<>();
+    for (String apdu : apdus) {
+      apduResponses.add(new TestDtoAdapters.ApduResponseAdapter(HexUtil.toByteArray(apdu)));
+    }
+    return new TestDtoAdapters.CardResponseAdapter(apduResponses, true);
+  }
+
+  private byte[] record() throws Exception {
+    when(reader.transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class)))
+        .thenReturn(buildCardResponse(READ_REC_SFI7_REC1_RSP))
+        .thenThrow(
+            new UnexpectedStatusWordException(
+                buildCardResponse(SW_6A82), false, "Unexpected status word"));
+    ByteArrayOutputStream trace = new ByteArrayOutputStream();
+    CardExchangeRecorder recorder = new CardExchangeRecorder(reader, trace);
+    recorder.transmitCardRequest(
+        buildCardRequest(READ_REC_SFI7_REC1_CMD), ChannelControl.KEEP_OPEN);
+    try {
+      recorder.transmitCardRequest(
+          buildCardRequest(READ_REC_SFI8_REC1_CMD, READ_REC_SFI8_REC1_CMD),
+          ChannelControl.CLOSE_AFTER);
+    } catch (UnexpectedStatusWordException e) {
+      // recorded
+    }
+    recorder.releaseChannel();
+    assertThat(recorder.getRecordedExchangesCount()).isEqualTo(2);
+    recorder.close();
+    return trace.toByteArray();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void CardExchangeRecorder_whenReaderIsNotAProxyReader_shouldThrowIAE() {
+    new CardExchangeRecorder(mock(CardReader.class), new ByteArrayOutputStream());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void CardExchangeReplayer_whenStreamIsNotATrace_shouldThrowIAE() {
+    new CardExchangeReplayer(new ByteArrayInputStream(new byte[] {1, 2, 3, 4, 5}), false);
+  }
+
+  @Test(expected = IOException.class)
+  public void readEvent_whenApduLengthIsTooLarge_shouldThrowIOException() throws Exception {
+    // exchange event, 1 APDU request of 2^31 - 1 bytes
+    CardExchangeTrace.readEvent(
+        new DataInputStream(
+            new ByteArrayInputStream(HexUtil.toByteArray("01000000000001FFFFFFFF07"))));
+  }
+
+  @Test
+  public void replay_whenPlanIsUnchanged_shouldServeRecordedResponsesWithoutDivergence()
+      throws Exception {
+    CardExchangeReplayer replayer =
+        new CardExchangeReplayer(new ByteArrayInputStream(record()), false);
+    assertThat(replayer.getName()).isEqualTo(READER_NAME);
+    assertThat(replayer.isContactless()).isTrue();
+    CardResponseApi cardResponse =
+        replayer.transmitCardRequest(
+            buildCardRequest(READ_REC_SFI7_REC1_CMD), ChannelControl.KEEP_OPEN);
+    assertThat(cardResponse.isLogicalChannelOpen()).isTrue();
+    assertThat(cardResponse.getApduResponses()).hasSize(1);
+    assertThat(HexUtil.toHex(cardResponse.getApduResponses().get(0).getApdu()))
+        .isEqualTo(READ_REC_SFI7_REC1_RSP);
+    try {
+      replayer.transmitCardRequest(
+          buildCardRequest(READ_REC_SFI8_REC1_CMD, READ_REC_SFI8_REC1_CMD),
+          ChannelControl.CLOSE_AFTER);
+      shouldHaveThrown(UnexpectedStatusWordException.class);
+    } catch (UnexpectedStatusWordException e) {
+      assertThat(e.isCardResponseComplete()).isFalse();
+      assertThat(HexUtil.toHex(e.getCardResponse().getApduResponses().get(0).getApdu()))
+          .isEqualTo(SW_6A82);
+    }
+    replayer.releaseChannel();
+    assertThat(replayer.isCardPresent()).isFalse();
+    assertThat(replayer.complete()).isEmpty();
+    assertThat(replayer.getReplayedNanos()).isNotNegative();
+  }
+
+  @Test
+  public void replay_whenPlanHasChanged_shouldReportDivergences() throws Exception {
+    CardExchangeReplayer replayer =
+        new CardExchangeReplayer(new ByteArrayInputStream(record()), false);
+    replayer.transmitCardRequest(
+        buildCardRequest(READ_REC_SFI8_REC1_CMD), ChannelControl.CLOSE_AFTER);
+    List<CardExchangeReplayer.Divergence> divergences = replayer.complete();
+    assertThat(divergences).hasSize(3);
+    assertThat(divergences.get(0).getExchangeIndex()).isZero();
+    assertThat(divergences.get(0).getApduIndex()).isEqualTo(-1);
+    assertThat(divergences.get(0).getExpected()).isEqualTo(ChannelControl.KEEP_OPEN.name());
+    assertThat(divergences.get(0).getActual()).isEqualTo(ChannelControl.CLOSE_AFTER.name());
+    assertThat(divergences.get(1).getApduIndex()).isZero();
+    assertThat(divergences.get(1).getExpected()).isEqualTo(READ_REC_SFI7_REC1_CMD);
+    assertThat(divergences.get(1).getActual()).isEqualTo(READ_REC_SFI8_REC1_CMD);
+    assertThat(divergences.get(2).getExchangeIndex()).isEqualTo(1);
+    assertThat(divergences.get(2).getActual()).isEqualTo("end of replay");
+  }
+
+  @Test
+  public void transmitCardRequest_whenTraceIsExhausted_shouldThrowCardBrokenCommunication()
+      throws Exception {
+    CardExchangeReplayer replayer =
+        new CardExchangeReplayer(new ByteArrayInputStream(record()), false);
+    replayer.transmitCardRequest(
+        buildCardRequest(READ_REC_SFI7_REC1_CMD), ChannelControl.KEEP_OPEN);
+    try {
+      replayer.transmitCardRequest(
+          buildCardRequest(READ_REC_SFI8_REC1_CMD, READ_REC_SFI8_REC1_CMD),
+          ChannelControl.CLOSE_AFTER);
+    } catch (UnexpectedStatusWordException e) {
+      // replayed
+    }
+    replayer.releaseChannel();
+    try {
+      replayer.transmitCardRequest(
+          buildCardRequest(READ_REC_SFI7_REC1_CMD), ChannelControl.KEEP_OPEN);
+      shouldHaveThrown(CardBrokenCommunicationException.class);
+    } catch (CardBrokenCommunicationException e) {
+      assertThat(e.isCardResponseComplete()).isFalse();
+    }
+    assertThat(replayer.getDivergences()).hasSize(1);
+    assertThat(replayer.getDivergences().get(0).getExpected()).isEqualTo("end of trace");
+    assertThat(replayer.complete()).hasSize(1);
+  }
+}
@@ -0,0 +1,266 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.shouldHaveThrown;
+import static org.eclipse.keyple.card.calypso.TestDtoAdapters.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CardImageReplayEngineTest {
+
+  private static final String SELECT_APPLICATION_RESPONSE =
+      "6F23A516BF0C1353070A3C2005141001C70800000000123456788409315449432E494341319000";
+  private static final String READ_REC_SFI7_REC1_CMD = "00B2013C03";
+  private static final String READ_REC_SFI7_REC1_RSP = "1122339000";
+  private static final String OPEN_SESSION_CMD = "008A0B3904C1C2C3C400";
+  private static final String OPEN_SESSION_RSP = "03049098003079034455669000";
+  private static final String OPEN_SESSION_INCONSISTENT_RSP = "030490980030791D01000000009000";
+  private static final String UPDATE_REC_SFI7_REC1_CMD = "00DC013C03AABBCC";
+  private static final String UPDATE_REC_SFI7_REC1_RSP = "9000";
+  private static final String CLOSE_SESSION_CMD = "008E000004E1E2E3E400";
+  private static final String CLOSE_SESSION_RSP = "F1F2F3F49000";
+  private static final String ABORT_SESSION_CMD = "008E000000";
+  private static final String ABORT_SESSION_RSP = "9000";
+  private static final String GET_CHALLENGE_CMD = "0084000008";
+  private static final String GET_CHALLENGE_RSP = "01020304050607089000";
+  private static final String SV_DEBIT_10_CMD =
+      "00BA00001401FFF612345678AA11223344000001AABBCCDDEE";
+  private static final String SV_RELOAD_50_CMD =
+      "00B800001701123400AA000000325678112233440000010102030405";
+  private static final String SV_OPERATION_RSP = "A1A2A39000";
+  private static final String SV_OPERATION_FAILED_RSP = "6985";
+
+  private ForkJoinPool pool;
+  private CardImageReplayEngine engine;
+  private byte[] cardImage;
+
+  @Before
+  public void setUp() throws Exception {
+    pool = new ForkJoinPool(2);
+    engine = new CardImageReplayEngine(pool, 2);
+    cardImage =
+        CalypsoCardBinaryCodec.encode(
+            new CalypsoCardAdapter(
+                new CardSelectionResponseAdapter(
+                    new ApduResponseAdapter(HexUtil.toByteArray(SELECT_APPLICATION_RESPONSE)))));
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  private CardImageReplayEngine.ArchivedTransaction buildTransaction(String... apdus) {
+    List<byte[]> auditData = new ArrayList<>();
+    for (String apdu : apdus) {
+      auditData.add(HexUtil.toByteArray(apdu));
+    }
+    return new CardImageReplayEngine.ArchivedTransaction(cardImage, auditData);
+  }
+
+  @Test
+  public void replay_whenSessionIsClosed_shouldKeepTheChanges() {
+    CardImageReplayEngine.Result result =
+        engine.replay(
+            0,
+            buildTransaction(
+                READ_REC_SFI7_REC1_CMD,
+                READ_REC_SFI7_REC1_RSP,
+                OPEN_SESSION_CMD,
+                OPEN_SESSION_RSP,
+                UPDATE_REC_SFI7_REC1_CMD,
+                UPDATE_REC_SFI7_REC1_RSP,
+                CLOSE_SESSION_CMD,
+                CLOSE_SESSION_RSP));
+    assertThat(result.getError()).isNull();
+    assertThat(result.getReplayedCommandsCount()).isEqualTo(4);
+    assertThat(result.getCard().getFileBySfi((byte) 7).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray("AABBCC"));
+  }
+
+  @Test
+  public void replay_whenSessionIsAborted_shouldDiscardTheChanges() {
+    CardImageReplayEngine.Result result =
+        engine.replay(
+            0,
+            buildTransaction(
+                READ_REC_SFI7_REC1_CMD,
+                READ_REC_SFI7_REC1_RSP,
+                OPEN_SESSION_CMD,
+                OPEN_SESSION_RSP,
+                UPDATE_REC_SFI7_REC1_CMD,
+                UPDATE_REC_SFI7_REC1_RSP,
+                ABORT_SESSION_CMD,
+                ABORT_SESSION_RSP));
+    assertThat(result.getCard().getFileBySfi((byte) 7).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray("112233"));
+  }
+
+  @Test
+  public void replay_whenSessionIsNotClosed_shouldDiscardTheChanges() {
+    CardImageReplayEngine.Result result =
+        engine.replay(
+            0,
+            buildTransaction(
+                READ_REC_SFI7_REC1_CMD,
+                READ_REC_SFI7_REC1_RSP,
+                OPEN_SESSION_CMD,
+                OPEN_SESSION_RSP,
+                UPDATE_REC_SFI7_REC1_CMD,
+                UPDATE_REC_SFI7_REC1_RSP));
+    assertThat(result.getCard().getFileBySfi((byte) 7).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray("112233"));
+  }
+
+  @Test
+  public void replay_whenOpenSecureSessionReadsARecord_shouldStoreIt() {
+    CardImageReplayEngine.Result result =
+        engine.replay(
+            0,
+            buildTransaction(
+                OPEN_SESSION_CMD, OPEN_SESSION_RSP, CLOSE_SESSION_CMD, CLOSE_SESSION_RSP));
+    assertThat(result.getError()).isNull();
+    assertThat(result.getReplayedCommandsCount()).isEqualTo(2);
+    assertThat(result.getCard().getFileBySfi((byte) 7).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray("445566"));
+  }
+
+  @Test
+  public void replay_whenOpenSecureSessionResponseIsInconsistent_shouldRejectIt() {
+    CardImageReplayEngine.Result result =
+        engine.replay(
+            0,
+            buildTransaction(
+                OPEN_SESSION_CMD,
+                OPEN_SESSION_INCONSISTENT_RSP,
+                CLOSE_SESSION_CMD,
+                CLOSE_SESSION_RSP));
+    assertThat(result.getError()).isNull();
+    assertThat(result.getRejectedCommandsCount()).isEqualTo(1);
+    assertThat(result.getCard().getFileBySfi((byte) 7)).isNull();
+  }
+
+  @Test
+  public void replay_whenCommandIsNotSupported_shouldSkipIt() {
+    CardImageReplayEngine.Result result =
+        engine.replay(0, buildTransaction(GET_CHALLENGE_CMD, GET_CHALLENGE_RSP));
+    assertThat(result.getError()).isNull();
+    assertThat(result.getSkippedCommandsCount()).isEqualTo(1);
+    assertThat(engine.getSkippedCommandsCount()).isEqualTo(1);
+  }
+
+  private void setSvData(int svBalance, int svLastTNum) throws Exception {
+    CalypsoCardAdapter card = CalypsoCardBinaryCodec.decode(cardImage);
+    card.setSvData(
+        (byte) 0xAA,
+        HexUtil.toByteArray("007C0007"),
+        HexUtil.toByteArray("00"),
+        svBalance,
+        svLastTNum);
+    cardImage = CalypsoCardBinaryCodec.encode(card);
+  }
+
+  @Test
+  public void replay_whenSvOperationsSucceed_shouldUpdateTheSvData() throws Exception {
+    setSvData(100, 5);
+    CardImageReplayEngine.Result result =
+        engine.replay(
+            0,
+            buildTransaction(
+                SV_DEBIT_10_CMD, SV_OPERATION_RSP, SV_RELOAD_50_CMD, SV_OPERATION_RSP));
+    assertThat(result.getError()).isNull();
+    assertThat(result.getReplayedCommandsCount()).isEqualTo(2);
+    assertThat(result.getSkippedSvOperationsCount()).isZero();
+    assertThat(result.getCard().getSvBalance()).isEqualTo(140);
+    assertThat(result.getCard().getSvLastTNum()).isEqualTo(7);
+    assertThat(result.getCard().getSvDebitLogLastRecord().getAmount()).isEqualTo(-10);
+    assertThat(result.getCard().getSvLoadLogRecord().getAmount()).isEqualTo(50);
+  }
+
+  @Test
+  public void replay_whenSvOperationFails_shouldRejectIt() throws Exception {
+    setSvData(100, 5);
+    CardImageReplayEngine.Result result =
+        engine.replay(0, buildTransaction(SV_DEBIT_10_CMD, SV_OPERATION_FAILED_RSP));
+    assertThat(result.getRejectedCommandsCount()).isEqualTo(1);
+    assertThat(result.getSkippedSvOperationsCount()).isZero();
+    assertThat(result.getCard().getSvBalance()).isEqualTo(100);
+  }
+
+  @Test
+  public void replay_whenSvDataIsUnknown_shouldReportTheSkippedSvOperation() {
+    CardImageReplayEngine.Result result =
+        engine.replay(0, buildTransaction(SV_DEBIT_10_CMD, SV_OPERATION_RSP));
+    assertThat(result.getError()).isNull();
+    assertThat(result.getSkippedCommandsCount()).isEqualTo(1);
+    assertThat(result.getSkippedSvOperationsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void replay_whenNumberOfApdusIsOdd_shouldReturnAnError() {
+    CardImageReplayEngine.Result result = engine.replay(0, buildTransaction(GET_CHALLENGE_CMD));
+    assertThat(result.getError()).isInstanceOf(IllegalArgumentException.class);
+    assertThat(engine.getFailedTransactionsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void replayAll_shouldHandleTheResultOfEachTransaction() throws Exception {
+    List<CardImageReplayEngine.ArchivedTransaction> transactions = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      transactions.add(buildTransaction(READ_REC_SFI7_REC1_CMD, READ_REC_SFI7_REC1_RSP));
+    }
+    final Set<Long> indexes = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    engine.replayAll(
+        transactions.iterator(),
+        new CardImageReplayEngine.ResultHandler() {
+          @Override
+          public void onResult(CardImageReplayEngine.Result result) {
+            assertThat(result.getCard().getFileBySfi((byte) 7).getData().getContent(1))
+                .isEqualTo(HexUtil.toByteArray("112233"));
+            indexes.add(result.getIndex());
+          }
+        });
+    assertThat(indexes).hasSize(10);
+    assertThat(engine.getReplayedTransactionsCount()).isEqualTo(10);
+    assertThat(engine.getReplayedCommandsCount()).isEqualTo(10);
+  }
+
+  @Test
+  public void replayAll_whenTheHandlerThrowsAnError_shouldRethrowIt() throws Exception {
+    try {
+      engine.replayAll(
+          Collections.singletonList(
+                  buildTransaction(READ_REC_SFI7_REC1_CMD, READ_REC_SFI7_REC1_RSP))
+              .iterator(),
+          new CardImageReplayEngine.ResultHandler() {
+            @Override
+            public void onResult(CardImageReplayEngine.Result result) {
+              throw new Error("handler");
+            }
+          });
+      shouldHaveThrown(Error.class);
+    } catch (Error e) {
+      assertThat(e).hasMessage("handler");
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+import org.junit.After;
+import org.junit.Test;
+
+public class CardProfileRegistryTest {
+
+  private final CardProfileRegistry registry = CardProfileRegistry.getInstance();
+
+  @After
+  public void tearDown() {
+    registry.reset();
+  }
+
+  @Test
+  public void findProfile_whenRev3MaskedPatternMatches_shouldReturnDefaultProfile() {
+    CardProfileRegistry.Profile profile =
+        registry.findProfile(
+            CalypsoCard.ProductType.PRIME_REVISION_3, HexUtil.toLong("0A3C2005141001"));
+    assertThat(profile).isNotNull();
+    assertThat(profile.getPayloadCapacity()).isEqualTo(235);
+    assertThat(profile.isCounterValuePostponed()).isNull();
+  }
+
+  @Test
+  public void findProfile_whenRev1_shouldUseRev2Profiles() {
+    CardProfileRegistry.Profile profile =
+        registry.findProfile(
+            CalypsoCard.ProductType.PRIME_REVISION_1, HexUtil.toLong("03080304000200"));
+    assertThat(profile).isNotNull();
+    assertThat(profile.isLegacyCase1()).isTrue();
+  }
+
+  @Test
+  public void findProfile_whenNoPatternMatches_shouldReturnNull() {
+    assertThat(
+            registry.findProfile(
+                CalypsoCard.ProductType.PRIME_REVISION_3, HexUtil.toLong("0A3D2005141001")))
+        .isNull();
+    assertThat(
+            registry.findProfile(
+                CalypsoCard.ProductType.BASIC, HexUtil.toLong("03080304000200")))
+        .isNull();
+  }
+
+  @Test
+  public void load_shouldTakePrecedenceOverDefaultProfiles() throws IOException {
+    registry.load(
+        new StringReader(
+            "{\"version\":1,\"profiles\":["
+                + "{\"productType\":\"PRIME_REVISION_3\",\"startupInfo\":\"0A3C2005141001\","
+                + "\"payloadCapacity\":200},"
+                + "{\"productType\":\"PRIME_REVISION_2\",\"startupInfo\":\"00000000990000\","
+                + "\"mask\":\"00000000FF0000\",\"counterValuePostponed\":true}]}"));
+    assertThat(registry.getVersion()).isEqualTo(1);
+    assertThat(
+            registry
+                .findProfile(
+                    CalypsoCard.ProductType.PRIME_REVISION_3, HexUtil.toLong("0A3C2005141001"))
+                .getPayloadCapacity())
+        .isEqualTo(200);
+    assertThat(
+            registry
+                .findProfile(
+                    CalypsoCard.ProductType.PRIME_REVISION_3, HexUtil.toLong("0B3C2005141001"))
+                .getPayloadCapacity())
+        .isEqualTo(235);
+    assertThat(
+            registry
+                .findProfile(
+                    CalypsoCard.ProductType.PRIME_REVISION_2, HexUtil.toLong("11223344990000"))
+                .isCounterValuePostponed())
+        .isTrue();
+  }
+
+  @Test
+  public void load_whenVersionIsOlder_shouldKeepCurrentProfiles() throws IOException {
+    registry.load(
+        new StringReader(
+            "{\"version\":2,\"profiles\":[{\"productType\":\"PRIME_REVISION_3\","
+                + "\"startupInfo\":\"0A3C2005141001\",\"payloadCapacity\":200}]}"));
+    try {
+      registry.load(new StringReader("{\"version\":1,\"profiles\":[]}"));
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertThat(registry.getVersion()).isEqualTo(2);
+    assertThat(
+            registry
+                .findProfile(
+                    CalypsoCard.ProductType.PRIME_REVISION_3, HexUtil.toLong("0A3C2005141001"))
+                .getPayloadCapacity())
+        .isEqualTo(200);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void load_whenVersionIsOlder_shouldThrowIAE() throws IOException {
+    registry.load(new StringReader("{\"version\":2,\"profiles\":[]}"));
+    registry.load(new StringReader("{\"version\":1,\"profiles\":[]}"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void load_whenProductTypeIsUnknown_shouldThrowIAE() throws IOException {
+    registry.load(
+        new StringReader(
+            "{\"version\":1,\"profiles\":[{\"productType\":\"UNKNOWN\","
+                + "\"startupInfo\":\"00\"}]}"));
+  }
+}
@@ -0,0 +1,88 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.keyple.card.calypso.TestDtoAdapters.*;
+
+import org.eclipse.keyple.core.util.HexUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CardTearRecoveryTest {
+
+  private static final String SELECT_APPLICATION_RESPONSE =
+      "6F238409315449432E49434131A516BF0C13C708000000001122334453070A3C20051410019000";
+
+  private TransactionContextDto transactionContext;
+  private CommandContextDto commandContext;
+
+  @Before
+  public void setUp() throws Exception {
+    transactionContext =
+        new TransactionContextDto(
+            new CalypsoCardAdapter(
+                new CardSelectionResponseAdapter(
+                    new ApduResponseAdapter(HexUtil.toByteArray(SELECT_APPLICATION_RESPONSE)))));
+    commandContext = new CommandContextDto(false, false);
+  }
+
+  @Test
+  public void isResumable_whenRead_shouldReturnTrue() {
+    assertThat(
+            CardTearRecovery.isResumable(
+                new CommandReadRecords(
+                    transactionContext,
+                    commandContext,
+                    7,
+                    1,
+                    CommandReadRecords.ReadMode.ONE_RECORD,
+                    0,
+                    0)))
+        .isTrue();
+    assertThat(
+            CardTearRecovery.isResumable(new CommandGetDataFci(transactionContext, commandContext)))
+        .isTrue();
+  }
+
+  @Test
+  public void isResumable_whenCommandChangesCardState_shouldReturnFalse() {
+    assertThat(
+            CardTearRecovery.isResumable(
+                new CommandSelectFile(transactionContext, commandContext, (short) 0x1234)))
+        .isFalse();
+    assertThat(
+            CardTearRecovery.isResumable(
+                new CommandGetChallenge(transactionContext, commandContext)))
+        .isFalse();
+    assertThat(
+            CardTearRecovery.isResumable(
+                new CommandVerifyPin(
+                    transactionContext, commandContext, HexUtil.toByteArray("30303030"))))
+        .isFalse();
+  }
+
+  @Test
+  public void isResumable_whenSecureSessionIsOpen_shouldReturnFalse() {
+    assertThat(
+            CardTearRecovery.isResumable(
+                new CommandReadRecords(
+                    transactionContext,
+                    new CommandContextDto(true, false),
+                    7,
+                    1,
+                    CommandReadRecords.ReadMode.ONE_RECORD,
+                    0,
+                    0)))
+        .isFalse();
+  }
+}
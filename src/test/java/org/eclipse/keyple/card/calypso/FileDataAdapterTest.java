@@ -290,4 +290,26 @@ public void cloningConstructor_shouldReturnACopy() {
     assertThat(clone).isNotSameAs(file);
     assertThat(clone.getContent(1)).isNotSameAs(file.getContent(1));
   }
+
+  @Test
+  public void getRecordsSnapshot_whenNotModified_shouldReturnTheSameView() {
+    file.setContent(1, data1);
+    assertThat(file.getRecordsSnapshot()).isSameAs(file.getRecordsSnapshot());
+  }
+
+  @Test
+  public void getRecordsSnapshot_whenModifiedAfterward_shouldKeepThePreviousContent() {
+    file.setContent(1, data4);
+    file.setContent(2, data2);
+    SortedMap<Integer, byte[]> snapshot = file.getRecordsSnapshot();
+    file.setContent(1, data1, 1);
+    file.fillContent(2, data1, 0);
+    file.addCyclicContent(data3);
+    assertThat(snapshot).containsOnlyKeys(1, 2);
+    assertThat(snapshot.get(1)).isEqualTo(HexUtil.toByteArray("44444444"));
+    assertThat(snapshot.get(2)).isEqualTo(HexUtil.toByteArray("2222"));
+    assertThat(file.getRecordsSnapshot()).isNotSameAs(snapshot).containsOnlyKeys(1, 2, 3);
+    assertThat(file.getRecordsSnapshot().get(2)).isEqualTo(HexUtil.toByteArray("44114444"));
+    assertThat(file.getRecordsSnapshot().get(3)).isEqualTo(HexUtil.toByteArray("3322"));
+  }
 }
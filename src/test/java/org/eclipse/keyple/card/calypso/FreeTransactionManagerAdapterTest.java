@@ -12,9 +12,13 @@
 package org.eclipse.keyple.card.calypso;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.shouldHaveThrown;
 import static org.mockito.Mockito.*;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import org.eclipse.keyple.core.util.HexUtil;
@@ -23,8 +27,12 @@
 import org.eclipse.keypop.calypso.card.card.CalypsoCard;
 import org.eclipse.keypop.calypso.card.card.ElementaryFile;
 import org.eclipse.keypop.calypso.card.card.FileHeader;
+import org.eclipse.keypop.calypso.card.transaction.CardIOException;
 import org.eclipse.keypop.calypso.card.transaction.FreeTransactionManager;
 import org.eclipse.keypop.calypso.card.transaction.SearchCommandData;
+import org.eclipse.keypop.calypso.card.transaction.UnexpectedCommandStatusException;
+import org.eclipse.keypop.card.ApduResponseApi;
+import org.eclipse.keypop.card.CardBrokenCommunicationException;
 import org.eclipse.keypop.card.ChannelControl;
 import org.eclipse.keypop.card.spi.CardRequestSpi;
 import org.junit.Before;
@@ -249,6 +257,45 @@ public void prepareReadRecord_whenSfi07RecNumber1_shouldPrepareReadRecordApduWit
             argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
   }
 
+  @Test
+  public void prepareReadRecord_whenRecordIsPrefetched_shouldServeItFromTheCardImage()
+      throws Exception {
+    calypsoCard.setCompleteContent(FILE7, 1, HexUtil.toByteArray(FILE7_REC1_29B));
+    calypsoCard.setPrefetchedReads(
+        Collections.singletonList(SelectionPrefetchAdvisor.ReadItem.record(FILE7, 1)));
+    cardTransactionManager.prepareReadRecord(FILE7, 1);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    verify(cardReader, never())
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(calypsoCard.getFileBySfi(FILE7).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray(FILE7_REC1_29B));
+  }
+
+  @Test
+  public void prepareReadRecord_whenPrefetchedRecordIsNotKnown_shouldSendTheCommand()
+      throws Exception {
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(CARD_READ_REC_SFI7_REC1_CMD, CARD_READ_REC_SFI7_REC1_RSP);
+    calypsoCard.setContent(FILE7, 1, HexUtil.toByteArray(FILE7_REC1_29B));
+    calypsoCard.setPrefetchedReads(
+        Collections.singletonList(SelectionPrefetchAdvisor.ReadItem.record(FILE7, 1)));
+    cardTransactionManager.prepareReadRecord(FILE7, 1);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+  }
+
+  @Test
+  public void prepareReadRecord_whenSfiIs0_shouldNotBeObservedByThePrefetchAdvisor() {
+    List<SelectionPrefetchAdvisor.ReadItem> noReads = Collections.emptyList();
+    SelectionPrefetchAdvisor advisor = new SelectionPrefetchAdvisor(1, 0.5, 4);
+    advisor.onCardSelected(calypsoCard, noReads);
+    ((FreeTransactionManagerAdapter) cardTransactionManager).setSelectionPrefetchAdvisor(advisor);
+    cardTransactionManager.prepareReadRecord((byte) 0, 1);
+    assertThat(advisor.getReadsToPrefetch(new HashSet<>(noReads))).isEmpty();
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void prepareReadRecords_whenSfiIsGreaterThan30_shouldThrowIAE() {
     cardTransactionManager.prepareReadRecords((byte) 31, 1, 1, 1);
@@ -833,6 +880,46 @@ public void prepareSearchRecords_whenPartialMask_shouldRightPadMaskWithFFh() thr
     assertThat(data.getMatchingRecordNumbers()).containsExactly(4, 6);
   }
 
+  @Test
+  public void prepareSearchRecords_whenRecordsAreCompletelyKnown_shouldSearchInCardImage()
+      throws Exception {
+    initCalypsoCardAndTransactionManager(SELECT_APPLICATION_RESPONSE_PRIME_REVISION_2);
+    calypsoCard.setFileHeader(
+        (byte) 1,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(2)
+            .recordSize(3)
+            .type(ElementaryFile.Type.LINEAR)
+            .build());
+    calypsoCard.setCompleteContent((byte) 1, 1, HexUtil.toByteArray("001234"));
+    calypsoCard.setCompleteContent((byte) 1, 2, HexUtil.toByteArray("123400"));
+
+    SearchCommandData data =
+        CalypsoExtensionService.getInstance()
+            .getCalypsoCardApiFactory()
+            .createSearchCommandData()
+            .setSearchData(new byte[] {0x12, 0x34});
+    cardTransactionManager.prepareSearchRecords(data);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader, never())
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(data.getMatchingRecordNumbers()).containsExactly(2);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void
+      prepareSearchRecords_whenProductTypeIsNotPrimeRev3AndRecordsAreUnknown_shouldThrowUOE()
+          throws Exception {
+    initCalypsoCardAndTransactionManager(SELECT_APPLICATION_RESPONSE_PRIME_REVISION_2);
+    cardTransactionManager.prepareSearchRecords(
+        CalypsoExtensionService.getInstance()
+            .getCalypsoCardApiFactory()
+            .createSearchCommandData()
+            .setSearchData(new byte[] {0x12, 0x34}));
+  }
+
   @Test
   public void prepareSearchRecords_whenFullMask_shouldUseCompleteMask() throws Exception {
 
@@ -1485,4 +1572,623 @@ public void processCommands_whenOutOfSession_shouldExchangeApduWithCardOnly() th
         .transmitCardRequest(
             argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
   }
+
+  @Test
+  public void
+      prepareUpdateRecord_whenWriteElisionEnabledAndRecordUnchanged_shouldNotPrepareCommand()
+          throws Exception {
+    calypsoCard.setFileHeader(
+        (byte) 1,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(1)
+            .recordSize(3)
+            .type(ElementaryFile.Type.LINEAR)
+            .build());
+    calypsoCard.setCompleteContent((byte) 1, 1, HexUtil.toByteArray("112233"));
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setWriteElisionEnabled(true);
+
+    cardTransactionManager.prepareUpdateRecord((byte) 1, 1, HexUtil.toByteArray("112233"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader, never())
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(transactionManager.getElidedCommandsCount()).isEqualTo(1);
+    assertThat(transactionManager.getElidedBytesCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void prepareUpdateRecord_whenWriteElisionDisabled_shouldPrepareCommand() throws Exception {
+    calypsoCard.setFileHeader(
+        (byte) 1,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(1)
+            .recordSize(3)
+            .type(ElementaryFile.Type.LINEAR)
+            .build());
+    calypsoCard.setCompleteContent((byte) 1, 1, HexUtil.toByteArray("112233"));
+    CardRequestSpi cardRequest = mockTransmitCardRequest("00DC010C03112233", SW_9000);
+
+    cardTransactionManager.prepareUpdateRecord((byte) 1, 1, HexUtil.toByteArray("112233"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+  }
+
+  @Test
+  public void prepareWriteRecord_whenWriteElisionEnabled_shouldRemoveUnchangedTrailingBytes()
+      throws Exception {
+    calypsoCard.setCompleteContent((byte) 1, 1, HexUtil.toByteArray("110000"));
+    CardRequestSpi cardRequest = mockTransmitCardRequest("00D2010C021102", SW_9000);
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setWriteElisionEnabled(true);
+
+    cardTransactionManager.prepareWriteRecord((byte) 1, 1, HexUtil.toByteArray("110200"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(calypsoCard.getFileBySfi((byte) 1).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray("110200"));
+    assertThat(transactionManager.getElidedCommandsCount()).isZero();
+    assertThat(transactionManager.getElidedBytesCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void prepareUpdateBinary_whenWriteElisionEnabled_shouldOnlyUpdateModifiedBytes()
+      throws Exception {
+    calypsoCard.setCompleteContent((byte) 1, 1, HexUtil.toByteArray("1122000055"));
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(CARD_UPDATE_BINARY_SFI1_OFFSET2_2B_CMD, SW_9000);
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setWriteElisionEnabled(true);
+
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("1122334455"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(calypsoCard.getFileBySfi((byte) 1).getData().getContent())
+        .isEqualTo(HexUtil.toByteArray("1122334455"));
+    assertThat(transactionManager.getElidedBytesCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void
+      prepareUpdateBinary_whenWriteElisionEnabledAndFileModifiedByPendingCommand_shouldPrepareCommand()
+          throws Exception {
+    calypsoCard.setCompleteContent((byte) 1, 1, HexUtil.toByteArray("1122"));
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest("00D6810001AA", SW_9000, "00D681000111", SW_9000);
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setWriteElisionEnabled(true);
+
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("AA"));
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("11"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(transactionManager.getElidedCommandsCount()).isZero();
+  }
+
+  @Test
+  public void
+      prepareIncreaseCounter_whenWriteElisionEnabledAndZeroIncrementOfKnownCounter_shouldNotPrepareCommand()
+          throws Exception {
+    calypsoCard.setCounter((byte) 0x11, 1, HexUtil.toByteArray("000064"));
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setWriteElisionEnabled(true);
+
+    cardTransactionManager.prepareIncreaseCounter((byte) 0x11, 1, 0);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader, never())
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(transactionManager.getElidedCommandsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void
+      prepareUpdateBinary_whenCoalescingEnabledAndRangesOverlapOrAreAdjacent_shouldPrepareOneCommand()
+          throws Exception {
+    CardRequestSpi cardRequest = mockTransmitCardRequest("00D681000411AA3344", SW_9000);
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setBinaryUpdateCoalescingEnabled(true);
+
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("1122"));
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 2, HexUtil.toByteArray("3344"));
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 1, HexUtil.toByteArray("AA"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(calypsoCard.getFileBySfi((byte) 1).getData().getContent())
+        .isEqualTo(HexUtil.toByteArray("11AA3344"));
+    assertThat(transactionManager.getCoalescedCommandsCount()).isEqualTo(2);
+    assertThat(transactionManager.getCoalescedBytesCount()).isEqualTo(13);
+  }
+
+  @Test
+  public void prepareWriteBinary_whenCoalescingEnabled_shouldOrWrittenDataIntoUpdatedBytes()
+      throws Exception {
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest("00D681000111", SW_9000, "00D081010120", SW_9000);
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setBinaryUpdateCoalescingEnabled(true);
+
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("01"));
+    cardTransactionManager.prepareWriteBinary((byte) 1, 0, HexUtil.toByteArray("10"));
+    cardTransactionManager.prepareWriteBinary((byte) 1, 1, HexUtil.toByteArray("20"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(transactionManager.getCoalescedCommandsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void prepareUpdateBinary_whenCoalescingEnabled_shouldSplitMergedDataByPayloadCapacity()
+      throws Exception {
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(
+            CARD_UPDATE_BINARY_SFI1_OFFSET0_2B_CMD, SW_9000,
+            CARD_UPDATE_BINARY_SFI1_OFFSET2_2B_CMD, SW_9000,
+            CARD_UPDATE_BINARY_SFI1_OFFSET4_1B_CMD, SW_9000);
+    when(calypsoCard.getPayloadCapacity()).thenReturn(2);
+    initTransactionManager();
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setBinaryUpdateCoalescingEnabled(true);
+
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("11"));
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 1, HexUtil.toByteArray("22"));
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 2, HexUtil.toByteArray("33"));
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 3, HexUtil.toByteArray("4455"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(calypsoCard.getFileBySfi((byte) 1).getData().getContent())
+        .isEqualTo(HexUtil.toByteArray("1122334455"));
+    assertThat(transactionManager.getCoalescedCommandsCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void
+      prepareUpdateBinary_whenCoalescingEnabledAndFilesInterleaved_shouldKeepLastFileSelectedLast()
+          throws Exception {
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest("00D682000122", SW_9000, "00D68100021133", SW_9000);
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setBinaryUpdateCoalescingEnabled(true);
+
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("11"));
+    cardTransactionManager.prepareUpdateBinary((byte) 2, 0, HexUtil.toByteArray("22"));
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 1, HexUtil.toByteArray("33"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+  }
+
+  @Test
+  public void prepareUpdateBinary_whenCoalescingEnabledAndOtherCommandInBetween_shouldNotMerge()
+      throws Exception {
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(
+            "00D681000111",
+            SW_9000,
+            CARD_READ_BINARY_SFI1_OFFSET0_1B_CMD,
+            CARD_READ_BINARY_SFI1_OFFSET0_1B_RSP,
+            "00D681010122",
+            SW_9000);
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    transactionManager.setBinaryUpdateCoalescingEnabled(true);
+
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("11"));
+    cardTransactionManager.prepareReadBinary((byte) 1, 0, 1);
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 1, HexUtil.toByteArray("22"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(transactionManager.getCoalescedCommandsCount()).isZero();
+  }
+
+  @Test
+  public void prepareGetData_whenEfListIsCached_shouldPopulateCardWithoutCommand()
+      throws Exception {
+    FileStructureCache fileStructureCache = FileStructureCache.create();
+    mockTransmitCardRequest(CARD_GET_DATA_EF_LIST_CMD, CARD_GET_DATA_EF_LIST_RSP);
+    ((FreeTransactionManagerAdapter) cardTransactionManager)
+        .setFileStructureCache(fileStructureCache);
+    cardTransactionManager.prepareGetData(GetDataTag.EF_LIST);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    assertThat(fileStructureCache.size()).isEqualTo(1);
+
+    cardReader = mock(ReaderMock.class);
+    initCalypsoCardAndTransactionManager(SELECT_APPLICATION_RESPONSE_PRIME_REVISION_3);
+    ((FreeTransactionManagerAdapter) cardTransactionManager)
+        .setFileStructureCache(fileStructureCache);
+    cardTransactionManager.prepareGetData(GetDataTag.EF_LIST);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader, never())
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(calypsoCard.getFiles()).hasSize(5);
+    FileHeader fileHeader07 = calypsoCard.getFileBySfi((byte) 0x07).getHeader();
+    assertThat(fileHeader07.getLid()).isEqualTo((short) 0x2001);
+    assertThat(fileHeader07.getRecordSize()).isEqualTo(0x1D);
+    assertThat(fileStructureCache.getHitsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void prepareGetData_whenCachedEfListMustBeVerified_shouldSendCommand() throws Exception {
+    FileStructureCache fileStructureCache = new FileStructureCache("FFFFFFFFFFFFFF", 1, 1);
+    mockTransmitCardRequest(CARD_GET_DATA_EF_LIST_CMD, CARD_GET_DATA_EF_LIST_RSP);
+    ((FreeTransactionManagerAdapter) cardTransactionManager)
+        .setFileStructureCache(fileStructureCache);
+    cardTransactionManager.prepareGetData(GetDataTag.EF_LIST);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    cardReader = mock(ReaderMock.class);
+    initCalypsoCardAndTransactionManager(SELECT_APPLICATION_RESPONSE_PRIME_REVISION_3);
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(CARD_GET_DATA_EF_LIST_CMD, CARD_GET_DATA_EF_LIST_RSP);
+    ((FreeTransactionManagerAdapter) cardTransactionManager)
+        .setFileStructureCache(fileStructureCache);
+    cardTransactionManager.prepareGetData(GetDataTag.EF_LIST);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(calypsoCard.getFiles()).hasSize(5);
+    assertThat(fileStructureCache.getMismatchesCount()).isZero();
+  }
+
+  @Test
+  public void processCommands_whenPredictionExceedsTimeBudget_shouldDropOptionalReads()
+      throws Exception {
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(CARD_READ_REC_SFI7_REC1_CMD, CARD_READ_REC_SFI7_REC1_RSP);
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    CommandLatencyModel latencyModel = new CommandLatencyModel(0.5, 10);
+    transactionManager.setCommandLatencyModel(latencyModel);
+
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    cardTransactionManager.prepareReadRecord((byte) 8, 1);
+    transactionManager.markLastCommandOptional();
+    transactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN, 15);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(calypsoCard.getFileBySfi((byte) 8)).isNull();
+    assertThat(latencyModel.getDroppedCommandsCount()).isEqualTo(1);
+    assertThat(latencyModel.getDeadlineChecksCount()).isEqualTo(1);
+    assertThat(latencyModel.getObservationsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void processCommands_whenRequiredCommandsDoNotFitTimeBudget_shouldThrowISE()
+      throws Exception {
+    FreeTransactionManagerAdapter transactionManager =
+        (FreeTransactionManagerAdapter) cardTransactionManager;
+    CommandLatencyModel latencyModel = new CommandLatencyModel(0.5, 10);
+    transactionManager.setCommandLatencyModel(latencyModel);
+
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    cardTransactionManager.prepareReadRecord((byte) 8, 1);
+    transactionManager.markLastCommandOptional();
+    try {
+      transactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN, 5);
+      shouldHaveThrown(IllegalStateException.class);
+    } catch (IllegalStateException ignored) {
+    }
+
+    verify(cardReader, never())
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(latencyModel.getRejectedPlansCount()).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void markLastCommandOptional_whenLastCommandIsNotARead_shouldThrowISE() {
+    cardTransactionManager.prepareUpdateBinary((byte) 1, 0, HexUtil.toByteArray("11"));
+    ((FreeTransactionManagerAdapter) cardTransactionManager).markLastCommandOptional();
+  }
+
+  /** Processes the reads of SFI 7 and 8 record 1, the card being torn after the first response. */
+  private void processReadsWithTear(CardTearRecovery tearRecovery) throws Exception {
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(
+            CARD_READ_REC_SFI7_REC1_CMD,
+            CARD_READ_REC_SFI7_REC1_RSP,
+            CARD_READ_REC_SFI8_REC1_CMD,
+            CARD_READ_REC_SFI8_REC1_RSP);
+    when(cardReader.transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class)))
+        .thenThrow(
+            new CardBrokenCommunicationException(
+                new TestDtoAdapters.CardResponseAdapter(
+                    Collections.<ApduResponseApi>singletonList(
+                        new TestDtoAdapters.ApduResponseAdapter(
+                            HexUtil.toByteArray(CARD_READ_REC_SFI7_REC1_RSP))),
+                    true),
+                false,
+                "Card torn"));
+    ((FreeTransactionManagerAdapter) cardTransactionManager).setCardTearRecovery(tearRecovery);
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    cardTransactionManager.prepareReadRecord((byte) 8, 1);
+    try {
+      cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+      shouldHaveThrown(CardIOException.class);
+    } catch (CardIOException ignored) {
+    }
+  }
+
+  @Test
+  public void processCommands_whenResumingAfterTear_shouldTransmitOnlyRemainingCommands()
+      throws Exception {
+    CardTearRecovery tearRecovery = CardTearRecovery.create();
+    processReadsWithTear(tearRecovery);
+    assertThat(tearRecovery.getPendingTearsCount()).isEqualTo(1);
+    assertThat(tearRecovery.getFailingIndex(calypsoCard)).isEqualTo(1);
+
+    cardReader = mock(ReaderMock.class);
+    initCalypsoCardAndTransactionManager(SELECT_APPLICATION_RESPONSE_PRIME_REVISION_3);
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(CARD_READ_REC_SFI8_REC1_CMD, CARD_READ_REC_SFI8_REC1_RSP);
+    ((FreeTransactionManagerAdapter) cardTransactionManager).setCardTearRecovery(tearRecovery);
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    cardTransactionManager.prepareReadRecord((byte) 8, 1);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    verifyNoMoreInteractions(cardReader);
+    assertThat(calypsoCard.getFileBySfi((byte) 7).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray(FILE7_REC1_29B));
+    assertThat(calypsoCard.getFileBySfi((byte) 8).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray(FILE8_REC1_29B));
+    assertThat(tearRecovery.getServedCommandsCount()).isEqualTo(1);
+    assertThat(tearRecovery.getPendingTearsCount()).isZero();
+  }
+
+  @Test
+  public void processCommands_whenTearIsTooOld_shouldTransmitAllCommands() throws Exception {
+    CardTearRecovery tearRecovery = new CardTearRecovery(16, 1);
+    processReadsWithTear(tearRecovery);
+    Thread.sleep(10);
+
+    cardReader = mock(ReaderMock.class);
+    initCalypsoCardAndTransactionManager(SELECT_APPLICATION_RESPONSE_PRIME_REVISION_3);
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(
+            CARD_READ_REC_SFI7_REC1_CMD,
+            CARD_READ_REC_SFI7_REC1_RSP,
+            CARD_READ_REC_SFI8_REC1_CMD,
+            CARD_READ_REC_SFI8_REC1_RSP);
+    ((FreeTransactionManagerAdapter) cardTransactionManager).setCardTearRecovery(tearRecovery);
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    cardTransactionManager.prepareReadRecord((byte) 8, 1);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(tearRecovery.getExpiredTearsCount()).isEqualTo(1);
+    assertThat(tearRecovery.getServedCommandsCount()).isZero();
+    assertThat(tearRecovery.getPendingTearsCount()).isZero();
+  }
+
+  @Test
+  public void processCommands_whenCommandsDifferAfterTear_shouldTransmitAllCommands()
+      throws Exception {
+    CardTearRecovery tearRecovery = CardTearRecovery.create();
+    processReadsWithTear(tearRecovery);
+
+    cardReader = mock(ReaderMock.class);
+    initCalypsoCardAndTransactionManager(SELECT_APPLICATION_RESPONSE_PRIME_REVISION_3);
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(CARD_READ_REC_SFI8_REC1_CMD, CARD_READ_REC_SFI8_REC1_RSP);
+    ((FreeTransactionManagerAdapter) cardTransactionManager).setCardTearRecovery(tearRecovery);
+    cardTransactionManager.prepareReadRecord((byte) 8, 1);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(tearRecovery.getServedCommandsCount()).isZero();
+    assertThat(tearRecovery.getPendingTearsCount()).isZero();
+  }
+
+  @Test
+  public void processCommands_whenResumingAfterTear_shouldSendSelectFileAgain() throws Exception {
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(
+            CARD_READ_REC_SFI7_REC1_CMD,
+            CARD_READ_REC_SFI7_REC1_RSP,
+            CARD_SELECT_FILE_1234_CMD,
+            CARD_SELECT_FILE_1234_RSP,
+            CARD_READ_REC_SFI8_REC1_CMD,
+            CARD_READ_REC_SFI8_REC1_RSP);
+    when(cardReader.transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class)))
+        .thenThrow(
+            new CardBrokenCommunicationException(
+                new TestDtoAdapters.CardResponseAdapter(
+                    Arrays.<ApduResponseApi>asList(
+                        new TestDtoAdapters.ApduResponseAdapter(
+                            HexUtil.toByteArray(CARD_READ_REC_SFI7_REC1_RSP)),
+                        new TestDtoAdapters.ApduResponseAdapter(
+                            HexUtil.toByteArray(CARD_SELECT_FILE_1234_RSP))),
+                    true),
+                false,
+                "Card torn"));
+    CardTearRecovery tearRecovery = CardTearRecovery.create();
+    ((FreeTransactionManagerAdapter) cardTransactionManager).setCardTearRecovery(tearRecovery);
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    cardTransactionManager.prepareSelectFile((short) 0x1234);
+    cardTransactionManager.prepareReadRecord((byte) 8, 1);
+    try {
+      cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+      shouldHaveThrown(CardIOException.class);
+    } catch (CardIOException ignored) {
+    }
+    assertThat(tearRecovery.getFailingIndex(calypsoCard)).isEqualTo(2);
+
+    cardReader = mock(ReaderMock.class);
+    initCalypsoCardAndTransactionManager(SELECT_APPLICATION_RESPONSE_PRIME_REVISION_3);
+    cardRequest =
+        mockTransmitCardRequest(
+            CARD_SELECT_FILE_1234_CMD,
+            CARD_SELECT_FILE_1234_RSP,
+            CARD_READ_REC_SFI8_REC1_CMD,
+            CARD_READ_REC_SFI8_REC1_RSP);
+    ((FreeTransactionManagerAdapter) cardTransactionManager).setCardTearRecovery(tearRecovery);
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    cardTransactionManager.prepareSelectFile((short) 0x1234);
+    cardTransactionManager.prepareReadRecord((byte) 8, 1);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    verifyNoMoreInteractions(cardReader);
+    assertThat(calypsoCard.getFileBySfi((byte) 7).getData().getContent(1))
+        .isEqualTo(HexUtil.toByteArray(FILE7_REC1_29B));
+    assertThat(tearRecovery.getServedCommandsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void processCommands_whenRecordNotFound_shouldIgnoreRead() throws Exception {
+    mockTransmitCardRequest(CARD_READ_REC_SFI7_REC1_CMD, "6A83");
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    assertThat(calypsoCard.getFileBySfi((byte) 7)).isNull();
+  }
+
+  @Test
+  public void processCommands_whenReadIsForbidden_shouldThrowUCSEWithCauseStackTrace()
+      throws Exception {
+    mockTransmitCardRequest(CARD_READ_REC_SFI7_REC1_CMD, "6982");
+    cardTransactionManager.prepareReadRecord((byte) 7, 1);
+    try {
+      cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+      shouldHaveThrown(UnexpectedCommandStatusException.class);
+    } catch (UnexpectedCommandStatusException e) {
+      assertThat(e.getStackTrace()).isNotEmpty();
+      assertThat(e.getCause()).isInstanceOf(CardSecurityContextException.class);
+      assertThat(e.getCause().getStackTrace()).isNotEmpty();
+    }
+  }
+
+  @Test
+  public void getDelta_shouldContainModificationsSinceSelectionOrCheckpoint() throws Exception {
+    mockTransmitCardRequest(CARD_UPDATE_REC_SFI1_REC1_CMD, SW_9000);
+    cardTransactionManager.prepareUpdateRecord((byte) 1, 1, HexUtil.toByteArray("AA"));
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    CalypsoCardAdapter card = (CalypsoCardAdapter) calypsoCard;
+    card.setCheckpoint("afterUpdate");
+    mockTransmitCardRequest(CARD_INCREASE_SFI11_CNT1_100U_CMD, CARD_INCREASE_SFI11_CNT1_8821U_RSP);
+    cardTransactionManager.prepareIncreaseCounter((byte) 1, 1, 100);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    CardImageDelta delta = card.getDelta(null);
+    assertThat(delta.getCheckpoint()).isNull();
+    assertThat(delta.getFiles()).hasSize(1);
+    assertThat(delta.getFiles().get(0).getSfi()).isEqualTo(1);
+    assertThat(delta.getFiles().get(0).getRecords()).containsOnlyKeys(1);
+    assertThat(delta.getFiles().get(0).getCounters()).containsEntry(1, 8821);
+    assertThat(delta.getSvBalance()).isNull();
+
+    delta = card.getDelta("afterUpdate");
+    assertThat(delta.getFiles()).hasSize(1);
+    assertThat(delta.getFiles().get(0).getRecords()).isEmpty();
+    assertThat(delta.getFiles().get(0).getCounters()).containsOnlyKeys(1);
+    assertThat(delta.toJson()).contains("afterUpdate");
+  }
+
+  @Test
+  public void getDelta_whenNoModification_shouldBeEmpty() {
+    assertThat(((CalypsoCardAdapter) calypsoCard).getDelta(null).isEmpty()).isTrue();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void getDelta_whenCheckpointIsUnknown_shouldThrowIAE() {
+    ((CalypsoCardAdapter) calypsoCard).getDelta("unknown");
+  }
+
+  @Test
+  public void processCommands_whenSnapshotPublicationIsEnabled_shouldPublishCardImageSnapshot()
+      throws Exception {
+    mockTransmitCardRequest(CARD_INCREASE_SFI11_CNT1_100U_CMD, CARD_INCREASE_SFI11_CNT1_8821U_RSP);
+    CalypsoCardAdapter card = (CalypsoCardAdapter) calypsoCard;
+    ((FreeTransactionManagerAdapter) cardTransactionManager).setSnapshotPublicationEnabled(true);
+    assertThat(card.getLastSnapshot()).isNull();
+
+    cardTransactionManager.prepareIncreaseCounter((byte) 1, 1, 100);
+    cardTransactionManager.processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    CardImageSnapshot snapshot = card.getLastSnapshot();
+    assertThat(snapshot).isNotNull();
+    assertThat(snapshot.getFileBySfi((byte) 1).getCounterValue(1)).isEqualTo(8821);
+    assertThat(card.snapshot()).isSameAs(snapshot);
+  }
+
+  @Test
+  public void snapshot_whenHeaderIsCompleted_shouldTakeANewSnapshotWithTheHeader() {
+    CalypsoCardAdapter card = (CalypsoCardAdapter) calypsoCard;
+    card.setFileHeader(
+        (byte) 7,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(1)
+            .recordSize(29)
+            .type(ElementaryFile.Type.LINEAR)
+            .build());
+    CardImageSnapshot snapshot = card.snapshot();
+    assertThat(snapshot.getFileBySfi((byte) 7).getHeader().getAccessConditions()).isNull();
+
+    card.setFileHeader(
+        (byte) 7,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(1)
+            .recordSize(29)
+            .type(ElementaryFile.Type.LINEAR)
+            .accessConditions(HexUtil.toByteArray("10100000"))
+            .keyIndexes(HexUtil.toByteArray("01030101"))
+            .build());
+
+    assertThat(snapshot.getFileBySfi((byte) 7).getHeader().getAccessConditions()).isNull();
+    assertThat(card.snapshot()).isNotSameAs(snapshot);
+    assertThat(card.getLastSnapshot().getFileBySfi((byte) 7).getHeader().getAccessConditions())
+        .isEqualTo(HexUtil.toByteArray("10100000"));
+  }
 }
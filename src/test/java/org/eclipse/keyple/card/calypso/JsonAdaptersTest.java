@@ -0,0 +1,161 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
+
+import com.google.gson.Gson;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keyple.core.util.json.JsonUtil;
+import org.eclipse.keypop.calypso.card.WriteAccessLevel;
+import org.eclipse.keypop.calypso.card.card.*;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JsonAdaptersTest {
+
+  // Expected values are the ones produced by the former reflective tree-based adapters
+  private static final String FILE_HEADER_JSON =
+      "{\"lid\":\"2010\",\"recordsNumber\":\"03\",\"recordSize\":\"1D\",\"type\":\"LINEAR\","
+          + "\"accessConditions\":\"10100000\",\"keyIndexes\":\"01030101\",\"dfStatus\":\"00\","
+          + "\"sharedReference\":\"3F02\"}";
+  private static final String ELEMENTARY_FILE_JSON =
+      "{\"sfi\":\"07\",\"header\":"
+          + FILE_HEADER_JSON
+          + ",\"data\":{\"records\":{\"1\":\"11223344\",\"300\":\"AA\"}}}";
+  private static final String EMPTY_ELEMENTARY_FILE_JSON =
+      "{\"sfi\":\"08\",\"data\":{\"records\":{}}}";
+  private static final String DIRECTORY_HEADER_JSON =
+      "{\"lid\":\"2000\",\"accessConditions\":\"10100000\",\"keyIndexes\":\"01030101\","
+          + "\"dfStatus\":\"01\",\"kif\":{\"PERSONALIZATION\":\"21\",\"DEBIT\":\"30\"},"
+          + "\"kvc\":{\"LOAD\":\"79\"}}";
+  private static final String SV_LOAD_LOG_RECORD_JSON =
+      "{\"offset\":\"01\",\"cardResponse\":\"00112233445566778899AABBCCDDEEFF00112233445566\"}";
+  private static final String COMMAND_JSON =
+      "{\"type\":\"org.eclipse.keyple.card.calypso.CommandGetDataFci\",\"data\":"
+          + "{\"isDfInvalidated\":false,\"isValidCalypsoFCI\":false,\"commandRef\":\"GET_DATA\","
+          + "\"commandContext\":{\"isSecureSessionOpen\":false,\"isEncryptionActive\":false},"
+          + "\"transactionContext\":{\"isSecureSessionOpen\":false},\"le\":\"00\","
+          + "\"apduRequest\":{\"apdu\":\"00CA006F00\",\"successfulStatusWords\":[\"9000\"],"
+          + "\"info\":\"Get Data - FCI_FOR_CURRENT_DF\"}}}";
+
+  private Gson gson;
+  private FileHeaderAdapter fileHeader;
+  private ElementaryFileAdapter elementaryFile;
+
+  @Before
+  public void setUp() {
+    CalypsoExtensionService.getInstance(); // registers the JSON adapters
+    gson = JsonUtil.getParser();
+    fileHeader =
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(3)
+            .recordSize(29)
+            .type(ElementaryFile.Type.LINEAR)
+            .accessConditions(HexUtil.toByteArray("10100000"))
+            .keyIndexes(HexUtil.toByteArray("01030101"))
+            .dfStatus((byte) 0x00)
+            .sharedReference((short) 0x3F02)
+            .build();
+    elementaryFile = new ElementaryFileAdapter((byte) 0x07);
+    elementaryFile.setHeader(fileHeader);
+    elementaryFile.getData().setContent(1, HexUtil.toByteArray("11223344"));
+    elementaryFile.getData().setContent(300, HexUtil.toByteArray("AA"));
+  }
+
+  @Test
+  public void fileHeader_shouldBeSerializedAndDeserialized() {
+    assertThat(gson.toJson(fileHeader, FileHeader.class)).isEqualTo(FILE_HEADER_JSON);
+    assertThat(gson.fromJson(FILE_HEADER_JSON, FileHeader.class)).isEqualTo(fileHeader);
+    FileHeader header = gson.fromJson(FILE_HEADER_JSON, FileHeader.class);
+    assertThat(header.getSharedReference()).isEqualTo((short) 0x3F02);
+    assertThat(header.getEfType()).isEqualTo(ElementaryFile.Type.LINEAR);
+  }
+
+  @Test
+  public void elementaryFile_shouldBeSerializedAndDeserialized() {
+    assertThat(gson.toJson(elementaryFile, ElementaryFile.class)).isEqualTo(ELEMENTARY_FILE_JSON);
+    assertThat(JsonUtil.toJson(elementaryFile)).isEqualTo(ELEMENTARY_FILE_JSON);
+    assertThat(JsonUtil.toJson(new ElementaryFileAdapter((byte) 0x08)))
+        .isEqualTo(EMPTY_ELEMENTARY_FILE_JSON);
+    ElementaryFile ef = gson.fromJson(ELEMENTARY_FILE_JSON, ElementaryFile.class);
+    assertThat(gson.toJson(ef, ElementaryFile.class)).isEqualTo(ELEMENTARY_FILE_JSON);
+    assertThat(ef.getData().getContent(300)).isEqualTo(HexUtil.toByteArray("AA"));
+  }
+
+  @Test
+  public void elementaryFile_whenRecordNumbersAreDecimal_shouldRoundTrip() {
+    ElementaryFileAdapter file = new ElementaryFileAdapter((byte) 0x08);
+    file.getData().setContent(10, HexUtil.toByteArray("0A"));
+    file.getData().setContent(16, HexUtil.toByteArray("10"));
+    String json = JsonUtil.toJson(file);
+    assertThat(json)
+        .isEqualTo("{\"sfi\":\"08\",\"data\":{\"records\":{\"10\":\"0A\",\"16\":\"10\"}}}");
+    ElementaryFile ef = gson.fromJson(json, ElementaryFile.class);
+    assertThat(ef.getData().getAllRecordsContent().keySet()).containsExactly(10, 16);
+    assertThat(ef.getData().getContent(10)).isEqualTo(HexUtil.toByteArray("0A"));
+    assertThat(ef.getData().getContent(16)).isEqualTo(HexUtil.toByteArray("10"));
+  }
+
+  @Test
+  public void directoryHeader_shouldBeSerializedAndDeserialized() {
+    DirectoryHeader directoryHeader =
+        DirectoryHeaderAdapter.builder()
+            .lid((short) 0x2000)
+            .accessConditions(HexUtil.toByteArray("10100000"))
+            .keyIndexes(HexUtil.toByteArray("01030101"))
+            .dfStatus((byte) 0x01)
+            .kif(WriteAccessLevel.PERSONALIZATION, (byte) 0x21)
+            .kif(WriteAccessLevel.DEBIT, (byte) 0x30)
+            .kvc(WriteAccessLevel.LOAD, (byte) 0x79)
+            .build();
+    assertThat(gson.toJson(directoryHeader, DirectoryHeader.class))
+        .isEqualTo(DIRECTORY_HEADER_JSON);
+    DirectoryHeader header = gson.fromJson(DIRECTORY_HEADER_JSON, DirectoryHeader.class);
+    assertThat(gson.toJson(header, DirectoryHeader.class)).isEqualTo(DIRECTORY_HEADER_JSON);
+    assertThat(header.getKif(WriteAccessLevel.DEBIT)).isEqualTo((byte) 0x30);
+  }
+
+  @Test
+  public void svLoadLogRecord_shouldBeSerializedAndDeserialized() {
+    SvLoadLogRecord svLoadLogRecord =
+        new SvLoadLogRecordAdapter(
+            HexUtil.toByteArray("00112233445566778899AABBCCDDEEFF00112233445566"), 1);
+    assertThat(gson.toJson(svLoadLogRecord, SvLoadLogRecord.class))
+        .isEqualTo(SV_LOAD_LOG_RECORD_JSON);
+    SvLoadLogRecord record = gson.fromJson(SV_LOAD_LOG_RECORD_JSON, SvLoadLogRecord.class);
+    assertThat(record.getAmount()).isEqualTo(svLoadLogRecord.getAmount());
+  }
+
+  @Test
+  public void command_shouldBeSerializedAndDeserialized() {
+    Command command =
+        new CommandGetDataFci(new TransactionContextDto(), new CommandContextDto(false, false));
+    assertThat(gson.toJson(command, Command.class)).isEqualTo(COMMAND_JSON);
+    Command deserialized = gson.fromJson(COMMAND_JSON, Command.class);
+    assertThat(deserialized).isInstanceOf(CommandGetDataFci.class);
+    assertThat(gson.toJson(deserialized, Command.class)).isEqualTo(COMMAND_JSON);
+  }
+
+  @Test
+  public void command_whenDataPrecedesType_shouldBeDeserialized() {
+    String json =
+        "{\"data\":"
+            + COMMAND_JSON.substring(
+                COMMAND_JSON.indexOf("{\"isDfInvalidated\""), COMMAND_JSON.length() - 1)
+            + ",\"type\":\"org.eclipse.keyple.card.calypso.CommandGetDataFci\"}";
+    Command deserialized = gson.fromJson(json, Command.class);
+    assertThat(gson.toJson(deserialized, Command.class)).isEqualTo(COMMAND_JSON);
+  }
+}
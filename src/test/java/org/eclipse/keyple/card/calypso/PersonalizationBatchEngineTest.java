@@ -0,0 +1,254 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.keyple.card.calypso.TestDtoAdapters.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.eclipse.keyple.card.calypso.crypto.software.SoftwareSymmetricCard;
+import org.eclipse.keyple.card.calypso.crypto.software.SoftwareSymmetricCryptoFactory;
+import org.eclipse.keyple.card.calypso.crypto.software.SymmetricKeyAlgorithm;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.card.WriteAccessLevel;
+import org.eclipse.keypop.calypso.card.card.CalypsoCard;
+import org.eclipse.keypop.calypso.card.transaction.ChannelControl;
+import org.eclipse.keypop.calypso.card.transaction.SecureRegularModeTransactionManager;
+import org.eclipse.keypop.calypso.card.transaction.SymmetricCryptoSecuritySetting;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersonalizationBatchEngineTest {
+
+  private static final byte[] AID = HexUtil.toByteArray("315449432E49434131");
+  private static final byte ISSUER_KIF = 0x21;
+  private static final byte DEBIT_KIF = 0x30;
+  private static final byte KVC = 0x79;
+  private static final byte NEW_KVC = 0x7A;
+  private static final byte SFI_ENVIRONMENT = 0x07;
+  private static final byte SFI_COUNTERS = 0x19;
+  private static final byte[] ENVIRONMENT = HexUtil.toByteArray("1122334455");
+  private static final byte[] COUNTERS = HexUtil.toByteArray("000064000064000064");
+
+  private SoftwareSymmetricCryptoFactory factory;
+  private SymmetricCryptoSecuritySetting securitySetting;
+  private PersonalizationProfile profile;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    factory =
+        new SoftwareSymmetricCryptoFactory()
+            .addKey(ISSUER_KIF, KVC, SymmetricKeyAlgorithm.AES, new byte[16])
+            .addKey(ISSUER_KIF, NEW_KVC, SymmetricKeyAlgorithm.AES, new byte[16])
+            .addKey(DEBIT_KIF, KVC, SymmetricKeyAlgorithm.AES, new byte[16])
+            .addKey(DEBIT_KIF, NEW_KVC, SymmetricKeyAlgorithm.AES, new byte[16]);
+    securitySetting =
+        CalypsoExtensionService.getInstance()
+            .getCalypsoCardApiFactory()
+            .createSymmetricCryptoSecuritySetting(factory);
+    // the issuer key is declared first but must be changed last
+    profile =
+        new PersonalizationProfile(WriteAccessLevel.PERSONALIZATION)
+            .updateRecord(SFI_ENVIRONMENT, 1, HexUtil.toByteArray("AABBCC"))
+            .setCounter(SFI_COUNTERS, 2, 300)
+            .changeKey(1, ISSUER_KIF, NEW_KVC, ISSUER_KIF, KVC)
+            .changeKey(3, DEBIT_KIF, NEW_KVC, ISSUER_KIF, KVC);
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private SoftwareSymmetricCard createCard(int number) {
+    byte[] serialNumber = new byte[8];
+    serialNumber[7] = (byte) number;
+    return factory
+        .createCard(AID, serialNumber)
+        .setKey(1, ISSUER_KIF, KVC)
+        .setKey(3, DEBIT_KIF, KVC)
+        .setRecord(SFI_ENVIRONMENT, 1, ENVIRONMENT)
+        .setRecord(SFI_COUNTERS, 1, COUNTERS);
+  }
+
+  private List<PersonalizationBatchEngine.Result> personalizeAll(
+      PersonalizationBatchEngine engine, List<CardQueueStation> stations) throws Exception {
+    final Queue<PersonalizationBatchEngine.Result> results = new ConcurrentLinkedQueue<>();
+    engine.personalizeAll(
+        stations,
+        executor,
+        new PersonalizationBatchEngine.ResultHandler() {
+          @Override
+          public void onResult(PersonalizationBatchEngine.Result result) {
+            results.add(result);
+          }
+        });
+    return new ArrayList<>(results);
+  }
+
+  @Test
+  public void personalizeAll_shouldPersonalizeTheCardsOfAllTheStations() throws Exception {
+    List<SoftwareSymmetricCard> cards = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      cards.add(createCard(i));
+    }
+    PersonalizationBatchEngine engine = new PersonalizationBatchEngine(profile);
+    List<PersonalizationBatchEngine.Result> results =
+        personalizeAll(
+            engine,
+            Arrays.asList(
+                new CardQueueStation("A", cards.subList(0, 2)),
+                new CardQueueStation("B", cards.subList(2, 4))));
+    assertThat(results).hasSize(4);
+    for (PersonalizationBatchEngine.Result result : results) {
+      assertThat(result.getError()).isNull();
+      assertThat(result.isSuccessful()).isTrue();
+    }
+    for (SoftwareSymmetricCard card : cards) {
+      assertThat(card.getRecord(SFI_ENVIRONMENT, 1)).isEqualTo(HexUtil.toByteArray("AABBCC4455"));
+      assertThat(card.getRecord(SFI_COUNTERS, 1))
+          .isEqualTo(HexUtil.toByteArray("00006400012C000064"));
+      assertThat(card.getKey(1)).containsExactly(ISSUER_KIF, NEW_KVC);
+      assertThat(card.getKey(3)).containsExactly(DEBIT_KIF, NEW_KVC);
+    }
+    assertThat(engine.getPersonalizedCardsCount()).isEqualTo(4);
+    assertThat(engine.getFailedCardsCount()).isZero();
+  }
+
+  @Test
+  public void personalizeAll_whenACardFails_shouldGoOnWithTheNextCards() throws Exception {
+    SoftwareSymmetricCard failingCard = createCard(1).setKey(1, ISSUER_KIF, (byte) 0x55);
+    SoftwareSymmetricCard card = createCard(2);
+    PersonalizationBatchEngine engine = new PersonalizationBatchEngine(profile);
+    List<PersonalizationBatchEngine.Result> results =
+        personalizeAll(
+            engine, Arrays.asList(new CardQueueStation("A", Arrays.asList(failingCard, card))));
+    assertThat(results).hasSize(2);
+    assertThat(results.get(0).isSuccessful()).isFalse();
+    assertThat(results.get(0).getStationName()).isEqualTo("A");
+    assertThat(results.get(0).getSerialNumber()).isEqualTo("0000000000000001");
+    assertThat(results.get(1).isSuccessful()).isTrue();
+    assertThat(failingCard.getRecord(SFI_ENVIRONMENT, 1)).isEqualTo(ENVIRONMENT);
+    assertThat(card.getRecord(SFI_ENVIRONMENT, 1)).isEqualTo(HexUtil.toByteArray("AABBCC4455"));
+    assertThat(engine.getPersonalizedCardsCount()).isEqualTo(1);
+    assertThat(engine.getFailedCardsCount()).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void personalizeAll_whenTheHandlerFails_shouldRethrowTheFailure() throws Exception {
+    PersonalizationBatchEngine engine = new PersonalizationBatchEngine(profile);
+    engine.personalizeAll(
+        Arrays.asList(new CardQueueStation("A", Arrays.asList(createCard(1), createCard(2)))),
+        executor,
+        new PersonalizationBatchEngine.ResultHandler() {
+          @Override
+          public void onResult(PersonalizationBatchEngine.Result result) {
+            throw new IllegalStateException("handler");
+          }
+        });
+  }
+
+  @Test
+  public void getPlan_shouldGroupTheCountersAndChangeTheIssuerKeyLast() {
+    profile.setCounter(SFI_COUNTERS, 1, 10).setCounter(SFI_COUNTERS, 3, 20);
+    PersonalizationBatchEngine.Plan plan =
+        new PersonalizationBatchEngine(profile).getPlan(CalypsoCard.ProductType.PRIME_REVISION_3);
+    assertThat(plan.getUnsupportedStep()).isNull();
+    assertThat(plan.getCounterReads()).hasSize(1).containsEntry(SFI_COUNTERS, 3);
+    assertThat(plan.getSessionSteps()).hasSize(4);
+    assertThat(plan.getKeySteps()).hasSize(2);
+    assertThat(plan.getKeySteps().get(0).getNumber()).isEqualTo(3);
+    assertThat(plan.getKeySteps().get(1).getNumber()).isEqualTo(1);
+  }
+
+  @Test
+  public void getPlan_shouldBeCompiledOncePerProductType() {
+    PersonalizationBatchEngine engine = new PersonalizationBatchEngine(profile);
+    assertThat(engine.getPlan(CalypsoCard.ProductType.PRIME_REVISION_3))
+        .isSameAs(engine.getPlan(CalypsoCard.ProductType.PRIME_REVISION_3))
+        .isNotSameAs(engine.getPlan(CalypsoCard.ProductType.PRIME_REVISION_2));
+  }
+
+  @Test
+  public void personalize_whenAStepIsNotSupported_shouldFailAndReleaseTheChannel() {
+    profile.updateBinary((byte) 0x01, 0, HexUtil.toByteArray("11"));
+    CalypsoCard card = mock(CalypsoCard.class);
+    when(card.getProductType()).thenReturn(CalypsoCard.ProductType.PRIME_REVISION_1);
+    when(card.getApplicationSerialNumber()).thenReturn(new byte[8]);
+    SecureRegularModeTransactionManager transactionManager =
+        mock(SecureRegularModeTransactionManager.class);
+    PersonalizationBatchEngine.CardStation.Target target =
+        new PersonalizationBatchEngine.CardStation.Target(card, transactionManager);
+    PersonalizationBatchEngine engine = new PersonalizationBatchEngine(profile);
+    PersonalizationBatchEngine.Result result =
+        engine.personalize(new CardQueueStation("A", null), target);
+    assertThat(result.getError())
+        .isInstanceOf(UnsupportedOperationException.class)
+        .hasMessageContaining("Update Binary");
+    verify(transactionManager).processCommands(ChannelControl.CLOSE_AFTER);
+    verifyNoMoreInteractions(transactionManager);
+  }
+
+  /** Station on which the cards of a list are presented one after the other. */
+  private final class CardQueueStation implements PersonalizationBatchEngine.CardStation {
+
+    private final String name;
+    private final Queue<SoftwareSymmetricCard> cards = new ConcurrentLinkedQueue<>();
+
+    private CardQueueStation(String name, List<SoftwareSymmetricCard> cards) {
+      this.name = name;
+      if (cards != null) {
+        this.cards.addAll(cards);
+      }
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public Target nextCard() {
+      SoftwareSymmetricCard card = cards.poll();
+      if (card == null) {
+        return null;
+      }
+      CalypsoCardAdapter calypsoCard;
+      try {
+        calypsoCard =
+            new CalypsoCardAdapter(
+                new CardSelectionResponseAdapter(
+                    new ApduResponseAdapter(card.getSelectApplicationResponse())));
+      } catch (CardCommandException e) {
+        throw new IllegalStateException(e);
+      }
+      return new Target(
+          calypsoCard,
+          CalypsoExtensionService.getInstance()
+              .getCalypsoCardApiFactory()
+              .createSecureRegularModeTransactionManager(card, calypsoCard, securitySetting));
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
+
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.card.card.ElementaryFile;
+import org.eclipse.keypop.card.CardSelectionResponseApi;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RecordSearchEngineTest {
+
+  private static final byte SFI = 1;
+
+  private CalypsoCardAdapter card;
+
+  @Before
+  public void setUp() throws Exception {
+    card = new CalypsoCardAdapter((CardSelectionResponseApi) null);
+    card.setFileHeader(
+        SFI,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(4)
+            .recordSize(10)
+            .type(ElementaryFile.Type.LINEAR)
+            .build());
+    card.setCompleteContent(SFI, 1, HexUtil.toByteArray("00000000000000001234"));
+    card.setCompleteContent(SFI, 2, HexUtil.toByteArray("12340000000000000000"));
+    card.setCompleteContent(SFI, 3, HexUtil.toByteArray("1256000000000000AA00"));
+    card.setCompleteContent(SFI, 4, HexUtil.toByteArray("00000000000000001200"));
+  }
+
+  private static SearchCommandDataAdapter newSearch(String searchData) {
+    SearchCommandDataAdapter data = new SearchCommandDataAdapter();
+    data.setSfi(SFI).setSearchData(HexUtil.toByteArray(searchData));
+    return data;
+  }
+
+  @Test
+  public void matches_whenPatternAtOffset_shouldReturnTrue() {
+    RecordSearchEngine engine = new RecordSearchEngine(HexUtil.toByteArray("1234"), null);
+    byte[] record = HexUtil.toByteArray("00001234000000000000");
+    assertThat(engine.matches(record, 10, 2, false)).isTrue();
+    assertThat(engine.matches(record, 10, 1, false)).isFalse();
+    assertThat(engine.matches(record, 10, 0, true)).isTrue();
+    assertThat(engine.matches(record, 10, 3, true)).isFalse();
+  }
+
+  @Test
+  public void matches_whenPatternLongerThanAWord_shouldCompareAllBytes() {
+    byte[] record = HexUtil.toByteArray("FF0102030405060708090AFF");
+    assertThat(
+            new RecordSearchEngine(HexUtil.toByteArray("0102030405060708090A"), null)
+                .matches(record, 12, 0, true))
+        .isTrue();
+    assertThat(
+            new RecordSearchEngine(HexUtil.toByteArray("0102030405060708090B"), null)
+                .matches(record, 12, 0, true))
+        .isFalse();
+    assertThat(
+            new RecordSearchEngine(
+                    HexUtil.toByteArray("0102030405060708090B"),
+                    HexUtil.toByteArray("FFFFFFFFFFFFFFFFFFFE"))
+                .matches(record, 12, 0, true))
+        .isTrue();
+  }
+
+  @Test
+  public void matches_whenPatternDoesNotFitInRecord_shouldReturnFalse() {
+    RecordSearchEngine engine = new RecordSearchEngine(HexUtil.toByteArray("1234"), null);
+    assertThat(engine.matches(HexUtil.toByteArray("00001234"), 4, 3, true)).isFalse();
+  }
+
+  @Test
+  public void searchInCardImage_whenNoMask_shouldReturnMatchingRecords() {
+    SearchCommandDataAdapter data = newSearch("1234");
+    assertThat(RecordSearchEngine.searchInCardImage(card, data)).isTrue();
+    assertThat(data.getMatchingRecordNumbers()).containsExactly(2);
+  }
+
+  @Test
+  public void searchInCardImage_whenPartialMask_shouldRightPadMaskWithFFh() {
+    SearchCommandDataAdapter data = newSearch("1034");
+    data.setMask(HexUtil.toByteArray("F0"));
+    assertThat(RecordSearchEngine.searchInCardImage(card, data)).isTrue();
+    assertThat(data.getMatchingRecordNumbers()).containsExactly(2);
+  }
+
+  @Test
+  public void searchInCardImage_whenMaskAndRepeatedOffset_shouldReturnMatchingRecords() {
+    SearchCommandDataAdapter data = newSearch("1200");
+    data.setMask(HexUtil.toByteArray("FF00"));
+    data.enableRepeatedOffset();
+    data.startAtRecord(2);
+    data.setOffset(1);
+    assertThat(RecordSearchEngine.searchInCardImage(card, data)).isTrue();
+    assertThat(data.getMatchingRecordNumbers()).containsExactly(4);
+  }
+
+  @Test
+  public void searchInCardImage_whenRecordIsMissing_shouldReturnFalse() {
+    card.setFileHeader(
+        (byte) 3,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2030)
+            .recordsNumber(2)
+            .recordSize(2)
+            .type(ElementaryFile.Type.CYCLIC)
+            .build());
+    card.setCompleteContent((byte) 3, 1, HexUtil.toByteArray("1234"));
+    SearchCommandDataAdapter data = newSearch("1234");
+    data.setSfi((byte) 3);
+    assertThat(RecordSearchEngine.searchInCardImage(card, data)).isFalse();
+    assertThat(data.getMatchingRecordNumbers()).isEmpty();
+  }
+
+  @Test
+  public void searchInCardImage_whenRecordIsPartiallyKnown_shouldReturnFalse() {
+    card.setContent(SFI, 3, HexUtil.toByteArray("1256000000000000AA00"));
+    card.setContent(SFI, 3, HexUtil.toByteArray("1256"), 0);
+    assertThat(RecordSearchEngine.searchInCardImage(card, newSearch("1234"))).isFalse();
+  }
+
+  @Test
+  public void searchInCardImage_whenRecordIsPartiallyUpdatedInPlace_shouldReturnTrue() {
+    card.setContent(SFI, 3, HexUtil.toByteArray("1234"), 4);
+    SearchCommandDataAdapter data = newSearch("1234");
+    data.enableRepeatedOffset();
+    assertThat(RecordSearchEngine.searchInCardImage(card, data)).isTrue();
+    assertThat(data.getMatchingRecordNumbers()).containsExactly(1, 2, 3);
+  }
+
+  @Test
+  public void searchInCardImage_whenRecordIsSetFromSerializedImage_shouldReturnFalse() {
+    card.setContent(SFI, 2, HexUtil.toByteArray("12340000000000000000"));
+    assertThat(RecordSearchEngine.searchInCardImage(card, newSearch("1234"))).isFalse();
+  }
+
+  @Test
+  public void searchInCardImage_whenHeaderIsUnknown_shouldReturnFalse() {
+    card.setCompleteContent((byte) 2, 1, HexUtil.toByteArray("1234"));
+    SearchCommandDataAdapter data = newSearch("1234");
+    data.setSfi((byte) 2);
+    assertThat(RecordSearchEngine.searchInCardImage(card, data)).isFalse();
+  }
+}
@@ -294,6 +294,39 @@ public void prepareReadRecord_whenSfi07RecNumber1_shouldPrepareReadRecordApduWit
     verifyInteractionsForSingleCardCommand(cardRequest);
   }
 
+  @Test(expected = IllegalStateException.class)
+  public void prepareReadRecord_whenInSessionInContactModeWithoutCache_shouldThrowISE()
+      throws Exception {
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    calypsoCard.setFileHeader(FILE7, buildLinearFileHeader());
+    cardTransactionManager.prepareReadRecord(FILE7, 1);
+  }
+
+  @Test
+  public void prepareReadRecord_whenInSessionInContactModeWithCache_shouldUseTheKnownRecordSize()
+      throws Exception {
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    ((SecureRegularModeTransactionManagerAdapter) cardTransactionManager)
+        .setFileStructureCache(FileStructureCache.create());
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    calypsoCard.setFileHeader(FILE7, buildLinearFileHeader());
+    cardTransactionManager.prepareReadRecord(FILE7, 1);
+  }
+
+  private static FileHeaderAdapter buildLinearFileHeader() {
+    return FileHeaderAdapter.builder()
+        .lid((short) 0x2010)
+        .recordsNumber(3)
+        .recordSize(29)
+        .type(ElementaryFile.Type.LINEAR)
+        .build();
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void prepareReadRecords_whenSfiIsGreaterThan30_shouldThrowIAE() {
     cardTransactionManager.prepareReadRecords((byte) 31, 1, 1, 1);
@@ -929,6 +962,74 @@ public void prepareUpdateRecord_whenRecordDataIsNull_shouldThrowIAE() {
     cardTransactionManager.prepareUpdateRecord(FILE7, 1, null);
   }
 
+  /**
+   * Opens a secure session on a card whose 430-byte session buffer holds two updates of 150 bytes
+   * but not three, the content of the record #1 of the EF 01h being known.
+   */
+  private byte[] openSecureSessionWithKnownRecord() throws Exception {
+    byte[] record1 = new byte[150];
+    Arrays.fill(record1, (byte) 0x11);
+    calypsoCard.setFileHeader(
+        (byte) 1,
+        FileHeaderAdapter.builder()
+            .lid((short) 0x2010)
+            .recordsNumber(3)
+            .recordSize(150)
+            .type(ElementaryFile.Type.LINEAR)
+            .build());
+    calypsoCard.setCompleteContent((byte) 1, 1, record1);
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    return record1;
+  }
+
+  @Test
+  public void
+      prepareUpdateRecord_whenElidedInSession_shouldNotConsumeSessionBufferNorReopenTheSession()
+          throws Exception {
+    byte[] record1 = openSecureSessionWithKnownRecord();
+    byte[] record2 = new byte[150];
+    Arrays.fill(record2, (byte) 0x22);
+    byte[] record3 = new byte[150];
+    Arrays.fill(record3, (byte) 0x33);
+    CardRequestSpi cardRequest =
+        mockTransmitCardRequest(
+            "00DC020C96" + HexUtil.toHex(record2),
+            SW_9000,
+            "00DC030C96" + HexUtil.toHex(record3),
+            SW_9000,
+            CARD_CLOSE_SECURE_SESSION_CMD,
+            CARD_CLOSE_SECURE_SESSION_RSP);
+    CalypsoExtensionService.getInstance().setWriteElisionEnabled(cardTransactionManager, true);
+
+    cardTransactionManager
+        .prepareUpdateRecord((byte) 1, 1, record1)
+        .prepareUpdateRecord((byte) 1, 2, record2)
+        .prepareUpdateRecord((byte) 1, 3, record3)
+        .prepareCloseSecureSession()
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequest)), any(ChannelControl.class));
+    assertThat(CalypsoExtensionService.getInstance().getElidedCommandsCount(cardTransactionManager))
+        .isEqualTo(1);
+    assertThat(CalypsoExtensionService.getInstance().getElidedBytesCount(cardTransactionManager))
+        .isEqualTo(150);
+  }
+
+  @Test(expected = SessionBufferOverflowException.class)
+  public void prepareUpdateRecord_whenNotElidedInSession_shouldConsumeSessionBuffer()
+      throws Exception {
+    byte[] record1 = openSecureSessionWithKnownRecord();
+    cardTransactionManager
+        .prepareUpdateRecord((byte) 1, 1, record1)
+        .prepareUpdateRecord((byte) 1, 2, record1)
+        .prepareUpdateRecord((byte) 1, 3, record1);
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void prepareWriteRecord_whenSfiIsGreaterThan30_shouldThrowIAE() {
     cardTransactionManager.prepareWriteRecord((byte) 31, 1, new byte[1]);
@@ -2425,6 +2526,94 @@ public void prepareInvalidate_whenCardIsNotInvalidated_prepareInvalidateApdu() t
     verifyNoMoreInteractions(symmetricCryptoCardTransactionManager, cardReader);
   }
 
+  @Test
+  public void
+      prepareCloseSecureSession_whenCardIsDenyListed_shouldPrepareInvalidateApduBeforeClose()
+          throws Exception {
+
+    calypsoCard.setDenyListed(true);
+
+    CardRequestSpi cardRequestOpen =
+        mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    CardRequestSpi cardRequestClose =
+        mockTransmitCardRequest(
+            CARD_INVALIDATE_CMD,
+            SW_9000,
+            CARD_CLOSE_SECURE_SESSION_CMD,
+            CARD_CLOSE_SECURE_SESSION_RSP);
+
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    assertThat(calypsoCard.isDfInvalidated()).isFalse();
+    cardTransactionManager.prepareCloseSecureSession().processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    InOrder inOrder = inOrder(cardReader);
+    inOrder
+        .verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequestOpen)), any(ChannelControl.class));
+    inOrder
+        .verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequestClose)), any(ChannelControl.class));
+    verify(symmetricCryptoCardTransactionManager)
+        .updateTerminalSessionMac(HexUtil.toByteArray(CARD_INVALIDATE_CMD));
+    assertThat(calypsoCard.isDfInvalidated()).isTrue();
+    assertThat(calypsoCard.isDenyListInvalidationPending()).isFalse();
+  }
+
+  @Test
+  public void
+      prepareCloseSecureSession_whenCardIsDenyListedAndInvalidateIsPrepared_shouldNotPrepareItTwice()
+          throws Exception {
+
+    calypsoCard.setDenyListed(true);
+
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    CardRequestSpi cardRequestClose =
+        mockTransmitCardRequest(
+            CARD_INVALIDATE_CMD,
+            SW_9000,
+            CARD_CLOSE_SECURE_SESSION_CMD,
+            CARD_CLOSE_SECURE_SESSION_RSP);
+
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    cardTransactionManager
+        .prepareInvalidate()
+        .prepareCloseSecureSession()
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequestClose)), any(ChannelControl.class));
+    assertThat(calypsoCard.isDfInvalidated()).isTrue();
+  }
+
+  @Test
+  public void
+      prepareCloseSecureSession_whenCardIsDenyListedWithoutInvalidation_shouldNotPrepareInvalidateApdu()
+          throws Exception {
+
+    calypsoCard.setDenyListed(false);
+
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    CardRequestSpi cardRequestClose =
+        mockTransmitCardRequest(CARD_CLOSE_SECURE_SESSION_CMD, CARD_CLOSE_SECURE_SESSION_RSP);
+
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    cardTransactionManager.prepareCloseSecureSession().processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequestClose)), any(ChannelControl.class));
+    assertThat(calypsoCard.isDfInvalidated()).isFalse();
+  }
+
   @Test(expected = IllegalStateException.class)
   public void prepareRehabilitate_whenCardIsNotInvalidated_shouldThrowISE() {
     cardTransactionManager.prepareRehabilitate();
@@ -2483,4 +2672,147 @@ public void prepareChangeKey_shouldSendApdusToTheCardAndTheSAM() throws Exceptio
     inOrder.verify(symmetricCryptoCardTransactionManager).synchronize();
     verifyNoMoreInteractions(symmetricCryptoCardTransactionManager, cardReader);
   }
+
+  @Test
+  public void processCommands_whenKeyRotationEngineIsSetAndKeyIsOutdated_shouldChangeKeyAfterClose()
+      throws Exception {
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    CardRequestSpi cardRequestClose =
+        mockTransmitCardRequest(CARD_CLOSE_SECURE_SESSION_CMD, CARD_CLOSE_SECURE_SESSION_RSP);
+    CardRequestSpi cardRequestGetChallenge =
+        mockTransmitCardRequest(CARD_GET_CHALLENGE_CMD, CARD_GET_CHALLENGE_RSP);
+    when(symmetricCryptoCardTransactionManager.generateCipheredCardKey(
+            HexUtil.toByteArray(CARD_CHALLENGE), (byte) 4, (byte) 5, (byte) 0x30, (byte) 0x7A))
+        .thenReturn(HexUtil.toByteArray(CIPHERED_KEY));
+    CardRequestSpi cardRequestChangeKey =
+        mockTransmitCardRequest("00D8000320" + CIPHERED_KEY, SW_9000);
+    KeyRotationEngine keyRotationEngine =
+        new KeyRotationEngine(new CommandLatencyModel(0.5, 10), 1000);
+    keyRotationEngine.addTarget(3, (byte) 0x30, (byte) 0x7A, (byte) 4, (byte) 5);
+    ((SecureRegularModeTransactionManagerAdapter) cardTransactionManager)
+        .setKeyRotationEngine(keyRotationEngine);
+
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    cardTransactionManager.prepareCloseSecureSession().processCommands(CHANNEL_CONTROL_CLOSE_AFTER);
+
+    InOrder inOrder = inOrder(cardReader);
+    inOrder
+        .verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequestClose)),
+            eq(org.eclipse.keypop.card.ChannelControl.KEEP_OPEN));
+    inOrder
+        .verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequestGetChallenge)),
+            eq(org.eclipse.keypop.card.ChannelControl.KEEP_OPEN));
+    inOrder
+        .verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequestChangeKey)),
+            eq(org.eclipse.keypop.card.ChannelControl.CLOSE_AFTER));
+    assertThat(keyRotationEngine.getObservedCardsCount()).isEqualTo(1);
+    assertThat(keyRotationEngine.getUpToDateCardsCount()).isZero();
+    assertThat(keyRotationEngine.getSucceededRotationsCount(3)).isEqualTo(1);
+    assertThat(keyRotationEngine.getFailedRotationsCount()).isZero();
+    assertThat(keyRotationEngine.getMaxRotationTimeMillis()).isPositive();
+  }
+
+  @Test
+  public void processCommands_whenKeyChangeFails_shouldSucceedAndReleaseTheChannel()
+      throws Exception {
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    mockTransmitCardRequest(CARD_CLOSE_SECURE_SESSION_CMD, CARD_CLOSE_SECURE_SESSION_RSP);
+    mockTransmitCardRequest(CARD_GET_CHALLENGE_CMD, CARD_GET_CHALLENGE_RSP);
+    when(symmetricCryptoCardTransactionManager.generateCipheredCardKey(
+            HexUtil.toByteArray(CARD_CHALLENGE), (byte) 4, (byte) 5, (byte) 0x30, (byte) 0x7A))
+        .thenReturn(HexUtil.toByteArray(CIPHERED_KEY));
+    mockTransmitCardRequest("00D8000320" + CIPHERED_KEY, "6988");
+    CardRequestSpi cardRequestRelease = mockTransmitCardRequest();
+    KeyRotationEngine keyRotationEngine =
+        new KeyRotationEngine(new CommandLatencyModel(0.5, 10), 1000);
+    keyRotationEngine.addTarget(3, (byte) 0x30, (byte) 0x7A, (byte) 4, (byte) 5);
+    ((SecureRegularModeTransactionManagerAdapter) cardTransactionManager)
+        .setKeyRotationEngine(keyRotationEngine);
+
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    cardTransactionManager.prepareCloseSecureSession().processCommands(CHANNEL_CONTROL_CLOSE_AFTER);
+
+    verify(cardReader)
+        .transmitCardRequest(
+            argThat(new CardRequestMatcher(cardRequestRelease)),
+            eq(org.eclipse.keypop.card.ChannelControl.CLOSE_AFTER));
+    assertThat(keyRotationEngine.getRotationsCount()).isEqualTo(1);
+    assertThat(keyRotationEngine.getFailedRotationsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void processCommands_whenSeveralSessionsAreClosed_shouldEvaluateTheKeysOnce()
+      throws Exception {
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    mockTransmitCardRequest(CARD_CLOSE_SECURE_SESSION_CMD, CARD_CLOSE_SECURE_SESSION_RSP);
+    KeyRotationEngine keyRotationEngine =
+        new KeyRotationEngine(new CommandLatencyModel(0.5, 10), 15);
+    keyRotationEngine.addTarget(3, (byte) 0x30, (byte) 0x7A, (byte) 4, (byte) 5);
+    ((SecureRegularModeTransactionManagerAdapter) cardTransactionManager)
+        .setKeyRotationEngine(keyRotationEngine);
+
+    for (int i = 0; i < 2; i++) {
+      cardTransactionManager
+          .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+          .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+      cardTransactionManager.prepareCloseSecureSession().processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    }
+
+    verify(cardReader, times(4))
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(keyRotationEngine.getObservedCardsCount()).isEqualTo(1);
+    assertThat(keyRotationEngine.getDeferredRotationsCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void processCommands_whenKeyRotationDoesNotFitTapBudget_shouldDeferIt() throws Exception {
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    mockTransmitCardRequest(CARD_CLOSE_SECURE_SESSION_CMD, CARD_CLOSE_SECURE_SESSION_RSP);
+    KeyRotationEngine keyRotationEngine =
+        new KeyRotationEngine(new CommandLatencyModel(0.5, 10), 15);
+    keyRotationEngine.addTarget(3, (byte) 0x30, (byte) 0x7A, (byte) 4, (byte) 5);
+    ((SecureRegularModeTransactionManagerAdapter) cardTransactionManager)
+        .setKeyRotationEngine(keyRotationEngine);
+
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    cardTransactionManager.prepareCloseSecureSession().processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader, times(2))
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(keyRotationEngine.getDeferredRotationsCount()).isEqualTo(1);
+    assertThat(keyRotationEngine.getRotationsCount()).isZero();
+  }
+
+  @Test
+  public void processCommands_whenKeyIsUpToDate_shouldNotChangeKey() throws Exception {
+    mockTransmitCardRequest(CARD_OPEN_SECURE_SESSION_CMD, CARD_OPEN_SECURE_SESSION_RSP);
+    mockTransmitCardRequest(CARD_CLOSE_SECURE_SESSION_CMD, CARD_CLOSE_SECURE_SESSION_RSP);
+    KeyRotationEngine keyRotationEngine =
+        new KeyRotationEngine(new CommandLatencyModel(0.5, 10), 1000);
+    keyRotationEngine.addTarget(3, HexUtil.toByte(KIF), HexUtil.toByte(KVC), (byte) 4, (byte) 5);
+    ((SecureRegularModeTransactionManagerAdapter) cardTransactionManager)
+        .setKeyRotationEngine(keyRotationEngine);
+
+    cardTransactionManager
+        .prepareOpenSecureSession(WriteAccessLevel.DEBIT)
+        .processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+    cardTransactionManager.prepareCloseSecureSession().processCommands(CHANNEL_CONTROL_KEEP_OPEN);
+
+    verify(cardReader, times(2))
+        .transmitCardRequest(any(CardRequestSpi.class), any(ChannelControl.class));
+    assertThat(keyRotationEngine.getUpToDateCardsCount()).isEqualTo(1);
+    assertThat(keyRotationEngine.getRotationsCount()).isZero();
+  }
 }
@@ -0,0 +1,124 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.junit.Test;
+
+public class SelectionPrefetchAdvisorTest {
+
+  private static final Set<SelectionPrefetchAdvisor.ReadItem> NO_READS = Collections.emptySet();
+  private static final SelectionPrefetchAdvisor.ReadItem RECORD_07_1 =
+      SelectionPrefetchAdvisor.ReadItem.record((byte) 0x07, 1);
+  private static final SelectionPrefetchAdvisor.ReadItem RECORD_08_1 =
+      SelectionPrefetchAdvisor.ReadItem.record((byte) 0x08, 1);
+  private static final SelectionPrefetchAdvisor.ReadItem BINARY_01_0_10 =
+      SelectionPrefetchAdvisor.ReadItem.binary((byte) 0x01, 0, 10);
+
+  private static CalypsoCardAdapter buildCard() throws Exception {
+    return new CalypsoCardAdapter(
+        new TestDtoAdapters.CardSelectionResponseAdapter(
+            new TestDtoAdapters.ApduResponseAdapter(
+                HexUtil.toByteArray(
+                    AbstractTransactionManagerTest.SELECT_APPLICATION_RESPONSE_PRIME_REVISION_3))));
+  }
+
+  /** Simulates the selection of cards on which the provided reads are performed. */
+  private static void observeCards(
+      SelectionPrefetchAdvisor advisor, int nbCards, SelectionPrefetchAdvisor.ReadItem... reads)
+      throws Exception {
+    for (int i = 0; i < nbCards; i++) {
+      CalypsoCardAdapter card = buildCard();
+      advisor.onCardSelected(card, advisor.getReadsToPrefetch(NO_READS));
+      for (SelectionPrefetchAdvisor.ReadItem read : reads) {
+        advisor.onRead(card, read);
+      }
+    }
+  }
+
+  @Test
+  public void getReadsToPrefetch_whenWarmingUp_shouldReturnEmptyList() throws Exception {
+    SelectionPrefetchAdvisor advisor = new SelectionPrefetchAdvisor(5, 0.5, 4);
+    observeCards(advisor, 4, RECORD_07_1);
+    assertThat(advisor.getReadsToPrefetch(NO_READS)).isEmpty();
+  }
+
+  @Test
+  public void getReadsToPrefetch_shouldReturnFrequentReadsMostFrequentFirst() throws Exception {
+    SelectionPrefetchAdvisor advisor = new SelectionPrefetchAdvisor(5, 0.5, 2);
+    observeCards(advisor, 3, RECORD_08_1, RECORD_07_1, BINARY_01_0_10);
+    observeCards(advisor, 2, RECORD_07_1, BINARY_01_0_10);
+    observeCards(advisor, 1, RECORD_07_1);
+    List<SelectionPrefetchAdvisor.ReadItem> reads = advisor.getReadsToPrefetch(NO_READS);
+    assertThat(reads).containsExactly(RECORD_07_1, BINARY_01_0_10);
+    assertThat(advisor.getReadsToPrefetch(Collections.singleton(RECORD_07_1)))
+        .containsExactly(BINARY_01_0_10, RECORD_08_1);
+  }
+
+  @Test
+  public void getPrecisionAndRecall_shouldReflectPrefetchUsage() throws Exception {
+    SelectionPrefetchAdvisor advisor = new SelectionPrefetchAdvisor(1, 0.5, 2);
+    observeCards(advisor, 1, RECORD_07_1, RECORD_08_1);
+    assertThat(advisor.getPrecision()).isEqualTo(1.0);
+    assertThat(advisor.getRecall()).isEqualTo(0.0);
+    // Both reads prefetched, only one needed, and one read not prefetched
+    observeCards(advisor, 1, RECORD_07_1, BINARY_01_0_10);
+    assertThat(advisor.getPrecision()).isEqualTo(0.5);
+    assertThat(advisor.getRecall()).isEqualTo(0.25);
+  }
+
+  @Test
+  public void getCardSelectionRequest_whenAdvisorProposesReads_shouldAppendReadCommands()
+      throws Exception {
+    SelectionPrefetchAdvisor advisor = new SelectionPrefetchAdvisor(1, 1, 4);
+    observeCards(advisor, 1, RECORD_07_1, RECORD_08_1);
+    CalypsoCardSelectionExtensionAdapter cardSelectionExtension =
+        new CalypsoCardSelectionExtensionAdapter();
+    cardSelectionExtension.prepareReadRecord((byte) 0x07, 1);
+    cardSelectionExtension.setSelectionPrefetchAdvisor(advisor);
+    List<ApduRequestSpi> apduRequests =
+        cardSelectionExtension.getCardSelectionRequest().getCardRequest().getApduRequests();
+    assertThat(apduRequests).hasSize(2);
+    assertThat(HexUtil.toHex(apduRequests.get(0).getApdu())).isEqualTo("00B2013C00");
+    assertThat(HexUtil.toHex(apduRequests.get(1).getApdu())).isEqualTo("00B2014400");
+  }
+
+  @Test
+  public void getCardSelectionRequest_whenAdvisorLearnsMeanwhile_shouldKeepTheSameReads()
+      throws Exception {
+    SelectionPrefetchAdvisor advisor = new SelectionPrefetchAdvisor(1, 0.5, 4);
+    observeCards(advisor, 1, RECORD_07_1);
+    CalypsoCardSelectionExtensionAdapter cardSelectionExtension =
+        new CalypsoCardSelectionExtensionAdapter();
+    cardSelectionExtension.setSelectionPrefetchAdvisor(advisor);
+    assertThat(
+            cardSelectionExtension.getCardSelectionRequest().getCardRequest().getApduRequests())
+        .hasSize(1);
+    observeCards(advisor, 2, RECORD_07_1, RECORD_08_1);
+    assertThat(
+            cardSelectionExtension.getCardSelectionRequest().getCardRequest().getApduRequests())
+        .hasSize(1);
+    assertThat(
+            new CalypsoCardSelectionExtensionAdapter()
+                .setSelectionPrefetchAdvisor(advisor)
+                .getCardSelectionRequest()
+                .getCardRequest()
+                .getApduRequests())
+        .hasSize(2);
+  }
+}
@@ -0,0 +1,121 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.eclipse.keyple.card.calypso.DtoAdapters.*;
+
+import java.nio.ByteBuffer;
+import java.util.function.ToLongFunction;
+import java.util.stream.StreamSupport;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.junit.Test;
+
+public class SvLogRecordDecoderTest {
+
+  private static final String DEBIT_LOG_RECORD =
+      "FFFE"
+          + "1234"
+          + "5678"
+          + "90"
+          + "AABBCCDD"
+          + "123456"
+          + "445566"
+          + "7890"
+          + "00000000000000000000";
+  private static final String LOAD_LOG_RECORD =
+      "1234"
+          + "41"
+          + "90"
+          + "42"
+          + "445566"
+          + "FFFFFE"
+          + "5678"
+          + "AABBCCDD"
+          + "123456"
+          + "7890"
+          + "00000000000000";
+
+  @Test
+  public void cursor_whenDebitLogRecord_shouldDecodeAsSvDebitLogRecordAdapter() {
+    byte[] rawData = HexUtil.toByteArray(DEBIT_LOG_RECORD);
+    SvDebitLogRecordAdapter adapter = new SvDebitLogRecordAdapter(rawData, 0);
+    SvLogRecordDecoder.Cursor cursor =
+        SvLogRecordDecoder.ofLogFileRecords(
+                ByteBuffer.wrap(rawData), SvLogRecordDecoder.LogType.DEBIT)
+            .cursor();
+    assertThat(cursor.next()).isTrue();
+    assertThat(cursor.getAmount()).isEqualTo(adapter.getAmount()).isEqualTo(-2);
+    assertThat(cursor.getBalance()).isEqualTo(adapter.getBalance());
+    assertThat(cursor.getDate()).isEqualTo(0x1234);
+    assertThat(cursor.getTime()).isEqualTo(0x5678);
+    assertThat(cursor.getKvc()).isEqualTo(adapter.getKvc());
+    assertThat(cursor.getSamId()).isEqualTo(0xAABBCCDDL);
+    assertThat(cursor.getSamTNum()).isEqualTo(adapter.getSamTNum());
+    assertThat(cursor.getSvTNum()).isEqualTo(adapter.getSvTNum());
+    assertThat(cursor.next()).isFalse();
+  }
+
+  @Test
+  public void cursor_whenLoadLogRecord_shouldDecodeAsSvLoadLogRecordAdapter() {
+    byte[] rawData = HexUtil.toByteArray(LOAD_LOG_RECORD);
+    SvLoadLogRecordAdapter adapter = new SvLoadLogRecordAdapter(rawData, 0);
+    SvLogRecordDecoder.Cursor cursor =
+        SvLogRecordDecoder.ofLogFileRecords(
+                ByteBuffer.wrap(rawData), SvLogRecordDecoder.LogType.LOAD)
+            .cursor()
+            .moveTo(0);
+    assertThat(cursor.getAmount()).isEqualTo(adapter.getAmount()).isEqualTo(-2);
+    assertThat(cursor.getBalance()).isEqualTo(adapter.getBalance());
+    assertThat(cursor.getDate()).isEqualTo(0x1234);
+    assertThat(cursor.getTime()).isEqualTo(0x5678);
+    assertThat(cursor.getKvc()).isEqualTo(adapter.getKvc());
+    assertThat(cursor.getSamId()).isEqualTo(0xAABBCCDDL);
+    assertThat(cursor.getSamTNum()).isEqualTo(adapter.getSamTNum());
+    assertThat(cursor.getSvTNum()).isEqualTo(adapter.getSvTNum());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_whenBufferLengthIsNotAMultipleOfRecordLength_shouldThrowIAE() {
+    SvLogRecordDecoder.ofLogFileRecords(
+        ByteBuffer.wrap(new byte[30]), SvLogRecordDecoder.LogType.DEBIT);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_whenRecordLengthIsTooShort_shouldThrowIAE() {
+    new SvLogRecordDecoder(ByteBuffer.wrap(new byte[21]), SvLogRecordDecoder.LogType.LOAD, 21);
+  }
+
+  @Test
+  public void spliterator_whenParallel_shouldVisitAllRecords() {
+    int nbRecords = 1000;
+    ByteBuffer buffer = ByteBuffer.allocate(nbRecords * 19);
+    for (int i = 0; i < nbRecords; i++) {
+      buffer.put(i * 19 + 17, (byte) (i >> 8));
+      buffer.put(i * 19 + 18, (byte) i);
+    }
+    SvLogRecordDecoder decoder =
+        new SvLogRecordDecoder(buffer, SvLogRecordDecoder.LogType.DEBIT, 19);
+    assertThat(decoder.getNbRecords()).isEqualTo(nbRecords);
+    long sum =
+        StreamSupport.stream(decoder.spliterator(), true)
+            .mapToLong(
+                new ToLongFunction<SvLogRecordDecoder.Cursor>() {
+                  @Override
+                  public long applyAsLong(SvLogRecordDecoder.Cursor cursor) {
+                    return cursor.getSvTNum();
+                  }
+                })
+            .sum();
+    assertThat(sum).isEqualTo((long) nbRecords * (nbRecords - 1) / 2);
+  }
+}
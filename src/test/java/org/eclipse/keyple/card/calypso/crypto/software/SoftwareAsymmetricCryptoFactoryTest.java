@@ -0,0 +1,194 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.shouldHaveThrown;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.CertificateValidationException;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CaCertificateContentSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CaCertificateParserSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardCertificateParserSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardCertificateSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardPublicKeySpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.PcaCertificateSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.transaction.spi.AsymmetricCryptoCardTransactionManagerSpi;
+import org.eclipse.keypop.card.ChannelControl;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SoftwareAsymmetricCryptoFactoryTest {
+
+  private static final byte[] PCA_KEY_REFERENCE = keyReference((byte) 0x01);
+  private static final byte[] CA_KEY_REFERENCE = keyReference((byte) 0x02);
+  private static final byte[] CARD_SERIAL_NUMBER = HexUtil.toByteArray("0000000011223344");
+  private static final byte[] GET_DATA_CARD_CERTIFICATE_1 = HexUtil.toByteArray("00CADF4C00");
+  private static final byte[] GET_DATA_CARD_CERTIFICATE_2 = HexUtil.toByteArray("00CADF4D00");
+  private static final byte[] OPEN_SECURE_SESSION_CMD =
+      HexUtil.toByteArray("008A00030900" + "1122334455667788" + "00");
+  private static final byte[] READ_RECORD_CMD = HexUtil.toByteArray("00B2013C00");
+  private static final byte[] UPDATE_RECORD_CMD = HexUtil.toByteArray("00DC013C03AABBCC");
+  private static final byte[] CLOSE_SECURE_SESSION_CMD = HexUtil.toByteArray("008E000040");
+  private static final byte[] RECORD = HexUtil.toByteArray("1122334455");
+
+  private static SoftwareCertificateAuthority pca;
+  private static SoftwareCertificateAuthority ca;
+
+  private SoftwareAsymmetricCryptoFactory factory;
+  private SoftwarePkiCard card;
+
+  private static byte[] keyReference(byte lastByte) {
+    byte[] keyReference = new byte[29];
+    keyReference[28] = lastByte;
+    return keyReference;
+  }
+
+  @BeforeClass
+  public static void setUpClass() {
+    pca = SoftwareCertificateAuthority.createPca(PCA_KEY_REFERENCE);
+    ca = pca.issueCa(CA_KEY_REFERENCE, null);
+  }
+
+  @Before
+  public void setUp() {
+    factory = new SoftwareAsymmetricCryptoFactory();
+    card = ca.issueCard(CARD_SERIAL_NUMBER).setRecord(7, 1, RECORD);
+  }
+
+  private byte[] transmit(byte[] apdu) throws Exception {
+    ApduRequestSpi apduRequest = mock(ApduRequestSpi.class);
+    when(apduRequest.getApdu()).thenReturn(apdu);
+    CardRequestSpi cardRequest = mock(CardRequestSpi.class);
+    when(cardRequest.getApduRequests()).thenReturn(Collections.singletonList(apduRequest));
+    return card.transmitCardRequest(cardRequest, ChannelControl.KEEP_OPEN)
+        .getApduResponses()
+        .get(0)
+        .getApdu();
+  }
+
+  private CaCertificateContentSpi checkCaCertificate(SoftwareCertificateAuthority authority)
+      throws Exception {
+    CaCertificateContentSpi pcaContent =
+        ((PcaCertificateSpi) pca.getPcaCertificate()).checkCertificateAndGetContent();
+    return ((CaCertificateParserSpi) factory.getCaCertificateParser())
+        .parseCertificate(authority.getCertificateBytes())
+        .checkCertificateAndGetContent(pcaContent);
+  }
+
+  private CardCertificateSpi readCardCertificate() throws Exception {
+    byte[] part1 = transmit(GET_DATA_CARD_CERTIFICATE_1);
+    byte[] part2 = transmit(GET_DATA_CARD_CERTIFICATE_2);
+    assertThat(HexUtil.toHex(part1)).startsWith("DF4C82013C");
+    byte[] certificate = new byte[316];
+    System.arraycopy(part1, 5, certificate, 0, part1.length - 7);
+    System.arraycopy(part2, 0, certificate, part1.length - 7, part2.length - 2);
+    return ((CardCertificateParserSpi) factory.getCardCertificateParser())
+        .parseCertificate(certificate);
+  }
+
+  private void exchange(AsymmetricCryptoCardTransactionManagerSpi manager, byte[] apdu)
+      throws Exception {
+    manager.updateTerminalPkiSession(apdu);
+    manager.updateTerminalPkiSession(transmit(apdu));
+  }
+
+  @Test
+  public void checkCertificates_shouldFollowTheChainOfTrust() throws Exception {
+    CaCertificateContentSpi caContent = checkCaCertificate(ca);
+    assertThat(caContent.getPublicKeyReference()).isEqualTo(CA_KEY_REFERENCE);
+    CardCertificateSpi cardCertificate = readCardCertificate();
+    assertThat(cardCertificate.getIssuerPublicKeyReference()).isEqualTo(CA_KEY_REFERENCE);
+    assertThat(cardCertificate.getCardSerialNumber()).isEqualTo(CARD_SERIAL_NUMBER);
+    assertThat(cardCertificate.checkCertificateAndGetPublicKey(caContent).getRawValue())
+        .hasSize(64);
+  }
+
+  @Test
+  public void checkCertificateAndGetContent_whenCertificateIsAltered_shouldThrowCVE()
+      throws Exception {
+    byte[] certificate = ca.getCertificateBytes();
+    certificate[100] ^= 0x01;
+    CaCertificateContentSpi pcaContent =
+        ((PcaCertificateSpi) pca.getPcaCertificate()).checkCertificateAndGetContent();
+    try {
+      ((CaCertificateParserSpi) factory.getCaCertificateParser())
+          .parseCertificate(certificate)
+          .checkCertificateAndGetContent(pcaContent);
+      shouldHaveThrown(CertificateValidationException.class);
+    } catch (CertificateValidationException e) {
+      assertThat(e).hasMessageContaining("signature");
+    }
+  }
+
+  @Test
+  public void checkCertificateAndGetPublicKey_whenAidIsNotAuthorized_shouldThrowCVE()
+      throws Exception {
+    SoftwareCertificateAuthority restrictedCa =
+        pca.issueCa(keyReference((byte) 0x03), HexUtil.toByteArray("A000000291"));
+    card = restrictedCa.issueCard(CARD_SERIAL_NUMBER);
+    CaCertificateContentSpi caContent = checkCaCertificate(restrictedCa);
+    try {
+      readCardCertificate().checkCertificateAndGetPublicKey(caContent);
+      shouldHaveThrown(CertificateValidationException.class);
+    } catch (CertificateValidationException e) {
+      assertThat(e).hasMessageContaining("AID");
+    }
+  }
+
+  @Test
+  public void isCardPkiSessionValid_whenSessionIsSignedBySimulatedCard_shouldReturnTrue()
+      throws Exception {
+    CardPublicKeySpi cardPublicKey =
+        readCardCertificate().checkCertificateAndGetPublicKey(checkCaCertificate(ca));
+    AsymmetricCryptoCardTransactionManagerSpi manager = factory.createCardTransactionManager();
+    manager.initTerminalPkiSession(cardPublicKey);
+    exchange(manager, OPEN_SECURE_SESSION_CMD);
+    exchange(manager, READ_RECORD_CMD);
+    exchange(manager, UPDATE_RECORD_CMD);
+    byte[] closeResponse = transmit(CLOSE_SECURE_SESSION_CMD);
+    assertThat(closeResponse).hasSize(66);
+    assertThat(manager.isCardPkiSessionValid(Arrays.copyOf(closeResponse, 64))).isTrue();
+    assertThat(card.getRecord(7, 1)).isEqualTo(HexUtil.toByteArray("AABBCC"));
+  }
+
+  @Test
+  public void isCardPkiSessionValid_whenAnApduDiffers_shouldReturnFalse() throws Exception {
+    CardPublicKeySpi cardPublicKey =
+        readCardCertificate().checkCertificateAndGetPublicKey(checkCaCertificate(ca));
+    AsymmetricCryptoCardTransactionManagerSpi manager = factory.createCardTransactionManager();
+    manager.initTerminalPkiSession(cardPublicKey);
+    exchange(manager, OPEN_SECURE_SESSION_CMD);
+    manager.updateTerminalPkiSession(READ_RECORD_CMD);
+    transmit(READ_RECORD_CMD);
+    manager.updateTerminalPkiSession(HexUtil.toByteArray("9000"));
+    byte[] closeResponse = transmit(CLOSE_SECURE_SESSION_CMD);
+    assertThat(manager.isCardPkiSessionValid(Arrays.copyOf(closeResponse, 64))).isFalse();
+  }
+
+  @Test
+  public void getSelectApplicationResponse_shouldContainTheSerialNumberAndThePkiStartupInfo() {
+    assertThat(HexUtil.toHex(card.getSelectApplicationResponse()))
+        .isEqualTo(
+            "6F238409315449432E49434131A516BF0C13C708"
+                + "0000000011223344"
+                + "53070A3C3005141001"
+                + "9000");
+  }
+}
@@ -0,0 +1,276 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import org.eclipse.keyple.core.util.HexUtil;
+import org.eclipse.keypop.calypso.crypto.symmetric.SvCommandSecurityDataApi;
+import org.eclipse.keypop.calypso.crypto.symmetric.SymmetricCryptoException;
+import org.eclipse.keypop.calypso.crypto.symmetric.spi.SymmetricCryptoCardTransactionManagerSpi;
+import org.eclipse.keypop.card.ChannelControl;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class SoftwareSymmetricCryptoFactoryTest {
+
+  private static final byte KIF = 0x30;
+  private static final byte KVC = 0x79;
+  private static final byte PIN_KIF = 0x11;
+  private static final byte PIN_KVC = 0x22;
+  private static final byte[] CARD_SERIAL_NUMBER = HexUtil.toByteArray("0000000011223344");
+  private static final byte[] OPEN_SESSION_DATA_OUT = HexUtil.toByteArray("C8C7C6C5C4C3C2C1023079");
+  private static final byte[] READ_RECORD_CMD = HexUtil.toByteArray("00B2013C00");
+  private static final byte[] READ_RECORD_RSP = HexUtil.toByteArray("1122334455669000");
+  private static final byte[] UPDATE_RECORD_CMD = HexUtil.toByteArray("00DC013C03AABBCC");
+  private static final byte[] SW_9000 = HexUtil.toByteArray("9000");
+  private static final byte[] CARD_CHALLENGE = HexUtil.toByteArray("C1C2C3C4C5C6C7C8");
+  private static final byte[] AID = HexUtil.toByteArray("315449432E49434131");
+  private static final byte[] RECORD = HexUtil.toByteArray("1122334455");
+
+  private SoftwareSymmetricCryptoFactory factory;
+
+  @Before
+  public void setUp() {
+    factory =
+        new SoftwareSymmetricCryptoFactory()
+            .addKey(KIF, KVC, SymmetricKeyAlgorithm.AES, new byte[16])
+            .addKey(PIN_KIF, PIN_KVC, SymmetricKeyAlgorithm.TDES, new byte[16])
+            .setRandom(new Random(0));
+  }
+
+  private SymmetricCryptoCardTransactionManagerSpi createManager(boolean isExtendedMode) {
+    return factory.createCardTransactionManager(
+        CARD_SERIAL_NUMBER, isExtendedMode, new ArrayList<byte[]>());
+  }
+
+  private byte[] runSession(SymmetricCryptoCardTransactionManagerSpi manager, byte[] response)
+      throws Exception {
+    manager.initTerminalSecureSessionContext();
+    manager.initTerminalSessionMac(OPEN_SESSION_DATA_OUT, KIF, KVC);
+    manager.updateTerminalSessionMac(READ_RECORD_CMD);
+    manager.updateTerminalSessionMac(response);
+    return manager.finalizeTerminalSessionMac();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void addKey_whenKeyLengthIsInvalid_shouldThrowIAE() {
+    factory.addKey(KIF, KVC, SymmetricKeyAlgorithm.DES, new byte[16]);
+  }
+
+  @Test
+  public void initTerminalSecureSessionContext_shouldReturnChallengeOfModeLength()
+      throws Exception {
+    assertThat(createManager(false).initTerminalSecureSessionContext()).hasSize(4);
+    assertThat(createManager(true).initTerminalSecureSessionContext()).hasSize(8);
+  }
+
+  @Test(expected = SymmetricCryptoException.class)
+  public void initTerminalSessionMac_whenKeyIsUnknown_shouldThrowSymmetricCryptoException()
+      throws Exception {
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(true);
+    manager.initTerminalSecureSessionContext();
+    manager.initTerminalSessionMac(OPEN_SESSION_DATA_OUT, (byte) 0x21, (byte) 0x01);
+  }
+
+  @Test
+  public void finalizeTerminalSessionMac_shouldDependOnTheExchangedApdus() throws Exception {
+    byte[] mac1 = runSession(createManager(false), READ_RECORD_RSP);
+    factory.setRandom(new Random(0));
+    byte[] mac2 = runSession(createManager(false), READ_RECORD_RSP);
+    factory.setRandom(new Random(0));
+    byte[] mac3 = runSession(createManager(false), SW_9000);
+    assertThat(mac1).hasSize(4).isEqualTo(mac2).isNotEqualTo(mac3);
+  }
+
+  @Test
+  public void isCardSessionMacValid_byDefault_shouldCompareToExpectedMac() throws Exception {
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(true);
+    runSession(manager, READ_RECORD_RSP);
+    byte[] expectedCardMac =
+        ((SoftwareSymmetricCryptoExtension) manager).getExpectedCardSessionMac();
+    assertThat(expectedCardMac).hasSize(8);
+    assertThat(manager.isCardSessionMacValid(expectedCardMac)).isTrue();
+    assertThat(manager.isCardSessionMacValid(new byte[8])).isFalse();
+  }
+
+  @Test
+  public void isCardSessionMacValid_whenVerificationIsDisabled_shouldAcceptAnyMac()
+      throws Exception {
+    factory.setCardSignatureVerificationEnabled(false);
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(false);
+    runSession(manager, READ_RECORD_RSP);
+    assertThat(manager.isCardSessionMacValid(new byte[4])).isTrue();
+  }
+
+  @Test
+  public void updateTerminalSessionMac_whenEncryptionIsActive_shouldCipherOnlyTheDataField()
+      throws Exception {
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(true);
+    manager.initTerminalSecureSessionContext();
+    manager.initTerminalSessionMac(OPEN_SESSION_DATA_OUT, KIF, KVC);
+    manager.activateEncryption();
+    byte[] cipheredRequest = manager.updateTerminalSessionMac(UPDATE_RECORD_CMD);
+    assertThat(cipheredRequest).hasSameSizeAs(UPDATE_RECORD_CMD).isNotEqualTo(UPDATE_RECORD_CMD);
+    assertThat(HexUtil.toHex(cipheredRequest)).startsWith("00DC013C03");
+    byte[] plainResponse = manager.updateTerminalSessionMac(SW_9000.clone());
+    assertThat(plainResponse).isEqualTo(SW_9000);
+    manager.deactivateEncryption();
+    assertThat(manager.updateTerminalSessionMac(READ_RECORD_CMD)).isSameAs(READ_RECORD_CMD);
+  }
+
+  @Test
+  public void cipherPin_shouldReturnDataOfTheCardCommandLength() throws Exception {
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(false);
+    assertThat(
+            manager.cipherPinForPresentation(CARD_CHALLENGE, "1234".getBytes(), PIN_KIF, PIN_KVC))
+        .hasSize(8);
+    assertThat(
+            manager.cipherPinForModification(
+                CARD_CHALLENGE, new byte[4], "4567".getBytes(), PIN_KIF, PIN_KVC))
+        .hasSize(16);
+    assertThat(manager.generateCipheredCardKey(CARD_CHALLENGE, PIN_KIF, PIN_KVC, KIF, KVC))
+        .hasSize(32);
+  }
+
+  @Test
+  public void computeSvCommandSecurityData_shouldSetTheTerminalData() throws Exception {
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(false);
+    SvCommandSecurityDataApi data = mock(SvCommandSecurityDataApi.class);
+    when(data.getSvGetRequest()).thenReturn(HexUtil.toByteArray("007C000721"));
+    when(data.getSvGetResponse())
+        .thenReturn(
+            HexUtil.toByteArray(
+                "79007B000000000000000000000000000000000000000000000000000000" + "9000"));
+    when(data.getSvCommandPartialRequest())
+        .thenReturn(HexUtil.toByteArray("B80000140000000000000000"));
+    manager.computeSvCommandSecurityData(data);
+    ArgumentCaptor<byte[]> terminalSvMac = ArgumentCaptor.forClass(byte[].class);
+    verify(data).setTerminalSvMac(terminalSvMac.capture());
+    assertThat(terminalSvMac.getValue()).hasSize(5);
+    byte[] expectedCardSvMac = ((SoftwareSymmetricCryptoExtension) manager).getExpectedCardSvMac();
+    assertThat(expectedCardSvMac).hasSize(3);
+    assertThat(manager.isCardSvMacValid(expectedCardSvMac)).isTrue();
+    assertThat(manager.isCardSvMacValid(new byte[3])).isFalse();
+  }
+
+  @Test
+  public void secureSession_withSimulatedCard_shouldBeMutuallyAuthenticated() throws Exception {
+    SoftwareSymmetricCard card = createCard();
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(false);
+    openSession(card, manager);
+    exchange(card, manager, READ_RECORD_CMD);
+    exchange(card, manager, UPDATE_RECORD_CMD);
+    byte[] closeResponse = closeSession(card, manager.finalizeTerminalSessionMac());
+    assertThat(HexUtil.toHex(closeResponse)).endsWith("9000");
+    assertThat(manager.isCardSessionMacValid(Arrays.copyOf(closeResponse, 4))).isTrue();
+    assertThat(card.getRecord(7, 1)).isEqualTo(HexUtil.toByteArray("AABBCC4455"));
+  }
+
+  @Test
+  public void secureSession_whenTerminalSignatureIsWrong_shouldBeRejectedAndCancelled()
+      throws Exception {
+    SoftwareSymmetricCard card = createCard();
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(false);
+    openSession(card, manager);
+    exchange(card, manager, UPDATE_RECORD_CMD);
+    manager.finalizeTerminalSessionMac();
+    assertThat(HexUtil.toHex(closeSession(card, new byte[4]))).isEqualTo("6982");
+    assertThat(card.getRecord(7, 1)).isEqualTo(RECORD);
+  }
+
+  @Test
+  public void isCardSessionMacValid_whenCardKeyDiffers_shouldBeRejectedByTheCard()
+      throws Exception {
+    factory.addKey(KIF, (byte) 0x7A, SymmetricKeyAlgorithm.AES, new byte[16]);
+    SoftwareSymmetricCard card = createCard().setKey(3, KIF, (byte) 0x7A);
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(false);
+    byte[] terminalChallenge = manager.initTerminalSecureSessionContext();
+    byte[] openResponse =
+        transmit(
+            card, HexUtil.toByteArray("008A0B3904" + HexUtil.toHex(terminalChallenge) + "00"));
+    // the terminal uses another key than the card
+    manager.initTerminalSessionMac(Arrays.copyOf(openResponse, openResponse.length - 2), KIF, KVC);
+    byte[] terminalMac = manager.finalizeTerminalSessionMac();
+    assertThat(HexUtil.toHex(closeSession(card, terminalMac))).isEqualTo("6982");
+  }
+
+  @Test
+  public void changeKey_withSimulatedCard_shouldReplaceTheCardKey() throws Exception {
+    byte newKvc = (byte) 0x7A;
+    factory.addKey(KIF, newKvc, SymmetricKeyAlgorithm.AES, new byte[16]);
+    SoftwareSymmetricCard card = createCard();
+    SymmetricCryptoCardTransactionManagerSpi manager = createManager(false);
+    byte[] challengeResponse = transmit(card, HexUtil.toByteArray("0084000008"));
+    byte[] cipheredKey =
+        manager.generateCipheredCardKey(
+            Arrays.copyOf(challengeResponse, 8), PIN_KIF, PIN_KVC, KIF, newKvc);
+    byte[] changeKeyCmd = HexUtil.toByteArray("00D8000320" + HexUtil.toHex(cipheredKey));
+    assertThat(HexUtil.toHex(transmit(card, changeKeyCmd))).isEqualTo("9000");
+    assertThat(card.getKey(3)).containsExactly(KIF, newKvc);
+    // a replayed ciphered key is rejected
+    transmit(card, HexUtil.toByteArray("0084000008"));
+    assertThat(HexUtil.toHex(transmit(card, changeKeyCmd))).isEqualTo("6988");
+  }
+
+  private SoftwareSymmetricCard createCard() {
+    return factory
+        .createCard(AID, CARD_SERIAL_NUMBER)
+        .setKey(1, PIN_KIF, PIN_KVC)
+        .setKey(3, KIF, KVC)
+        .setRecord(7, 1, RECORD);
+  }
+
+  private void openSession(
+      SoftwareSymmetricCard card, SymmetricCryptoCardTransactionManagerSpi manager)
+      throws Exception {
+    byte[] terminalChallenge = manager.initTerminalSecureSessionContext();
+    // key index 3, SFI 07h, record 1
+    byte[] openResponse =
+        transmit(
+            card, HexUtil.toByteArray("008A0B3904" + HexUtil.toHex(terminalChallenge) + "00"));
+    assertThat(HexUtil.toHex(openResponse)).endsWith("3079" + "05" + "1122334455" + "9000");
+    manager.initTerminalSessionMac(Arrays.copyOf(openResponse, openResponse.length - 2), KIF, KVC);
+  }
+
+  private void exchange(
+      SoftwareSymmetricCard card, SymmetricCryptoCardTransactionManagerSpi manager, byte[] apdu)
+      throws Exception {
+    manager.updateTerminalSessionMac(apdu);
+    manager.updateTerminalSessionMac(transmit(card, apdu));
+  }
+
+  private byte[] closeSession(SoftwareSymmetricCard card, byte[] terminalMac) throws Exception {
+    return transmit(card, HexUtil.toByteArray("008E800004" + HexUtil.toHex(terminalMac) + "00"));
+  }
+
+  private byte[] transmit(SoftwareSymmetricCard card, byte[] apdu) throws Exception {
+    ApduRequestSpi apduRequest = mock(ApduRequestSpi.class);
+    when(apduRequest.getApdu()).thenReturn(apdu);
+    CardRequestSpi cardRequest = mock(CardRequestSpi.class);
+    when(cardRequest.getApduRequests()).thenReturn(Collections.singletonList(apduRequest));
+    return card.transmitCardRequest(cardRequest, ChannelControl.KEEP_OPEN)
+        .getApduResponses()
+        .get(0)
+        .getApdu();
+  }
+}
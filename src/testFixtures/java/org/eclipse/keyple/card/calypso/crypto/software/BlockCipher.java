@@ -0,0 +1,197 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Block encryption with a key, and the CBC-MAC computations built on it.
+ *
+ * <p>The MAC is a CBC-MAC with the ISO/IEC 9797-1 padding method 2, computed incrementally: the
+ * data is provided in any number of parts with {@link #update(byte[], int, int)}, without keeping
+ * it. An instance is not thread-safe.
+ *
+ * @since 3.1.6
+ */
+final class BlockCipher {
+
+  private final SymmetricKeyAlgorithm algorithm;
+  private final Cipher cipher;
+  private final int blockSize;
+  private final byte[] chaining;
+  private final byte[] block;
+  private int blockLength;
+
+  /**
+   * Constructor.
+   *
+   * @param algorithm The algorithm.
+   * @param key The key, of the length of the algorithm.
+   * @throws IllegalArgumentException If the key is invalid or the algorithm is not available.
+   * @since 3.1.6
+   */
+  BlockCipher(SymmetricKeyAlgorithm algorithm, byte[] key) {
+    this.algorithm = algorithm;
+    this.blockSize = algorithm.getBlockSize();
+    this.chaining = new byte[blockSize];
+    this.block = new byte[blockSize];
+    byte[] jceKey = key;
+    if (algorithm == SymmetricKeyAlgorithm.TDES) {
+      // K1 K2 K1
+      jceKey = new byte[24];
+      System.arraycopy(key, 0, jceKey, 0, 16);
+      System.arraycopy(key, 0, jceKey, 16, 8);
+    }
+    try {
+      cipher = Cipher.getInstance(algorithm.getJceName() + "/ECB/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(jceKey, algorithm.getJceName()));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalArgumentException("Unable to initialize the " + algorithm + " cipher", e);
+    }
+  }
+
+  /**
+   * @return The algorithm.
+   * @since 3.1.6
+   */
+  SymmetricKeyAlgorithm getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * @return The block size in bytes.
+   * @since 3.1.6
+   */
+  int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Encrypts one block.
+   *
+   * @param in The source.
+   * @param inOffset The offset of the block in the source.
+   * @param out The destination, may be the source.
+   * @param outOffset The offset of the block in the destination.
+   * @since 3.1.6
+   */
+  void encryptBlock(byte[] in, int inOffset, byte[] out, int outOffset) {
+    try {
+      cipher.doFinal(in, inOffset, blockSize, out, outOffset);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Block encryption failed", e);
+    }
+  }
+
+  /**
+   * Computes an output of any length depending on the key and on the provided data: each block of
+   * the output is the MAC of its index followed by the data.
+   *
+   * <p>The current MAC computation is reset.
+   *
+   * @param length The length of the output.
+   * @param parts The data, in any number of parts.
+   * @return A new array.
+   * @since 3.1.6
+   */
+  byte[] computeKeyedOutput(int length, byte[]... parts) {
+    byte[] output = new byte[length];
+    for (int offset = 0, index = 0; offset < length; offset += blockSize, index++) {
+      reset();
+      update(new byte[] {(byte) index}, 0, 1);
+      for (byte[] part : parts) {
+        update(part, 0, part.length);
+      }
+      System.arraycopy(doFinal(), 0, output, offset, Math.min(blockSize, length - offset));
+    }
+    return output;
+  }
+
+  /**
+   * Resets the MAC computation.
+   *
+   * @since 3.1.6
+   */
+  void reset() {
+    for (int i = 0; i < blockSize; i++) {
+      chaining[i] = 0;
+    }
+    blockLength = 0;
+  }
+
+  /**
+   * Adds data to the MAC computation.
+   *
+   * @param data The data.
+   * @param offset The offset of the data.
+   * @param length The length of the data.
+   * @since 3.1.6
+   */
+  void update(byte[] data, int offset, int length) {
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      if (blockLength == blockSize) {
+        chainBlock();
+      }
+      block[blockLength++] = data[i];
+    }
+  }
+
+  /**
+   * Computes the MAC of the data provided since the last reset, without ending the computation.
+   *
+   * @return A new array of the block size.
+   * @since 3.1.6
+   */
+  byte[] peek() {
+    byte[] savedChaining = chaining.clone();
+    byte[] savedBlock = block.clone();
+    int savedBlockLength = blockLength;
+    byte[] mac = doFinal();
+    System.arraycopy(savedChaining, 0, chaining, 0, blockSize);
+    System.arraycopy(savedBlock, 0, block, 0, blockSize);
+    blockLength = savedBlockLength;
+    return mac;
+  }
+
+  /**
+   * Pads the data and computes the MAC of the data provided since the last reset, then resets the
+   * computation.
+   *
+   * @return A new array of the block size.
+   * @since 3.1.6
+   */
+  byte[] doFinal() {
+    if (blockLength == blockSize) {
+      chainBlock();
+    }
+    block[blockLength++] = (byte) 0x80;
+    while (blockLength < blockSize) {
+      block[blockLength++] = 0;
+    }
+    chainBlock();
+    byte[] mac = chaining.clone();
+    reset();
+    return mac;
+  }
+
+  /** XORs the current block into the chaining value and encrypts it. */
+  private void chainBlock() {
+    for (int i = 0; i < blockSize; i++) {
+      chaining[i] ^= block[i];
+    }
+    encryptBlock(chaining, 0, chaining, 0);
+    blockLength = 0;
+  }
+}
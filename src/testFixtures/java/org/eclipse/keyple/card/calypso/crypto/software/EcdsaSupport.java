@@ -0,0 +1,259 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Arrays;
+
+/**
+ * ECDSA on the NIST P-256 curve with SHA-256, as provided by the JDK.
+ *
+ * <p>The public keys are handled as the 64-byte concatenation of the coordinates of the point and
+ * the signatures as the 64-byte concatenation of r and s, the fixed-length forms used in the
+ * certificates and in the card responses; the conversions from and to the encodings of the JCE
+ * are done here. All the methods are thread-safe.
+ *
+ * @since 3.1.6
+ */
+final class EcdsaSupport {
+
+  /**
+   * Length of a public key.
+   *
+   * @since 3.1.6
+   */
+  static final int PUBLIC_KEY_LENGTH = 64;
+
+  /**
+   * Length of a signature.
+   *
+   * @since 3.1.6
+   */
+  static final int SIGNATURE_LENGTH = 64;
+
+  private static final String CURVE_NAME = "secp256r1";
+  private static final String SIGNATURE_ALGORITHM = "SHA256withECDSA";
+  private static final int COORDINATE_LENGTH = 32;
+  private static final byte DER_SEQUENCE = 0x30;
+  private static final byte DER_INTEGER = 0x02;
+  private static final ECParameterSpec CURVE_PARAMETERS;
+  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+  static {
+    try {
+      AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+      parameters.init(new ECGenParameterSpec(CURVE_NAME));
+      CURVE_PARAMETERS = parameters.getParameterSpec(ECParameterSpec.class);
+    } catch (GeneralSecurityException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private EcdsaSupport() {}
+
+  /**
+   * Generates a new key pair.
+   *
+   * @return A new key pair.
+   * @throws IllegalStateException If the curve is not supported by the JDK.
+   * @since 3.1.6
+   */
+  static KeyPair generateKeyPair() {
+    try {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+      generator.initialize(CURVE_PARAMETERS, SECURE_RANDOM);
+      return generator.generateKeyPair();
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to generate an EC key pair", e);
+    }
+  }
+
+  /**
+   * Encodes a public key as the concatenation of the coordinates of its point.
+   *
+   * @param publicKey The public key.
+   * @return A new 64-byte array.
+   * @since 3.1.6
+   */
+  static byte[] encodePublicKey(PublicKey publicKey) {
+    ECPoint point = ((ECPublicKey) publicKey).getW();
+    byte[] encoded = new byte[PUBLIC_KEY_LENGTH];
+    copyUnsigned(point.getAffineX(), encoded, 0);
+    copyUnsigned(point.getAffineY(), encoded, COORDINATE_LENGTH);
+    return encoded;
+  }
+
+  /**
+   * Decodes a public key encoded by {@link #encodePublicKey(PublicKey)}.
+   *
+   * @param encoded The source.
+   * @param offset The offset of the key in the source.
+   * @return A new public key.
+   * @throws GeneralSecurityException If the point is not on the curve.
+   * @since 3.1.6
+   */
+  static PublicKey decodePublicKey(byte[] encoded, int offset) throws GeneralSecurityException {
+    ECPoint point =
+        new ECPoint(toUnsigned(encoded, offset), toUnsigned(encoded, offset + COORDINATE_LENGTH));
+    return KeyFactory.getInstance("EC")
+        .generatePublic(new ECPublicKeySpec(point, CURVE_PARAMETERS));
+  }
+
+  /**
+   * Creates a signature engine.
+   *
+   * @return A new instance, not thread-safe.
+   * @throws GeneralSecurityException If the algorithm is not supported by the JDK.
+   * @since 3.1.6
+   */
+  static Signature newSignature() throws GeneralSecurityException {
+    return Signature.getInstance(SIGNATURE_ALGORITHM);
+  }
+
+  /**
+   * Signs data.
+   *
+   * @param privateKey The private key.
+   * @param data The source.
+   * @param offset The offset of the data in the source.
+   * @param length The length of the data.
+   * @return A new 64-byte signature.
+   * @throws GeneralSecurityException If the signature fails.
+   * @since 3.1.6
+   */
+  static byte[] sign(PrivateKey privateKey, byte[] data, int offset, int length)
+      throws GeneralSecurityException {
+    Signature signature = newSignature();
+    signature.initSign(privateKey, SECURE_RANDOM);
+    signature.update(data, offset, length);
+    return toRawSignature(signature.sign());
+  }
+
+  /**
+   * Verifies the signature of data.
+   *
+   * @param publicKey The public key.
+   * @param data The source.
+   * @param offset The offset of the data in the source.
+   * @param length The length of the data.
+   * @param rawSignature The source of the signature.
+   * @param signatureOffset The offset of the 64-byte signature in its source.
+   * @return true if the signature is valid.
+   * @throws GeneralSecurityException If the verification can't be performed.
+   * @since 3.1.6
+   */
+  static boolean verify(
+      PublicKey publicKey,
+      byte[] data,
+      int offset,
+      int length,
+      byte[] rawSignature,
+      int signatureOffset)
+      throws GeneralSecurityException {
+    Signature signature = newSignature();
+    signature.initVerify(publicKey);
+    signature.update(data, offset, length);
+    return signature.verify(toDerSignature(rawSignature, signatureOffset));
+  }
+
+  /**
+   * Converts a DER-encoded signature produced by the JCE to its 64-byte form.
+   *
+   * @param derSignature The DER-encoded signature.
+   * @return A new array.
+   * @throws GeneralSecurityException If the signature is not a valid DER sequence.
+   * @since 3.1.6
+   */
+  static byte[] toRawSignature(byte[] derSignature) throws GeneralSecurityException {
+    if (derSignature.length < 8 || derSignature[0] != DER_SEQUENCE) {
+      throw new GeneralSecurityException("Invalid DER signature");
+    }
+    byte[] rawSignature = new byte[SIGNATURE_LENGTH];
+    int offset = 2;
+    for (int i = 0; i < 2; i++) {
+      if (offset + 2 > derSignature.length || derSignature[offset] != DER_INTEGER) {
+        throw new GeneralSecurityException("Invalid DER signature");
+      }
+      int length = derSignature[offset + 1];
+      offset += 2;
+      if (length <= 0 || offset + length > derSignature.length) {
+        throw new GeneralSecurityException("Invalid DER signature");
+      }
+      copyUnsigned(
+          new BigInteger(1, Arrays.copyOfRange(derSignature, offset, offset + length)),
+          rawSignature,
+          i * COORDINATE_LENGTH);
+      offset += length;
+    }
+    return rawSignature;
+  }
+
+  /**
+   * Converts a 64-byte signature to the DER encoding expected by the JCE.
+   *
+   * @param rawSignature The source.
+   * @param offset The offset of the signature in the source.
+   * @return A new array.
+   * @since 3.1.6
+   */
+  static byte[] toDerSignature(byte[] rawSignature, int offset) {
+    byte[] r = toUnsigned(rawSignature, offset).toByteArray();
+    byte[] s = toUnsigned(rawSignature, offset + COORDINATE_LENGTH).toByteArray();
+    byte[] derSignature = new byte[6 + r.length + s.length];
+    derSignature[0] = DER_SEQUENCE;
+    derSignature[1] = (byte) (4 + r.length + s.length);
+    derSignature[2] = DER_INTEGER;
+    derSignature[3] = (byte) r.length;
+    System.arraycopy(r, 0, derSignature, 4, r.length);
+    derSignature[4 + r.length] = DER_INTEGER;
+    derSignature[5 + r.length] = (byte) s.length;
+    System.arraycopy(s, 0, derSignature, 6 + r.length, s.length);
+    return derSignature;
+  }
+
+  /**
+   * @param source The source.
+   * @param offset The offset of the 32-byte big-endian value in the source.
+   * @return The positive value.
+   */
+  private static BigInteger toUnsigned(byte[] source, int offset) {
+    return new BigInteger(1, Arrays.copyOfRange(source, offset, offset + COORDINATE_LENGTH));
+  }
+
+  /**
+   * Copies a positive value as a 32-byte big-endian value.
+   *
+   * @param value The value, lower than 2^256.
+   * @param destination The destination.
+   * @param offset The offset in the destination.
+   */
+  private static void copyUnsigned(BigInteger value, byte[] destination, int offset) {
+    byte[] bytes = value.toByteArray();
+    int length = Math.min(bytes.length, COORDINATE_LENGTH);
+    System.arraycopy(
+        bytes, bytes.length - length, destination, offset + COORDINATE_LENGTH - length, length);
+  }
+}
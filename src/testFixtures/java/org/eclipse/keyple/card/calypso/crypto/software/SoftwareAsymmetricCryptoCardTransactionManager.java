@@ -0,0 +1,110 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import org.eclipse.keypop.calypso.card.transaction.spi.CardTransactionCryptoExtension;
+import org.eclipse.keypop.calypso.crypto.asymmetric.AsymmetricCryptoException;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardPublicKeySpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.transaction.spi.AsymmetricCryptoCardTransactionManagerSpi;
+
+/**
+ * Verifier of the PKI secure sessions of one card transaction, created by a {@link
+ * SoftwareAsymmetricCryptoFactory}.
+ *
+ * <p>The APDUs of the session are added to an ECDSA verification as they are exchanged, the
+ * signature returned by the card when closing the session being finally checked against it. An
+ * instance is not thread-safe.
+ *
+ * <p>The transaction managers require a crypto extension, but there is nothing to extend: this
+ * one has no specific method.
+ *
+ * @since 3.1.6
+ */
+final class SoftwareAsymmetricCryptoCardTransactionManager
+    implements AsymmetricCryptoCardTransactionManagerSpi, CardTransactionCryptoExtension {
+
+  private Signature sessionSignature;
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The card public key must have been extracted from a certificate of the software PKI, or be
+   * provided as the 64-byte concatenation of the coordinates of its point.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public void initTerminalPkiSession(CardPublicKeySpi cardPublicKey)
+      throws AsymmetricCryptoException {
+    try {
+      sessionSignature = EcdsaSupport.newSignature();
+      if (cardPublicKey instanceof SoftwareCardPublicKey) {
+        sessionSignature.initVerify(((SoftwareCardPublicKey) cardPublicKey).getPublicKey());
+      } else {
+        sessionSignature.initVerify(EcdsaSupport.decodePublicKey(cardPublicKey.getRawValue(), 0));
+      }
+    } catch (GeneralSecurityException e) {
+      sessionSignature = null;
+      throw new AsymmetricCryptoException("Unable to initialize the PKI session", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public void updateTerminalPkiSession(byte[] cardApdu) throws AsymmetricCryptoException {
+    checkSessionInitialized();
+    try {
+      sessionSignature.update(cardApdu);
+    } catch (GeneralSecurityException e) {
+      throw new AsymmetricCryptoException("Unable to update the PKI session", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The card signature is the 64-byte concatenation of r and s.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isCardPkiSessionValid(byte[] cardSessionSignature)
+      throws AsymmetricCryptoException {
+    checkSessionInitialized();
+    Signature signature = sessionSignature;
+    sessionSignature = null;
+    if (cardSessionSignature == null
+        || cardSessionSignature.length != EcdsaSupport.SIGNATURE_LENGTH) {
+      return false;
+    }
+    try {
+      return signature.verify(EcdsaSupport.toDerSignature(cardSessionSignature, 0));
+    } catch (GeneralSecurityException e) {
+      throw new AsymmetricCryptoException("Unable to verify the card session signature", e);
+    }
+  }
+
+  /**
+   * @throws AsymmetricCryptoException If no session is initialized.
+   */
+  private void checkSessionInitialized() throws AsymmetricCryptoException {
+    if (sessionSignature == null) {
+      throw new AsymmetricCryptoException("The terminal PKI session is not initialized");
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import org.eclipse.keypop.calypso.card.transaction.spi.AsymmetricCryptoCardTransactionManagerFactory;
+import org.eclipse.keypop.calypso.card.transaction.spi.CaCertificateParser;
+import org.eclipse.keypop.calypso.card.transaction.spi.CardCertificateParser;
+import org.eclipse.keypop.calypso.crypto.asymmetric.transaction.spi.AsymmetricCryptoCardTransactionManagerFactorySpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.transaction.spi.AsymmetricCryptoCardTransactionManagerSpi;
+
+/**
+ * Pure Java implementation of the asymmetric crypto service, verifying the PKI secure sessions of
+ * cards simulated by {@link SoftwarePkiCard}, in tests, benchmarks and load simulations.
+ *
+ * <p>The certificates are issued by {@link SoftwareCertificateAuthority} and the signatures are
+ * ECDSA signatures on the NIST P-256 curve with SHA-256, computed by the JDK. The certificate
+ * formats have the sizes of the Calypso ones but are specific to this implementation: the
+ * certificates and the signatures of real cards can't be verified.
+ *
+ * <p>The factory and the parsers are stateless and can be shared by concurrent transactions; the
+ * cost of the verifications (one per certificate not registered yet, one per card certificate and
+ * one per session) is therefore representative of the CPU load of a PKI validator.
+ *
+ * @since 3.1.6
+ */
+public final class SoftwareAsymmetricCryptoFactory
+    implements AsymmetricCryptoCardTransactionManagerFactory,
+        AsymmetricCryptoCardTransactionManagerFactorySpi {
+
+  private final SoftwareCaCertificateParser caCertificateParser = new SoftwareCaCertificateParser();
+  private final SoftwareCardCertificateParser cardCertificateParser =
+      new SoftwareCardCertificateParser();
+
+  /**
+   * Creates a factory.
+   *
+   * @since 3.1.6
+   */
+  public SoftwareAsymmetricCryptoFactory() {}
+
+  /**
+   * Returns the parser of the CA certificates issued by {@link SoftwareCertificateAuthority}, to be
+   * registered in the security setting.
+   *
+   * @return A non-null reference.
+   * @since 3.1.6
+   */
+  public CaCertificateParser getCaCertificateParser() {
+    return caCertificateParser;
+  }
+
+  /**
+   * Returns the parser of the card certificates issued by {@link SoftwareCertificateAuthority}, to
+   * be registered in the security setting.
+   *
+   * @return A non-null reference.
+   * @since 3.1.6
+   */
+  public CardCertificateParser getCardCertificateParser() {
+    return cardCertificateParser;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public AsymmetricCryptoCardTransactionManagerSpi createCardTransactionManager() {
+    return new SoftwareAsymmetricCryptoCardTransactionManager();
+  }
+}
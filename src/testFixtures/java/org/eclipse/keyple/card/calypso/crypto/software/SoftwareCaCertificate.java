@@ -0,0 +1,280 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import org.eclipse.keypop.calypso.card.transaction.spi.CaCertificate;
+import org.eclipse.keypop.calypso.card.transaction.spi.PcaCertificate;
+import org.eclipse.keypop.calypso.crypto.asymmetric.AsymmetricCryptoException;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.CertificateValidationException;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CaCertificateContentSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CaCertificateSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.PcaCertificateSpi;
+
+/**
+ * PCA or CA certificate of the software PKI, signed with ECDSA by its issuer (by itself for a
+ * PCA).
+ *
+ * <p>The certificate has the size of a Calypso CA certificate (384 bytes), in the following
+ * format:
+ *
+ * <ul>
+ *   <li>certificate type (1 byte, {@link #CERTIFICATE_TYPE}) and version (1 byte),
+ *   <li>issuer public key reference (29 bytes),
+ *   <li>public key reference (29 bytes),
+ *   <li>start and end dates (2 x 4 bytes, yyyymmdd, 0 if not limited),
+ *   <li>AID size (1 byte, 0 if the card AIDs are not checked), AID (16 bytes) and AID truncation
+ *       flag (1 byte),
+ *   <li>public key (64 bytes), then zero padding,
+ *   <li>signature of all the previous bytes (64 bytes).
+ * </ul>
+ *
+ * @since 3.1.6
+ */
+final class SoftwareCaCertificate
+    implements PcaCertificate, PcaCertificateSpi, CaCertificate, CaCertificateSpi {
+
+  /**
+   * Type of the certificates, chosen outside of the Calypso values.
+   *
+   * @since 3.1.6
+   */
+  static final byte CERTIFICATE_TYPE = (byte) 0xE0;
+
+  /**
+   * Size of the certificates.
+   *
+   * @since 3.1.6
+   */
+  static final int CERTIFICATE_SIZE = 384;
+
+  /**
+   * Size of the public key references.
+   *
+   * @since 3.1.6
+   */
+  static final int KEY_REFERENCE_SIZE = 29;
+
+  /**
+   * Maximum size of the AIDs.
+   *
+   * @since 3.1.6
+   */
+  static final int AID_MAX_SIZE = 16;
+
+  private static final byte VERSION = 0x01;
+  private static final int ISSUER_KEY_REFERENCE_OFFSET = 2;
+  private static final int KEY_REFERENCE_OFFSET = 31;
+  private static final int START_DATE_OFFSET = 60;
+  private static final int END_DATE_OFFSET = 64;
+  private static final int AID_SIZE_OFFSET = 68;
+  private static final int AID_OFFSET = 69;
+  private static final int AID_TRUNCATION_OFFSET = 85;
+  private static final int PUBLIC_KEY_OFFSET = 86;
+  private static final int SIGNATURE_OFFSET = CERTIFICATE_SIZE - EcdsaSupport.SIGNATURE_LENGTH;
+
+  private final byte[] certificate;
+
+  /**
+   * Constructor.
+   *
+   * @param certificate The certificate.
+   */
+  private SoftwareCaCertificate(byte[] certificate) {
+    this.certificate = certificate;
+  }
+
+  /**
+   * Builds and signs a certificate.
+   *
+   * @param issuerPublicKeyReference The reference of the key of the issuer.
+   * @param issuerPrivateKey The private key of the issuer.
+   * @param publicKeyReference The reference of the certified key.
+   * @param publicKey The certified key.
+   * @param aid The AID the card AIDs must start with, null if the card AIDs are not checked.
+   * @return A new certificate.
+   * @throws IllegalStateException If the signature fails.
+   * @since 3.1.6
+   */
+  static SoftwareCaCertificate build(
+      byte[] issuerPublicKeyReference,
+      PrivateKey issuerPrivateKey,
+      byte[] publicKeyReference,
+      PublicKey publicKey,
+      byte[] aid) {
+    byte[] certificate = new byte[CERTIFICATE_SIZE];
+    certificate[0] = CERTIFICATE_TYPE;
+    certificate[1] = VERSION;
+    System.arraycopy(
+        issuerPublicKeyReference, 0, certificate, ISSUER_KEY_REFERENCE_OFFSET, KEY_REFERENCE_SIZE);
+    System.arraycopy(publicKeyReference, 0, certificate, KEY_REFERENCE_OFFSET, KEY_REFERENCE_SIZE);
+    if (aid != null) {
+      certificate[AID_SIZE_OFFSET] = (byte) aid.length;
+      System.arraycopy(aid, 0, certificate, AID_OFFSET, aid.length);
+      certificate[AID_TRUNCATION_OFFSET] = 1;
+    }
+    System.arraycopy(
+        EcdsaSupport.encodePublicKey(publicKey),
+        0,
+        certificate,
+        PUBLIC_KEY_OFFSET,
+        EcdsaSupport.PUBLIC_KEY_LENGTH);
+    try {
+      System.arraycopy(
+          EcdsaSupport.sign(issuerPrivateKey, certificate, 0, SIGNATURE_OFFSET),
+          0,
+          certificate,
+          SIGNATURE_OFFSET,
+          EcdsaSupport.SIGNATURE_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to sign the CA certificate", e);
+    }
+    return new SoftwareCaCertificate(certificate);
+  }
+
+  /**
+   * Parses a certificate, without checking it.
+   *
+   * @param certificate The certificate.
+   * @return A new instance.
+   * @throws CertificateValidationException If the size, the type or the version of the
+   *     certificate is invalid.
+   * @since 3.1.6
+   */
+  static SoftwareCaCertificate parse(byte[] certificate) throws CertificateValidationException {
+    if (certificate == null || certificate.length != CERTIFICATE_SIZE) {
+      throw new CertificateValidationException(
+          "CA certificate must be " + CERTIFICATE_SIZE + " bytes long");
+    }
+    if (certificate[0] != CERTIFICATE_TYPE || certificate[1] != VERSION) {
+      throw new CertificateValidationException("Unsupported CA certificate type or version");
+    }
+    int aidSize = certificate[AID_SIZE_OFFSET] & 0xFF;
+    if (aidSize > AID_MAX_SIZE) {
+      throw new CertificateValidationException("Invalid AID size: " + aidSize);
+    }
+    return new SoftwareCaCertificate(certificate.clone());
+  }
+
+  /**
+   * @return A copy of the certificate.
+   * @since 3.1.6
+   */
+  byte[] getBytes() {
+    return certificate.clone();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] getIssuerPublicKeyReference() {
+    return Arrays.copyOfRange(
+        certificate,
+        ISSUER_KEY_REFERENCE_OFFSET,
+        ISSUER_KEY_REFERENCE_OFFSET + KEY_REFERENCE_SIZE);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The PCA certificate must be self-signed.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public CaCertificateContentSpi checkCertificateAndGetContent()
+      throws CertificateValidationException, AsymmetricCryptoException {
+    if (!Arrays.equals(getIssuerPublicKeyReference(), getPublicKeyReference())) {
+      throw new CertificateValidationException("PCA certificate is not self-signed");
+    }
+    return checkAndGetContent(decodePublicKey());
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The issuer certificate must have been issued by the software PKI, and authorize the AID of
+   * this certificate if it is restricted.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public CaCertificateContentSpi checkCertificateAndGetContent(
+      CaCertificateContentSpi issuerCertificateContent)
+      throws CertificateValidationException, AsymmetricCryptoException {
+    SoftwareCaCertificateContent issuerContent =
+        SoftwareCaCertificateContent.checkIssuer(
+            issuerCertificateContent, getIssuerPublicKeyReference());
+    SoftwareCaCertificateContent content = checkAndGetContent(issuerContent.getPublicKey());
+    if (content.isAidCheckRequested()) {
+      issuerContent.checkAid(content.getAid());
+    }
+    return content;
+  }
+
+  /**
+   * Checks the signature and the validity dates of the certificate.
+   *
+   * @param issuerPublicKey The public key of the issuer.
+   * @return The content of the certificate.
+   */
+  private SoftwareCaCertificateContent checkAndGetContent(PublicKey issuerPublicKey)
+      throws CertificateValidationException, AsymmetricCryptoException {
+    boolean isSignatureValid;
+    try {
+      isSignatureValid =
+          EcdsaSupport.verify(
+              issuerPublicKey, certificate, 0, SIGNATURE_OFFSET, certificate, SIGNATURE_OFFSET);
+    } catch (GeneralSecurityException e) {
+      throw new AsymmetricCryptoException("Unable to verify the CA certificate signature", e);
+    }
+    if (!isSignatureValid) {
+      throw new CertificateValidationException("Invalid CA certificate signature");
+    }
+    long startDate = SoftwareCaCertificateContent.readDate(certificate, START_DATE_OFFSET);
+    long endDate = SoftwareCaCertificateContent.readDate(certificate, END_DATE_OFFSET);
+    SoftwareCaCertificateContent.checkValidity(startDate, endDate);
+    int aidSize = certificate[AID_SIZE_OFFSET] & 0xFF;
+    return new SoftwareCaCertificateContent(
+        getPublicKeyReference(),
+        decodePublicKey(),
+        startDate,
+        endDate,
+        aidSize == 0 ? null : Arrays.copyOfRange(certificate, AID_OFFSET, AID_OFFSET + aidSize),
+        certificate[AID_TRUNCATION_OFFSET] != 0);
+  }
+
+  /**
+   * @return The reference of the certified key.
+   */
+  private byte[] getPublicKeyReference() {
+    return Arrays.copyOfRange(
+        certificate, KEY_REFERENCE_OFFSET, KEY_REFERENCE_OFFSET + KEY_REFERENCE_SIZE);
+  }
+
+  /**
+   * @return The certified key.
+   */
+  private PublicKey decodePublicKey() throws CertificateValidationException {
+    try {
+      return EcdsaSupport.decodePublicKey(certificate, PUBLIC_KEY_OFFSET);
+    } catch (GeneralSecurityException e) {
+      throw new CertificateValidationException("Invalid public key in CA certificate", e);
+    }
+  }
+}
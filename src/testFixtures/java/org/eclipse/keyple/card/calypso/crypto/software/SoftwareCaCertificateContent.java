@@ -0,0 +1,215 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Calendar;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.CertificateValidationException;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CaCertificateContentSpi;
+
+/**
+ * Content of a checked {@link SoftwareCaCertificate}.
+ *
+ * @since 3.1.6
+ */
+final class SoftwareCaCertificateContent implements CaCertificateContentSpi {
+
+  private final byte[] publicKeyReference;
+  private final PublicKey publicKey;
+  private final long startDate;
+  private final long endDate;
+  private final byte[] aid;
+  private final boolean isAidTruncated;
+
+  /**
+   * Constructor.
+   *
+   * @param publicKeyReference The reference of the certified key.
+   * @param publicKey The certified key.
+   * @param startDate The start date (yyyymmdd), 0 if not limited.
+   * @param endDate The end date (yyyymmdd), 0 if not limited.
+   * @param aid The authorized AID, null if the AIDs are not checked.
+   * @param isAidTruncated true if the authorized AIDs only have to start with the AID.
+   * @since 3.1.6
+   */
+  SoftwareCaCertificateContent(
+      byte[] publicKeyReference,
+      PublicKey publicKey,
+      long startDate,
+      long endDate,
+      byte[] aid,
+      boolean isAidTruncated) {
+    this.publicKeyReference = publicKeyReference;
+    this.publicKey = publicKey;
+    this.startDate = startDate;
+    this.endDate = endDate;
+    this.aid = aid;
+    this.isAidTruncated = isAidTruncated;
+  }
+
+  /**
+   * Checks that a certificate content can be used to check a certificate issued by the software
+   * PKI.
+   *
+   * @param issuerCertificateContent The content of the issuer certificate.
+   * @param issuerPublicKeyReference The issuer key reference of the checked certificate.
+   * @return The issuer content.
+   * @throws CertificateValidationException If the content is not the one of a software PKI
+   *     certificate, or of another key.
+   * @since 3.1.6
+   */
+  static SoftwareCaCertificateContent checkIssuer(
+      CaCertificateContentSpi issuerCertificateContent, byte[] issuerPublicKeyReference)
+      throws CertificateValidationException {
+    if (!(issuerCertificateContent instanceof SoftwareCaCertificateContent)) {
+      throw new CertificateValidationException(
+          "Issuer certificate was not issued by the software PKI");
+    }
+    if (!Arrays.equals(
+        issuerCertificateContent.getPublicKeyReference(), issuerPublicKeyReference)) {
+      throw new CertificateValidationException("Issuer public key reference mismatch");
+    }
+    return (SoftwareCaCertificateContent) issuerCertificateContent;
+  }
+
+  /**
+   * Checks that a date range includes the current date.
+   *
+   * @param startDate The start date (yyyymmdd), 0 if not limited.
+   * @param endDate The end date (yyyymmdd), 0 if not limited.
+   * @throws CertificateValidationException If the current date is out of the range.
+   * @since 3.1.6
+   */
+  static void checkValidity(long startDate, long endDate) throws CertificateValidationException {
+    if (startDate == 0 && endDate == 0) {
+      return;
+    }
+    Calendar calendar = Calendar.getInstance();
+    long currentDate =
+        calendar.get(Calendar.YEAR) * 10000L
+            + (calendar.get(Calendar.MONTH) + 1) * 100L
+            + calendar.get(Calendar.DAY_OF_MONTH);
+    if (startDate != 0 && currentDate < startDate) {
+      throw new CertificateValidationException("Certificate not yet valid");
+    }
+    if (endDate != 0 && currentDate > endDate) {
+      throw new CertificateValidationException("Certificate expired");
+    }
+  }
+
+  /**
+   * Reads a date encoded on 4 bytes.
+   *
+   * @param source The source.
+   * @param offset The offset of the date in the source.
+   * @return The date (yyyymmdd).
+   * @since 3.1.6
+   */
+  static long readDate(byte[] source, int offset) {
+    return ((source[offset] & 0xFFL) << 24)
+        | ((source[offset + 1] & 0xFFL) << 16)
+        | ((source[offset + 2] & 0xFFL) << 8)
+        | (source[offset + 3] & 0xFFL);
+  }
+
+  /**
+   * Checks that an AID is authorized by this certificate.
+   *
+   * @param checkedAid The AID to check.
+   * @throws CertificateValidationException If the AID is not authorized.
+   * @since 3.1.6
+   */
+  void checkAid(byte[] checkedAid) throws CertificateValidationException {
+    if (aid == null) {
+      return;
+    }
+    boolean isAuthorized =
+        isAidTruncated
+            ? checkedAid.length >= aid.length
+                && Arrays.equals(Arrays.copyOf(checkedAid, aid.length), aid)
+            : Arrays.equals(checkedAid, aid);
+    if (!isAuthorized) {
+      throw new CertificateValidationException("AID not authorized by the issuer certificate");
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] getPublicKeyReference() {
+    return publicKeyReference.clone();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public PublicKey getPublicKey() {
+    return publicKey;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public long getStartDate() {
+    return startDate;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public long getEndDate() {
+    return endDate;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isAidCheckRequested() {
+    return aid != null;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isAidTruncated() {
+    return isAidTruncated;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] getAid() {
+    return aid != null ? aid.clone() : null;
+  }
+}
@@ -0,0 +1,266 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import org.eclipse.keypop.calypso.crypto.asymmetric.AsymmetricCryptoException;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.CertificateValidationException;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CaCertificateContentSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardCertificateSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardPublicKeySpi;
+
+/**
+ * Card certificate of the software PKI, signed with ECDSA by a CA.
+ *
+ * <p>The certificate has the size of a Calypso card certificate (316 bytes), in the following
+ * format:
+ *
+ * <ul>
+ *   <li>certificate type (1 byte, {@link #CERTIFICATE_TYPE}) and version (1 byte),
+ *   <li>issuer public key reference (29 bytes),
+ *   <li>AID size (1 byte) and AID (16 bytes),
+ *   <li>card serial number (8 bytes) and startup information (7 bytes),
+ *   <li>start and end dates (2 x 4 bytes, yyyymmdd, 0 if not limited),
+ *   <li>card public key (64 bytes), then zero padding,
+ *   <li>signature of all the previous bytes (64 bytes).
+ * </ul>
+ *
+ * @since 3.1.6
+ */
+final class SoftwareCardCertificate implements CardCertificateSpi {
+
+  /**
+   * Type of the certificates, chosen outside of the Calypso values.
+   *
+   * @since 3.1.6
+   */
+  static final byte CERTIFICATE_TYPE = (byte) 0xE1;
+
+  /**
+   * Size of the certificates.
+   *
+   * @since 3.1.6
+   */
+  static final int CERTIFICATE_SIZE = 316;
+
+  /**
+   * Size of the card serial numbers.
+   *
+   * @since 3.1.6
+   */
+  static final int SERIAL_NUMBER_SIZE = 8;
+
+  /**
+   * Size of the card startup information.
+   *
+   * @since 3.1.6
+   */
+  static final int STARTUP_INFO_SIZE = 7;
+
+  private static final byte VERSION = 0x01;
+  private static final int ISSUER_KEY_REFERENCE_OFFSET = 2;
+  private static final int AID_SIZE_OFFSET = 31;
+  private static final int AID_OFFSET = 32;
+  private static final int SERIAL_NUMBER_OFFSET = 48;
+  private static final int STARTUP_INFO_OFFSET = 56;
+  private static final int START_DATE_OFFSET = 63;
+  private static final int END_DATE_OFFSET = 67;
+  private static final int PUBLIC_KEY_OFFSET = 71;
+  private static final int SIGNATURE_OFFSET = CERTIFICATE_SIZE - EcdsaSupport.SIGNATURE_LENGTH;
+
+  private final byte[] certificate;
+
+  /**
+   * Constructor.
+   *
+   * @param certificate The certificate.
+   */
+  private SoftwareCardCertificate(byte[] certificate) {
+    this.certificate = certificate;
+  }
+
+  /**
+   * Builds and signs a certificate.
+   *
+   * @param issuerPublicKeyReference The reference of the key of the issuer.
+   * @param issuerPrivateKey The private key of the issuer.
+   * @param aid The AID of the card.
+   * @param serialNumber The serial number of the card.
+   * @param startupInfo The startup information of the card.
+   * @param publicKey The public key of the card.
+   * @return A new certificate.
+   * @throws IllegalStateException If the signature fails.
+   * @since 3.1.6
+   */
+  static SoftwareCardCertificate build(
+      byte[] issuerPublicKeyReference,
+      PrivateKey issuerPrivateKey,
+      byte[] aid,
+      byte[] serialNumber,
+      byte[] startupInfo,
+      PublicKey publicKey) {
+    byte[] certificate = new byte[CERTIFICATE_SIZE];
+    certificate[0] = CERTIFICATE_TYPE;
+    certificate[1] = VERSION;
+    System.arraycopy(
+        issuerPublicKeyReference,
+        0,
+        certificate,
+        ISSUER_KEY_REFERENCE_OFFSET,
+        SoftwareCaCertificate.KEY_REFERENCE_SIZE);
+    certificate[AID_SIZE_OFFSET] = (byte) aid.length;
+    System.arraycopy(aid, 0, certificate, AID_OFFSET, aid.length);
+    System.arraycopy(serialNumber, 0, certificate, SERIAL_NUMBER_OFFSET, SERIAL_NUMBER_SIZE);
+    System.arraycopy(startupInfo, 0, certificate, STARTUP_INFO_OFFSET, STARTUP_INFO_SIZE);
+    System.arraycopy(
+        EcdsaSupport.encodePublicKey(publicKey),
+        0,
+        certificate,
+        PUBLIC_KEY_OFFSET,
+        EcdsaSupport.PUBLIC_KEY_LENGTH);
+    try {
+      System.arraycopy(
+          EcdsaSupport.sign(issuerPrivateKey, certificate, 0, SIGNATURE_OFFSET),
+          0,
+          certificate,
+          SIGNATURE_OFFSET,
+          EcdsaSupport.SIGNATURE_LENGTH);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to sign the card certificate", e);
+    }
+    return new SoftwareCardCertificate(certificate);
+  }
+
+  /**
+   * Parses a certificate, without checking it.
+   *
+   * @param certificate The certificate.
+   * @return A new instance.
+   * @throws CertificateValidationException If the size, the type or the version of the
+   *     certificate is invalid.
+   * @since 3.1.6
+   */
+  static SoftwareCardCertificate parse(byte[] certificate) throws CertificateValidationException {
+    if (certificate == null || certificate.length != CERTIFICATE_SIZE) {
+      throw new CertificateValidationException(
+          "Card certificate must be " + CERTIFICATE_SIZE + " bytes long");
+    }
+    if (certificate[0] != CERTIFICATE_TYPE || certificate[1] != VERSION) {
+      throw new CertificateValidationException("Unsupported card certificate type or version");
+    }
+    int aidSize = certificate[AID_SIZE_OFFSET] & 0xFF;
+    if (aidSize < 5 || aidSize > SoftwareCaCertificate.AID_MAX_SIZE) {
+      throw new CertificateValidationException("Invalid AID size: " + aidSize);
+    }
+    return new SoftwareCardCertificate(certificate.clone());
+  }
+
+  /**
+   * @return A copy of the certificate.
+   * @since 3.1.6
+   */
+  byte[] getBytes() {
+    return certificate.clone();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] getIssuerPublicKeyReference() {
+    return Arrays.copyOfRange(
+        certificate,
+        ISSUER_KEY_REFERENCE_OFFSET,
+        ISSUER_KEY_REFERENCE_OFFSET + SoftwareCaCertificate.KEY_REFERENCE_SIZE);
+  }
+
+  /**
+   * Returns the AID of the card.
+   *
+   * @return A new array.
+   * @since 3.1.6
+   */
+  public byte[] getCardAid() {
+    return Arrays.copyOfRange(
+        certificate, AID_OFFSET, AID_OFFSET + (certificate[AID_SIZE_OFFSET] & 0xFF));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] getCardSerialNumber() {
+    return Arrays.copyOfRange(
+        certificate, SERIAL_NUMBER_OFFSET, SERIAL_NUMBER_OFFSET + SERIAL_NUMBER_SIZE);
+  }
+
+  /**
+   * Returns the startup information of the card.
+   *
+   * @return A new array.
+   * @since 3.1.6
+   */
+  public byte[] getCardStartupInfo() {
+    return Arrays.copyOfRange(
+        certificate, STARTUP_INFO_OFFSET, STARTUP_INFO_OFFSET + STARTUP_INFO_SIZE);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The issuer certificate must have been issued by the software PKI, and authorize the AID of
+   * the card if it is restricted.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public CardPublicKeySpi checkCertificateAndGetPublicKey(
+      CaCertificateContentSpi issuerCertificateContent)
+      throws CertificateValidationException, AsymmetricCryptoException {
+    SoftwareCaCertificateContent issuerContent =
+        SoftwareCaCertificateContent.checkIssuer(
+            issuerCertificateContent, getIssuerPublicKeyReference());
+    boolean isSignatureValid;
+    try {
+      isSignatureValid =
+          EcdsaSupport.verify(
+              issuerContent.getPublicKey(),
+              certificate,
+              0,
+              SIGNATURE_OFFSET,
+              certificate,
+              SIGNATURE_OFFSET);
+    } catch (GeneralSecurityException e) {
+      throw new AsymmetricCryptoException("Unable to verify the card certificate signature", e);
+    }
+    if (!isSignatureValid) {
+      throw new CertificateValidationException("Invalid card certificate signature");
+    }
+    SoftwareCaCertificateContent.checkValidity(
+        SoftwareCaCertificateContent.readDate(certificate, START_DATE_OFFSET),
+        SoftwareCaCertificateContent.readDate(certificate, END_DATE_OFFSET));
+    issuerContent.checkAid(getCardAid());
+    try {
+      return new SoftwareCardPublicKey(
+          EcdsaSupport.decodePublicKey(certificate, PUBLIC_KEY_OFFSET));
+    } catch (GeneralSecurityException e) {
+      throw new CertificateValidationException("Invalid public key in card certificate", e);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import org.eclipse.keypop.calypso.card.transaction.spi.CardCertificateParser;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.CertificateValidationException;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardCertificateParserSpi;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardCertificateSpi;
+
+/**
+ * Parser of the card certificates of the software PKI.
+ *
+ * @since 3.1.6
+ */
+final class SoftwareCardCertificateParser
+    implements CardCertificateParser, CardCertificateParserSpi {
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte getCertificateType() {
+    return SoftwareCardCertificate.CERTIFICATE_TYPE;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public CardCertificateSpi parseCertificate(byte[] cardCertificate)
+      throws CertificateValidationException {
+    return SoftwareCardCertificate.parse(cardCertificate);
+  }
+}
@@ -0,0 +1,55 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.security.PublicKey;
+import org.eclipse.keypop.calypso.crypto.asymmetric.certificate.spi.CardPublicKeySpi;
+
+/**
+ * Card public key extracted from a {@link SoftwareCardCertificate}.
+ *
+ * @since 3.1.6
+ */
+final class SoftwareCardPublicKey implements CardPublicKeySpi {
+
+  private final PublicKey publicKey;
+
+  /**
+   * Constructor.
+   *
+   * @param publicKey The EC public key.
+   * @since 3.1.6
+   */
+  SoftwareCardPublicKey(PublicKey publicKey) {
+    this.publicKey = publicKey;
+  }
+
+  /**
+   * @return The EC public key.
+   * @since 3.1.6
+   */
+  PublicKey getPublicKey() {
+    return publicKey;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The key is returned as the concatenation of the coordinates of its point (64 bytes).
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] getRawValue() {
+    return EcdsaSupport.encodePublicKey(publicKey);
+  }
+}
@@ -0,0 +1,227 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.security.KeyPair;
+import org.eclipse.keypop.calypso.card.transaction.spi.CaCertificate;
+import org.eclipse.keypop.calypso.card.transaction.spi.PcaCertificate;
+
+/**
+ * Certification authority of the software PKI, issuing the CA and card certificates verified by
+ * {@link SoftwareAsymmetricCryptoFactory}.
+ *
+ * <p>The chain of trust is built from a PCA created by {@link #createPca(byte[])}: the PCA issues
+ * CAs, which issue cards. Each authority holds an ECDSA key pair generated at its creation; an
+ * instance is immutable and can be shared by concurrent threads.
+ *
+ * @since 3.1.6
+ */
+public final class SoftwareCertificateAuthority {
+
+  private static final byte[] DEFAULT_CARD_AID =
+      new byte[] {0x31, 0x54, 0x49, 0x43, 0x2E, 0x49, 0x43, 0x41, 0x31};
+
+  private final byte[] publicKeyReference;
+  private final KeyPair keyPair;
+  private final SoftwareCaCertificate certificate;
+  private final boolean isPca;
+
+  /**
+   * Constructor.
+   *
+   * @param publicKeyReference The reference of the key of the authority.
+   * @param keyPair The key pair of the authority.
+   * @param certificate The certificate of the authority.
+   * @param isPca true for a PCA.
+   */
+  private SoftwareCertificateAuthority(
+      byte[] publicKeyReference,
+      KeyPair keyPair,
+      SoftwareCaCertificate certificate,
+      boolean isPca) {
+    this.publicKeyReference = publicKeyReference;
+    this.keyPair = keyPair;
+    this.certificate = certificate;
+    this.isPca = isPca;
+  }
+
+  /**
+   * Creates a PCA with a new key pair and a self-signed certificate.
+   *
+   * @param publicKeyReference The 29-byte reference of the key of the PCA.
+   * @return A new instance.
+   * @throws IllegalArgumentException If the reference is null or not 29 bytes long.
+   * @since 3.1.6
+   */
+  public static SoftwareCertificateAuthority createPca(byte[] publicKeyReference) {
+    checkPublicKeyReference(publicKeyReference);
+    KeyPair keyPair = EcdsaSupport.generateKeyPair();
+    return new SoftwareCertificateAuthority(
+        publicKeyReference.clone(),
+        keyPair,
+        SoftwareCaCertificate.build(
+            publicKeyReference,
+            keyPair.getPrivate(),
+            publicKeyReference,
+            keyPair.getPublic(),
+            null),
+        true);
+  }
+
+  /**
+   * Creates a CA with a new key pair, issued by the current authority.
+   *
+   * @param publicKeyReference The 29-byte reference of the key of the CA.
+   * @param aid The AID the AIDs of the cards issued by the CA must start with (5 to 16 bytes), null
+   *     if not restricted.
+   * @return A new instance.
+   * @throws IllegalArgumentException If the reference is null or not 29 bytes long, or if the AID
+   *     has an invalid length.
+   * @since 3.1.6
+   */
+  public SoftwareCertificateAuthority issueCa(byte[] publicKeyReference, byte[] aid) {
+    checkPublicKeyReference(publicKeyReference);
+    if (aid != null) {
+      checkAid(aid);
+    }
+    KeyPair caKeyPair = EcdsaSupport.generateKeyPair();
+    return new SoftwareCertificateAuthority(
+        publicKeyReference.clone(),
+        caKeyPair,
+        SoftwareCaCertificate.build(
+            this.publicKeyReference,
+            keyPair.getPrivate(),
+            publicKeyReference,
+            caKeyPair.getPublic(),
+            aid != null ? aid.clone() : null),
+        false);
+  }
+
+  /**
+   * Creates a simulated card with a new key pair and a certificate issued by the current
+   * authority, with the AID 315449432E49434131h ("1TIC.ICA1").
+   *
+   * @param serialNumber The 8-byte serial number of the card.
+   * @return A new instance.
+   * @throws IllegalArgumentException If the serial number is null or not 8 bytes long.
+   * @since 3.1.6
+   */
+  public SoftwarePkiCard issueCard(byte[] serialNumber) {
+    return issueCard(DEFAULT_CARD_AID, serialNumber);
+  }
+
+  /**
+   * Creates a simulated card with a new key pair and a certificate issued by the current
+   * authority.
+   *
+   * @param aid The AID of the card (5 to 16 bytes).
+   * @param serialNumber The 8-byte serial number of the card.
+   * @return A new instance.
+   * @throws IllegalArgumentException If the AID has an invalid length or if the serial number is
+   *     null or not 8 bytes long.
+   * @since 3.1.6
+   */
+  public SoftwarePkiCard issueCard(byte[] aid, byte[] serialNumber) {
+    checkAid(aid);
+    if (serialNumber == null || serialNumber.length != SoftwareCardCertificate.SERIAL_NUMBER_SIZE) {
+      throw new IllegalArgumentException(
+          "serialNumber must be " + SoftwareCardCertificate.SERIAL_NUMBER_SIZE + " bytes long");
+    }
+    KeyPair cardKeyPair = EcdsaSupport.generateKeyPair();
+    SoftwareCardCertificate cardCertificate =
+        SoftwareCardCertificate.build(
+            publicKeyReference,
+            keyPair.getPrivate(),
+            aid,
+            serialNumber,
+            SoftwarePkiCard.STARTUP_INFO,
+            cardKeyPair.getPublic());
+    return new SoftwarePkiCard(
+        aid.clone(),
+        serialNumber.clone(),
+        cardKeyPair.getPrivate(),
+        cardCertificate.getBytes(),
+        certificate.getBytes());
+  }
+
+  /**
+   * Returns the reference of the key of the authority.
+   *
+   * @return A new 29-byte array.
+   * @since 3.1.6
+   */
+  public byte[] getPublicKeyReference() {
+    return publicKeyReference.clone();
+  }
+
+  /**
+   * Returns the certificate of the authority.
+   *
+   * @return A new 384-byte array.
+   * @since 3.1.6
+   */
+  public byte[] getCertificateBytes() {
+    return certificate.getBytes();
+  }
+
+  /**
+   * Returns the certificate of the PCA, to be registered in the security setting.
+   *
+   * @return A non-null reference.
+   * @throws IllegalStateException If the authority is not a PCA.
+   * @since 3.1.6
+   */
+  public PcaCertificate getPcaCertificate() {
+    if (!isPca) {
+      throw new IllegalStateException("The authority is not a PCA");
+    }
+    return certificate;
+  }
+
+  /**
+   * Returns the certificate of the CA, to be registered in the security setting when it must not
+   * be read from the cards.
+   *
+   * @return A non-null reference.
+   * @throws IllegalStateException If the authority is a PCA.
+   * @since 3.1.6
+   */
+  public CaCertificate getCaCertificate() {
+    if (isPca) {
+      throw new IllegalStateException("The authority is a PCA");
+    }
+    return certificate;
+  }
+
+  /**
+   * @param publicKeyReference The reference to check.
+   */
+  private static void checkPublicKeyReference(byte[] publicKeyReference) {
+    if (publicKeyReference == null
+        || publicKeyReference.length != SoftwareCaCertificate.KEY_REFERENCE_SIZE) {
+      throw new IllegalArgumentException(
+          "publicKeyReference must be "
+              + SoftwareCaCertificate.KEY_REFERENCE_SIZE
+              + " bytes long");
+    }
+  }
+
+  /**
+   * @param aid The AID to check.
+   */
+  private static void checkAid(byte[] aid) {
+    if (aid == null || aid.length < 5 || aid.length > SoftwareCaCertificate.AID_MAX_SIZE) {
+      throw new IllegalArgumentException(
+          "aid must be 5 to " + SoftwareCaCertificate.AID_MAX_SIZE + " bytes long");
+    }
+  }
+}
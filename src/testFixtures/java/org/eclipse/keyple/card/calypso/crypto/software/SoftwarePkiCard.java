@@ -0,0 +1,567 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.io.ByteArrayOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.keypop.card.ApduResponseApi;
+import org.eclipse.keypop.card.CardResponseApi;
+import org.eclipse.keypop.card.ChannelControl;
+import org.eclipse.keypop.card.ProxyReaderApi;
+import org.eclipse.keypop.card.UnexpectedStatusWordException;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.eclipse.keypop.reader.CardReader;
+
+/**
+ * Card reader simulating a Calypso card supporting the PKI mode, with a certificate issued by a
+ * {@link SoftwareCertificateAuthority}.
+ *
+ * <p>The simulated card answers the commands used by the PKI secure sessions: Get Data of the card
+ * and CA certificates, PKI Open and Close Secure Session, and Read Record and Update Record on
+ * linear files whose records are stored in memory. The other commands are answered by the status
+ * word 6D00h. The card signs the APDUs exchanged during the session in the order in which the
+ * terminal adds them to its verification, its session signature is therefore accepted by {@link
+ * SoftwareAsymmetricCryptoFactory}.
+ *
+ * <p>The card image is built from the response of {@link #getSelectApplicationResponse()}. The
+ * methods are synchronized: a card can be shared, but the sessions of concurrent transactions are
+ * not isolated, so a load test should give each thread its own card.
+ *
+ * @since 3.1.6
+ */
+public final class SoftwarePkiCard implements CardReader, ProxyReaderApi {
+
+  /**
+   * Startup information of the card: revision 3 with PKI mode.
+   *
+   * @since 3.1.6
+   */
+  static final byte[] STARTUP_INFO = new byte[] {0x0A, 0x3C, 0x30, 0x05, 0x14, 0x10, 0x01};
+
+  private static final int SW_SUCCESS = 0x9000;
+  private static final int SW_WRONG_LENGTH = 0x6700;
+  private static final int SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
+  private static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+  private static final int SW_RECORD_NOT_FOUND = 0x6A83;
+  private static final int SW_DATA_NOT_FOUND = 0x6A88;
+  private static final int SW_WRONG_P1_P2 = 0x6B00;
+  private static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+  private static final byte INS_SELECT = (byte) 0xA4;
+  private static final byte INS_GET_DATA = (byte) 0xCA;
+  private static final byte INS_OPEN_SECURE_SESSION = (byte) 0x8A;
+  private static final byte INS_CLOSE_SECURE_SESSION = (byte) 0x8E;
+  private static final byte INS_READ_RECORD = (byte) 0xB2;
+  private static final byte INS_UPDATE_RECORD = (byte) 0xDC;
+  private static final int TAG_CARD_CERTIFICATE = 0xDF4C;
+  private static final int TAG_CA_CERTIFICATE = 0xDF4A;
+  private static final int MAX_DATA_OUT_LENGTH = 256;
+  private static final int TERMINAL_CHALLENGE_LENGTH = 8;
+  private static final int CARD_CHALLENGE_LENGTH = 8;
+
+  private final byte[] aid;
+  private final byte[] serialNumber;
+  private final PrivateKey privateKey;
+  private final byte[] cardCertificate;
+  private final byte[] caCertificate;
+  private final Map<Integer, byte[]> records = new HashMap<>();
+  private final SecureRandom random = new SecureRandom();
+  private String name = "SoftwarePkiCard";
+  private boolean isContactless = true;
+  private int transactionCounter = 0xFFFFFF;
+  private Signature sessionSignature;
+
+  /**
+   * Constructor.
+   *
+   * @param aid The AID of the card.
+   * @param serialNumber The serial number of the card.
+   * @param privateKey The private key of the card.
+   * @param cardCertificate The certificate of the card.
+   * @param caCertificate The certificate of the issuer of the card.
+   * @since 3.1.6
+   */
+  SoftwarePkiCard(
+      byte[] aid,
+      byte[] serialNumber,
+      PrivateKey privateKey,
+      byte[] cardCertificate,
+      byte[] caCertificate) {
+    this.aid = aid;
+    this.serialNumber = serialNumber;
+    this.privateKey = privateKey;
+    this.cardCertificate = cardCertificate;
+    this.caCertificate = caCertificate;
+  }
+
+  /**
+   * Sets the name of the reader ("SoftwarePkiCard" by default).
+   *
+   * @param name The name.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public synchronized SoftwarePkiCard setName(String name) {
+    this.name = name;
+    return this;
+  }
+
+  /**
+   * Sets the contactless flag of the reader (true by default).
+   *
+   * @param isContactless true for a contactless reader.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public synchronized SoftwarePkiCard setContactless(boolean isContactless) {
+    this.isContactless = isContactless;
+    return this;
+  }
+
+  /**
+   * Sets the content of a record, creating it if needed.
+   *
+   * @param sfi The SFI of the file (1 to 30).
+   * @param recordNumber The number of the record (1 to 250).
+   * @param content The content.
+   * @return The current instance.
+   * @throws IllegalArgumentException If an argument is out of range or the content is null.
+   * @since 3.1.6
+   */
+  public synchronized SoftwarePkiCard setRecord(int sfi, int recordNumber, byte[] content) {
+    if (sfi < 1 || sfi > 30 || recordNumber < 1 || recordNumber > 250 || content == null) {
+      throw new IllegalArgumentException("Invalid SFI, record number or content");
+    }
+    records.put(recordKey(sfi, recordNumber), content.clone());
+    return this;
+  }
+
+  /**
+   * Returns the content of a record.
+   *
+   * @param sfi The SFI of the file.
+   * @param recordNumber The number of the record.
+   * @return Null if the record does not exist.
+   * @since 3.1.6
+   */
+  public synchronized byte[] getRecord(int sfi, int recordNumber) {
+    byte[] content = records.get(recordKey(sfi, recordNumber));
+    return content != null ? content.clone() : null;
+  }
+
+  /**
+   * Returns the serial number of the card.
+   *
+   * @return A new 8-byte array.
+   * @since 3.1.6
+   */
+  public byte[] getSerialNumber() {
+    return serialNumber.clone();
+  }
+
+  /**
+   * Returns the certificate of the card.
+   *
+   * @return A new 316-byte array.
+   * @since 3.1.6
+   */
+  public byte[] getCardCertificateBytes() {
+    return cardCertificate.clone();
+  }
+
+  /**
+   * Returns the response of the card to the Select Application command (FCI followed by the
+   * status word 9000h), from which the card image is built.
+   *
+   * @return A new array.
+   * @since 3.1.6
+   */
+  public byte[] getSelectApplicationResponse() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0x6F);
+    out.write(26 + aid.length);
+    out.write(0x84);
+    out.write(aid.length);
+    out.write(aid, 0, aid.length);
+    out.write(0xA5);
+    out.write(22);
+    out.write(0xBF);
+    out.write(0x0C);
+    out.write(19);
+    out.write(0xC7);
+    out.write(serialNumber.length);
+    out.write(serialNumber, 0, serialNumber.length);
+    out.write(0x53);
+    out.write(STARTUP_INFO.length);
+    out.write(STARTUP_INFO, 0, STARTUP_INFO.length);
+    out.write(SW_SUCCESS >> 8);
+    out.write(SW_SUCCESS & 0xFF);
+    return out.toByteArray();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized String getName() {
+    return name;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized boolean isContactless() {
+    return isContactless;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return Always true.
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isCardPresent() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized CardResponseApi transmitCardRequest(
+      CardRequestSpi cardRequest, ChannelControl channelControl)
+      throws UnexpectedStatusWordException {
+    List<ApduResponseApi> apduResponses = new ArrayList<>();
+    boolean isLogicalChannelOpen = channelControl == ChannelControl.KEEP_OPEN;
+    for (ApduRequestSpi apduRequest : cardRequest.getApduRequests()) {
+      SimulatedApduResponse apduResponse =
+          new SimulatedApduResponse(processApdu(apduRequest.getApdu()));
+      apduResponses.add(apduResponse);
+      if (cardRequest.stopOnUnsuccessfulStatusWord()
+          && !apduRequest.getSuccessfulStatusWords().contains(apduResponse.getStatusWord())) {
+        throw new UnexpectedStatusWordException(
+            new SimulatedCardResponse(apduResponses, isLogicalChannelOpen),
+            apduResponses.size() == cardRequest.getApduRequests().size(),
+            "Unexpected status word");
+      }
+    }
+    return new SimulatedCardResponse(apduResponses, isLogicalChannelOpen);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>An open secure session is aborted.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized void releaseChannel() {
+    sessionSignature = null;
+  }
+
+  /**
+   * Processes an APDU and adds it to the session signature if a session is open.
+   *
+   * @param apdu The command APDU.
+   * @return The response APDU.
+   */
+  private byte[] processApdu(byte[] apdu) {
+    if (apdu.length < 4) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    switch (apdu[1]) {
+      case INS_OPEN_SECURE_SESSION:
+        return openSecureSession(apdu);
+      case INS_CLOSE_SECURE_SESSION:
+        return closeSecureSession(apdu);
+      default:
+        byte[] response = processSessionApdu(apdu);
+        if (sessionSignature != null) {
+          try {
+            sessionSignature.update(apdu);
+            sessionSignature.update(response);
+          } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to update the session signature", e);
+          }
+        }
+        return response;
+    }
+  }
+
+  /**
+   * Processes an APDU which may be exchanged inside a secure session.
+   *
+   * @param apdu The command APDU.
+   * @return The response APDU.
+   */
+  private byte[] processSessionApdu(byte[] apdu) {
+    switch (apdu[1]) {
+      case INS_SELECT:
+        return getSelectApplicationResponse();
+      case INS_GET_DATA:
+        return getData(apdu);
+      case INS_READ_RECORD:
+        return readRecord(apdu);
+      case INS_UPDATE_RECORD:
+        return updateRecord(apdu);
+      default:
+        return statusWord(SW_INS_NOT_SUPPORTED);
+    }
+  }
+
+  /**
+   * Returns a part of a certificate.
+   *
+   * @param apdu The command APDU.
+   * @return The response APDU.
+   */
+  private byte[] getData(byte[] apdu) {
+    int tag = ((apdu[2] & 0xFF) << 8) | (apdu[3] & 0xFF);
+    byte[] certificate;
+    int certificateTag;
+    if ((tag & 0xFFFE) == TAG_CARD_CERTIFICATE) {
+      certificate = cardCertificate;
+      certificateTag = TAG_CARD_CERTIFICATE;
+    } else if ((tag & 0xFFFE) == TAG_CA_CERTIFICATE) {
+      certificate = caCertificate;
+      certificateTag = TAG_CA_CERTIFICATE;
+    } else {
+      return statusWord(SW_DATA_NOT_FOUND);
+    }
+    // The first part starts with the tag and the length of the certificate (DFxx 82 LLLL)
+    int firstPartLength = MAX_DATA_OUT_LENGTH - 5;
+    if (tag == certificateTag) {
+      byte[] dataOut = new byte[5 + firstPartLength];
+      dataOut[0] = (byte) (certificateTag >> 8);
+      dataOut[1] = (byte) certificateTag;
+      dataOut[2] = (byte) 0x82;
+      dataOut[3] = (byte) (certificate.length >> 8);
+      dataOut[4] = (byte) certificate.length;
+      System.arraycopy(certificate, 0, dataOut, 5, firstPartLength);
+      return response(dataOut, SW_SUCCESS);
+    }
+    return response(
+        Arrays.copyOfRange(certificate, firstPartLength, certificate.length), SW_SUCCESS);
+  }
+
+  /**
+   * Opens a PKI secure session.
+   *
+   * @param apdu The command APDU (P1 = 00h, P2 = 03h, data = 00h + 8-byte terminal challenge).
+   * @return The response APDU.
+   */
+  private byte[] openSecureSession(byte[] apdu) {
+    if (apdu[2] != 0x00 || apdu[3] != 0x03) {
+      return statusWord(SW_WRONG_P1_P2);
+    }
+    if (apdu.length < 5 + 1 + TERMINAL_CHALLENGE_LENGTH
+        || (apdu[4] & 0xFF) != 1 + TERMINAL_CHALLENGE_LENGTH) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    if (transactionCounter == 0) {
+      return statusWord(SW_CONDITIONS_NOT_SATISFIED);
+    }
+    transactionCounter--;
+    // Li (0), card challenge, RFU, transaction counter + random, ratification, RFU, Ld (0)
+    byte[] dataOut = new byte[1 + CARD_CHALLENGE_LENGTH + 1 + 8 + 1 + 2 + 1];
+    byte[] randomBytes = new byte[CARD_CHALLENGE_LENGTH + 5];
+    random.nextBytes(randomBytes);
+    System.arraycopy(randomBytes, 0, dataOut, 1, CARD_CHALLENGE_LENGTH);
+    int offset = 1 + CARD_CHALLENGE_LENGTH + 1;
+    dataOut[offset] = (byte) (transactionCounter >> 16);
+    dataOut[offset + 1] = (byte) (transactionCounter >> 8);
+    dataOut[offset + 2] = (byte) transactionCounter;
+    System.arraycopy(randomBytes, CARD_CHALLENGE_LENGTH, dataOut, offset + 3, 5);
+    byte[] response = response(dataOut, SW_SUCCESS);
+    try {
+      sessionSignature = EcdsaSupport.newSignature();
+      sessionSignature.initSign(privateKey, random);
+      sessionSignature.update(apdu);
+      sessionSignature.update(response);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to initialize the session signature", e);
+    }
+    return response;
+  }
+
+  /**
+   * Closes or aborts the PKI secure session.
+   *
+   * @param apdu The command APDU (P1 = P2 = 00h, Le = 40h to close, 00h to abort).
+   * @return The response APDU, with the session signature when closing.
+   */
+  private byte[] closeSecureSession(byte[] apdu) {
+    Signature signature = sessionSignature;
+    sessionSignature = null;
+    if (signature == null) {
+      return statusWord(SW_CONDITIONS_NOT_SATISFIED);
+    }
+    if (apdu.length != 5 || apdu[4] == 0x00) {
+      // Abort
+      return statusWord(SW_SUCCESS);
+    }
+    try {
+      return response(EcdsaSupport.toRawSignature(signature.sign()), SW_SUCCESS);
+    } catch (GeneralSecurityException e) {
+      return statusWord(SW_SECURITY_STATUS_NOT_SATISFIED);
+    }
+  }
+
+  /**
+   * Reads one record (P2 = SFI * 8 + 4) or several records from P1 (P2 = SFI * 8 + 5).
+   *
+   * @param apdu The command APDU.
+   * @return The response APDU.
+   */
+  private byte[] readRecord(byte[] apdu) {
+    int recordNumber = apdu[2] & 0xFF;
+    int sfi = (apdu[3] & 0xF8) >> 3;
+    int mode = apdu[3] & 0x07;
+    if (recordNumber == 0 || (mode != 4 && mode != 5)) {
+      return statusWord(SW_WRONG_P1_P2);
+    }
+    byte[] content = records.get(recordKey(sfi, recordNumber));
+    if (content == null) {
+      return statusWord(SW_RECORD_NOT_FOUND);
+    }
+    if (mode == 4) {
+      return response(content, SW_SUCCESS);
+    }
+    int le = apdu.length > 4 ? apdu[apdu.length - 1] & 0xFF : 0;
+    int maxLength = le != 0 ? le : MAX_DATA_OUT_LENGTH;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    while (content != null && out.size() + 2 + content.length <= maxLength) {
+      out.write(recordNumber);
+      out.write(content.length);
+      out.write(content, 0, content.length);
+      content = records.get(recordKey(sfi, ++recordNumber));
+    }
+    return response(out.toByteArray(), SW_SUCCESS);
+  }
+
+  /**
+   * Replaces the content of a record (P2 = SFI * 8 + 4).
+   *
+   * @param apdu The command APDU.
+   * @return The response APDU.
+   */
+  private byte[] updateRecord(byte[] apdu) {
+    int recordNumber = apdu[2] & 0xFF;
+    int sfi = (apdu[3] & 0xF8) >> 3;
+    if (recordNumber == 0 || (apdu[3] & 0x07) != 4) {
+      return statusWord(SW_WRONG_P1_P2);
+    }
+    if (apdu.length < 5 || apdu.length < 5 + (apdu[4] & 0xFF)) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    if (!records.containsKey(recordKey(sfi, recordNumber))) {
+      return statusWord(SW_RECORD_NOT_FOUND);
+    }
+    records.put(recordKey(sfi, recordNumber), Arrays.copyOfRange(apdu, 5, 5 + (apdu[4] & 0xFF)));
+    return statusWord(SW_SUCCESS);
+  }
+
+  /**
+   * @param sfi The SFI.
+   * @param recordNumber The record number.
+   * @return The key of the record in the map.
+   */
+  private static int recordKey(int sfi, int recordNumber) {
+    return (sfi << 8) | recordNumber;
+  }
+
+  /**
+   * @param statusWord The status word.
+   * @return A response APDU without data.
+   */
+  private static byte[] statusWord(int statusWord) {
+    return new byte[] {(byte) (statusWord >> 8), (byte) statusWord};
+  }
+
+  /**
+   * @param dataOut The data.
+   * @param statusWord The status word.
+   * @return A response APDU.
+   */
+  private static byte[] response(byte[] dataOut, int statusWord) {
+    byte[] apdu = Arrays.copyOf(dataOut, dataOut.length + 2);
+    apdu[dataOut.length] = (byte) (statusWord >> 8);
+    apdu[dataOut.length + 1] = (byte) statusWord;
+    return apdu;
+  }
+
+  /** Response to an APDU. */
+  private static final class SimulatedApduResponse implements ApduResponseApi {
+
+    private final byte[] apdu;
+
+    private SimulatedApduResponse(byte[] apdu) {
+      this.apdu = apdu;
+    }
+
+    @Override
+    public byte[] getApdu() {
+      return apdu;
+    }
+
+    @Override
+    public byte[] getDataOut() {
+      return Arrays.copyOf(apdu, apdu.length - 2);
+    }
+
+    @Override
+    public int getStatusWord() {
+      return ((apdu[apdu.length - 2] & 0xFF) << 8) | (apdu[apdu.length - 1] & 0xFF);
+    }
+  }
+
+  /** Response to a card request. */
+  private static final class SimulatedCardResponse implements CardResponseApi {
+
+    private final List<ApduResponseApi> apduResponses;
+    private final boolean isLogicalChannelOpen;
+
+    private SimulatedCardResponse(
+        List<ApduResponseApi> apduResponses, boolean isLogicalChannelOpen) {
+      this.apduResponses = Collections.unmodifiableList(apduResponses);
+      this.isLogicalChannelOpen = isLogicalChannelOpen;
+    }
+
+    @Override
+    public List<ApduResponseApi> getApduResponses() {
+      return apduResponses;
+    }
+
+    @Override
+    public boolean isLogicalChannelOpen() {
+      return isLogicalChannelOpen;
+    }
+  }
+}
@@ -0,0 +1,723 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.io.ByteArrayOutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.keypop.card.ApduResponseApi;
+import org.eclipse.keypop.card.CardResponseApi;
+import org.eclipse.keypop.card.ChannelControl;
+import org.eclipse.keypop.card.ProxyReaderApi;
+import org.eclipse.keypop.card.UnexpectedStatusWordException;
+import org.eclipse.keypop.card.spi.ApduRequestSpi;
+import org.eclipse.keypop.card.spi.CardRequestSpi;
+import org.eclipse.keypop.reader.CardReader;
+
+/**
+ * Card reader simulating a Calypso card in symmetric mode, whose keys are those of a {@link
+ * SoftwareSymmetricCryptoFactory}.
+ *
+ * <p>The simulated card computes its secure session signatures and checks the terminal ones and
+ * the ciphered keys with the algorithms of {@link SoftwareSymmetricCryptoFactory}, which are not
+ * the Calypso ones: it is the only card with which the secure sessions and the key changes
+ * processed with this crypto service succeed.
+ *
+ * <p>The simulated card answers Select Application, Get Challenge, Open Secure Session (revision
+ * 3, regular mode), Close Secure Session, Change Key, and Read Record, Update Record, Write
+ * Record, Increase and Decrease on files whose records are stored in memory; the counters of a
+ * counter file are stored in its first record. The other commands are answered by the status word
+ * 6D00h. The modifications made in a secure session are cancelled if the session is not closed
+ * successfully.
+ *
+ * <p>The card image is built from the response of {@link #getSelectApplicationResponse()}. The
+ * methods are synchronized: a card can be shared, but the sessions of concurrent transactions are
+ * not isolated, so a load test should give each thread its own card.
+ *
+ * @since 3.1.6
+ */
+public final class SoftwareSymmetricCard implements CardReader, ProxyReaderApi {
+
+  /**
+   * Startup information of the card: revision 3 in regular mode, without PIN, SV nor PKI.
+   *
+   * @since 3.1.6
+   */
+  static final byte[] STARTUP_INFO = new byte[] {0x0A, 0x3C, 0x20, 0x05, 0x14, 0x10, 0x01};
+
+  private static final int SW_SUCCESS = 0x9000;
+  private static final int SW_WRONG_LENGTH = 0x6700;
+  private static final int SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
+  private static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+  private static final int SW_INCORRECT_SIGNATURE = 0x6988;
+  private static final int SW_RECORD_NOT_FOUND = 0x6A83;
+  private static final int SW_WRONG_P1_P2 = 0x6B00;
+  private static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+  private static final byte INS_SELECT = (byte) 0xA4;
+  private static final byte INS_GET_CHALLENGE = (byte) 0x84;
+  private static final byte INS_OPEN_SECURE_SESSION = (byte) 0x8A;
+  private static final byte INS_CLOSE_SECURE_SESSION = (byte) 0x8E;
+  private static final byte INS_CHANGE_KEY = (byte) 0xD8;
+  private static final byte INS_READ_RECORD = (byte) 0xB2;
+  private static final byte INS_UPDATE_RECORD = (byte) 0xDC;
+  private static final byte INS_WRITE_RECORD = (byte) 0xD2;
+  private static final byte INS_INCREASE = (byte) 0x32;
+  private static final byte INS_DECREASE = (byte) 0x30;
+  private static final byte DOMAIN_MAC_KEY = 0x4D;
+  private static final byte DOMAIN_TERMINAL = 0x54;
+  private static final byte DOMAIN_CARD = 0x43;
+  private static final byte DOMAIN_KEY = 0x4B;
+  private static final int MAX_DATA_OUT_LENGTH = 256;
+  private static final int SIGNATURE_LENGTH = 4;
+  private static final int CARD_CHALLENGE_LENGTH = 8;
+  private static final int CIPHERED_KEY_LENGTH = 32;
+  private static final int COUNTER_LENGTH = 3;
+  private static final int COUNTER_MAX_VALUE = 0xFFFFFF;
+  private static final int NB_KEYS = 3;
+
+  private final SoftwareSymmetricCryptoFactory factory;
+  private final byte[] aid;
+  private final byte[] serialNumber;
+  private final byte[][] keys = new byte[NB_KEYS][];
+  private final Map<Integer, byte[]> records = new HashMap<>();
+  private final SecureRandom random = new SecureRandom();
+  private String name = "SoftwareSymmetricCard";
+  private boolean isContactless = true;
+  private int transactionCounter = COUNTER_MAX_VALUE;
+  private boolean isRatified = true;
+  private byte[] cardChallenge;
+  private BlockCipher sessionMac;
+  private BlockCipher sessionSignature;
+  private Map<Integer, byte[]> recordsBackup;
+
+  /**
+   * Constructor.
+   *
+   * @param factory The factory holding the keys.
+   * @param aid The AID of the card.
+   * @param serialNumber The serial number of the card.
+   * @since 3.1.6
+   */
+  SoftwareSymmetricCard(SoftwareSymmetricCryptoFactory factory, byte[] aid, byte[] serialNumber) {
+    this.factory = factory;
+    this.aid = aid;
+    this.serialNumber = serialNumber;
+  }
+
+  /**
+   * Sets the name of the reader ("SoftwareSymmetricCard" by default).
+   *
+   * @param name The name.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public synchronized SoftwareSymmetricCard setName(String name) {
+    this.name = name;
+    return this;
+  }
+
+  /**
+   * Sets the contactless flag of the reader (true by default).
+   *
+   * @param isContactless true for a contactless reader.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public synchronized SoftwareSymmetricCard setContactless(boolean isContactless) {
+    this.isContactless = isContactless;
+    return this;
+  }
+
+  /**
+   * Sets the key of a key index, which must be a key of the factory.
+   *
+   * @param keyIndex The index of the key (1: issuer, 2: load, 3: debit).
+   * @param kif The KIF of the key.
+   * @param kvc The KVC of the key.
+   * @return The current instance.
+   * @throws IllegalArgumentException If the key index is out of range.
+   * @since 3.1.6
+   */
+  public synchronized SoftwareSymmetricCard setKey(int keyIndex, byte kif, byte kvc) {
+    if (keyIndex < 1 || keyIndex > NB_KEYS) {
+      throw new IllegalArgumentException("keyIndex must be in range [1.." + NB_KEYS + "]");
+    }
+    keys[keyIndex - 1] = new byte[] {kif, kvc};
+    return this;
+  }
+
+  /**
+   * Returns the KIF and the KVC of the key of a key index.
+   *
+   * @param keyIndex The index of the key (1: issuer, 2: load, 3: debit).
+   * @return A new 2-byte array, null if the key is not set.
+   * @throws IllegalArgumentException If the key index is out of range.
+   * @since 3.1.6
+   */
+  public synchronized byte[] getKey(int keyIndex) {
+    if (keyIndex < 1 || keyIndex > NB_KEYS) {
+      throw new IllegalArgumentException("keyIndex must be in range [1.." + NB_KEYS + "]");
+    }
+    return keys[keyIndex - 1] != null ? keys[keyIndex - 1].clone() : null;
+  }
+
+  /**
+   * Sets the content of a record, creating it if needed.
+   *
+   * @param sfi The SFI of the file (1 to 30).
+   * @param recordNumber The number of the record (1 to 250).
+   * @param content The content.
+   * @return The current instance.
+   * @throws IllegalArgumentException If an argument is out of range or the content is null.
+   * @since 3.1.6
+   */
+  public synchronized SoftwareSymmetricCard setRecord(int sfi, int recordNumber, byte[] content) {
+    if (sfi < 1 || sfi > 30 || recordNumber < 1 || recordNumber > 250 || content == null) {
+      throw new IllegalArgumentException("Invalid SFI, record number or content");
+    }
+    records.put(recordKey(sfi, recordNumber), content.clone());
+    return this;
+  }
+
+  /**
+   * Returns the content of a record.
+   *
+   * @param sfi The SFI of the file.
+   * @param recordNumber The number of the record.
+   * @return Null if the record does not exist.
+   * @since 3.1.6
+   */
+  public synchronized byte[] getRecord(int sfi, int recordNumber) {
+    byte[] content = records.get(recordKey(sfi, recordNumber));
+    return content != null ? content.clone() : null;
+  }
+
+  /**
+   * Returns the serial number of the card.
+   *
+   * @return A new 8-byte array.
+   * @since 3.1.6
+   */
+  public byte[] getSerialNumber() {
+    return serialNumber.clone();
+  }
+
+  /**
+   * Returns the response of the card to the Select Application command (FCI followed by the
+   * status word 9000h), from which the card image is built.
+   *
+   * @return A new array.
+   * @since 3.1.6
+   */
+  public byte[] getSelectApplicationResponse() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0x6F);
+    out.write(26 + aid.length);
+    out.write(0x84);
+    out.write(aid.length);
+    out.write(aid, 0, aid.length);
+    out.write(0xA5);
+    out.write(22);
+    out.write(0xBF);
+    out.write(0x0C);
+    out.write(19);
+    out.write(0xC7);
+    out.write(serialNumber.length);
+    out.write(serialNumber, 0, serialNumber.length);
+    out.write(0x53);
+    out.write(STARTUP_INFO.length);
+    out.write(STARTUP_INFO, 0, STARTUP_INFO.length);
+    out.write(SW_SUCCESS >> 8);
+    out.write(SW_SUCCESS & 0xFF);
+    return out.toByteArray();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized String getName() {
+    return name;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized boolean isContactless() {
+    return isContactless;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @return Always true.
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isCardPresent() {
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized CardResponseApi transmitCardRequest(
+      CardRequestSpi cardRequest, ChannelControl channelControl)
+      throws UnexpectedStatusWordException {
+    List<ApduResponseApi> apduResponses = new ArrayList<>();
+    boolean isLogicalChannelOpen = channelControl == ChannelControl.KEEP_OPEN;
+    for (ApduRequestSpi apduRequest : cardRequest.getApduRequests()) {
+      SimulatedApduResponse apduResponse =
+          new SimulatedApduResponse(processApdu(apduRequest.getApdu()));
+      apduResponses.add(apduResponse);
+      if (cardRequest.stopOnUnsuccessfulStatusWord()
+          && !apduRequest.getSuccessfulStatusWords().contains(apduResponse.getStatusWord())) {
+        throw new UnexpectedStatusWordException(
+            new SimulatedCardResponse(apduResponses, isLogicalChannelOpen),
+            apduResponses.size() == cardRequest.getApduRequests().size(),
+            "Unexpected status word");
+      }
+    }
+    if (!isLogicalChannelOpen) {
+      abortSecureSession();
+    }
+    return new SimulatedCardResponse(apduResponses, isLogicalChannelOpen);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>An open secure session is aborted.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public synchronized void releaseChannel() {
+    abortSecureSession();
+  }
+
+  /**
+   * Processes an APDU and adds it to the session MAC if a session is open.
+   *
+   * @param apdu The command APDU.
+   * @return The response APDU.
+   */
+  private byte[] processApdu(byte[] apdu) {
+    if (apdu.length < 4) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    switch (apdu[1]) {
+      case INS_OPEN_SECURE_SESSION:
+        return openSecureSession(apdu);
+      case INS_CLOSE_SECURE_SESSION:
+        return closeSecureSession(apdu);
+      case INS_GET_CHALLENGE:
+        return getChallenge();
+      case INS_CHANGE_KEY:
+        return changeKey(apdu);
+      default:
+        byte[] response = processSessionApdu(apdu);
+        if (sessionMac != null) {
+          sessionMac.update(apdu, 0, apdu.length);
+          sessionMac.update(response, 0, response.length);
+        } else {
+          isRatified = true;
+        }
+        return response;
+    }
+  }
+
+  /**
+   * Processes an APDU which may be exchanged inside a secure session.
+   *
+   * @param apdu The command APDU.
+   * @return The response APDU.
+   */
+  private byte[] processSessionApdu(byte[] apdu) {
+    switch (apdu[1]) {
+      case INS_SELECT:
+        return getSelectApplicationResponse();
+      case INS_READ_RECORD:
+        return readRecord(apdu);
+      case INS_UPDATE_RECORD:
+        return updateRecord(apdu, false);
+      case INS_WRITE_RECORD:
+        return updateRecord(apdu, true);
+      case INS_INCREASE:
+        return increaseOrDecrease(apdu, 1);
+      case INS_DECREASE:
+        return increaseOrDecrease(apdu, -1);
+      default:
+        return statusWord(SW_INS_NOT_SUPPORTED);
+    }
+  }
+
+  /**
+   * Returns a new card challenge, used by the next Change Key command.
+   *
+   * @return The response APDU.
+   */
+  private byte[] getChallenge() {
+    cardChallenge = new byte[CARD_CHALLENGE_LENGTH];
+    random.nextBytes(cardChallenge);
+    return response(cardChallenge, SW_SUCCESS);
+  }
+
+  /**
+   * Opens a secure session in regular mode.
+   *
+   * @param apdu The command APDU (P1 = record number * 8 + key index, P2 = SFI * 8 + 1, data =
+   *     4-byte terminal challenge).
+   * @return The response APDU.
+   */
+  private byte[] openSecureSession(byte[] apdu) {
+    int keyIndex = apdu[2] & 0x07;
+    int recordNumber = (apdu[2] & 0xF8) >> 3;
+    int sfi = (apdu[3] & 0xF8) >> 3;
+    if (keyIndex < 1 || keyIndex > NB_KEYS || (apdu[3] & 0x07) != 1) {
+      return statusWord(SW_WRONG_P1_P2);
+    }
+    if (apdu.length < 5 + SIGNATURE_LENGTH || (apdu[4] & 0xFF) != SIGNATURE_LENGTH) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    byte[] key = keys[keyIndex - 1];
+    SoftwareSymmetricCryptoFactory.KeyEntry keyEntry =
+        key != null ? factory.findKey(key[0], key[1]) : null;
+    if (keyEntry == null || transactionCounter == 0) {
+      return statusWord(SW_CONDITIONS_NOT_SATISFIED);
+    }
+    abortSecureSession();
+    transactionCounter--;
+    byte[] recordData = recordNumber != 0 ? records.get(recordKey(sfi, recordNumber)) : null;
+    if (recordData == null) {
+      recordData = new byte[0];
+    }
+    // transaction counter, random, ratification, KIF, KVC, Ld, record data
+    byte[] dataOut = new byte[8 + recordData.length];
+    dataOut[0] = (byte) (transactionCounter >> 16);
+    dataOut[1] = (byte) (transactionCounter >> 8);
+    dataOut[2] = (byte) transactionCounter;
+    dataOut[3] = (byte) random.nextInt();
+    dataOut[4] = isRatified ? (byte) 0x00 : (byte) 0x01;
+    dataOut[5] = key[0];
+    dataOut[6] = key[1];
+    dataOut[7] = (byte) recordData.length;
+    System.arraycopy(recordData, 0, dataOut, 8, recordData.length);
+    BlockCipher cardKeyCipher = factory.createCardKeyCipher(keyEntry, serialNumber);
+    SymmetricKeyAlgorithm algorithm = cardKeyCipher.getAlgorithm();
+    byte[] macKey =
+        cardKeyCipher.computeKeyedOutput(
+            algorithm.getKeyLength(),
+            new byte[] {DOMAIN_MAC_KEY},
+            Arrays.copyOfRange(apdu, 5, 5 + SIGNATURE_LENGTH),
+            dataOut);
+    sessionMac = new BlockCipher(algorithm, macKey);
+    sessionSignature = new BlockCipher(algorithm, macKey);
+    sessionMac.update(dataOut, 0, dataOut.length);
+    recordsBackup = new HashMap<>(records);
+    isRatified = false;
+    return response(dataOut, SW_SUCCESS);
+  }
+
+  /**
+   * Closes or aborts the secure session.
+   *
+   * @param apdu The command APDU (P1 = 80h for auto ratification, data = terminal signature or
+   *     none to abort).
+   * @return The response APDU, with the card signature when closing.
+   */
+  private byte[] closeSecureSession(byte[] apdu) {
+    if (sessionMac == null) {
+      return statusWord(SW_CONDITIONS_NOT_SATISFIED);
+    }
+    if (apdu.length <= 5 || apdu[4] == 0x00) {
+      abortSecureSession();
+      return statusWord(SW_SUCCESS);
+    }
+    if ((apdu[4] & 0xFF) != SIGNATURE_LENGTH || apdu.length < 5 + SIGNATURE_LENGTH) {
+      abortSecureSession();
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    byte[] terminalSignature = Arrays.copyOfRange(apdu, 5, 5 + SIGNATURE_LENGTH);
+    byte[] sessionDataMac = sessionMac.doFinal();
+    byte[] expectedTerminalSignature =
+        sessionSignature.computeKeyedOutput(
+            SIGNATURE_LENGTH, sessionDataMac, new byte[] {DOMAIN_TERMINAL});
+    if (!Arrays.equals(expectedTerminalSignature, terminalSignature)) {
+      abortSecureSession();
+      return statusWord(SW_SECURITY_STATUS_NOT_SATISFIED);
+    }
+    byte[] cardSignature =
+        sessionSignature.computeKeyedOutput(
+            SIGNATURE_LENGTH, sessionDataMac, terminalSignature, new byte[] {DOMAIN_CARD});
+    sessionMac = null;
+    sessionSignature = null;
+    recordsBackup = null;
+    isRatified = apdu[2] == (byte) 0x80;
+    return response(cardSignature, SW_SUCCESS);
+  }
+
+  /** Cancels the modifications of the open secure session, if any. */
+  private void abortSecureSession() {
+    if (sessionMac == null) {
+      return;
+    }
+    records.clear();
+    records.putAll(recordsBackup);
+    sessionMac = null;
+    sessionSignature = null;
+    recordsBackup = null;
+  }
+
+  /**
+   * Changes the key of a key index with a key of the factory ciphered with the current issuer key
+   * and the last card challenge.
+   *
+   * @param apdu The command APDU (P1 = 00h, P2 = key index, data = 32-byte ciphered key).
+   * @return The response APDU.
+   */
+  private byte[] changeKey(byte[] apdu) {
+    byte[] challenge = cardChallenge;
+    cardChallenge = null;
+    int keyIndex = apdu[3];
+    if (apdu[2] != 0x00 || keyIndex < 1 || keyIndex > NB_KEYS) {
+      return statusWord(SW_WRONG_P1_P2);
+    }
+    if (apdu.length < 5 + CIPHERED_KEY_LENGTH || (apdu[4] & 0xFF) != CIPHERED_KEY_LENGTH) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    byte[] issuerKey = keys[0];
+    SoftwareSymmetricCryptoFactory.KeyEntry issuerKeyEntry =
+        issuerKey != null ? factory.findKey(issuerKey[0], issuerKey[1]) : null;
+    if (sessionMac != null || challenge == null || issuerKeyEntry == null) {
+      return statusWord(SW_CONDITIONS_NOT_SATISFIED);
+    }
+    byte[] cipheredKey = Arrays.copyOfRange(apdu, 5, 5 + CIPHERED_KEY_LENGTH);
+    BlockCipher issuerKeyCipher = factory.createCardKeyCipher(issuerKeyEntry, serialNumber);
+    for (byte[] keyReference : factory.getKeyReferences()) {
+      BlockCipher targetKeyCipher =
+          factory.createCardKeyCipher(
+              factory.findKey(keyReference[0], keyReference[1]), serialNumber);
+      byte[] targetCardKey =
+          targetKeyCipher.computeKeyedOutput(
+              targetKeyCipher.getAlgorithm().getKeyLength(), keyReference);
+      byte[] expectedCipheredKey =
+          issuerKeyCipher.computeKeyedOutput(
+              CIPHERED_KEY_LENGTH, new byte[] {DOMAIN_KEY}, challenge, targetCardKey);
+      if (Arrays.equals(expectedCipheredKey, cipheredKey)) {
+        keys[keyIndex - 1] = keyReference;
+        return statusWord(SW_SUCCESS);
+      }
+    }
+    return statusWord(SW_INCORRECT_SIGNATURE);
+  }
+
+  /**
+   * Reads one record (P2 = SFI * 8 + 4) or several records from P1 (P2 = SFI * 8 + 5).
+   *
+   * @param apdu The command APDU.
+   * @return The response APDU.
+   */
+  private byte[] readRecord(byte[] apdu) {
+    int recordNumber = apdu[2] & 0xFF;
+    int sfi = (apdu[3] & 0xF8) >> 3;
+    int mode = apdu[3] & 0x07;
+    if (recordNumber == 0 || (mode != 4 && mode != 5)) {
+      return statusWord(SW_WRONG_P1_P2);
+    }
+    byte[] content = records.get(recordKey(sfi, recordNumber));
+    if (content == null) {
+      return statusWord(SW_RECORD_NOT_FOUND);
+    }
+    int le = apdu.length > 4 ? apdu[apdu.length - 1] & 0xFF : 0;
+    if (mode == 4) {
+      // a non-zero Le shorter than the record reads its first bytes only (counters)
+      return response(
+          le != 0 && le < content.length ? Arrays.copyOf(content, le) : content, SW_SUCCESS);
+    }
+    int maxLength = le != 0 ? le : MAX_DATA_OUT_LENGTH;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    while (content != null && out.size() + 2 + content.length <= maxLength) {
+      out.write(recordNumber);
+      out.write(content.length);
+      out.write(content, 0, content.length);
+      content = records.get(recordKey(sfi, ++recordNumber));
+    }
+    return response(out.toByteArray(), SW_SUCCESS);
+  }
+
+  /**
+   * Replaces (Update Record) or ORs (Write Record) the first bytes of a record (P2 = SFI * 8 + 4).
+   *
+   * @param apdu The command APDU.
+   * @param isWrite true for Write Record.
+   * @return The response APDU.
+   */
+  private byte[] updateRecord(byte[] apdu, boolean isWrite) {
+    int recordNumber = apdu[2] & 0xFF;
+    int sfi = (apdu[3] & 0xF8) >> 3;
+    if (recordNumber == 0 || (apdu[3] & 0x07) != 4) {
+      return statusWord(SW_WRONG_P1_P2);
+    }
+    if (apdu.length < 5 || apdu.length < 5 + (apdu[4] & 0xFF)) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    byte[] content = records.get(recordKey(sfi, recordNumber));
+    if (content == null) {
+      return statusWord(SW_RECORD_NOT_FOUND);
+    }
+    int length = apdu[4] & 0xFF;
+    if (length > content.length) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    byte[] newContent = content.clone();
+    for (int i = 0; i < length; i++) {
+      newContent[i] = isWrite ? (byte) (content[i] | apdu[5 + i]) : apdu[5 + i];
+    }
+    records.put(recordKey(sfi, recordNumber), newContent);
+    return statusWord(SW_SUCCESS);
+  }
+
+  /**
+   * Increases or decreases a counter stored in the first record of a counter file and returns its
+   * new value (P1 = counter number, P2 = SFI * 8, data = 3-byte value).
+   *
+   * @param apdu The command APDU.
+   * @param sign 1 to increase, -1 to decrease.
+   * @return The response APDU.
+   */
+  private byte[] increaseOrDecrease(byte[] apdu, int sign) {
+    int counterNumber = apdu[2] & 0xFF;
+    int sfi = (apdu[3] & 0xF8) >> 3;
+    if (counterNumber == 0 || (apdu[3] & 0x07) != 0) {
+      return statusWord(SW_WRONG_P1_P2);
+    }
+    if (apdu.length < 5 + COUNTER_LENGTH || (apdu[4] & 0xFF) != COUNTER_LENGTH) {
+      return statusWord(SW_WRONG_LENGTH);
+    }
+    byte[] content = records.get(recordKey(sfi, 1));
+    int offset = (counterNumber - 1) * COUNTER_LENGTH;
+    if (content == null || offset + COUNTER_LENGTH > content.length) {
+      return statusWord(SW_RECORD_NOT_FOUND);
+    }
+    int value = counterValue(content, offset) + sign * counterValue(apdu, 5);
+    if (value < 0 || value > COUNTER_MAX_VALUE) {
+      return statusWord(SW_CONDITIONS_NOT_SATISFIED);
+    }
+    byte[] newValue = new byte[] {(byte) (value >> 16), (byte) (value >> 8), (byte) value};
+    byte[] newContent = content.clone();
+    System.arraycopy(newValue, 0, newContent, offset, COUNTER_LENGTH);
+    records.put(recordKey(sfi, 1), newContent);
+    return response(newValue, SW_SUCCESS);
+  }
+
+  /**
+   * @param data The data.
+   * @param offset The offset of the 3-byte value.
+   * @return The value.
+   */
+  private static int counterValue(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 16)
+        | ((data[offset + 1] & 0xFF) << 8)
+        | (data[offset + 2] & 0xFF);
+  }
+
+  /**
+   * @param sfi The SFI.
+   * @param recordNumber The record number.
+   * @return The key of the record in the map.
+   */
+  private static int recordKey(int sfi, int recordNumber) {
+    return (sfi << 8) | recordNumber;
+  }
+
+  /**
+   * @param statusWord The status word.
+   * @return A response APDU without data.
+   */
+  private static byte[] statusWord(int statusWord) {
+    return new byte[] {(byte) (statusWord >> 8), (byte) statusWord};
+  }
+
+  /**
+   * @param dataOut The data.
+   * @param statusWord The status word.
+   * @return A response APDU.
+   */
+  private static byte[] response(byte[] dataOut, int statusWord) {
+    byte[] apdu = Arrays.copyOf(dataOut, dataOut.length + 2);
+    apdu[dataOut.length] = (byte) (statusWord >> 8);
+    apdu[dataOut.length + 1] = (byte) statusWord;
+    return apdu;
+  }
+
+  /** Response to an APDU. */
+  private static final class SimulatedApduResponse implements ApduResponseApi {
+
+    private final byte[] apdu;
+
+    private SimulatedApduResponse(byte[] apdu) {
+      this.apdu = apdu;
+    }
+
+    @Override
+    public byte[] getApdu() {
+      return apdu;
+    }
+
+    @Override
+    public byte[] getDataOut() {
+      return Arrays.copyOf(apdu, apdu.length - 2);
+    }
+
+    @Override
+    public int getStatusWord() {
+      return ((apdu[apdu.length - 2] & 0xFF) << 8) | (apdu[apdu.length - 1] & 0xFF);
+    }
+  }
+
+  /** Response to a card request. */
+  private static final class SimulatedCardResponse implements CardResponseApi {
+
+    private final List<ApduResponseApi> apduResponses;
+    private final boolean isLogicalChannelOpen;
+
+    private SimulatedCardResponse(
+        List<ApduResponseApi> apduResponses, boolean isLogicalChannelOpen) {
+      this.apduResponses = Collections.unmodifiableList(apduResponses);
+      this.isLogicalChannelOpen = isLogicalChannelOpen;
+    }
+
+    @Override
+    public List<ApduResponseApi> getApduResponses() {
+      return apduResponses;
+    }
+
+    @Override
+    public boolean isLogicalChannelOpen() {
+      return isLogicalChannelOpen;
+    }
+  }
+}
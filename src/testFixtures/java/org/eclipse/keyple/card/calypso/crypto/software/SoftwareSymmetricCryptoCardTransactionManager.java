@@ -0,0 +1,489 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.util.Arrays;
+import org.eclipse.keypop.calypso.crypto.symmetric.SvCommandSecurityDataApi;
+import org.eclipse.keypop.calypso.crypto.symmetric.SymmetricCryptoException;
+import org.eclipse.keypop.calypso.crypto.symmetric.spi.SymmetricCryptoCardTransactionManagerSpi;
+
+/**
+ * Card transaction crypto manager of a {@link SoftwareSymmetricCryptoFactory}.
+ *
+ * <p>The MAC of the session is a CBC-MAC with a session key derived from the card key and the
+ * terminal challenge and "Open Secure Session" data, chained over the plain APDUs exchanged, in
+ * their order (request, response, request...). The session encryption XORs the data field of the
+ * APDUs with a keystream produced in counter mode with a second session key. The terminal
+ * signature is the truncated MAC of the session MAC followed by 'T', the expected card signature
+ * the truncated MAC of the session MAC, the terminal signature and 'C'.
+ *
+ * @since 3.1.6
+ */
+final class SoftwareSymmetricCryptoCardTransactionManager
+    implements SymmetricCryptoCardTransactionManagerSpi, SoftwareSymmetricCryptoExtension {
+
+  private static final byte DOMAIN_MAC_KEY = 0x4D;
+  private static final byte DOMAIN_ENCRYPTION_KEY = 0x45;
+  private static final byte DOMAIN_TERMINAL = 0x54;
+  private static final byte DOMAIN_CARD = 0x43;
+  private static final byte DOMAIN_PIN = 0x50;
+  private static final byte DOMAIN_KEY = 0x4B;
+  private static final int REGULAR_SIGNATURE_LENGTH = 4;
+  private static final int EXTENDED_SIGNATURE_LENGTH = 8;
+  private static final int PIN_PRESENTATION_LENGTH = 8;
+  private static final int PIN_MODIFICATION_LENGTH = 16;
+  private static final int CIPHERED_KEY_LENGTH = 32;
+  private static final int SV_TERMINAL_CHALLENGE_LENGTH = 3;
+  private static final int SV_REGULAR_TERMINAL_MAC_LENGTH = 5;
+  private static final int SV_EXTENDED_TERMINAL_MAC_LENGTH = 10;
+  private static final int SV_REGULAR_CARD_MAC_LENGTH = 3;
+  private static final int SV_EXTENDED_CARD_MAC_LENGTH = 6;
+  private static final int SV_GET_DATA_EXTENDED_LENGTH = 0x3D;
+  private static final int SV_GET_KVC_EXTENDED_OFFSET = 8;
+  private static final int SW_LENGTH = 2;
+
+  private final SoftwareSymmetricCryptoFactory factory;
+  private final byte[] cardKeyDiversifier;
+  private final int signatureLength;
+
+  private byte[] terminalChallenge;
+  private BlockCipher sessionMac;
+  private BlockCipher sessionSignature;
+  private BlockCipher sessionEncryption;
+  private byte[] keystreamBlock;
+  private long keystreamCounter;
+  private boolean isNextApduRequest;
+  private boolean isEncryptionActive;
+  private byte[] expectedCardSessionMac;
+  private byte[] expectedCardSvMac;
+
+  /**
+   * Constructor.
+   *
+   * @param factory The factory holding the keys and the settings.
+   * @param cardKeyDiversifier The card key diversifier.
+   * @param isExtendedMode true if the extended mode is used.
+   * @since 3.1.6
+   */
+  SoftwareSymmetricCryptoCardTransactionManager(
+      SoftwareSymmetricCryptoFactory factory, byte[] cardKeyDiversifier, boolean isExtendedMode) {
+    this.factory = factory;
+    this.cardKeyDiversifier = cardKeyDiversifier.clone();
+    this.signatureLength = isExtendedMode ? EXTENDED_SIGNATURE_LENGTH : REGULAR_SIGNATURE_LENGTH;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] initTerminalSecureSessionContext() {
+    terminalChallenge = factory.nextRandomBytes(signatureLength);
+    sessionMac = null;
+    sessionSignature = null;
+    sessionEncryption = null;
+    isEncryptionActive = false;
+    return terminalChallenge.clone();
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public void initTerminalSessionMac(byte[] openSecureSessionDataOut, byte kif, byte kvc)
+      throws SymmetricCryptoException {
+    if (terminalChallenge == null) {
+      throw new SymmetricCryptoException("The terminal secure session context is not initialized");
+    }
+    SoftwareSymmetricCryptoFactory.KeyEntry key = findKey(kif, kvc);
+    BlockCipher cardKeyCipher = factory.createCardKeyCipher(key, cardKeyDiversifier);
+    SymmetricKeyAlgorithm algorithm = cardKeyCipher.getAlgorithm();
+    byte[] macKey =
+        cardKeyCipher.computeKeyedOutput(
+            algorithm.getKeyLength(),
+            new byte[] {DOMAIN_MAC_KEY},
+            terminalChallenge,
+            openSecureSessionDataOut);
+    byte[] encryptionKey =
+        cardKeyCipher.computeKeyedOutput(
+            algorithm.getKeyLength(),
+            new byte[] {DOMAIN_ENCRYPTION_KEY},
+            terminalChallenge,
+            openSecureSessionDataOut);
+    sessionMac = new BlockCipher(algorithm, macKey);
+    sessionSignature = new BlockCipher(algorithm, macKey);
+    sessionEncryption = new BlockCipher(algorithm, encryptionKey);
+    keystreamBlock = new byte[sessionEncryption.getBlockSize()];
+    keystreamCounter = 0;
+    isNextApduRequest = true;
+    isEncryptionActive = false;
+    expectedCardSessionMac = null;
+    sessionMac.update(openSecureSessionDataOut, 0, openSecureSessionDataOut.length);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The requests and the responses are expected alternately. When the encryption is active, a
+   * new enciphered request or a new deciphered response is returned.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] updateTerminalSessionMac(byte[] cardApdu) throws SymmetricCryptoException {
+    checkSessionOpen();
+    boolean isRequest = isNextApduRequest;
+    isNextApduRequest = !isNextApduRequest;
+    if (!isEncryptionActive) {
+      sessionMac.update(cardApdu, 0, cardApdu.length);
+      return cardApdu;
+    }
+    byte[] apdu = cardApdu.clone();
+    if (isRequest) {
+      sessionMac.update(apdu, 0, apdu.length);
+      applyKeystream(apdu, true);
+    } else {
+      applyKeystream(apdu, false);
+      sessionMac.update(apdu, 0, apdu.length);
+    }
+    return apdu;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] finalizeTerminalSessionMac() throws SymmetricCryptoException {
+    checkSessionOpen();
+    byte[] terminalMac = computeTerminalSessionMac(sessionMac.doFinal(), signatureLength);
+    sessionMac = null;
+    sessionEncryption = null;
+    isEncryptionActive = false;
+    return terminalMac;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] generateTerminalSessionMac() throws SymmetricCryptoException {
+    checkSessionOpen();
+    return computeTerminalSessionMac(sessionMac.peek(), EXTENDED_SIGNATURE_LENGTH);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public void activateEncryption() throws SymmetricCryptoException {
+    checkSessionOpen();
+    isEncryptionActive = true;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public void deactivateEncryption() throws SymmetricCryptoException {
+    checkSessionOpen();
+    isEncryptionActive = false;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isCardSessionMacValid(byte[] cardSessionMac) throws SymmetricCryptoException {
+    if (!factory.isCardSignatureVerificationEnabled()) {
+      return true;
+    }
+    if (expectedCardSessionMac == null) {
+      throw new SymmetricCryptoException("No terminal session MAC has been generated");
+    }
+    return Arrays.equals(expectedCardSessionMac, cardSessionMac);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The SV key is the key with the KVC returned by "SV Get".
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public void computeSvCommandSecurityData(SvCommandSecurityDataApi data)
+      throws SymmetricCryptoException {
+    byte[] svGetResponse = data.getSvGetResponse();
+    int svGetDataLength = svGetResponse.length - SW_LENGTH;
+    byte kvc =
+        svGetResponse[
+            svGetDataLength == SV_GET_DATA_EXTENDED_LENGTH ? SV_GET_KVC_EXTENDED_OFFSET : 0];
+    BlockCipher svKeyCipher = factory.createCardKeyCipher(findKey(null, kvc), cardKeyDiversifier);
+    // the Lc of the SV command is 5 bytes longer in extended mode
+    byte[] partialRequest = data.getSvCommandPartialRequest();
+    boolean isExtended = partialRequest[3] == 0x19 || partialRequest[3] == 0x1C;
+    byte[] serialNumber = factory.getTerminalSerialNumber();
+    byte[] transactionNumber = factory.nextSvTransactionNumber();
+    byte[] challenge = factory.nextRandomBytes(SV_TERMINAL_CHALLENGE_LENGTH);
+    byte[] svData =
+        concat(
+            data.getSvGetRequest(),
+            svGetResponse,
+            partialRequest,
+            serialNumber,
+            transactionNumber,
+            challenge);
+    byte[] terminalSvMac =
+        svKeyCipher.computeKeyedOutput(
+            isExtended ? SV_EXTENDED_TERMINAL_MAC_LENGTH : SV_REGULAR_TERMINAL_MAC_LENGTH,
+            svData,
+            new byte[] {DOMAIN_TERMINAL});
+    expectedCardSvMac =
+        svKeyCipher.computeKeyedOutput(
+            isExtended ? SV_EXTENDED_CARD_MAC_LENGTH : SV_REGULAR_CARD_MAC_LENGTH,
+            svData,
+            terminalSvMac,
+            new byte[] {DOMAIN_CARD});
+    data.setSerialNumber(serialNumber);
+    data.setTransactionNumber(transactionNumber);
+    data.setTerminalChallenge(challenge);
+    data.setTerminalSvMac(terminalSvMac);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isCardSvMacValid(byte[] cardSvMac) throws SymmetricCryptoException {
+    if (!factory.isCardSignatureVerificationEnabled()) {
+      return true;
+    }
+    if (expectedCardSvMac == null) {
+      throw new SymmetricCryptoException("No SV command security data has been computed");
+    }
+    return Arrays.equals(expectedCardSvMac, cardSvMac);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] cipherPinForPresentation(byte[] cardChallenge, byte[] pin, Byte kif, Byte kvc)
+      throws SymmetricCryptoException {
+    return createPinKeyCipher(kif, kvc)
+        .computeKeyedOutput(PIN_PRESENTATION_LENGTH, new byte[] {DOMAIN_PIN}, cardChallenge, pin);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] cipherPinForModification(
+      byte[] cardChallenge, byte[] currentPin, byte[] newPin, Byte kif, Byte kvc)
+      throws SymmetricCryptoException {
+    return createPinKeyCipher(kif, kvc)
+        .computeKeyedOutput(
+            PIN_MODIFICATION_LENGTH,
+            new byte[] {DOMAIN_PIN},
+            cardChallenge,
+            currentPin,
+            newPin);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] generateCipheredCardKey(
+      byte[] cardChallenge,
+      byte issuerKeyKif,
+      byte issuerKeyKvc,
+      byte targetKeyKif,
+      byte targetKeyKvc)
+      throws SymmetricCryptoException {
+    BlockCipher issuerKeyCipher =
+        factory.createCardKeyCipher(findKey(issuerKeyKif, issuerKeyKvc), cardKeyDiversifier);
+    BlockCipher targetKeyCipher =
+        factory.createCardKeyCipher(findKey(targetKeyKif, targetKeyKvc), cardKeyDiversifier);
+    // the value of the target card key is not accessible, a keyed output stands for it
+    byte[] targetCardKey =
+        targetKeyCipher.computeKeyedOutput(
+            targetKeyCipher.getAlgorithm().getKeyLength(), new byte[] {targetKeyKif, targetKeyKvc});
+    return issuerKeyCipher.computeKeyedOutput(
+        CIPHERED_KEY_LENGTH, new byte[] {DOMAIN_KEY}, cardChallenge, targetCardKey);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Nothing to synchronize: all the computations are immediate.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public void synchronize() {
+    // NOP
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] getExpectedCardSessionMac() {
+    return expectedCardSessionMac != null ? expectedCardSessionMac.clone() : null;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public byte[] getExpectedCardSvMac() {
+    return expectedCardSvMac != null ? expectedCardSvMac.clone() : null;
+  }
+
+  /**
+   * Computes a terminal session signature and the card session signature expected in return.
+   *
+   * @param sessionDataMac The MAC of the session data.
+   * @param length The length of the signatures.
+   * @return A new array.
+   */
+  private byte[] computeTerminalSessionMac(byte[] sessionDataMac, int length) {
+    byte[] terminalMac =
+        sessionSignature.computeKeyedOutput(length, sessionDataMac, new byte[] {DOMAIN_TERMINAL});
+    expectedCardSessionMac =
+        sessionSignature.computeKeyedOutput(
+            length, sessionDataMac, terminalMac, new byte[] {DOMAIN_CARD});
+    return terminalMac;
+  }
+
+  /**
+   * XORs the data field of an APDU with the next keystream bytes.
+   *
+   * @param apdu The APDU, modified in place.
+   * @param isRequest true for a C-APDU, false for a R-APDU.
+   */
+  private void applyKeystream(byte[] apdu, boolean isRequest) {
+    int start;
+    int end;
+    if (isRequest) {
+      // header (4 bytes), Lc, data, [Le]
+      if (apdu.length <= 5) {
+        return;
+      }
+      start = 5;
+      end = Math.min(apdu.length, start + (apdu[4] & 0xFF));
+    } else {
+      start = 0;
+      end = apdu.length - SW_LENGTH;
+    }
+    int blockSize = keystreamBlock.length;
+    for (int i = start; i < end; i++) {
+      int position = (int) (keystreamCounter % blockSize);
+      if (position == 0) {
+        long blockIndex = keystreamCounter / blockSize;
+        Arrays.fill(keystreamBlock, (byte) 0);
+        for (int j = 0; j < 8; j++) {
+          keystreamBlock[blockSize - 1 - j] = (byte) (blockIndex >>> (8 * j));
+        }
+        sessionEncryption.encryptBlock(keystreamBlock, 0, keystreamBlock, 0);
+      }
+      apdu[i] ^= keystreamBlock[position];
+      keystreamCounter++;
+    }
+  }
+
+  /**
+   * Builds the cipher of a PIN ciphering key.
+   *
+   * @param kif The KIF.
+   * @param kvc The KVC.
+   * @return A new instance.
+   * @throws SymmetricCryptoException If the key is not provided or not found.
+   */
+  private BlockCipher createPinKeyCipher(Byte kif, Byte kvc) throws SymmetricCryptoException {
+    if (kvc == null) {
+      throw new SymmetricCryptoException("No PIN ciphering key provided");
+    }
+    return factory.createCardKeyCipher(findKey(kif, kvc), cardKeyDiversifier);
+  }
+
+  /**
+   * @param kif The KIF, null if unknown.
+   * @param kvc The KVC.
+   * @return A not null reference.
+   * @throws SymmetricCryptoException If the key is not found.
+   */
+  private SoftwareSymmetricCryptoFactory.KeyEntry findKey(Byte kif, byte kvc)
+      throws SymmetricCryptoException {
+    SoftwareSymmetricCryptoFactory.KeyEntry key = factory.findKey(kif, kvc);
+    if (key == null) {
+      throw new SymmetricCryptoException(
+          String.format(
+              "Key not found: KIF=%s, KVC=%02Xh",
+              kif != null ? String.format("%02Xh", kif) : null, kvc));
+    }
+    return key;
+  }
+
+  /**
+   * @throws SymmetricCryptoException If no secure session is open.
+   */
+  private void checkSessionOpen() throws SymmetricCryptoException {
+    if (sessionMac == null) {
+      throw new SymmetricCryptoException("No secure session open");
+    }
+  }
+
+  /**
+   * @param parts The arrays.
+   * @return A new array with the concatenation of the arrays.
+   */
+  private static byte[] concat(byte[]... parts) {
+    int length = 0;
+    for (byte[] part : parts) {
+      length += part.length;
+    }
+    byte[] result = new byte[length];
+    int offset = 0;
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, result, offset, part.length);
+      offset += part.length;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,40 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import org.eclipse.keypop.calypso.card.transaction.spi.CardTransactionCryptoExtension;
+
+/**
+ * Crypto extension of the transaction managers using a {@link SoftwareSymmetricCryptoFactory},
+ * giving a card simulator the card signatures expected by the terminal.
+ *
+ * @since 3.1.6
+ */
+public interface SoftwareSymmetricCryptoExtension extends CardTransactionCryptoExtension {
+
+  /**
+   * Returns the card session signature expected after the last terminal session signature
+   * generated.
+   *
+   * @return Null if no terminal session signature has been generated yet.
+   * @since 3.1.6
+   */
+  byte[] getExpectedCardSessionMac();
+
+  /**
+   * Returns the card SV signature expected after the last SV command security data computed.
+   *
+   * @return Null if no SV command security data has been computed yet.
+   * @since 3.1.6
+   */
+  byte[] getExpectedCardSvMac();
+}
@@ -0,0 +1,369 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.keypop.calypso.card.transaction.spi.SymmetricCryptoCardTransactionManagerFactory;
+import org.eclipse.keypop.calypso.crypto.symmetric.spi.SymmetricCryptoCardTransactionManagerFactorySpi;
+import org.eclipse.keypop.calypso.crypto.symmetric.spi.SymmetricCryptoCardTransactionManagerSpi;
+
+/**
+ * Pure Java, in-memory implementation of the symmetric crypto service, replacing a SAM in tests,
+ * benchmarks and load simulations.
+ *
+ * <p>The session MAC, the session encryption, the SV signatures, the PIN ciphering and the key
+ * ciphering are computed with the JCE, with the keys added to the factory and identified by their
+ * KIF and KVC. The computations follow the sequence of the Calypso operations (challenges,
+ * session key derived from the card key and the challenges, MAC chained over all the APDUs
+ * exchanged, lengths of the signatures and of the ciphered data), but they are NOT the Calypso
+ * algorithms.
+ *
+ * <p><b>This crypto service only works against the bundled simulated card</b> ({@link
+ * SoftwareSymmetricCard}, created with {@link #createCard(byte[], byte[])}), which computes and
+ * checks the signatures and the ciphered keys with the same algorithms. The terminal signatures
+ * produced are rejected by real cards, and the signatures of real or recorded cards are rejected
+ * by the verification of the card signatures, which is enabled by default. It may only be disabled
+ * (see {@link #setCardSignatureVerificationEnabled(boolean)}) to replay exchanges with real cards
+ * whose signatures can't be verified.
+ *
+ * <p>The factory must be configured before being used; it can then be shared by concurrent
+ * transactions.
+ *
+ * @since 3.1.6
+ */
+public final class SoftwareSymmetricCryptoFactory
+    implements SymmetricCryptoCardTransactionManagerFactory,
+        SymmetricCryptoCardTransactionManagerFactorySpi {
+
+  private static final int DEFAULT_MAX_CARD_APDU_LENGTH = 255;
+  private static final int TRANSACTION_NUMBER_MASK = 0xFFFFFF;
+
+  private final Map<Integer, KeyEntry> keys = new LinkedHashMap<>();
+  private final AtomicInteger svTransactionNumber = new AtomicInteger();
+  private boolean isKeyDiversificationEnabled = true;
+  private boolean isCardSignatureVerificationEnabled = true;
+  private boolean isExtendedModeSupported = true;
+  private int maxCardApduLengthSupported = DEFAULT_MAX_CARD_APDU_LENGTH;
+  private byte[] terminalSerialNumber = new byte[] {0x00, 0x00, 0x00, 0x01};
+  private Random random = new SecureRandom();
+
+  /**
+   * Creates a factory without any key, supporting the extended mode, with key diversification
+   * and with verification of the card signatures.
+   *
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCryptoFactory() {}
+
+  /**
+   * Adds a key, replacing the key with the same KIF and KVC if any.
+   *
+   * <p>When the key diversification is enabled, the provided key is the master key from which the
+   * key of each card is derived with the card serial number.
+   *
+   * @param kif The KIF of the key.
+   * @param kvc The KVC of the key.
+   * @param algorithm The algorithm of the key.
+   * @param key The value of the key.
+   * @return The current instance.
+   * @throws IllegalArgumentException If the algorithm is null or the key is null or does not have
+   *     the length of the algorithm.
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCryptoFactory addKey(
+      byte kif, byte kvc, SymmetricKeyAlgorithm algorithm, byte[] key) {
+    if (algorithm == null) {
+      throw new IllegalArgumentException("algorithm is null");
+    }
+    if (key == null || key.length != algorithm.getKeyLength()) {
+      throw new IllegalArgumentException(
+          "key must be " + algorithm.getKeyLength() + " bytes long for " + algorithm);
+    }
+    keys.put(keyId(kif, kvc), new KeyEntry(algorithm, key.clone()));
+    return this;
+  }
+
+  /**
+   * Enables or disables the diversification of the keys with the card serial number (enabled by
+   * default).
+   *
+   * @param isEnabled true to derive the card keys from the master keys.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCryptoFactory setKeyDiversificationEnabled(boolean isEnabled) {
+    isKeyDiversificationEnabled = isEnabled;
+    return this;
+  }
+
+  /**
+   * Enables or disables the verification of the card session and SV signatures (enabled by
+   * default).
+   *
+   * <p>When enabled, the card signatures must be computed with the same algorithms, by a {@link
+   * SoftwareSymmetricCard} or by another card simulator using the expected values available from
+   * {@link SoftwareSymmetricCryptoExtension}. When disabled, all the card signatures are accepted,
+   * which is only meant for replaying exchanges with real cards.
+   *
+   * @param isEnabled true to verify the card signatures.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCryptoFactory setCardSignatureVerificationEnabled(boolean isEnabled) {
+    isCardSignatureVerificationEnabled = isEnabled;
+    return this;
+  }
+
+  /**
+   * Enables or disables the support of the extended mode (enabled by default).
+   *
+   * @param isSupported true if the extended mode is supported.
+   * @return The current instance.
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCryptoFactory setExtendedModeSupported(boolean isSupported) {
+    isExtendedModeSupported = isSupported;
+    return this;
+  }
+
+  /**
+   * Sets the maximum length of the card APDUs supported (255 by default).
+   *
+   * @param maxCardApduLength The maximum length.
+   * @return The current instance.
+   * @throws IllegalArgumentException If the length is out of range [6..255].
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCryptoFactory setMaxCardApduLengthSupported(int maxCardApduLength) {
+    if (maxCardApduLength < 6 || maxCardApduLength > 255) {
+      throw new IllegalArgumentException("maxCardApduLength must be in range [6..255]");
+    }
+    maxCardApduLengthSupported = maxCardApduLength;
+    return this;
+  }
+
+  /**
+   * Sets the serial number of the simulated SAM, used in the SV commands (00000001h by default).
+   *
+   * @param serialNumber The 4-byte serial number.
+   * @return The current instance.
+   * @throws IllegalArgumentException If the serial number is null or is not 4 bytes long.
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCryptoFactory setTerminalSerialNumber(byte[] serialNumber) {
+    if (serialNumber == null || serialNumber.length != 4) {
+      throw new IllegalArgumentException("serialNumber must be 4 bytes long");
+    }
+    terminalSerialNumber = serialNumber.clone();
+    return this;
+  }
+
+  /**
+   * Sets the source of the terminal challenges (a {@link SecureRandom} by default).
+   *
+   * <p>A seeded {@link Random} makes the APDUs of the secure sessions reproducible from one run to
+   * another.
+   *
+   * @param random The source of randomness.
+   * @return The current instance.
+   * @throws IllegalArgumentException If the source is null.
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCryptoFactory setRandom(Random random) {
+    if (random == null) {
+      throw new IllegalArgumentException("random is null");
+    }
+    this.random = random;
+    return this;
+  }
+
+  /**
+   * Creates a simulated card whose keys are those of the current factory, the key of each key
+   * index being set with {@link SoftwareSymmetricCard#setKey(int, byte, byte)}.
+   *
+   * <p>The keys of the card are diversified with its serial number when the key diversification is
+   * enabled.
+   *
+   * @param aid The AID of the card (5 to 16 bytes).
+   * @param serialNumber The 8-byte serial number of the card.
+   * @return A new instance.
+   * @throws IllegalArgumentException If the AID has an invalid length or if the serial number is
+   *     null or not 8 bytes long.
+   * @since 3.1.6
+   */
+  public SoftwareSymmetricCard createCard(byte[] aid, byte[] serialNumber) {
+    if (aid == null || aid.length < 5 || aid.length > 16) {
+      throw new IllegalArgumentException("aid must be 5 to 16 bytes long");
+    }
+    if (serialNumber == null || serialNumber.length != 8) {
+      throw new IllegalArgumentException("serialNumber must be 8 bytes long");
+    }
+    return new SoftwareSymmetricCard(this, aid.clone(), serialNumber.clone());
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public boolean isExtendedModeSupported() {
+    return isExtendedModeSupported;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public int getMaxCardApduLengthSupported() {
+    return maxCardApduLengthSupported;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Nothing to prepare: all the computations are local.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public void preInitTerminalSessionContext() {
+    // NOP
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>No SAM APDU is exchanged, so nothing is added to the transaction audit data.
+   *
+   * @since 3.1.6
+   */
+  @Override
+  public SymmetricCryptoCardTransactionManagerSpi createCardTransactionManager(
+      byte[] cardKeyDiversifier, boolean useExtendedMode, List<byte[]> transactionAuditData) {
+    return new SoftwareSymmetricCryptoCardTransactionManager(
+        this, cardKeyDiversifier, useExtendedMode);
+  }
+
+  /**
+   * Finds a key by KIF and KVC, or by KVC only if no key has the provided KIF.
+   *
+   * @param kif The KIF, null if unknown.
+   * @param kvc The KVC.
+   * @return Null if no key matches.
+   */
+  KeyEntry findKey(Byte kif, byte kvc) {
+    if (kif != null) {
+      KeyEntry key = keys.get(keyId(kif, kvc));
+      if (key != null) {
+        return key;
+      }
+    }
+    for (Map.Entry<Integer, KeyEntry> entry : keys.entrySet()) {
+      if ((byte) (int) entry.getKey() == kvc) {
+        return entry.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The KIF and KVC of all the keys, in the order in which they have been added.
+   */
+  List<byte[]> getKeyReferences() {
+    List<byte[]> keyReferences = new ArrayList<>(keys.size());
+    for (int keyId : keys.keySet()) {
+      keyReferences.add(new byte[] {(byte) (keyId >> 8), (byte) keyId});
+    }
+    return keyReferences;
+  }
+
+  /**
+   * Builds the cipher of the card key derived from a master key.
+   *
+   * @param key The master key.
+   * @param cardKeyDiversifier The card key diversifier.
+   * @return A new instance.
+   */
+  BlockCipher createCardKeyCipher(KeyEntry key, byte[] cardKeyDiversifier) {
+    BlockCipher masterKeyCipher = new BlockCipher(key.algorithm, key.value);
+    if (!isKeyDiversificationEnabled) {
+      return masterKeyCipher;
+    }
+    return new BlockCipher(
+        key.algorithm,
+        masterKeyCipher.computeKeyedOutput(key.algorithm.getKeyLength(), cardKeyDiversifier));
+  }
+
+  /**
+   * @return true if the card signatures are verified.
+   */
+  boolean isCardSignatureVerificationEnabled() {
+    return isCardSignatureVerificationEnabled;
+  }
+
+  /**
+   * @return The serial number of the simulated SAM.
+   */
+  byte[] getTerminalSerialNumber() {
+    return terminalSerialNumber.clone();
+  }
+
+  /**
+   * @return The next 3-byte SV transaction number of the simulated SAM.
+   */
+  byte[] nextSvTransactionNumber() {
+    int value = svTransactionNumber.incrementAndGet() & TRANSACTION_NUMBER_MASK;
+    return new byte[] {(byte) (value >> 16), (byte) (value >> 8), (byte) value};
+  }
+
+  /**
+   * Fills an array with random bytes.
+   *
+   * @param length The length.
+   * @return A new array.
+   */
+  byte[] nextRandomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * @param kif The KIF.
+   * @param kvc The KVC.
+   * @return The identifier of the key in the map.
+   */
+  private static int keyId(byte kif, byte kvc) {
+    return ((kif & 0xFF) << 8) | (kvc & 0xFF);
+  }
+
+  /** Key of the factory. */
+  static final class KeyEntry {
+
+    private final SymmetricKeyAlgorithm algorithm;
+    private final byte[] value;
+
+    private KeyEntry(SymmetricKeyAlgorithm algorithm, byte[] value) {
+      this.algorithm = algorithm;
+      this.value = value;
+    }
+  }
+}
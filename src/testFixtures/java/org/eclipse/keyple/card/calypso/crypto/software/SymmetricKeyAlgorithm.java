@@ -0,0 +1,75 @@
+/* **************************************************************************************
+ * Copyright (c) 2024 Calypso Networks Association https://calypsonet.org/
+ *
+ * See the NOTICE file(s) distributed with this work for additional information
+ * regarding copyright ownership.
+ *
+ * This program and the accompanying materials are made available under the terms of the
+ * Eclipse Public License 2.0 which is available at http://www.eclipse.org/legal/epl-2.0
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ ************************************************************************************** */
+package org.eclipse.keyple.card.calypso.crypto.software;
+
+/**
+ * Block cipher algorithms of the keys of a {@link SoftwareSymmetricCryptoFactory}.
+ *
+ * @since 3.1.6
+ */
+public enum SymmetricKeyAlgorithm {
+
+  /**
+   * Single DES, 8-byte keys.
+   *
+   * @since 3.1.6
+   */
+  DES("DES", 8, 8),
+
+  /**
+   * Two-key triple DES, 16-byte keys.
+   *
+   * @since 3.1.6
+   */
+  TDES("DESede", 16, 8),
+
+  /**
+   * AES-128, 16-byte keys.
+   *
+   * @since 3.1.6
+   */
+  AES("AES", 16, 16);
+
+  private final String jceName;
+  private final int keyLength;
+  private final int blockSize;
+
+  SymmetricKeyAlgorithm(String jceName, int keyLength, int blockSize) {
+    this.jceName = jceName;
+    this.keyLength = keyLength;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * @return The JCE name of the algorithm.
+   * @since 3.1.6
+   */
+  String getJceName() {
+    return jceName;
+  }
+
+  /**
+   * @return The length of the keys in bytes.
+   * @since 3.1.6
+   */
+  public int getKeyLength() {
+    return keyLength;
+  }
+
+  /**
+   * @return The block size in bytes.
+   * @since 3.1.6
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+}